@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * Fixed-size rings of rendered events, kept per thread or per value of a
+ * ThreadContext key, so that they can be reported together when an error
+ * occurs and silently overwritten otherwise.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+class BacktraceBuffer {
+
+	/**
+	 * The maximum length of an event log insertion string.
+	 */
+	static final int MAX_LENGTH = 31839;
+
+	private static final int MAX_KEYS = 1024;
+
+	/**
+	 * A ring of the most recent entries.
+	 */
+	static final class Ring {
+
+		private final String[] entries;
+		private long count;
+
+		Ring(final int size) {
+			this.entries = new String[size];
+		}
+
+		void add(final String entry) {
+			entries[(int) (count++ % entries.length)] = entry;
+		}
+
+		/**
+		 * Joins the most recent entries, oldest first, dropping the oldest
+		 * ones beyond maxLength characters, and empties the ring. A newest
+		 * entry longer than maxLength is cut to its first maxLength
+		 * characters.
+		 */
+		String drain(final int maxLength) {
+			final int size = (int) Math.min(count, entries.length);
+			int first = size;
+			int length = 0;
+			while (first > 0) {
+				final String entry = entries[(int) ((count - size + first - 1) % entries.length)];
+				if (length + entry.length() > maxLength) {
+					break;
+				}
+				length += entry.length();
+				first--;
+			}
+			final StringBuilder sb = new StringBuilder(length);
+			if (first == size && size > 0) {
+				sb.append(entries[(int) ((count - 1) % entries.length)], 0, maxLength);
+			}
+			for (int i = first; i < size; i++) {
+				sb.append(entries[(int) ((count - size + i) % entries.length)]);
+			}
+			for (int i = 0; i < entries.length; i++) {
+				entries[i] = null;
+			}
+			count = 0;
+			return sb.length() == 0 ? null : sb.toString();
+		}
+	}
+
+	private final int size;
+	private final String key;
+	private final ThreadLocal<Ring> threadRings = new ThreadLocal<Ring>();
+	private final Map<String, Ring> keyRings;
+
+	/**
+	 * @param size
+	 *            Number of entries kept per ring.
+	 * @param key
+	 *            ThreadContext key whose value selects the ring, or null for
+	 *            a ring per thread.
+	 */
+	BacktraceBuffer(final int size, final String key) {
+		if (size < 1) {
+			throw new IllegalArgumentException("size must be positive: " + size);
+		}
+		this.size = size;
+		this.key = key;
+		this.keyRings = key == null ? null : new LinkedHashMap<String, Ring>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Ring> eldest) {
+				return size() > MAX_KEYS;
+			}
+		};
+	}
+
+	/**
+	 * Keeps a rendered event, overwriting the oldest one of its ring.
+	 */
+	void add(final LogEvent event, final String rendered) {
+		final String value = getKeyValue(event);
+		if (value == null) {
+			Ring ring = threadRings.get();
+			if (ring == null) {
+				ring = new Ring(size);
+				threadRings.set(ring);
+			}
+			ring.add(rendered);
+			return;
+		}
+		synchronized (keyRings) {
+			Ring ring = keyRings.get(value);
+			if (ring == null) {
+				ring = new Ring(size);
+				keyRings.put(value, ring);
+			}
+			ring.add(rendered);
+		}
+	}
+
+	/**
+	 * Takes the kept events of the ring of an event.
+	 *
+	 * @return the joined events, or null if there are none.
+	 */
+	String drain(final LogEvent event) {
+		final String value = getKeyValue(event);
+		if (value == null) {
+			final Ring ring = threadRings.get();
+			return ring == null ? null : ring.drain(MAX_LENGTH);
+		}
+		synchronized (keyRings) {
+			final Ring ring = keyRings.get(value);
+			return ring == null ? null : ring.drain(MAX_LENGTH);
+		}
+	}
+
+	private String getKeyValue(final LogEvent event) {
+		if (key == null) {
+			return null;
+		}
+		final Map<String, String> contextMap = event.getContextMap();
+		return contextMap == null ? null : contextMap.get(key);
+	}
+}
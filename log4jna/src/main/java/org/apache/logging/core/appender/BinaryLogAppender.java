@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+
+import com.sun.jna.LastErrorException;
+
+/**
+ * Append events to a file in a compact binary form, leaving the formatting
+ * to {@link BinaryLogDecoder}.
+ *
+ * <p>
+ * <b>WARNING</b> This appender can only be installed and used on a Linux
+ * system.
+ * </p>
+ *
+ * <p>
+ * Logger names, thread names, level names, markers and message patterns are
+ * written once each and referred to by id after that, up to maxStrings of
+ * them. The pattern of a parameterized message is never formatted: the
+ * event carries its parameters as typed values, so logging an event comes
+ * down to copying a few numbers into the buffer. Other messages are
+ * formatted and written as they are. The file is written as by the NativeFile
+ * appender, through a page aligned buffer of bufferSize bytes.
+ * </p>
+ *
+ * <p>
+ * Run BinaryLogDecoder with the file name and optionally a pattern to read
+ * the log as text.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "BinaryLog", category = "Core", elementType = "appender", printObject = true)
+public class BinaryLogAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Default number of strings referred to by id.
+	 */
+	public static final int DEFAULT_MAX_STRINGS = 65536;
+
+	private final NativeFileManager manager;
+	private final boolean immediateFlush;
+	private final BinaryLogEncoder encoder;
+
+	protected BinaryLogAppender(final String name, final Filter filter, final boolean ignoreExceptions,
+			final NativeFileManager manager, final boolean immediateFlush, final int maxStrings) {
+		super(name, filter, null, ignoreExceptions);
+		this.manager = manager;
+		this.immediateFlush = immediateFlush;
+		this.encoder = new BinaryLogEncoder(maxStrings);
+	}
+
+	@Override
+	public void append(final LogEvent event) {
+		try {
+			manager.write(event, encoder, immediateFlush || event.isEndOfBatch());
+		} catch (final LastErrorException e) {
+			getHandler().error("Failed to write event to " + manager.getFileName() + ".", event, e);
+		} catch (final IllegalArgumentException e) {
+			getHandler().error("Failed to write event to " + manager.getFileName() + ".", event, e);
+		}
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		manager.release();
+	}
+
+	/**
+	 * @return the manager of this appender
+	 */
+	public NativeFileManager getManager() {
+		return manager;
+	}
+
+	@PluginBuilderFactory
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder implements org.apache.logging.log4j.core.util.Builder<BinaryLogAppender> {
+
+		@PluginBuilderAttribute
+		@Required(message = "A name for the BinaryLogAppender must be specified")
+		private String name;
+
+		@PluginBuilderAttribute
+		@Required(message = "A fileName for the BinaryLogAppender must be specified")
+		private String fileName;
+
+		@PluginBuilderAttribute
+		private boolean append = true;
+
+		@PluginBuilderAttribute
+		private int bufferSize = NativeFileManager.DEFAULT_BUFFER_SIZE;
+
+		@PluginBuilderAttribute
+		private boolean immediateFlush = true;
+
+		@PluginBuilderAttribute
+		private int maxStrings = DEFAULT_MAX_STRINGS;
+
+		@PluginElement("Filter")
+		private Filter filter;
+
+		@PluginBuilderAttribute
+		private boolean ignoreExceptions = true;
+
+		private Builder() {
+		}
+
+		public Builder setName(final String name) {
+			this.name = name;
+			return this;
+		}
+
+		public Builder setFileName(final String fileName) {
+			this.fileName = fileName;
+			return this;
+		}
+
+		public Builder setAppend(final boolean append) {
+			this.append = append;
+			return this;
+		}
+
+		public Builder setBufferSize(final int bufferSize) {
+			this.bufferSize = bufferSize;
+			return this;
+		}
+
+		public Builder setImmediateFlush(final boolean immediateFlush) {
+			this.immediateFlush = immediateFlush;
+			return this;
+		}
+
+		public Builder setMaxStrings(final int maxStrings) {
+			this.maxStrings = maxStrings;
+			return this;
+		}
+
+		public Builder setFilter(final Filter filter) {
+			this.filter = filter;
+			return this;
+		}
+
+		public Builder setIgnoreExceptions(final boolean ignoreExceptions) {
+			this.ignoreExceptions = ignoreExceptions;
+			return this;
+		}
+
+		@Override
+		public BinaryLogAppender build() {
+			try {
+				if (maxStrings < 0) {
+					throw new IllegalArgumentException("Negative maxStrings " + maxStrings);
+				}
+				final NativeFileManager manager = NativeFileManager.getNativeFileManager(fileName, append,
+						bufferSize, NativeFileManager.DEFAULT_WRITEBACK_SIZE, false,
+						NativeFileManager.DEFAULT_BUFFER_COUNT, false, false, 0, false, 0);
+				return new BinaryLogAppender(name, filter, ignoreExceptions, manager, immediateFlush, maxStrings);
+			} catch (final LastErrorException e) {
+				LOGGER.error("Error creating BinaryLogAppender [{}] for {}.", name, fileName, e);
+				return null;
+			} catch (final IllegalArgumentException e) {
+				LOGGER.error("Error creating BinaryLogAppender [{}] for {}.", name, fileName, e);
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+/**
+ * Decodes the log of a {@link BinaryLogAppender}, formatting the messages
+ * its events deferred.
+ *
+ * <p>
+ * Run with the file name and optionally a PatternLayout pattern, it writes
+ * the events to standard output as text.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class BinaryLogDecoder implements Closeable {
+
+	/**
+	 * Default pattern of the program.
+	 */
+	public static final String DEFAULT_PATTERN = "%d{ISO8601} [%t] %-5p %c - %m%n%ex";
+
+	private final InputStream in;
+	private final List<String> strings = new ArrayList<String>();
+	private long time;
+
+	/**
+	 * @param in
+	 *            The log, read until its end.
+	 */
+	public BinaryLogDecoder(final InputStream in) {
+		this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+	}
+
+	/**
+	 * Decodes the next event.
+	 *
+	 * @return the event, or null at the end of the log
+	 * @throws IOException
+	 *             if the log cannot be read or is not a binary log
+	 */
+	public LogEvent next() throws IOException {
+		for (;;) {
+			final int tag = in.read();
+			switch (tag) {
+			case -1:
+				return null;
+			case 0:
+				// Padding.
+				break;
+			case BinaryLogEncoder.SESSION:
+				final ByteBuffer magic = ByteBuffer.wrap(readBytes(8)).order(ByteOrder.LITTLE_ENDIAN);
+				if (magic.getLong() != BinaryLogEncoder.MAGIC) {
+					throw new IOException("Not a binary log");
+				}
+				final long version = readVarLong();
+				if (version != BinaryLogEncoder.VERSION) {
+					throw new IOException("Unsupported binary log version " + version);
+				}
+				strings.clear();
+				time = 0;
+				break;
+			case BinaryLogEncoder.DEFINE:
+				final long id = readVarLong();
+				if (id != BinaryLogEncoder.FIRST_ID + strings.size()) {
+					throw new IOException("Unexpected string id " + id);
+				}
+				strings.add(readString());
+				break;
+			case BinaryLogEncoder.EVENT:
+				return readEvent();
+			default:
+				throw new IOException("Unknown record " + tag);
+			}
+		}
+	}
+
+	private LogEvent readEvent() throws IOException {
+		time += unzigzag(readVarLong());
+		final String levelName = readReference();
+		final int intLevel = (int) readVarLong();
+		final Level known = Level.getLevel(levelName);
+		final Level level = known != null ? known : Level.forName(levelName, intLevel);
+		final String loggerName = readReference();
+		final String threadName = readReference();
+		final String marker = readReference();
+		final String pattern = readReference();
+		final int count = (int) readVarLong();
+		final String message;
+		if (count == 0) {
+			message = pattern;
+		} else {
+			final Object[] parameters = new Object[count];
+			for (int i = 0; i < count; i++) {
+				parameters[i] = readValue();
+			}
+			message = ParameterizedMessage.format(pattern, parameters);
+		}
+		Throwable thrown = null;
+		if (readByte() != 0) {
+			final byte[] length = readBytes(4);
+			final int size = ByteBuffer.wrap(length).order(ByteOrder.LITTLE_ENDIAN).getInt();
+			thrown = RingEventCodec.getThrown(ByteBuffer.wrap(readBytes(size)).order(ByteOrder.LITTLE_ENDIAN));
+		}
+		return Log4jLogEvent.createEvent(loggerName, marker == null ? null : MarkerManager.getMarker(marker), null,
+				level, new SimpleMessage(message), thrown, null, Collections.<String, String> emptyMap(),
+				ThreadContext.EMPTY_STACK, threadName, null, time);
+	}
+
+	private Object readValue() throws IOException {
+		final int type = readByte();
+		switch (type) {
+		case BinaryLogEncoder.NULL:
+			return null;
+		case BinaryLogEncoder.INT:
+			return Integer.valueOf((int) unzigzag(readVarLong()));
+		case BinaryLogEncoder.LONG:
+			return Long.valueOf(unzigzag(readVarLong()));
+		case BinaryLogEncoder.DOUBLE:
+			return Double.valueOf(ByteBuffer.wrap(readBytes(8)).order(ByteOrder.LITTLE_ENDIAN).getDouble());
+		case BinaryLogEncoder.FLOAT:
+			return Float.valueOf(ByteBuffer.wrap(readBytes(4)).order(ByteOrder.LITTLE_ENDIAN).getFloat());
+		case BinaryLogEncoder.BOOLEAN:
+			return Boolean.valueOf(readByte() != 0);
+		case BinaryLogEncoder.CHAR:
+			return Character.valueOf((char) readVarLong());
+		case BinaryLogEncoder.STRING:
+			return readString();
+		default:
+			throw new IOException("Unknown value type " + type);
+		}
+	}
+
+	private String readReference() throws IOException {
+		final long reference = readVarLong();
+		if (reference == BinaryLogEncoder.NULL_REFERENCE) {
+			return null;
+		}
+		if (reference == BinaryLogEncoder.INLINE_REFERENCE) {
+			return readString();
+		}
+		final long index = reference - BinaryLogEncoder.FIRST_ID;
+		if (index >= strings.size()) {
+			throw new IOException("Undefined string id " + reference);
+		}
+		return strings.get((int) index);
+	}
+
+	private String readString() throws IOException {
+		return new String(readBytes((int) readVarLong()), EncodedEvent.UTF_8);
+	}
+
+	private int readByte() throws IOException {
+		final int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Truncated binary log");
+		}
+		return b;
+	}
+
+	private byte[] readBytes(final int length) throws IOException {
+		final byte[] bytes = new byte[length];
+		int done = 0;
+		while (done < length) {
+			final int n = in.read(bytes, done, length - done);
+			if (n < 0) {
+				throw new EOFException("Truncated binary log");
+			}
+			done += n;
+		}
+		return bytes;
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int b = readByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static long unzigzag(final long value) {
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Writes the events of a binary log to standard output.
+	 *
+	 * @param args
+	 *            The file name and optionally a PatternLayout pattern.
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: BinaryLogDecoder <file> [pattern]");
+			System.exit(2);
+		}
+		final PatternLayout layout = PatternLayout.newBuilder()
+				.withPattern(args.length > 1 ? args[1] : DEFAULT_PATTERN).build();
+		final BinaryLogDecoder decoder = new BinaryLogDecoder(new FileInputStream(new File(args[0])));
+		try {
+			final OutputStream out = System.out;
+			LogEvent event;
+			while ((event = decoder.next()) != null) {
+				out.write(layout.toByteArray(event));
+			}
+			out.flush();
+		} finally {
+			decoder.close();
+		}
+	}
+}
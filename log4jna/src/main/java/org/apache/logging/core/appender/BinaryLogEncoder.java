@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+/**
+ * Encodes events for a {@link BinaryLogAppender} without formatting them.
+ *
+ * <p>
+ * The log is a sequence of records, each starting with a tag byte:
+ * </p>
+ * <ul>
+ * <li>SESSION: the magic "L4JNABL1" and a version, written first by every
+ * appender; the dictionary starts over.</li>
+ * <li>DEFINE: an id and the string it stands for, written before the first
+ * event using it.</li>
+ * <li>EVENT: the time as the difference to the previous event, references to
+ * the level name, the level, the logger, the thread, the marker and the
+ * message pattern, the parameter values and the thrown exception.</li>
+ * </ul>
+ * <p>
+ * Integers are LEB128 varints, signed ones zigzag encoded, and fixed size
+ * values little-endian. A string is its UTF-8 length and bytes. A reference
+ * is 0 for null, 1 followed by an inline string, or a defined id. Only the
+ * pattern of a {@link ParameterizedMessage} with parameters is defined, its
+ * parameters written as typed values; other messages are formatted and
+ * written inline, with no parameters. Strings are written inline once the
+ * dictionary holds maxStrings of them. Bytes of zero between records are
+ * padding.
+ * </p>
+ *
+ * <p>
+ * An encoder belongs to one manager and is called under its lock. New
+ * strings are only added to the dictionary once an event is encoded
+ * completely, since the encoding is started over after a buffer overflow.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+final class BinaryLogEncoder implements NativeFileManager.MessageWriter {
+
+	static final long MAGIC = 0x314c42414e4a344cL; // "L4JNABL1"
+	static final int VERSION = 1;
+
+	static final byte SESSION = 1;
+	static final byte DEFINE = 2;
+	static final byte EVENT = 3;
+
+	static final int NULL_REFERENCE = 0;
+	static final int INLINE_REFERENCE = 1;
+	static final int FIRST_ID = 2;
+
+	static final byte NULL = 0;
+	static final byte INT = 1;
+	static final byte LONG = 2;
+	static final byte DOUBLE = 3;
+	static final byte FLOAT = 4;
+	static final byte BOOLEAN = 5;
+	static final byte CHAR = 6;
+	static final byte STRING = 7;
+
+	private final int maxStrings;
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	// Strings defined by the event being encoded.
+	private final List<String> pending = new ArrayList<String>();
+	private boolean started;
+	private long lastTime;
+
+	BinaryLogEncoder(final int maxStrings) {
+		this.maxStrings = maxStrings;
+	}
+
+	@Override
+	public void write(final LogEvent event, final ByteBuffer buffer) {
+		final ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			encode(event, buffer);
+		} finally {
+			buffer.order(order);
+		}
+	}
+
+	private void encode(final LogEvent event, final ByteBuffer buffer) {
+		pending.clear();
+		if (!started) {
+			buffer.put(SESSION);
+			buffer.putLong(MAGIC);
+			putVarLong(buffer, VERSION);
+		}
+
+		final Message message = event.getMessage();
+		final Object[] parameters = message instanceof ParameterizedMessage ? message.getParameters() : null;
+		final boolean deferred = parameters != null && parameters.length > 0;
+		final String text = deferred ? message.getFormat() : message == null ? null : message.getFormattedMessage();
+		final String levelName = event.getLevel().name();
+		final String markerName = event.getMarker() == null ? null : event.getMarker().getName();
+
+		final int level = define(buffer, levelName);
+		final int logger = define(buffer, event.getLoggerName());
+		final int thread = define(buffer, event.getThreadName());
+		final int marker = define(buffer, markerName);
+		final int pattern = deferred ? define(buffer, text) : INLINE_REFERENCE;
+
+		buffer.put(EVENT);
+		putVarLong(buffer, zigzag(event.getTimeMillis() - lastTime));
+		putReference(buffer, level, levelName);
+		putVarLong(buffer, event.getLevel().intLevel());
+		putReference(buffer, logger, event.getLoggerName());
+		putReference(buffer, thread, event.getThreadName());
+		putReference(buffer, marker, markerName);
+		putReference(buffer, text == null ? NULL_REFERENCE : pattern, text);
+		if (deferred) {
+			putVarLong(buffer, parameters.length);
+			for (final Object parameter : parameters) {
+				putValue(buffer, parameter);
+			}
+		} else {
+			putVarLong(buffer, 0);
+		}
+		final Throwable thrown = event.getThrown();
+		if (thrown == null) {
+			buffer.put((byte) 0);
+		} else {
+			buffer.put((byte) 1);
+			final int mark = buffer.position();
+			buffer.putInt(0);
+			RingEventCodec.putThrown(buffer, thrown);
+			buffer.putInt(mark, buffer.position() - mark - 4);
+		}
+
+		// Encoded completely.
+		for (final String s : pending) {
+			ids.put(s, Integer.valueOf(FIRST_ID + ids.size()));
+		}
+		lastTime = event.getTimeMillis();
+		started = true;
+	}
+
+	/**
+	 * Writes a DEFINE record for a string not defined yet.
+	 *
+	 * @return the reference to the string
+	 */
+	private int define(final ByteBuffer buffer, final String s) {
+		if (s == null) {
+			return NULL_REFERENCE;
+		}
+		final Integer id = ids.get(s);
+		if (id != null) {
+			return id.intValue();
+		}
+		final int index = pending.indexOf(s);
+		if (index >= 0) {
+			return FIRST_ID + ids.size() + index;
+		}
+		if (ids.size() + pending.size() >= maxStrings) {
+			return INLINE_REFERENCE;
+		}
+		final int newId = FIRST_ID + ids.size() + pending.size();
+		pending.add(s);
+		buffer.put(DEFINE);
+		putVarLong(buffer, newId);
+		putString(buffer, s);
+		return newId;
+	}
+
+	private static void putReference(final ByteBuffer buffer, final int reference, final String s) {
+		putVarLong(buffer, reference);
+		if (reference == INLINE_REFERENCE) {
+			putString(buffer, s);
+		}
+	}
+
+	private static void putValue(final ByteBuffer buffer, final Object value) {
+		if (value == null) {
+			buffer.put(NULL);
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			buffer.put(INT);
+			putVarLong(buffer, zigzag(((Number) value).intValue()));
+		} else if (value instanceof Long) {
+			buffer.put(LONG);
+			putVarLong(buffer, zigzag(((Long) value).longValue()));
+		} else if (value instanceof Double) {
+			buffer.put(DOUBLE);
+			buffer.putDouble(((Double) value).doubleValue());
+		} else if (value instanceof Float) {
+			buffer.put(FLOAT);
+			buffer.putFloat(((Float) value).floatValue());
+		} else if (value instanceof Boolean) {
+			buffer.put(BOOLEAN);
+			buffer.put((byte) (((Boolean) value).booleanValue() ? 1 : 0));
+		} else if (value instanceof Character) {
+			buffer.put(CHAR);
+			putVarLong(buffer, ((Character) value).charValue());
+		} else {
+			buffer.put(STRING);
+			// Mutable values are rendered now, as the pattern would.
+			putString(buffer, value instanceof String ? (String) value : ParameterizedMessage.deepToString(value));
+		}
+	}
+
+	private static void putString(final ByteBuffer buffer, final String s) {
+		putVarLong(buffer, JournalEncoder.utf8Length(s));
+		JournalEncoder.putUtf8(buffer, s);
+	}
+
+	static long zigzag(final long value) {
+		return value << 1 ^ value >> 63;
+	}
+
+	static void putVarLong(final ByteBuffer buffer, final long value) {
+		long v = value;
+		while ((v & ~0x7fL) != 0) {
+			buffer.put((byte) (v & 0x7f | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte) v);
+	}
+}
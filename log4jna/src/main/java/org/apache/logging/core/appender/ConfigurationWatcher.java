@@ -0,0 +1,487 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.Reconfigurable;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+import com.sun.jna.platform.win32.Kernel32;
+import com.sun.jna.platform.win32.WinBase;
+import com.sun.jna.platform.win32.WinError;
+import com.sun.jna.platform.win32.WinNT;
+import com.sun.jna.platform.win32.WinNT.HANDLE;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.win32.StdCallLibrary;
+import com.sun.jna.win32.W32APIOptions;
+
+/**
+ * Reconfigures a logger context when its configuration file changes, told
+ * by the operating system rather than by polling the time of the file.
+ *
+ * <p>
+ * The monitorInterval of log4j stats the configuration file on the threads
+ * that log, so a change is found late or logging pays for the stat. Instead,
+ * one daemon thread of the watcher waits for changes to the directory of
+ * the file, with inotify on Linux and ReadDirectoryChangesW on Windows, and
+ * reconfigures the context as soon as the file is written and closed or
+ * another file is renamed over it. Changes reported together reconfigure
+ * the context once. When the context is configured from another file, the
+ * watcher follows it.
+ * </p>
+ *
+ * <p>
+ * A failed reconfiguration or wait is logged and the watcher keeps
+ * watching; it only stops when closed or when the directory of the file is
+ * removed, after which {@link #isWatching()} is false.
+ * </p>
+ *
+ * <p>
+ * Start watching once the context is configured, with
+ * {@code ConfigurationWatcher.watch()} for the current context, and leave
+ * monitorInterval out of the configuration.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public final class ConfigurationWatcher implements Closeable {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private static final int BUFFER_SIZE = 4096;
+	// Wait after failing to wait for changes.
+	private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final LoggerContext context;
+	private final Thread thread;
+	private DirectoryWatch watch;
+	private File directory;
+	private volatile boolean closed;
+	private volatile int reconfigurations;
+
+	private final PropertyChangeListener listener = new PropertyChangeListener() {
+		@Override
+		public void propertyChange(final PropertyChangeEvent event) {
+			if (LoggerContext.PROPERTY_CONFIG.equals(event.getPropertyName())) {
+				wake();
+			}
+		}
+	};
+
+	private ConfigurationWatcher(final LoggerContext context, final File file) {
+		this.context = context;
+		this.directory = file.getParentFile();
+		this.watch = DirectoryWatch.open(directory);
+		this.thread = new Thread("ConfigurationWatcher-" + context.getName()) {
+			@Override
+			public void run() {
+				ConfigurationWatcher.this.run();
+			}
+		};
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Watches the configuration file of the current logger context.
+	 *
+	 * @return the watcher
+	 * @throws LastErrorException
+	 *             if the directory of the file cannot be watched
+	 * @throws IllegalArgumentException
+	 *             if the context is not configured from a file
+	 */
+	public static ConfigurationWatcher watch() {
+		return watch((LoggerContext) LogManager.getContext(false));
+	}
+
+	/**
+	 * Watches the configuration file of a logger context.
+	 *
+	 * @param context
+	 *            the context to reconfigure
+	 * @return the watcher
+	 * @throws LastErrorException
+	 *             if the directory of the file cannot be watched
+	 * @throws IllegalArgumentException
+	 *             if the context is not configured from a file
+	 */
+	public static ConfigurationWatcher watch(final LoggerContext context) {
+		final File file = getFile(context.getConfiguration());
+		if (file == null) {
+			throw new IllegalArgumentException("Logger context " + context.getName()
+					+ " is not configured from a file");
+		}
+		final ConfigurationWatcher watcher = new ConfigurationWatcher(context, file);
+		context.addPropertyChangeListener(watcher.listener);
+		watcher.thread.start();
+		return watcher;
+	}
+
+	private static File getFile(final Configuration config) {
+		if (config == null || config.getConfigurationSource() == null) {
+			return null;
+		}
+		final File file = config.getConfigurationSource().getFile();
+		return file == null ? null : file.getAbsoluteFile();
+	}
+
+	/**
+	 * @return true until the watcher is closed or stops watching because
+	 *         the directory of the file was removed
+	 */
+	public boolean isWatching() {
+		return !closed && thread.isAlive();
+	}
+
+	/**
+	 * @return the number of times the context was reconfigured
+	 */
+	public int getReconfigurationCount() {
+		return reconfigurations;
+	}
+
+	/**
+	 * Stops watching.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		context.removePropertyChangeListener(listener);
+		wake();
+		LockSupport.unpark(thread);
+		if (Thread.currentThread() != thread) {
+			try {
+				thread.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private synchronized void wake() {
+		if (watch != null) {
+			watch.wake();
+		}
+	}
+
+	private void run() {
+		final List<String> names = new ArrayList<String>();
+		try {
+			while (!closed) {
+				names.clear();
+				try {
+					if (!watch.await(names)) {
+						LOGGER.error("Stopped watching {} for configuration changes, it was removed", directory);
+						return;
+					}
+				} catch (final LastErrorException e) {
+					LOGGER.error("Unable to watch {} for configuration changes, retrying", directory, e);
+					LockSupport.parkNanos(RETRY_NANOS);
+					continue;
+				}
+				if (closed) {
+					break;
+				}
+				try {
+					reconfigure(names);
+				} catch (final RuntimeException e) {
+					LOGGER.error("Unable to reconfigure {}", context.getName(), e);
+				}
+				final File file = getFile(context.getConfiguration());
+				try {
+					follow(file);
+				} catch (final RuntimeException e) {
+					LOGGER.error("Unable to watch {} for configuration changes", file.getParentFile(), e);
+				}
+			}
+		} finally {
+			synchronized (this) {
+				watch.close();
+				watch = null;
+			}
+		}
+	}
+
+	private void reconfigure(final List<String> names) {
+		final Configuration config = context.getConfiguration();
+		final File file = getFile(config);
+		if (file != null && isChanged(file, names) && config instanceof Reconfigurable) {
+			LOGGER.debug("Reconfiguring {} after {} changed", context.getName(), file);
+			context.onChange((Reconfigurable) config);
+			reconfigurations++;
+		}
+	}
+
+	private static boolean isChanged(final File file, final List<String> names) {
+		for (final String name : names) {
+			// null when changes were lost.
+			if (name == null || name.equals(file.getName()) || Platform.isWindows()
+					&& name.equalsIgnoreCase(file.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void follow(final File file) {
+		if (file == null || file.getParentFile().equals(directory)) {
+			return;
+		}
+		final DirectoryWatch next = DirectoryWatch.open(file.getParentFile());
+		synchronized (this) {
+			watch.close();
+			watch = next;
+			directory = file.getParentFile();
+		}
+	}
+
+	/**
+	 * The changes to the files of one directory.
+	 */
+	private abstract static class DirectoryWatch {
+
+		static DirectoryWatch open(final File directory) {
+			if (Platform.isLinux()) {
+				return new Inotify(directory);
+			}
+			if (Platform.isWindows()) {
+				return new DirectoryChanges(directory);
+			}
+			throw new IllegalArgumentException("Configuration watching is not supported on " + Platform.getOSType());
+		}
+
+		/**
+		 * Blocks until files of the directory change or the watch is woken.
+		 *
+		 * @param names
+		 *            receives the names of the changed files, null if
+		 *            changes were lost
+		 * @return false once the directory is removed and can no longer be
+		 *         watched
+		 */
+		abstract boolean await(List<String> names);
+
+		abstract void wake();
+
+		abstract void close();
+	}
+
+	private static final class Inotify extends DirectoryWatch {
+
+		private final int fd;
+		private final int[] pipe = new int[2];
+		private final LibC.Pollfd[] pollfds = (LibC.Pollfd[]) new LibC.Pollfd().toArray(2);
+		private final Memory buffer = new Memory(BUFFER_SIZE);
+		private final Memory wakeByte = new Memory(1);
+
+		Inotify(final File directory) {
+			fd = LibC.INSTANCE.inotify_init1(LibC.IN_NONBLOCK | LibC.IN_CLOEXEC);
+			if (fd < 0) {
+				throw new LastErrorException(Native.getLastError());
+			}
+			if (LibC.INSTANCE.inotify_add_watch(fd, directory.getPath(), LibC.IN_CLOSE_WRITE | LibC.IN_MOVED_TO
+					| LibC.IN_ONLYDIR) < 0 || LibC.INSTANCE.pipe(pipe) != 0) {
+				final int error = Native.getLastError();
+				LibC.INSTANCE.close(fd);
+				throw new LastErrorException(error);
+			}
+			pollfds[0].fd = fd;
+			pollfds[0].events = LibC.POLLIN;
+			pollfds[1].fd = pipe[0];
+			pollfds[1].events = LibC.POLLIN;
+		}
+
+		@Override
+		boolean await(final List<String> names) {
+			pollfds[1].write();
+			if (LibC.INSTANCE.poll(pollfds[0], 2, -1) < 0) {
+				final int error = Native.getLastError();
+				if (error != LibC.EINTR) {
+					throw new LastErrorException(error);
+				}
+				return true;
+			}
+			pollfds[1].read();
+			if (pollfds[1].revents != 0) {
+				LibC.INSTANCE.read(pipe[0], buffer, new NativeLong(BUFFER_SIZE));
+			}
+			if (pollfds[0].revents == 0) {
+				return true;
+			}
+			for (;;) {
+				final long length = LibC.INSTANCE.read(fd, buffer, new NativeLong(BUFFER_SIZE)).longValue();
+				if (length <= 0) {
+					return true;
+				}
+				for (long offset = 0; offset < length;) {
+					final int mask = buffer.getInt(offset + 4);
+					final int nameLength = buffer.getInt(offset + 12);
+					if ((mask & LibC.IN_Q_OVERFLOW) != 0) {
+						names.add(null);
+					} else if ((mask & LibC.IN_IGNORED) != 0) {
+						return false;
+					} else if (nameLength > 0) {
+						names.add(buffer.getString(offset + LibC.INOTIFY_EVENT_SIZE));
+					}
+					offset += LibC.INOTIFY_EVENT_SIZE + nameLength;
+				}
+			}
+		}
+
+		@Override
+		void wake() {
+			wakeByte.setByte(0, (byte) 1);
+			LibC.INSTANCE.write(pipe[1], wakeByte, new NativeLong(1));
+		}
+
+		@Override
+		void close() {
+			LibC.INSTANCE.close(fd);
+			LibC.INSTANCE.close(pipe[0]);
+			LibC.INSTANCE.close(pipe[1]);
+		}
+	}
+
+	private interface WatchKernel32 extends StdCallLibrary {
+
+		WatchKernel32 INSTANCE = (WatchKernel32) Native.loadLibrary("kernel32", WatchKernel32.class,
+				W32APIOptions.DEFAULT_OPTIONS);
+
+		// The buffer and OVERLAPPED as pointers, left alone by JNA while the
+		// read is pending.
+		boolean ReadDirectoryChangesW(HANDLE directory, Pointer buffer, int length, boolean watchSubtree,
+				int notifyFilter, IntByReference bytesReturned, Pointer overlapped, Pointer completionRoutine);
+
+		boolean GetOverlappedResult(HANDLE file, Pointer overlapped, IntByReference transferred, boolean wait);
+
+		boolean CancelIo(HANDLE file);
+	}
+
+	private static final class DirectoryChanges extends DirectoryWatch {
+
+		// OVERLAPPED: Internal, InternalHigh, Offset and OffsetHigh, hEvent.
+		private static final int OVERLAPPED_SIZE = 2 * Pointer.SIZE + 8 + Pointer.SIZE;
+		private static final int OVERLAPPED_EVENT = 2 * Pointer.SIZE + 8;
+
+		// FILE_NOTIFY_INFORMATION: NextEntryOffset, Action, FileNameLength,
+		// FileName.
+		private static final int NOTIFY_FILE_NAME_LENGTH = 8;
+		private static final int NOTIFY_FILE_NAME = 12;
+
+		private final HANDLE handle;
+		private final HANDLE changed;
+		private final HANDLE woken;
+		private final Memory buffer = new Memory(BUFFER_SIZE);
+		private final Memory overlapped = new Memory(OVERLAPPED_SIZE);
+		private final IntByReference transferred = new IntByReference();
+		private boolean pending;
+
+		DirectoryChanges(final File directory) {
+			handle = Kernel32.INSTANCE.CreateFile(directory.getPath(), WinNT.FILE_LIST_DIRECTORY,
+					WinNT.FILE_SHARE_READ | WinNT.FILE_SHARE_WRITE | WinNT.FILE_SHARE_DELETE, null,
+					WinNT.OPEN_EXISTING, WinNT.FILE_FLAG_BACKUP_SEMANTICS | WinNT.FILE_FLAG_OVERLAPPED, null);
+			if (WinBase.INVALID_HANDLE_VALUE.equals(handle)) {
+				throw new LastErrorException(Kernel32.INSTANCE.GetLastError());
+			}
+			changed = Kernel32.INSTANCE.CreateEvent(null, true, false, null);
+			woken = Kernel32.INSTANCE.CreateEvent(null, false, false, null);
+			overlapped.clear();
+			overlapped.setPointer(OVERLAPPED_EVENT, changed.getPointer());
+		}
+
+		@Override
+		boolean await(final List<String> names) {
+			if (!pending) {
+				Kernel32.INSTANCE.ResetEvent(changed);
+				if (!WatchKernel32.INSTANCE.ReadDirectoryChangesW(handle, buffer, BUFFER_SIZE, false,
+						WinNT.FILE_NOTIFY_CHANGE_FILE_NAME | WinNT.FILE_NOTIFY_CHANGE_LAST_WRITE, null, overlapped,
+						null)) {
+					return failed(Kernel32.INSTANCE.GetLastError());
+				}
+				pending = true;
+			}
+			if (Kernel32.INSTANCE.WaitForMultipleObjects(2, new HANDLE[] { changed, woken }, false,
+					WinBase.INFINITE) != WinBase.WAIT_OBJECT_0) {
+				return true;
+			}
+			pending = false;
+			if (!WatchKernel32.INSTANCE.GetOverlappedResult(handle, overlapped, transferred, false)) {
+				return failed(Kernel32.INSTANCE.GetLastError());
+			}
+			if (transferred.getValue() == 0) {
+				// The buffer overflowed.
+				names.add(null);
+				return true;
+			}
+			for (long offset = 0;;) {
+				final int nameLength = buffer.getInt(offset + NOTIFY_FILE_NAME_LENGTH);
+				names.add(new String(buffer.getCharArray(offset + NOTIFY_FILE_NAME, nameLength / 2)));
+				final int next = buffer.getInt(offset);
+				if (next == 0) {
+					return true;
+				}
+				offset += next;
+			}
+		}
+
+		/**
+		 * @return false if the directory was removed, which fails the read
+		 *         with access denied
+		 */
+		private static boolean failed(final int error) {
+			if (error == WinError.ERROR_ACCESS_DENIED) {
+				return false;
+			}
+			throw new LastErrorException(error);
+		}
+
+		@Override
+		void wake() {
+			Kernel32.INSTANCE.SetEvent(woken);
+		}
+
+		@Override
+		void close() {
+			if (pending) {
+				WatchKernel32.INSTANCE.CancelIo(handle);
+				WatchKernel32.INSTANCE.GetOverlappedResult(handle, overlapped, transferred, true);
+			}
+			Kernel32.INSTANCE.CloseHandle(handle);
+			Kernel32.INSTANCE.CloseHandle(changed);
+			Kernel32.INSTANCE.CloseHandle(woken);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+
+/**
+ * The processor the calling thread is running on, from sched_getcpu on Linux
+ * and GetCurrentProcessorNumber on Windows.
+ *
+ * <p>
+ * Both are called through JNA direct mapping, which costs a fraction of a
+ * call through an interface like {@link LibC}, as they are called for every
+ * event. Where neither is available, or a call fails, the id of the thread
+ * stands in for the processor, which spreads threads as evenly but no longer
+ * keeps those running on one processor together.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+final class CurrentCpu {
+
+	private static final int THREAD = 0;
+	private static final int LINUX = 1;
+	private static final int WINDOWS = 2;
+
+	private static final int SOURCE = findSource();
+
+	private static final class Linux {
+		static {
+			Native.register("c");
+		}
+
+		static native int sched_getcpu();
+	}
+
+	private static final class Windows {
+		static {
+			Native.register("kernel32");
+		}
+
+		static native int GetCurrentProcessorNumber();
+	}
+
+	private CurrentCpu() {
+	}
+
+	private static int findSource() {
+		try {
+			if (Platform.isLinux() && Linux.sched_getcpu() >= 0) {
+				return LINUX;
+			}
+			if (Platform.isWindows()) {
+				Windows.GetCurrentProcessorNumber();
+				return WINDOWS;
+			}
+		} catch (final LinkageError e) {
+			// Not registered, fall back to the thread.
+		}
+		return THREAD;
+	}
+
+	/**
+	 * @return true if the processor is known, false if the thread stands in
+	 *         for it
+	 */
+	static boolean isSupported() {
+		return SOURCE != THREAD;
+	}
+
+	/**
+	 * @return the number of the processor the calling thread runs on, which
+	 *         may have changed by the time it is used
+	 */
+	static int get() {
+		switch (SOURCE) {
+		case LINUX:
+			final int cpu = Linux.sched_getcpu();
+			if (cpu >= 0) {
+				return cpu;
+			}
+			break;
+		case WINDOWS:
+			return Windows.GetCurrentProcessorNumber();
+		default:
+			break;
+		}
+		return (int) Thread.currentThread().getId();
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.pattern.ConverterKeys;
+import org.apache.logging.log4j.core.pattern.LogEventPatternConverter;
+import org.apache.logging.log4j.core.pattern.PatternConverter;
+
+/**
+ * Formats the number of the processor the thread runs on, %cpu or
+ * %currentCpu.
+ *
+ * <p>
+ * The processor is read for every event, threads moving between processors,
+ * and is that of the thread formatting the event. Nothing is written where
+ * it is unknown.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "CurrentCpuPatternConverter", category = PatternConverter.CATEGORY)
+@ConverterKeys({ "cpu", "currentCpu" })
+public final class CurrentCpuPatternConverter extends LogEventPatternConverter {
+
+	private static final CurrentCpuPatternConverter INSTANCE = new CurrentCpuPatternConverter();
+
+	private CurrentCpuPatternConverter() {
+		super("CurrentCpu", "currentCpu");
+	}
+
+	/**
+	 * @param options
+	 *            Not used.
+	 * @return the converter
+	 */
+	public static CurrentCpuPatternConverter newInstance(final String[] options) {
+		return INSTANCE;
+	}
+
+	@Override
+	public void format(final LogEvent event, final StringBuilder toAppendTo) {
+		if (CurrentCpu.isSupported()) {
+			toAppendTo.append(CurrentCpu.get());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.nio.charset.Charset;
+
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * An event rendered once by a layout, shared by all sinks of a
+ * {@link FanOutAppender}.
+ *
+ * <p>
+ * The text is kept as a (UTF-16) string, and also encoded as UTF-8 when one
+ * of the sinks needs bytes. The bytes of a layout that does not render text
+ * are kept as they are, and only decoded as UTF-8 for a sink that reads the
+ * text. Sinks must not modify the UTF-8 array.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public final class EncodedEvent {
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final LogEvent event;
+	private final byte[] utf8;
+	// Decoded on first use for a layout rendering bytes.
+	private String text;
+
+	EncodedEvent(final LogEvent event, final String text, final byte[] utf8) {
+		this.event = event;
+		this.text = text;
+		this.utf8 = utf8;
+	}
+
+	/**
+	 * @return the rendered event
+	 */
+	public LogEvent getEvent() {
+		return event;
+	}
+
+	/**
+	 * @return the rendered text
+	 */
+	public String getText() {
+		if (text == null) {
+			text = new String(utf8, UTF_8);
+		}
+		return text;
+	}
+
+	/**
+	 * @return the rendered text encoded as UTF-8, or the bytes of a layout
+	 *         rendering bytes, null unless a sink requires it
+	 */
+	public byte[] getUtf8() {
+		return utf8;
+	}
+}
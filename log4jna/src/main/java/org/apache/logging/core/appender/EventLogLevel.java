@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.util.Locale;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.platform.win32.WinNT;
+
+/**
+ * The event log type, category and event ID reported for one log4j level.
+ *
+ * <pre>
+ * &lt;EventLogLevel level="NOTICE" type="WARNING" category="4" eventId="4096"/&gt;
+ * </pre>
+ *
+ * Type is one of ERROR, WARNING, INFORMATION, SUCCESS, AUDIT_SUCCESS or
+ * AUDIT_FAILURE. Omitted values default to those of the nearest standard
+ * level.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "EventLogLevel", category = "Core", printObject = true)
+public final class EventLogLevel {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * The only message supported by the package. It is backed by a message
+	 * resource which consists of just '%1' which is replaced by the formatted
+	 * event.
+	 */
+	public static final int DEFAULT_EVENT_ID = 0x1000;
+
+	private final Level level;
+	private final int type;
+	private final int category;
+	private final int eventId;
+
+	EventLogLevel(final Level level, final int type, final int category, final int eventId) {
+		this.level = level;
+		this.type = type;
+		this.category = category;
+		this.eventId = eventId;
+	}
+
+	/**
+	 * Creates the mapping of one level.
+	 *
+	 * @param levelName
+	 *            Name of a standard or custom level.
+	 * @param typeName
+	 *            Event log type, or null for the default of the level.
+	 * @param category
+	 *            Event log category, or 0 for the default of the level.
+	 * @param eventId
+	 *            Event ID, must be backed by the event message file.
+	 * @return the mapping, or null if the level or type is unknown.
+	 */
+	@PluginFactory
+	public static EventLogLevel createEventLogLevel(@PluginAttribute("level") final String levelName,
+			@PluginAttribute("type") final String typeName,
+			@PluginAttribute(value = "category", defaultInt = 0) final int category,
+			@PluginAttribute(value = "eventId", defaultInt = DEFAULT_EVENT_ID) final int eventId) {
+		Level level = levelName == null ? null : Level.getLevel(levelName);
+		if (level == null && levelName != null) {
+			level = Level.getLevel(levelName.toUpperCase(Locale.ENGLISH));
+		}
+		if (level == null) {
+			LOGGER.error("Unknown level [{}] in EventLogLevel", levelName);
+			return null;
+		}
+		final int type;
+		if (typeName == null) {
+			type = getDefaultType(level);
+		} else {
+			type = parseType(typeName);
+			if (type < 0) {
+				LOGGER.error("Unknown event log type [{}] for level {}", typeName, level);
+				return null;
+			}
+		}
+		return new EventLogLevel(level, type, category > 0 ? category : getDefaultCategory(level), eventId);
+	}
+
+	/**
+	 * Creates the default mapping of a level.
+	 *
+	 * @param level
+	 *            Log4j level.
+	 * @return default mapping.
+	 */
+	static EventLogLevel createDefault(final Level level) {
+		return new EventLogLevel(level, getDefaultType(level), getDefaultCategory(level), DEFAULT_EVENT_ID);
+	}
+
+	/**
+	 * Convert log4j Priority to an EventLog type. The log4j package supports 8
+	 * defined priorities, but the NT EventLog only knows 3 event types of
+	 * interest to us: ERROR, WARNING, and INFO.
+	 *
+	 * @param level
+	 *            Log4j priority.
+	 * @return EventLog type.
+	 */
+	static int getDefaultType(final Level level) {
+		if (level.intLevel() <= Level.ERROR.intLevel()) {
+			return WinNT.EVENTLOG_ERROR_TYPE;
+		}
+		if (level.intLevel() <= Level.WARN.intLevel()) {
+			return WinNT.EVENTLOG_WARNING_TYPE;
+		}
+		if (level.intLevel() <= Level.INFO.intLevel()) {
+			return WinNT.EVENTLOG_INFORMATION_TYPE;
+		}
+		return WinNT.EVENTLOG_SUCCESS;
+	}
+
+	/**
+	 * Convert log4j Priority to an EventLog category. Each category is backed
+	 * by a message resource so that proper category names will be displayed in
+	 * the NT Event Viewer: 1 Trace, 2 Debug, 3 Info, 4 Warn, 5 Error and 6
+	 * Fatal. A level between two standard levels falls in the category of the
+	 * less severe one.
+	 *
+	 * @param level
+	 *            Log4J priority.
+	 * @return EventLog category.
+	 */
+	static int getDefaultCategory(final Level level) {
+		if (level.intLevel() <= Level.FATAL.intLevel()) {
+			return 6;
+		}
+		if (level.intLevel() <= Level.ERROR.intLevel()) {
+			return 5;
+		}
+		if (level.intLevel() <= Level.WARN.intLevel()) {
+			return 4;
+		}
+		if (level.intLevel() <= Level.INFO.intLevel()) {
+			return 3;
+		}
+		if (level.intLevel() <= Level.DEBUG.intLevel()) {
+			return 2;
+		}
+		return 1;
+	}
+
+	private static int parseType(final String typeName) {
+		final String name = typeName.trim().toUpperCase(Locale.ENGLISH);
+		if ("ERROR".equals(name)) {
+			return WinNT.EVENTLOG_ERROR_TYPE;
+		} else if ("WARNING".equals(name)) {
+			return WinNT.EVENTLOG_WARNING_TYPE;
+		} else if ("INFORMATION".equals(name)) {
+			return WinNT.EVENTLOG_INFORMATION_TYPE;
+		} else if ("SUCCESS".equals(name)) {
+			return WinNT.EVENTLOG_SUCCESS;
+		} else if ("AUDIT_SUCCESS".equals(name)) {
+			return WinNT.EVENTLOG_AUDIT_SUCCESS;
+		} else if ("AUDIT_FAILURE".equals(name)) {
+			return WinNT.EVENTLOG_AUDIT_FAILURE;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the level
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the event log type
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return the event log category
+	 */
+	public int getCategory() {
+		return category;
+	}
+
+	/**
+	 * @return the event ID
+	 */
+	public int getEventId() {
+		return eventId;
+	}
+
+	@Override
+	public String toString() {
+		return level + "=[type=" + type + ", category=" + category + ", eventId=" + eventId + "]";
+	}
+}
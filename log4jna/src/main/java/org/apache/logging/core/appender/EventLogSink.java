@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.appender.AppenderLoggingException;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.platform.win32.Advapi32;
+import com.sun.jna.platform.win32.Kernel32;
+import com.sun.jna.platform.win32.Win32Exception;
+
+/**
+ * Reports events to the NT event log, like {@link Win32EventLogAppender}.
+ *
+ * <pre>
+ * &lt;EventLogSink source="Log4jna" level="WARN"/&gt;
+ * </pre>
+ *
+ * <b>WARNING</b> This sink can only be used on a Windows system.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "EventLogSink", category = "Core", printObject = true)
+public final class EventLogSink implements EventSink {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private final Level level;
+	private final Win32EventLogManager manager;
+	private final LevelMapping levelMapping;
+
+	private EventLogSink(final Level level, final Win32EventLogManager manager, final LevelMapping levelMapping) {
+		this.level = level;
+		this.manager = manager;
+		this.levelMapping = levelMapping;
+	}
+
+	/**
+	 * Creates an event log sink.
+	 *
+	 * @return the sink, or null if the event source cannot be registered.
+	 */
+	@PluginFactory
+	public static EventLogSink createEventLogSink(@PluginAttribute("source") final String source,
+			@PluginAttribute("server") final String server,
+			@PluginAttribute(value = "application", defaultString = "Application") final String application,
+			@PluginAttribute(value = "eventMessageFile", defaultString = "") final String eventMessageFile,
+			@PluginAttribute(value = "categoryMessageFile", defaultString = "") final String categoryMessageFile,
+			@PluginAttribute("level") final Level level,
+			@PluginElement("LevelMapping") final LevelMapping levelMapping) {
+		if (source == null) {
+			LOGGER.error("Source must be specified for EventLogSink");
+			return null;
+		}
+		try {
+			final Win32EventLogManager manager = Win32EventLogManager.getWin32EventLogManager(
+					"EventLogSink:" + source, source, server, application, eventMessageFile, categoryMessageFile);
+			return new EventLogSink(level == null ? Level.ALL : level, manager,
+					levelMapping != null ? levelMapping : LevelMapping.createDefault());
+		} catch (final Win32Exception e) {
+			LOGGER.error("Error creating EventLogSink [{}].", source, e);
+			return null;
+		}
+	}
+
+	@Override
+	public Level getLevel() {
+		return level;
+	}
+
+	@Override
+	public boolean requiresUtf8() {
+		return false;
+	}
+
+	@Override
+	public void write(final EncodedEvent event) {
+		final EventLogLevel mapping = levelMapping.get(event.getEvent().getLevel());
+		final String[] buffer = { event.getText() };
+		if (!Advapi32.INSTANCE.ReportEvent(manager.getHandle(), mapping.getType(), mapping.getCategory(),
+				mapping.getEventId(), null, buffer.length, 0, buffer, null)) {
+			throw new AppenderLoggingException("Failed to report event [" + buffer[0] + "].",
+					new Win32Exception(Kernel32.INSTANCE.GetLastError()));
+		}
+	}
+
+	@Override
+	public void close() {
+		manager.release();
+	}
+
+	@Override
+	public String toString() {
+		return "EventLogSink[" + manager.getName() + ", level=" + level + "]";
+	}
+}
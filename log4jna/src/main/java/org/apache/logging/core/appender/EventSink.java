@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * A destination of a {@link FanOutAppender}, written with events rendered
+ * once for all destinations.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public interface EventSink {
+
+	/**
+	 * @return the least severe level written by this sink
+	 */
+	Level getLevel();
+
+	/**
+	 * @return whether this sink reads {@link EncodedEvent#getUtf8()}
+	 */
+	boolean requiresUtf8();
+
+	/**
+	 * Writes an event.
+	 *
+	 * @param event
+	 *            Rendered event, at or above the level of this sink.
+	 */
+	void write(EncodedEvent event);
+
+	/**
+	 * Releases the resources of this sink.
+	 */
+	void close();
+}
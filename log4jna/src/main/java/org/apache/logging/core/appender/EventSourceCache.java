@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Approximately least recently used cache of registered event source handles.
+ *
+ * <p>
+ * Sources are looked up in a concurrent map without a lock; a hit only
+ * stamps the handle with the time it was used. When a new source takes the
+ * cache beyond maxSources, the source used longest ago is evicted, which
+ * concurrent lookups can make a little out of date.
+ * </p>
+ *
+ * <p>
+ * Registration of a source that is not yet cached is single-flight: the first
+ * caller registers it while concurrent callers for the same source wait for
+ * that registration. Callers for other sources are not blocked by it. Handles
+ * are reference counted so that a handle evicted while another thread is
+ * still reporting through it is deregistered only once that thread releases
+ * it.
+ * </p>
+ *
+ * @param <H>
+ *            Handle type.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+class EventSourceCache<H> {
+
+	/**
+	 * Registers and deregisters event sources.
+	 */
+	interface Registrar<H> {
+
+		H register(String source);
+
+		void deregister(H handle);
+	}
+
+	/**
+	 * A counted reference to a cached handle. Must be released after use.
+	 */
+	static final class Lease<H> {
+
+		private final FutureTask<H> registration;
+		private final Registrar<H> registrar;
+		// One reference is held by the cache itself until the entry is evicted.
+		private final AtomicInteger references = new AtomicInteger(1);
+		private volatile long lastUsed = System.nanoTime();
+
+		private Lease(final String source, final Registrar<H> registrar) {
+			this.registrar = registrar;
+			this.registration = new FutureTask<H>(new Callable<H>() {
+				@Override
+				public H call() {
+					return registrar.register(source);
+				}
+			});
+		}
+
+		/**
+		 * @return the registered handle, waiting for a registration in
+		 *         progress on another thread
+		 */
+		H getHandle() {
+			boolean interrupted = false;
+			try {
+				for (;;) {
+					try {
+						return registration.get();
+					} catch (final InterruptedException e) {
+						interrupted = true;
+					} catch (final ExecutionException e) {
+						if (e.getCause() instanceof RuntimeException) {
+							throw (RuntimeException) e.getCause();
+						}
+						throw new IllegalStateException(e.getCause());
+					}
+				}
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		/**
+		 * @return whether a reference was taken, false once the handle is
+		 *         deregistered
+		 */
+		private boolean retain() {
+			for (;;) {
+				final int count = references.get();
+				if (count == 0) {
+					return false;
+				}
+				if (references.compareAndSet(count, count + 1)) {
+					return true;
+				}
+			}
+		}
+
+		void release() {
+			if (references.decrementAndGet() == 0 && registration.isDone()) {
+				final H handle;
+				try {
+					handle = registration.get();
+				} catch (final Exception e) {
+					// Registration failed, nothing to deregister.
+					return;
+				}
+				if (handle != null) {
+					registrar.deregister(handle);
+				}
+			}
+		}
+	}
+
+	private final Registrar<H> registrar;
+	private final int maxSources;
+	private final ConcurrentMap<String, Lease<H>> leases = new ConcurrentHashMap<String, Lease<H>>();
+
+	EventSourceCache(final Registrar<H> registrar, final int maxSources) {
+		if (maxSources < 1) {
+			throw new IllegalArgumentException("maxSources must be positive: " + maxSources);
+		}
+		this.registrar = registrar;
+		this.maxSources = maxSources;
+	}
+
+	/**
+	 * Acquires the handle of a source, registering it if needed. The returned
+	 * lease must be released once the caller is done with the handle.
+	 *
+	 * @param source
+	 *            Event source name.
+	 * @return lease of the registered handle.
+	 */
+	Lease<H> acquire(final String source) {
+		Lease<H> lease;
+		boolean created = false;
+		for (;;) {
+			lease = leases.get(source);
+			if (lease == null) {
+				final Lease<H> added = new Lease<H>(source, registrar);
+				lease = leases.putIfAbsent(source, added);
+				if (lease == null) {
+					added.references.incrementAndGet();
+					lease = added;
+					created = true;
+					break;
+				}
+			}
+			// An evicted lease is out of the map already, look again.
+			if (lease.retain()) {
+				break;
+			}
+		}
+		lease.lastUsed = System.nanoTime();
+		if (created) {
+			evictEldest(lease);
+			lease.registration.run();
+		}
+		try {
+			lease.getHandle();
+		} catch (final RuntimeException e) {
+			// Forget the failed registration so that the next event retries.
+			if (leases.remove(source, lease)) {
+				lease.release();
+			}
+			lease.release();
+			throw e;
+		}
+		return lease;
+	}
+
+	/**
+	 * @return number of cached sources.
+	 */
+	int size() {
+		return leases.size();
+	}
+
+	/**
+	 * Evicts all sources, deregistering those that are not in use.
+	 */
+	void clear() {
+		for (final Map.Entry<String, Lease<H>> entry : leases.entrySet()) {
+			if (leases.remove(entry.getKey(), entry.getValue())) {
+				entry.getValue().release();
+			}
+		}
+	}
+
+	/**
+	 * Evicts the sources used longest ago, other than the one just added,
+	 * until there are at most maxSources.
+	 */
+	private void evictEldest(final Lease<H> added) {
+		while (leases.size() > maxSources) {
+			Map.Entry<String, Lease<H>> eldest = null;
+			for (final Map.Entry<String, Lease<H>> entry : leases.entrySet()) {
+				if (entry.getValue() != added
+						&& (eldest == null || entry.getValue().lastUsed - eldest.getValue().lastUsed < 0)) {
+					eldest = entry;
+				}
+			}
+			if (eldest == null) {
+				return;
+			}
+			if (leases.remove(eldest.getKey(), eldest.getValue())) {
+				eldest.getValue().release();
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.Serializable;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.AppenderLoggingException;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+
+/**
+ * Renders each event once and writes it to several sinks.
+ *
+ * <pre>
+ * &lt;FanOut name="FanOut"&gt;
+ *   &lt;PatternLayout pattern="%d %p %c - %m%n"/&gt;
+ *   &lt;EventLogSink source="Log4jna" level="WARN"/&gt;
+ *   &lt;FileSink fileName="logs/app.log" level="INFO"/&gt;
+ *   &lt;FileSink target="SYSTEM_OUT"/&gt;
+ * &lt;/FanOut&gt;
+ * </pre>
+ *
+ * <p>
+ * The level of every sink is checked before the event is rendered, an event
+ * that no sink accepts is not rendered at all. The rendered text is encoded
+ * as UTF-8 only when a sink requires it, and then only once. The bytes of a
+ * layout that does not render text are handed to the sinks as they are.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "FanOut", category = "Core", elementType = "appender", printObject = true)
+public class FanOutAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	private final EventSink[] sinks;
+	private final Level[] levels;
+	private final boolean utf8;
+
+	protected FanOutAppender(final String name, final Filter filter, final Layout<? extends Serializable> layout,
+			final boolean ignoreExceptions, final EventSink[] sinks) {
+		super(name, filter, layout, ignoreExceptions);
+		this.sinks = sinks.clone();
+		this.levels = new Level[sinks.length];
+		boolean anyUtf8 = false;
+		for (int i = 0; i < sinks.length; i++) {
+			levels[i] = sinks[i].getLevel();
+			anyUtf8 |= sinks[i].requiresUtf8();
+		}
+		this.utf8 = anyUtf8;
+	}
+
+	@Override
+	public void append(final LogEvent event) {
+		final Level level = event.getLevel();
+		boolean accepted = false;
+		for (int i = 0; i < levels.length && !accepted; i++) {
+			accepted = level.isMoreSpecificThan(levels[i]);
+		}
+		if (!accepted) {
+			return;
+		}
+
+		final EncodedEvent encoded = encode(event);
+		AppenderLoggingException failure = null;
+		for (int i = 0; i < sinks.length; i++) {
+			if (level.isMoreSpecificThan(levels[i])) {
+				try {
+					sinks[i].write(encoded);
+				} catch (final RuntimeException e) {
+					// Keep writing to the other sinks.
+					if (failure == null) {
+						failure = e instanceof AppenderLoggingException ? (AppenderLoggingException) e
+								: new AppenderLoggingException(e);
+					}
+				}
+			}
+		}
+		if (failure != null) {
+			getHandler().error("Failed to write event to " + getName() + ".", event, failure);
+			if (!ignoreExceptions()) {
+				throw failure;
+			}
+		}
+	}
+
+	private EncodedEvent encode(final LogEvent event) {
+		final Layout<? extends Serializable> layout = getLayout();
+		final Serializable serializable = layout.toSerializable(event);
+		if (serializable instanceof String) {
+			final String text = (String) serializable;
+			return new EncodedEvent(event, text, utf8 ? text.getBytes(EncodedEvent.UTF_8) : null);
+		}
+		// The bytes of a binary layout as they are, decoded only for a sink
+		// that reads text.
+		return new EncodedEvent(event, null, layout.toByteArray(event));
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		for (final EventSink sink : sinks) {
+			sink.close();
+		}
+	}
+
+	/**
+	 * @return the sinks written by this appender
+	 */
+	public EventSink[] getSinks() {
+		return sinks.clone();
+	}
+
+	@PluginBuilderFactory
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder implements org.apache.logging.log4j.core.util.Builder<FanOutAppender> {
+
+		@PluginBuilderAttribute
+		@Required(message = "A name for the FanOutAppender must be specified")
+		private String name;
+
+		@PluginElement("Sinks")
+		private EventSink[] sinks;
+
+		@PluginElement("Layout")
+		private Layout<? extends Serializable> layout = PatternLayout.createDefaultLayout();
+
+		@PluginElement("Filter")
+		private Filter filter;
+
+		@PluginBuilderAttribute
+		private boolean ignoreExceptions = true;
+
+		private Builder() {
+		}
+
+		public Builder setName(final String name) {
+			this.name = name;
+			return this;
+		}
+
+		public Builder setSinks(final EventSink... sinks) {
+			this.sinks = sinks;
+			return this;
+		}
+
+		public Builder setLayout(final Layout<? extends Serializable> layout) {
+			this.layout = layout;
+			return this;
+		}
+
+		public Builder setFilter(final Filter filter) {
+			this.filter = filter;
+			return this;
+		}
+
+		public Builder setIgnoreExceptions(final boolean ignoreExceptions) {
+			this.ignoreExceptions = ignoreExceptions;
+			return this;
+		}
+
+		@Override
+		public FanOutAppender build() {
+			if (sinks == null || sinks.length == 0) {
+				LOGGER.error("No sinks for FanOutAppender [{}].", name);
+				return null;
+			}
+			return new FanOutAppender(name, filter, layout, ignoreExceptions, sinks);
+		}
+	}
+}
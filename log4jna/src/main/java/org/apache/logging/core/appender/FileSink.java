@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AppenderLoggingException;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Platform;
+
+/**
+ * Writes the UTF-8 encoding of events to a file, or to the standard output or
+ * error stream.
+ *
+ * <pre>
+ * &lt;FileSink fileName="logs/app.log" level="INFO"/&gt;
+ * &lt;FileSink target="SYSTEM_OUT"/&gt;
+ * </pre>
+ *
+ * <p>
+ * On 64-bit Linux a file is written as by the NativeFile appender, sharing
+ * its manager, with pwrite after every event with immediateFlush, else when
+ * the buffer is full and at the end of a batch of queued events, and a
+ * standard stream as by the NativeConsole appender. Elsewhere the sink
+ * writes through a FileOutputStream.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "FileSink", category = "Core", printObject = true)
+public final class FileSink implements EventSink {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private final String name;
+	private final Level level;
+	// One of these three.
+	private final NativeFileManager fileManager;
+	private final NativeConsoleManager consoleManager;
+	private final OutputStream out;
+	private final boolean closeable;
+	private final boolean immediateFlush;
+
+	FileSink(final String name, final Level level, final OutputStream out, final boolean closeable) {
+		this(name, level, null, null, out, closeable, true);
+	}
+
+	private FileSink(final String name, final Level level, final NativeFileManager fileManager,
+			final NativeConsoleManager consoleManager, final OutputStream out, final boolean closeable,
+			final boolean immediateFlush) {
+		this.name = name;
+		this.level = level;
+		this.fileManager = fileManager;
+		this.consoleManager = consoleManager;
+		this.out = out;
+		this.closeable = closeable;
+		this.immediateFlush = immediateFlush;
+	}
+
+	/**
+	 * Creates a file sink.
+	 *
+	 * @param fileName
+	 *            File to write to, unless target is set.
+	 * @param target
+	 *            SYSTEM_OUT or SYSTEM_ERR to write to a standard stream.
+	 * @param append
+	 *            Whether to append to an existing file.
+	 * @param immediateFlush
+	 *            Whether to write a file after every event.
+	 * @param level
+	 *            The least severe level written.
+	 * @return the sink, or null if the file cannot be opened.
+	 */
+	@PluginFactory
+	public static FileSink createFileSink(@PluginAttribute("fileName") final String fileName,
+			@PluginAttribute("target") final String target,
+			@PluginAttribute(value = "append", defaultBoolean = true) final boolean append,
+			@PluginAttribute(value = "immediateFlush", defaultBoolean = true) final boolean immediateFlush,
+			@PluginAttribute("level") final Level level) {
+		final Level sinkLevel = level == null ? Level.ALL : level;
+		final boolean isNative = Platform.isLinux() && Platform.is64Bit();
+		final boolean out = "SYSTEM_OUT".equalsIgnoreCase(target);
+		if (out || "SYSTEM_ERR".equalsIgnoreCase(target)) {
+			if (isNative) {
+				return new FileSink(target, sinkLevel, null, NativeConsoleManager.getNativeConsoleManager(
+						"FileSink-" + target, out ? 1 : 2, 0, null, 100, false, 0), null, false, immediateFlush);
+			}
+			return new FileSink(target, sinkLevel, new FileOutputStream(out ? FileDescriptor.out
+					: FileDescriptor.err), false);
+		}
+		if (fileName == null) {
+			LOGGER.error("FileSink requires a fileName or a target of SYSTEM_OUT or SYSTEM_ERR");
+			return null;
+		}
+		try {
+			final File file = new File(fileName);
+			final File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null && !parent.exists()) {
+				parent.mkdirs();
+			}
+			if (isNative) {
+				return new FileSink(fileName, sinkLevel, NativeFileManager.getNativeFileManager(fileName, append,
+						NativeFileManager.DEFAULT_BUFFER_SIZE, NativeFileManager.DEFAULT_WRITEBACK_SIZE, false,
+						NativeFileManager.DEFAULT_BUFFER_COUNT, false, false, 0, false, 0), null, null, true,
+						immediateFlush);
+			}
+			return new FileSink(fileName, sinkLevel, new FileOutputStream(file, append), true);
+		} catch (final IOException e) {
+			LOGGER.error("Unable to open FileSink [{}].", fileName, e);
+			return null;
+		} catch (final LastErrorException e) {
+			LOGGER.error("Unable to open FileSink [{}].", fileName, e);
+			return null;
+		} catch (final IllegalArgumentException e) {
+			LOGGER.error("Unable to open FileSink [{}].", fileName, e);
+			return null;
+		}
+	}
+
+	@Override
+	public Level getLevel() {
+		return level;
+	}
+
+	@Override
+	public boolean requiresUtf8() {
+		return true;
+	}
+
+	@Override
+	public void write(final EncodedEvent event) {
+		final byte[] bytes = event.getUtf8();
+		final LogEvent logEvent = event.getEvent();
+		try {
+			if (fileManager != null) {
+				fileManager.write(logEvent, new NativeFileManager.MessageWriter() {
+					@Override
+					public void write(final LogEvent ignored, final ByteBuffer buffer) {
+						buffer.put(bytes);
+					}
+				}, immediateFlush || logEvent.isEndOfBatch());
+			} else if (consoleManager != null) {
+				consoleManager.write(logEvent, new NativeConsoleManager.MessageWriter() {
+					@Override
+					public void write(final LogEvent ignored, final ByteBuffer buffer) {
+						buffer.put(bytes);
+					}
+				}, logEvent.isEndOfBatch());
+			} else {
+				synchronized (out) {
+					out.write(bytes, 0, bytes.length);
+				}
+			}
+		} catch (final IOException e) {
+			throw new AppenderLoggingException("Error writing to " + name, e);
+		} catch (final LastErrorException e) {
+			throw new AppenderLoggingException("Error writing to " + name, e);
+		} catch (final IllegalArgumentException e) {
+			throw new AppenderLoggingException("Error writing to " + name, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (fileManager != null) {
+			fileManager.release();
+		} else if (consoleManager != null) {
+			consoleManager.release();
+		} else {
+			try {
+				if (closeable) {
+					out.close();
+				} else {
+					out.flush();
+				}
+			} catch (final IOException e) {
+				LOGGER.error("Unable to close FileSink [{}].", name, e);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FileSink[" + name + ", level=" + level + "]";
+	}
+}
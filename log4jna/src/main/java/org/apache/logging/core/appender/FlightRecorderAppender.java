@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+
+import com.sun.jna.LastErrorException;
+
+/**
+ * Append to a flight recorder file, which keeps the last events of a process
+ * that dies hard.
+ *
+ * <p>
+ * <b>WARNING</b> This appender can only be installed and used on a Linux
+ * system.
+ * </p>
+ *
+ * <p>
+ * Events are encoded as UTF-8 into checksummed records and copied into a
+ * circular data area of capacity bytes, in a file mapped shared: once
+ * copied, an event is in the page cache and kept by the kernel whatever
+ * becomes of the process. Threads claim space with an atomic add and write
+ * without a lock; the oldest records are overwritten. Use
+ * {@link FlightRecorderRecovery} to extract the last records, and an
+ * existing file is written on after the records it holds. An event larger
+ * than a quarter of capacity is rejected.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "FlightRecorder", category = "Core", elementType = "appender", printObject = true)
+public class FlightRecorderAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	private final FlightRecorderManager manager;
+
+	private final FlightRecorderManager.MessageWriter messageWriter = new FlightRecorderManager.MessageWriter() {
+		@Override
+		public void write(final LogEvent event, final ByteBuffer buffer) {
+			final Serializable message = getLayout().toSerializable(event);
+			if (message instanceof String) {
+				JournalEncoder.putUtf8(buffer, (String) message);
+			} else {
+				buffer.put(getLayout().toByteArray(event));
+			}
+		}
+	};
+
+	protected FlightRecorderAppender(final String name, final Filter filter,
+			final Layout<? extends Serializable> layout, final boolean ignoreExceptions,
+			final FlightRecorderManager manager) {
+		super(name, filter, layout, ignoreExceptions);
+		this.manager = manager;
+	}
+
+	@Override
+	public void append(final LogEvent event) {
+		try {
+			manager.write(event, messageWriter);
+		} catch (final LastErrorException e) {
+			getHandler().error("Failed to write event to " + manager.getFileName() + ".", event, e);
+		} catch (final IllegalArgumentException e) {
+			getHandler().error("Failed to write event to " + manager.getFileName() + ".", event, e);
+		}
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		manager.release();
+	}
+
+	/**
+	 * @return the manager of this appender
+	 */
+	public FlightRecorderManager getManager() {
+		return manager;
+	}
+
+	@PluginBuilderFactory
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder implements org.apache.logging.log4j.core.util.Builder<FlightRecorderAppender> {
+
+		@PluginBuilderAttribute
+		@Required(message = "A name for the FlightRecorderAppender must be specified")
+		private String name;
+
+		@PluginBuilderAttribute
+		@Required(message = "A fileName for the FlightRecorderAppender must be specified")
+		private String fileName;
+
+		@PluginBuilderAttribute
+		private int capacity = FlightRecorderManager.DEFAULT_CAPACITY;
+
+		@PluginElement("Layout")
+		private Layout<? extends Serializable> layout;
+
+		@PluginElement("Filter")
+		private Filter filter;
+
+		@PluginBuilderAttribute
+		private boolean ignoreExceptions = true;
+
+		private Builder() {
+		}
+
+		public Builder setName(final String name) {
+			this.name = name;
+			return this;
+		}
+
+		public Builder setFileName(final String fileName) {
+			this.fileName = fileName;
+			return this;
+		}
+
+		public Builder setCapacity(final int capacity) {
+			this.capacity = capacity;
+			return this;
+		}
+
+		public Builder setLayout(final Layout<? extends Serializable> layout) {
+			this.layout = layout;
+			return this;
+		}
+
+		public Builder setFilter(final Filter filter) {
+			this.filter = filter;
+			return this;
+		}
+
+		public Builder setIgnoreExceptions(final boolean ignoreExceptions) {
+			this.ignoreExceptions = ignoreExceptions;
+			return this;
+		}
+
+		@Override
+		public FlightRecorderAppender build() {
+			try {
+				final FlightRecorderManager manager = FlightRecorderManager.getFlightRecorderManager(name, fileName,
+						capacity);
+				return new FlightRecorderAppender(name, filter, layout == null ? PatternLayout.createDefaultLayout()
+						: layout, ignoreExceptions, manager);
+			} catch (final LastErrorException e) {
+				LOGGER.error("Error creating FlightRecorderAppender [{}] for {}.", name, fileName, e);
+				return null;
+			} catch (final IllegalArgumentException e) {
+				LOGGER.error("Error creating FlightRecorderAppender [{}] for {}.", name, fileName, e);
+				return null;
+			}
+		}
+	}
+}
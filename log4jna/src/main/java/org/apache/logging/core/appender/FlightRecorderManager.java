@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractManager;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+/**
+ * Writes framed, checksummed records into a circular file mapped shared, so
+ * what is written is in the page cache, and survives the process, as soon
+ * as it is copied.
+ *
+ * <p>
+ * A writer encodes the record into a buffer of its thread, claims its place
+ * with one atomic add on the position and copies it into the mapping. A
+ * record torn by a crash, or by a writer lapped by others, fails its
+ * checksum and is skipped by {@link FlightRecorderRecovery}, which also
+ * finds where writing goes on when an existing file is opened again.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class FlightRecorderManager extends AbstractManager {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * Default capacity of the data area.
+	 */
+	public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+	/**
+	 * Smallest capacity of the data area.
+	 */
+	public static final int MIN_CAPACITY = 4096;
+
+	private static final int INITIAL_RECORD_SIZE = 4096;
+
+	/**
+	 * Writes one event.
+	 */
+	interface MessageWriter {
+
+		/**
+		 * @throws BufferOverflowException
+		 *             if the buffer is too small, the write is then retried
+		 *             with a larger buffer
+		 */
+		void write(LogEvent event, ByteBuffer buffer);
+	}
+
+	/**
+	 * The record buffer and checksum of a thread.
+	 */
+	private static final class ThreadState {
+
+		ByteBuffer buffer;
+		final CRC32 crc = new CRC32();
+
+		ThreadState(final int size) {
+			allocate(size);
+		}
+
+		void allocate(final int size) {
+			buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	private final String fileName;
+	private final int capacity;
+	private final int maxFrameSize;
+	private final int fd;
+	private final Pointer address;
+	private final Pointer data;
+	private final AtomicLong position;
+	private final AtomicInteger writers = new AtomicInteger();
+	private volatile boolean closed;
+	private final ThreadLocal<ThreadState> threadState = new ThreadLocal<ThreadState>() {
+		@Override
+		protected ThreadState initialValue() {
+			return new ThreadState(Math.min(INITIAL_RECORD_SIZE, maxFrameSize));
+		}
+	};
+
+	private FlightRecorderManager(final String name, final String fileName, final int capacity, final int fd) {
+		super(name);
+		this.fileName = fileName;
+		this.capacity = capacity;
+		// A record must not overwrite itself, nor most of the recorder.
+		this.maxFrameSize = capacity / 4 & ~7;
+		this.fd = fd;
+
+		final long length = LibC.INSTANCE.lseek(fd, 0, LibC.SEEK_END);
+		if (length < 0) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		final long size = FlightRecorderRecovery.HEADER_SIZE + (long) capacity;
+		if (length != size && (LibC.INSTANCE.ftruncate(fd, 0) != 0 || LibC.INSTANCE.ftruncate(fd, size) != 0)) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		address = LibC.INSTANCE.mmap(null, new NativeLong(size), LibC.PROT_READ | LibC.PROT_WRITE,
+				LibC.MAP_SHARED, fd, 0);
+		if (Pointer.nativeValue(address) == -1) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		data = address.share(FlightRecorderRecovery.HEADER_SIZE);
+
+		final ByteBuffer header = address.getByteBuffer(0, FlightRecorderRecovery.HEADER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		long start = 0;
+		if (FlightRecorderRecovery.getCapacity(header) == capacity) {
+			start = FlightRecorderRecovery.getEnd(FlightRecorderRecovery.scan(
+					data.getByteBuffer(0, capacity).order(ByteOrder.LITTLE_ENDIAN), capacity));
+		} else {
+			if (length == size) {
+				// Another capacity, or not a flight recorder: start over.
+				data.setMemory(0, capacity, (byte) 0);
+			}
+			header.putLong(FlightRecorderRecovery.HEADER_CAPACITY, capacity);
+			header.putInt(FlightRecorderRecovery.HEADER_VERSION, FlightRecorderRecovery.VERSION);
+			header.putLong(0, FlightRecorderRecovery.FILE_MAGIC);
+		}
+		position = new AtomicLong(start);
+	}
+
+	/**
+	 * Gets a FlightRecorderManager for a file, going on after the records
+	 * already there.
+	 *
+	 * @param name			The name to use for this FlightRecorderManager.
+	 * @param fileName		The flight recorder file.
+	 * @param capacity		The size of the circular data area, rounded down to a multiple of 8.
+	 * @return The FlightRecorderManager as configured.
+	 */
+	public static FlightRecorderManager getFlightRecorderManager(final String name, final String fileName,
+			final int capacity) {
+		if (capacity < MIN_CAPACITY) {
+			throw new IllegalArgumentException("capacity must be at least " + MIN_CAPACITY + ": " + capacity);
+		}
+		final int fd = LibC.INSTANCE.open(fileName, LibC.O_RDWR | LibC.O_CREAT | LibC.O_CLOEXEC, 0644);
+		if (fd < 0) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		try {
+			return new FlightRecorderManager(name, fileName, capacity & ~7, fd);
+		} catch (final LastErrorException e) {
+			LibC.INSTANCE.close(fd);
+			throw e;
+		}
+	}
+
+	/**
+	 * Encodes an event as a record and copies it into the file.
+	 *
+	 * @param event
+	 *            Log event.
+	 * @param writer
+	 *            Writes the event.
+	 */
+	public void write(final LogEvent event, final MessageWriter writer) {
+		writers.incrementAndGet();
+		try {
+			if (closed) {
+				throw new IllegalStateException("FlightRecorderManager " + getName() + " is closed");
+			}
+			final ThreadState state = threadState.get();
+			final int length = encode(state, event, writer);
+			final int frameSize = FlightRecorderRecovery.frameSize(length);
+			final ByteBuffer buffer = state.buffer;
+			while (buffer.position() < frameSize) {
+				buffer.put((byte) 0);
+			}
+			final long start = position.getAndAdd(frameSize);
+			buffer.putLong(FlightRecorderRecovery.FRAME_POSITION, start);
+			buffer.putInt(FlightRecorderRecovery.FRAME_LENGTH, length);
+			buffer.putInt(FlightRecorderRecovery.FRAME_LENGTH + 4, 0);
+			state.crc.reset();
+			state.crc.update(buffer.array(), FlightRecorderRecovery.FRAME_POSITION,
+					frameSize - FlightRecorderRecovery.FRAME_POSITION);
+			buffer.putInt(FlightRecorderRecovery.FRAME_CRC, (int) state.crc.getValue());
+			buffer.putInt(0, FlightRecorderRecovery.RECORD_MAGIC);
+
+			final int offset = (int) (start % capacity);
+			final int first = Math.min(frameSize, capacity - offset);
+			data.write(offset, buffer.array(), 0, first);
+			if (first < frameSize) {
+				data.write(0, buffer.array(), first, frameSize - first);
+			}
+		} finally {
+			writers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the length of the payload, encoded after room for the frame
+	 *         header
+	 */
+	private int encode(final ThreadState state, final LogEvent event, final MessageWriter writer) {
+		for (;;) {
+			final ByteBuffer buffer = state.buffer;
+			buffer.clear();
+			buffer.position(FlightRecorderRecovery.FRAME_HEADER_SIZE);
+			try {
+				writer.write(event, buffer);
+				// Room for the padding.
+				if (buffer.position() + 7 <= buffer.capacity()) {
+					return buffer.position() - FlightRecorderRecovery.FRAME_HEADER_SIZE;
+				}
+			} catch (final BufferOverflowException e) {
+				// Retried below.
+			}
+			if (buffer.capacity() >= maxFrameSize) {
+				throw new IllegalArgumentException("Event exceeds the record size of " + maxFrameSize + " bytes");
+			}
+			state.allocate(Math.min(buffer.capacity() * 2, maxFrameSize));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.logging.log4j.core.appender.AbstractManager#releaseSub()
+	 */
+	@Override
+	protected void releaseSub() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		// No writer may copy into the mapping once it is gone.
+		while (writers.get() > 0) {
+			Thread.yield();
+		}
+		final NativeLong size = new NativeLong(FlightRecorderRecovery.HEADER_SIZE + (long) capacity);
+		if (LibC.INSTANCE.msync(address, size, LibC.MS_ASYNC) != 0) {
+			LOGGER.warn("msync failed for {}: {}", fileName, LibC.INSTANCE.strerror(Native.getLastError()));
+		}
+		LibC.INSTANCE.munmap(address, size);
+		if (LibC.INSTANCE.close(fd) != 0) {
+			LOGGER.error("Unable to close {}", fileName);
+		}
+	}
+
+	/**
+	 * @return the flight recorder file
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return the size of the circular data area
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the position of the next record in the stream of all records
+	 */
+	public long getPosition() {
+		return position.get();
+	}
+}
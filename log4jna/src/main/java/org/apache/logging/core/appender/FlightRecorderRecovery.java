@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Recovers the records of a flight recorder file, for instance after the
+ * process writing it has died.
+ *
+ * <p>
+ * The file starts with a header page holding its magic, version and the
+ * capacity of the circular data area that follows. Records are aligned to 8
+ * bytes and framed by a magic, a CRC-32 over the rest of the frame, the
+ * position of the record in the stream of all records ever written, the
+ * length of the payload and the payload, padded with zeros. A record is
+ * valid when its frame is intact and its position agrees with where it lies
+ * in the file; valid records within the last capacity bytes of the stream
+ * are the content of the recorder, while torn and overwritten ones are
+ * skipped.
+ * </p>
+ *
+ * <p>
+ * Run with the file name and optionally a number of records, it writes the
+ * payloads of the last records to standard output.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public final class FlightRecorderRecovery {
+
+	static final long FILE_MAGIC = 0x315246414e4a344cL; // "L4JNAFR1"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 4096;
+	static final int HEADER_VERSION = 8;
+	static final int HEADER_CAPACITY = 16;
+
+	static final int RECORD_MAGIC = 0x52464a4c; // "LJFR"
+	static final int FRAME_CRC = 4;
+	static final int FRAME_POSITION = 8;
+	static final int FRAME_LENGTH = 16;
+	static final int FRAME_HEADER_SIZE = 24;
+
+	/**
+	 * The place of a valid record in the data area.
+	 */
+	static final class Record {
+
+		final long position;
+		final int length;
+
+		Record(final long position, final int length) {
+			this.position = position;
+			this.length = length;
+		}
+
+		long getEnd() {
+			return position + frameSize(length);
+		}
+	}
+
+	private FlightRecorderRecovery() {
+	}
+
+	static int frameSize(final int length) {
+		return (FRAME_HEADER_SIZE + length + 7) & ~7;
+	}
+
+	/**
+	 * @return the capacity given in a file header, or -1 if it is not the
+	 *         header of a flight recorder file
+	 */
+	static long getCapacity(final ByteBuffer header) {
+		if (header.getLong(0) != FILE_MAGIC || header.getInt(HEADER_VERSION) != VERSION) {
+			return -1;
+		}
+		return header.getLong(HEADER_CAPACITY);
+	}
+
+	/**
+	 * Finds the valid records of a data area.
+	 *
+	 * @param data
+	 *            The data area, little-endian.
+	 * @param capacity
+	 *            Its size.
+	 * @return the records in the order they were written
+	 */
+	static List<Record> scan(final ByteBuffer data, final int capacity) {
+		final List<Record> records = new ArrayList<Record>();
+		final CRC32 crc = new CRC32();
+		final byte[] header = new byte[FRAME_HEADER_SIZE];
+		final ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+		long end = 0;
+		int offset = 0;
+		while (offset < capacity) {
+			read(data, capacity, offset, header, FRAME_HEADER_SIZE);
+			final long position = headerBuffer.getLong(FRAME_POSITION);
+			final int length = headerBuffer.getInt(FRAME_LENGTH);
+			if (headerBuffer.getInt(0) == RECORD_MAGIC && position >= 0 && position % capacity == offset
+					&& length >= 0 && length <= capacity - FRAME_HEADER_SIZE) {
+				final int frameSize = frameSize(length);
+				final byte[] frame = new byte[frameSize];
+				read(data, capacity, offset, frame, frameSize);
+				crc.reset();
+				crc.update(frame, FRAME_POSITION, frameSize - FRAME_POSITION);
+				if ((int) crc.getValue() == headerBuffer.getInt(FRAME_CRC)) {
+					final Record record = new Record(position, length);
+					records.add(record);
+					end = Math.max(end, record.getEnd());
+					offset += frameSize;
+					continue;
+				}
+			}
+			offset += 8;
+		}
+		// Older records are partly overwritten, even if what is left of them
+		// looks valid.
+		final List<Record> current = new ArrayList<Record>(records.size());
+		for (final Record record : records) {
+			if (record.position >= end - capacity) {
+				current.add(record);
+			}
+		}
+		Collections.sort(current, new Comparator<Record>() {
+			@Override
+			public int compare(final Record a, final Record b) {
+				return a.position < b.position ? -1 : a.position == b.position ? 0 : 1;
+			}
+		});
+		return current;
+	}
+
+	/**
+	 * @return the end of the last record, where writing goes on
+	 */
+	static long getEnd(final List<Record> records) {
+		return records.isEmpty() ? 0 : records.get(records.size() - 1).getEnd();
+	}
+
+	/**
+	 * Reads from the data area, wrapping around its end.
+	 */
+	static void read(final ByteBuffer data, final int capacity, final int offset, final byte[] dst,
+			final int length) {
+		final ByteBuffer source = data.duplicate();
+		final int first = Math.min(length, capacity - offset);
+		source.position(offset);
+		source.get(dst, 0, first);
+		if (first < length) {
+			source.position(0);
+			source.get(dst, first, length - first);
+		}
+	}
+
+	/**
+	 * Recovers the payloads of the last records of a flight recorder file.
+	 *
+	 * @param file
+	 *            The flight recorder file.
+	 * @param count
+	 *            The number of records, or a negative number for all.
+	 * @return the payloads in the order they were written
+	 * @throws IOException
+	 *             if the file cannot be read or is not a flight recorder
+	 *             file
+	 */
+	public static List<byte[]> recover(final File file, final int count) throws IOException {
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = randomAccessFile.getChannel();
+			final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					Math.min(HEADER_SIZE, channel.size())).order(ByteOrder.LITTLE_ENDIAN);
+			final long capacity = header.capacity() < HEADER_SIZE ? -1 : getCapacity(header);
+			if (capacity <= 0 || capacity > Integer.MAX_VALUE || channel.size() < HEADER_SIZE + capacity) {
+				throw new IOException(file + " is not a flight recorder file");
+			}
+			final ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, capacity).order(
+					ByteOrder.LITTLE_ENDIAN);
+			final List<Record> records = scan(data, (int) capacity);
+			final int from = count < 0 ? 0 : Math.max(0, records.size() - count);
+			final List<byte[]> payloads = new ArrayList<byte[]>(records.size() - from);
+			for (final Record record : records.subList(from, records.size())) {
+				final byte[] payload = new byte[record.length];
+				final byte[] frame = new byte[frameSize(record.length)];
+				read(data, (int) capacity, (int) (record.position % capacity), frame, frame.length);
+				System.arraycopy(frame, FRAME_HEADER_SIZE, payload, 0, record.length);
+				payloads.add(payload);
+			}
+			return payloads;
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Writes the payloads of the last records of a flight recorder file to
+	 * standard output.
+	 *
+	 * @param args
+	 *            The file name and optionally the number of records.
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: FlightRecorderRecovery <file> [records]");
+			System.exit(2);
+		}
+		final List<byte[]> payloads = recover(new File(args[0]), args.length > 1 ? Integer.parseInt(args[1]) : -1);
+		final OutputStream out = System.out;
+		for (final byte[] payload : payloads) {
+			out.write(payload);
+		}
+		out.flush();
+	}
+}
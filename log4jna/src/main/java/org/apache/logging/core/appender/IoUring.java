@@ -0,0 +1,408 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+/**
+ * Writes a set of registered buffers to one file through an io_uring.
+ *
+ * <p>
+ * A buffer is submitted as a fixed-buffer write, optionally linked to an
+ * fdatasync, and stays in flight until its completions are reaped. The
+ * rings are shared memory with the kernel; every access goes through a JNA
+ * native call, which the JIT cannot reorder, and x86-64 keeps loads and
+ * stores in order, so no further barriers are needed. Other architectures
+ * are not supported.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+final class IoUring {
+
+	private static final NativeLong SYS_IO_URING_SETUP = new NativeLong(425);
+	private static final NativeLong SYS_IO_URING_ENTER = new NativeLong(426);
+	private static final NativeLong SYS_IO_URING_REGISTER = new NativeLong(427);
+
+	private static final int PARAMS_SIZE = 120;
+	private static final int PARAMS_SQ_ENTRIES = 0;
+	private static final int PARAMS_CQ_ENTRIES = 4;
+	private static final int PARAMS_FEATURES = 20;
+	private static final int PARAMS_SQ_OFF = 40;
+	private static final int PARAMS_CQ_OFF = 80;
+	// Offsets within io_sqring_offsets and io_cqring_offsets.
+	private static final int OFF_HEAD = 0;
+	private static final int OFF_TAIL = 4;
+	private static final int OFF_RING_MASK = 8;
+	private static final int OFF_SQ_ARRAY = 24;
+	private static final int OFF_CQES = 20;
+
+	private static final long IORING_OFF_SQ_RING = 0L;
+	private static final long IORING_OFF_CQ_RING = 0x8000000L;
+	private static final long IORING_OFF_SQES = 0x10000000L;
+	private static final int IORING_FEAT_SINGLE_MMAP = 1;
+
+	private static final int IORING_REGISTER_BUFFERS = 0;
+	private static final int IORING_REGISTER_FILES = 2;
+	private static final int IORING_ENTER_GETEVENTS = 1;
+
+	private static final int SQE_SIZE = 64;
+	private static final int CQE_SIZE = 16;
+	private static final int IORING_OP_FSYNC = 3;
+	private static final int IORING_OP_WRITE_FIXED = 5;
+	private static final int IOSQE_FIXED_FILE = 1;
+	private static final int IOSQE_IO_LINK = 4;
+	private static final int IORING_FSYNC_DATASYNC = 1;
+	private static final int ECANCELED = 125;
+
+	// User data of the fdatasync linked to the write of a buffer.
+	private static final long SYNC = 1L << 32;
+
+	private final int fd;
+	private final int ringFd;
+	private final boolean linkedSync;
+	private final Pointer[] buffers;
+	private final int[] pending;
+	private final long[] offsets;
+	private final int[] lengths;
+	private final Pointer sqRing;
+	private final long sqRingSize;
+	private final Pointer cqRing;
+	private final long cqRingSize;
+	private final Pointer sqes;
+	private final long sqesSize;
+	private final Pointer sqTail;
+	private final Pointer sqArray;
+	private final int sqMask;
+	private final Pointer cqHead;
+	private final Pointer cqTail;
+	private final Pointer cqes;
+	private final int cqMask;
+	private int tail;
+	private int error;
+
+	/**
+	 * @return whether io_uring can be used by this class on this platform.
+	 */
+	static boolean isSupported() {
+		return Platform.isLinux() && Platform.isIntel() && Platform.is64Bit();
+	}
+
+	/**
+	 * Sets up a ring for writing buffers to a file.
+	 *
+	 * @param fd
+	 *            The file.
+	 * @param buffers
+	 *            The buffers, registered with the ring.
+	 * @param bufferSize
+	 *            The size of each buffer.
+	 * @param linkedSync
+	 *            Follow every write with a linked fdatasync.
+	 * @throws LastErrorException
+	 *             if the kernel refuses the ring, for instance ENOSYS
+	 *             without io_uring or EPERM when it is disabled
+	 */
+	IoUring(final int fd, final Pointer[] buffers, final int bufferSize, final boolean linkedSync) {
+		this.fd = fd;
+		this.buffers = buffers;
+		this.linkedSync = linkedSync;
+		this.pending = new int[buffers.length];
+		this.offsets = new long[buffers.length];
+		this.lengths = new int[buffers.length];
+
+		int entries = 1;
+		while (entries < buffers.length * 2) {
+			entries <<= 1;
+		}
+		final Memory params = new Memory(PARAMS_SIZE);
+		params.clear();
+		ringFd = (int) LibC.INSTANCE.syscall(SYS_IO_URING_SETUP, entries, params).longValue();
+		if (ringFd < 0) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		Pointer sqMapping = null;
+		Pointer cqMapping = null;
+		Pointer sqesMapping = null;
+		long sqSize = 0;
+		long cqSize = 0;
+		long sqeSize = 0;
+		try {
+			final int sqEntries = params.getInt(PARAMS_SQ_ENTRIES);
+			final int cqEntries = params.getInt(PARAMS_CQ_ENTRIES);
+			sqSize = params.getInt(PARAMS_SQ_OFF + OFF_SQ_ARRAY) + sqEntries * 4L;
+			cqSize = params.getInt(PARAMS_CQ_OFF + OFF_CQES) + cqEntries * (long) CQE_SIZE;
+			final boolean singleMmap = (params.getInt(PARAMS_FEATURES) & IORING_FEAT_SINGLE_MMAP) != 0;
+			if (singleMmap) {
+				sqSize = cqSize = Math.max(sqSize, cqSize);
+			}
+			sqMapping = map(sqSize, IORING_OFF_SQ_RING);
+			cqMapping = singleMmap ? sqMapping : map(cqSize, IORING_OFF_CQ_RING);
+			sqeSize = sqEntries * (long) SQE_SIZE;
+			sqesMapping = map(sqeSize, IORING_OFF_SQES);
+
+			sqTail = sqMapping.share(params.getInt(PARAMS_SQ_OFF + OFF_TAIL));
+			sqArray = sqMapping.share(params.getInt(PARAMS_SQ_OFF + OFF_SQ_ARRAY));
+			sqMask = sqMapping.getInt(params.getInt(PARAMS_SQ_OFF + OFF_RING_MASK));
+			cqHead = cqMapping.share(params.getInt(PARAMS_CQ_OFF + OFF_HEAD));
+			cqTail = cqMapping.share(params.getInt(PARAMS_CQ_OFF + OFF_TAIL));
+			cqes = cqMapping.share(params.getInt(PARAMS_CQ_OFF + OFF_CQES));
+			cqMask = cqMapping.getInt(params.getInt(PARAMS_CQ_OFF + OFF_RING_MASK));
+			tail = sqTail.getInt(0);
+
+			final LibC.Iovec[] iovecs = (LibC.Iovec[]) new LibC.Iovec().toArray(buffers.length);
+			for (int i = 0; i < buffers.length; i++) {
+				iovecs[i].iov_base = buffers[i];
+				iovecs[i].iov_len = new NativeLong(bufferSize);
+				iovecs[i].write();
+			}
+			register(IORING_REGISTER_BUFFERS, iovecs[0].getPointer(), buffers.length);
+			final Memory files = new Memory(4);
+			files.setInt(0, fd);
+			register(IORING_REGISTER_FILES, files, 1);
+		} catch (final LastErrorException e) {
+			unmap(sqesMapping, sqeSize);
+			if (cqMapping != sqMapping) {
+				unmap(cqMapping, cqSize);
+			}
+			unmap(sqMapping, sqSize);
+			LibC.INSTANCE.close(ringFd);
+			throw e;
+		}
+		sqRing = sqMapping;
+		sqRingSize = sqSize;
+		cqRing = cqMapping;
+		cqRingSize = cqSize;
+		sqes = sqesMapping;
+		sqesSize = sqeSize;
+	}
+
+	private Pointer map(final long size, final long offset) {
+		final Pointer pointer = LibC.INSTANCE.mmap(null, new NativeLong(size), LibC.PROT_READ | LibC.PROT_WRITE,
+				LibC.MAP_SHARED | LibC.MAP_POPULATE, ringFd, offset);
+		if (Pointer.nativeValue(pointer) == -1) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		return pointer;
+	}
+
+	private static void unmap(final Pointer pointer, final long size) {
+		if (pointer != null) {
+			LibC.INSTANCE.munmap(pointer, new NativeLong(size));
+		}
+	}
+
+	private void register(final int opcode, final Pointer arg, final int count) {
+		if (LibC.INSTANCE.syscall(SYS_IO_URING_REGISTER, ringFd, opcode, arg, count).longValue() < 0) {
+			throw new LastErrorException(Native.getLastError());
+		}
+	}
+
+	/**
+	 * Submits the first length bytes of a buffer, which must not be in
+	 * flight, for writing at an offset.
+	 */
+	void write(final int index, final int length, final long offset) {
+		throwIfFailed();
+		offsets[index] = offset;
+		lengths[index] = length;
+		final Pointer write = nextSqe();
+		write.setByte(0, (byte) IORING_OP_WRITE_FIXED);
+		write.setByte(1, (byte) (IOSQE_FIXED_FILE | (linkedSync ? IOSQE_IO_LINK : 0)));
+		write.setInt(4, 0);
+		write.setLong(8, offset);
+		write.setPointer(16, buffers[index]);
+		write.setInt(24, length);
+		write.setLong(32, index);
+		write.setShort(40, (short) index);
+		pending[index] = 1;
+		if (linkedSync) {
+			final Pointer sync = nextSqe();
+			sync.setByte(0, (byte) IORING_OP_FSYNC);
+			sync.setByte(1, (byte) IOSQE_FIXED_FILE);
+			sync.setInt(4, 0);
+			sync.setInt(28, IORING_FSYNC_DATASYNC);
+			sync.setLong(32, SYNC | index);
+			pending[index] = 2;
+		}
+		// Publish the entries before the kernel is entered.
+		sqTail.setInt(0, tail);
+		enter(linkedSync ? 2 : 1, 0);
+	}
+
+	private Pointer nextSqe() {
+		final int index = tail & sqMask;
+		final Pointer sqe = sqes.share((long) index * SQE_SIZE);
+		sqe.clear(SQE_SIZE);
+		sqArray.setInt(index * 4L, index);
+		tail++;
+		return sqe;
+	}
+
+	private void enter(final int toSubmit, final int minComplete) {
+		int submit = toSubmit;
+		for (;;) {
+			final long n = LibC.INSTANCE.syscall(SYS_IO_URING_ENTER, ringFd, submit, minComplete,
+					minComplete > 0 ? IORING_ENTER_GETEVENTS : 0, null, new NativeLong(0)).longValue();
+			if (n >= 0) {
+				submit -= n;
+				if (submit <= 0) {
+					return;
+				}
+			} else {
+				final int errno = Native.getLastError();
+				if (errno != LibC.EINTR && errno != LibC.EAGAIN) {
+					throw new LastErrorException(errno);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits until a buffer is no longer in flight.
+	 */
+	void await(final int index) {
+		complete(index);
+		throwIfFailed();
+	}
+
+	/**
+	 * Waits until a buffer is no longer in flight, leaving a failed write to
+	 * be thrown by the next call to throwIfFailed.
+	 */
+	void complete(final int index) {
+		reap();
+		while (pending[index] > 0) {
+			enter(0, 1);
+			reap();
+		}
+	}
+
+	/**
+	 * Waits until no buffer is in flight, waiting for every buffer before
+	 * throwing the first failure, so that none is still being written once
+	 * the ring is closed.
+	 */
+	void drain() {
+		LastErrorException failure = null;
+		for (int i = 0; i < buffers.length; i++) {
+			try {
+				complete(i);
+			} catch (final LastErrorException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		throwIfFailed();
+	}
+
+	/**
+	 * @return the end of the contiguous range written since submitted
+	 *         started, that is the offset of the oldest buffer in flight
+	 */
+	long completedPosition(final long submitted) {
+		reap();
+		long completed = submitted;
+		for (int i = 0; i < buffers.length; i++) {
+			if (pending[i] > 0 && offsets[i] < completed) {
+				completed = offsets[i];
+			}
+		}
+		return completed;
+	}
+
+	private void reap() {
+		int head = cqHead.getInt(0);
+		final int end = cqTail.getInt(0);
+		while (head != end) {
+			final Pointer cqe = cqes.share((long) (head & cqMask) * CQE_SIZE);
+			final long userData = cqe.getLong(0);
+			final int res = cqe.getInt(8);
+			final int index = (int) userData;
+			if (res < 0) {
+				// A sync cancelled because its write failed adds nothing.
+				if (error == 0 && !((userData & SYNC) != 0 && -res == ECANCELED)) {
+					error = -res;
+				}
+			} else if ((userData & SYNC) == 0 && res < lengths[index]) {
+				writeRemainder(index, res);
+			}
+			pending[index]--;
+			head++;
+		}
+		cqHead.setInt(0, head);
+	}
+
+	/**
+	 * Completes a short write synchronously. The short write cancelled its
+	 * linked fdatasync, so the data is synced here instead.
+	 */
+	private void writeRemainder(final int index, final int written) {
+		long done = written;
+		while (done < lengths[index]) {
+			final long n = LibC.INSTANCE.pwrite(fd, buffers[index].share(done),
+					new NativeLong(lengths[index] - done), offsets[index] + done).longValue();
+			if (n < 0) {
+				final int errno = Native.getLastError();
+				if (errno != LibC.EINTR) {
+					if (error == 0) {
+						error = errno;
+					}
+					return;
+				}
+			} else {
+				done += n;
+			}
+		}
+		if (linkedSync && LibC.INSTANCE.fdatasync(fd) != 0 && error == 0) {
+			error = Native.getLastError();
+		}
+	}
+
+	/**
+	 * Throws the error of a failed write, once.
+	 */
+	void throwIfFailed() {
+		if (error != 0) {
+			final int errno = error;
+			error = 0;
+			throw new LastErrorException(errno);
+		}
+	}
+
+	/**
+	 * Releases the ring, without waiting for buffers in flight.
+	 */
+	void close() {
+		unmap(sqes, sqesSize);
+		if (cqRing != sqRing) {
+			unmap(cqRing, cqRingSize);
+		}
+		unmap(sqRing, sqRingSize);
+		LibC.INSTANCE.close(ringFd);
+	}
+}
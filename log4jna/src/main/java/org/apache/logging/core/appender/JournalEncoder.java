@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Encodes journal fields in the native journal protocol, straight into a
+ * byte buffer.
+ *
+ * <p>
+ * A field is written as {@code NAME=value\n}, or, when the value contains a
+ * newline, as {@code NAME\n} followed by the value length as a little-endian
+ * 64-bit integer, the value and {@code \n}. Field names are encoded once.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+final class JournalEncoder {
+
+	private static final int MAX_NAME_LENGTH = 64;
+	private static final int MAX_CACHED_NAMES = 1024;
+
+	private static final ConcurrentMap<String, byte[]> NAMES = new ConcurrentHashMap<String, byte[]>();
+
+	private JournalEncoder() {
+	}
+
+	/**
+	 * Turns a name into a valid journal field name: upper case letters,
+	 * digits and underscores, not starting with an underscore or a digit, at
+	 * most 64 characters. The result is cached.
+	 *
+	 * @return the field name as ASCII bytes, or null if nothing is left.
+	 */
+	static byte[] fieldName(final String name) {
+		byte[] bytes = NAMES.get(name);
+		if (bytes != null) {
+			return bytes;
+		}
+		final StringBuilder sb = new StringBuilder(Math.min(name.length(), MAX_NAME_LENGTH));
+		for (int i = 0; i < name.length() && sb.length() < MAX_NAME_LENGTH; i++) {
+			final char c = name.charAt(i);
+			if (c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' && sb.length() > 0) {
+				sb.append(c);
+			} else if (c >= 'a' && c <= 'z') {
+				sb.append((char) (c - 'a' + 'A'));
+			} else if (sb.length() > 0 && (c < '0' || c > '9')) {
+				sb.append('_');
+			}
+		}
+		if (sb.length() == 0) {
+			return null;
+		}
+		bytes = new byte[sb.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) sb.charAt(i);
+		}
+		if (NAMES.size() < MAX_CACHED_NAMES) {
+			NAMES.putIfAbsent(name, bytes);
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return an ASCII field name, encoded once for constant names.
+	 */
+	static byte[] constantName(final String name) {
+		final byte[] bytes = fieldName(name);
+		if (bytes == null || bytes.length != name.length()) {
+			throw new IllegalArgumentException("Invalid journal field name: " + name);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes a text field.
+	 *
+	 * @throws java.nio.BufferOverflowException
+	 *             if the buffer is too small
+	 */
+	static void putField(final ByteBuffer buffer, final byte[] name, final CharSequence value) {
+		buffer.put(name);
+		if (indexOfNewline(value) < 0) {
+			buffer.put((byte) '=');
+			putUtf8(buffer, value);
+		} else {
+			buffer.put((byte) '\n');
+			final int lengthPosition = buffer.position();
+			buffer.putLong(0L);
+			final int start = buffer.position();
+			putUtf8(buffer, value);
+			final ByteOrder order = buffer.order();
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putLong(lengthPosition, buffer.position() - start);
+			buffer.order(order);
+		}
+		buffer.put((byte) '\n');
+	}
+
+	/**
+	 * Writes a field whose value is pre-encoded bytes without newlines.
+	 */
+	static void putField(final ByteBuffer buffer, final byte[] name, final byte[] value) {
+		buffer.put(name);
+		buffer.put((byte) '=');
+		buffer.put(value);
+		buffer.put((byte) '\n');
+	}
+
+	/**
+	 * Writes a numeric field.
+	 */
+	static void putField(final ByteBuffer buffer, final byte[] name, final long value) {
+		buffer.put(name);
+		buffer.put((byte) '=');
+		putDecimal(buffer, value);
+		buffer.put((byte) '\n');
+	}
+
+	static void putDecimal(final ByteBuffer buffer, final long value) {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				putUtf8(buffer, "-9223372036854775808");
+				return;
+			}
+			buffer.put((byte) '-');
+			putDecimal(buffer, -value);
+			return;
+		}
+		long divisor = 1;
+		while (divisor <= value / 10) {
+			divisor *= 10;
+		}
+		for (long rest = value; divisor > 0; divisor /= 10) {
+			buffer.put((byte) ('0' + rest / divisor));
+			rest %= divisor;
+		}
+	}
+
+	private static int indexOfNewline(final CharSequence value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of bytes {@link #putUtf8(ByteBuffer, CharSequence)}
+	 *         encodes characters in
+	 */
+	static int utf8Length(final CharSequence value) {
+		final int length = value.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c >= 0x80) {
+				if (c < 0x800) {
+					bytes++;
+				} else if (Character.isHighSurrogate(c) && i + 1 < length
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					// Four bytes for the pair.
+					bytes += 2;
+					i++;
+				} else if (!Character.isSurrogate(c)) {
+					bytes += 2;
+				}
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes characters as UTF-8, replacing unpaired surrogates with '?'.
+	 */
+	static void putUtf8(final ByteBuffer buffer, final CharSequence value) {
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xc0 | c >> 6));
+				buffer.put((byte) (0x80 | c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xf0 | cp >> 18));
+				buffer.put((byte) (0x80 | cp >> 12 & 0x3f));
+				buffer.put((byte) (0x80 | cp >> 6 & 0x3f));
+				buffer.put((byte) (0x80 | cp & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				buffer.put((byte) '?');
+			} else {
+				buffer.put((byte) (0xe0 | c >> 12));
+				buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+				buffer.put((byte) (0x80 | c & 0x3f));
+			}
+		}
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+
+import com.sun.jna.LastErrorException;
+
+/**
+ * Append to the systemd journal, using its native protocol.
+ *
+ * <p>
+ * <b>WARNING</b> This appender can only be installed and used on a Linux
+ * system.
+ * </p>
+ *
+ * <p>
+ * Each event becomes one journal entry with the fields MESSAGE (the layout
+ * output, or the formatted message without a layout), PRIORITY (the syslog
+ * severity of the level), SYSLOG_IDENTIFIER, LOG4J_LOGGER, LOG4J_THREAD,
+ * LOG4J_MARKER, CODE_FILE, CODE_LINE and CODE_FUNC when location is included,
+ * STACK_TRACE for a thrown exception and, with includeContext, one field per
+ * ThreadContext entry, its key turned into a field name.
+ * </p>
+ *
+ * <p>
+ * With includeNativeThread, entries also get TID, the native id of the
+ * thread logging, and LOG4J_CPU, the processor it runs on.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "Journald", category = "Core", elementType = "appender", printObject = true)
+public class JournaldAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final byte[] MESSAGE = JournalEncoder.constantName("MESSAGE");
+	private static final byte[] PRIORITY = JournalEncoder.constantName("PRIORITY");
+	private static final byte[] SYSLOG_IDENTIFIER = JournalEncoder.constantName("SYSLOG_IDENTIFIER");
+	private static final byte[] LOG4J_LOGGER = JournalEncoder.constantName("LOG4J_LOGGER");
+	private static final byte[] LOG4J_THREAD = JournalEncoder.constantName("LOG4J_THREAD");
+	private static final byte[] LOG4J_MARKER = JournalEncoder.constantName("LOG4J_MARKER");
+	private static final byte[] CODE_FILE = JournalEncoder.constantName("CODE_FILE");
+	private static final byte[] CODE_LINE = JournalEncoder.constantName("CODE_LINE");
+	private static final byte[] CODE_FUNC = JournalEncoder.constantName("CODE_FUNC");
+	private static final byte[] STACK_TRACE = JournalEncoder.constantName("STACK_TRACE");
+	private static final byte[] TID = JournalEncoder.constantName("TID");
+	private static final byte[] LOG4J_CPU = JournalEncoder.constantName("LOG4J_CPU");
+
+	private final JournaldManager manager;
+	private final byte[] syslogIdentifier;
+	private final boolean includeContext;
+	private final boolean includeNativeThread;
+
+	private final JournaldManager.FieldWriter fieldWriter = new JournaldManager.FieldWriter() {
+		@Override
+		public void write(final LogEvent event, final ByteBuffer buffer) {
+			writeFields(event, buffer);
+		}
+	};
+
+	protected JournaldAppender(final String name, final Filter filter, final Layout<? extends Serializable> layout,
+			final boolean ignoreExceptions, final JournaldManager manager, final String syslogIdentifier,
+			final boolean includeContext, final boolean includeNativeThread) {
+		super(name, filter, layout, ignoreExceptions);
+		this.manager = manager;
+		this.syslogIdentifier = syslogIdentifier == null ? null
+				: syslogIdentifier.replace('\n', ' ').getBytes(EncodedEvent.UTF_8);
+		this.includeContext = includeContext;
+		this.includeNativeThread = includeNativeThread;
+	}
+
+	@Override
+	public void append(final LogEvent event) {
+		try {
+			manager.write(event, fieldWriter);
+		} catch (final LastErrorException e) {
+			getHandler().error("Failed to send event to the journal.", event, e);
+		} catch (final IllegalArgumentException e) {
+			getHandler().error("Failed to send event to the journal.", event, e);
+		}
+	}
+
+	/**
+	 * Writes the journal fields of an event.
+	 */
+	void writeFields(final LogEvent event, final ByteBuffer buffer) {
+		final Layout<? extends Serializable> layout = getLayout();
+		final Serializable message = layout == null ? null : layout.toSerializable(event);
+		JournalEncoder.putField(buffer, MESSAGE, message instanceof String ? (String) message
+				: event.getMessage().getFormattedMessage());
+		JournalEncoder.putField(buffer, PRIORITY, SyslogSeverity.getSeverity(event.getLevel()));
+		if (syslogIdentifier != null) {
+			JournalEncoder.putField(buffer, SYSLOG_IDENTIFIER, syslogIdentifier);
+		}
+		if (event.getLoggerName() != null) {
+			JournalEncoder.putField(buffer, LOG4J_LOGGER, event.getLoggerName());
+		}
+		final String threadName = event.getThreadName();
+		if (threadName != null) {
+			JournalEncoder.putField(buffer, LOG4J_THREAD, threadName);
+		}
+		if (event.getMarker() != null) {
+			JournalEncoder.putField(buffer, LOG4J_MARKER, event.getMarker().getName());
+		}
+		if (includeNativeThread) {
+			if (NativeThread.getId() >= 0) {
+				JournalEncoder.putField(buffer, TID, NativeThread.getId());
+			}
+			if (CurrentCpu.isSupported()) {
+				JournalEncoder.putField(buffer, LOG4J_CPU, CurrentCpu.get());
+			}
+		}
+		final StackTraceElement source = event.getSource();
+		if (source != null) {
+			if (source.getFileName() != null) {
+				JournalEncoder.putField(buffer, CODE_FILE, source.getFileName());
+			}
+			if (source.getLineNumber() >= 0) {
+				JournalEncoder.putField(buffer, CODE_LINE, source.getLineNumber());
+			}
+			buffer.put(CODE_FUNC).put((byte) '=');
+			JournalEncoder.putUtf8(buffer, source.getClassName());
+			buffer.put((byte) '.');
+			JournalEncoder.putUtf8(buffer, source.getMethodName());
+			buffer.put((byte) '\n');
+		}
+		if (event.getThrown() != null) {
+			final StringWriter stackTrace = new StringWriter();
+			event.getThrown().printStackTrace(new PrintWriter(stackTrace));
+			JournalEncoder.putField(buffer, STACK_TRACE, stackTrace.getBuffer());
+		}
+		if (includeContext) {
+			final Map<String, String> contextMap = event.getContextMap();
+			if (contextMap != null) {
+				for (final Map.Entry<String, String> entry : contextMap.entrySet()) {
+					final byte[] name = JournalEncoder.fieldName(entry.getKey());
+					if (name != null && entry.getValue() != null) {
+						JournalEncoder.putField(buffer, name, entry.getValue());
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		manager.release();
+	}
+
+	/**
+	 * @return the manager of this appender
+	 */
+	public JournaldManager getManager() {
+		return manager;
+	}
+
+	@PluginBuilderFactory
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder implements org.apache.logging.log4j.core.util.Builder<JournaldAppender> {
+
+		@PluginBuilderAttribute
+		@Required(message = "A name for the JournaldAppender must be specified")
+		private String name;
+
+		@PluginBuilderAttribute
+		private String socketPath = JournaldManager.DEFAULT_SOCKET_PATH;
+
+		@PluginBuilderAttribute
+		private String syslogIdentifier;
+
+		@PluginBuilderAttribute
+		private boolean includeContext = true;
+
+		@PluginBuilderAttribute
+		private boolean includeNativeThread;
+
+		@PluginElement("Layout")
+		private Layout<? extends Serializable> layout;
+
+		@PluginElement("Filter")
+		private Filter filter;
+
+		@PluginBuilderAttribute
+		private boolean ignoreExceptions = true;
+
+		private Builder() {
+		}
+
+		public Builder setName(final String name) {
+			this.name = name;
+			return this;
+		}
+
+		public Builder setSocketPath(final String socketPath) {
+			this.socketPath = socketPath;
+			return this;
+		}
+
+		public Builder setSyslogIdentifier(final String syslogIdentifier) {
+			this.syslogIdentifier = syslogIdentifier;
+			return this;
+		}
+
+		public Builder setIncludeContext(final boolean includeContext) {
+			this.includeContext = includeContext;
+			return this;
+		}
+
+		public Builder setIncludeNativeThread(final boolean includeNativeThread) {
+			this.includeNativeThread = includeNativeThread;
+			return this;
+		}
+
+		public Builder setLayout(final Layout<? extends Serializable> layout) {
+			this.layout = layout;
+			return this;
+		}
+
+		public Builder setFilter(final Filter filter) {
+			this.filter = filter;
+			return this;
+		}
+
+		public Builder setIgnoreExceptions(final boolean ignoreExceptions) {
+			this.ignoreExceptions = ignoreExceptions;
+			return this;
+		}
+
+		@Override
+		public JournaldAppender build() {
+			try {
+				final JournaldManager manager = JournaldManager.getJournaldManager(name, socketPath);
+				return new JournaldAppender(name, filter, layout, ignoreExceptions, manager, syslogIdentifier,
+						includeContext, includeNativeThread);
+			} catch (final LastErrorException e) {
+				LOGGER.error("Error creating JournaldAppender [{}].", name, e);
+				return null;
+			}
+		}
+	}
+}
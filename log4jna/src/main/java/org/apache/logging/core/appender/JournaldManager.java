@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractManager;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+/**
+ * Sends entries to the systemd journal over its native protocol socket.
+ *
+ * <p>
+ * Entries are encoded straight into a direct buffer which is sent with
+ * sendmsg through a msghdr and iovec allocated once. An entry too large for
+ * a datagram is written to a sealed memfd whose descriptor is sent instead.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class JournaldManager extends AbstractManager {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * The socket of the journal daemon.
+	 */
+	public static final String DEFAULT_SOCKET_PATH = "/run/systemd/journal/socket";
+
+	private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_BUFFER_SIZE = 64 * 1024 * 1024;
+
+	// CMSG_SPACE(sizeof(int)) on LP64: 16 byte header plus an int, aligned.
+	private static final int CMSG_SPACE_FD = 24;
+	private static final int CMSG_LEN_FD = 20;
+
+	/**
+	 * Writes the fields of an event.
+	 */
+	interface FieldWriter {
+
+		/**
+		 * @throws BufferOverflowException
+		 *             if the buffer is too small, the write is then retried
+		 *             with a larger buffer
+		 */
+		void write(LogEvent event, ByteBuffer buffer);
+	}
+
+	private final String socketPath;
+	private int fd = -1;
+	private ByteBuffer buffer;
+	private Pointer bufferPointer;
+	private final LibC.Iovec iovec = new LibC.Iovec();
+	private final LibC.Msghdr msghdr = new LibC.Msghdr();
+	private final LibC.Msghdr fdMsghdr = new LibC.Msghdr();
+	private final Memory control = new Memory(CMSG_SPACE_FD);
+
+	private JournaldManager(final String name, final String socketPath) {
+		super(name);
+		this.socketPath = socketPath;
+		allocate(INITIAL_BUFFER_SIZE);
+
+		fd = LibC.INSTANCE.socket(LibC.AF_UNIX, LibC.SOCK_DGRAM | LibC.SOCK_CLOEXEC, 0);
+		if (fd < 0) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		final LibC.SockaddrUn address = new LibC.SockaddrUn(socketPath);
+		if (LibC.INSTANCE.connect(fd, address, address.size()) != 0) {
+			final int error = Native.getLastError();
+			LibC.INSTANCE.close(fd);
+			fd = -1;
+			throw new LastErrorException(error);
+		}
+
+		msghdr.msg_iov = iovec.getPointer();
+		msghdr.msg_iovlen = new NativeLong(1);
+		fdMsghdr.msg_control = control;
+		fdMsghdr.msg_controllen = new NativeLong(CMSG_SPACE_FD);
+		control.clear();
+		control.setLong(0, CMSG_LEN_FD);
+		control.setInt(8, LibC.SOL_SOCKET);
+		control.setInt(12, LibC.SCM_RIGHTS);
+	}
+
+	/**
+	 * Gets a JournaldManager connected to a journal socket.
+	 *
+	 * @param name			The name to use for this JournaldManager.
+	 * @param socketPath	The journal socket, or null for the default.
+	 * @return The JournaldManager as configured.
+	 */
+	public static JournaldManager getJournaldManager(final String name, final String socketPath) {
+		return new JournaldManager(name, socketPath == null ? DEFAULT_SOCKET_PATH : socketPath);
+	}
+
+	/**
+	 * Encodes and sends one entry.
+	 *
+	 * @param event
+	 *            Log event.
+	 * @param writer
+	 *            Writes the fields of the entry.
+	 */
+	public synchronized void write(final LogEvent event, final FieldWriter writer) {
+		if (fd < 0) {
+			throw new IllegalStateException("JournaldManager " + getName() + " is closed");
+		}
+		for (;;) {
+			buffer.clear();
+			try {
+				writer.write(event, buffer);
+				break;
+			} catch (final BufferOverflowException e) {
+				if (buffer.capacity() >= MAX_BUFFER_SIZE) {
+					throw new IllegalArgumentException("Journal entry exceeds " + MAX_BUFFER_SIZE + " bytes", e);
+				}
+				allocate(Math.min(buffer.capacity() * 2, MAX_BUFFER_SIZE));
+			}
+		}
+		send(bufferPointer, buffer.position());
+	}
+
+	private void allocate(final int capacity) {
+		buffer = ByteBuffer.allocateDirect(capacity);
+		bufferPointer = Native.getDirectBufferPointer(buffer);
+	}
+
+	private void send(final Pointer data, final int length) {
+		iovec.iov_base = data;
+		iovec.iov_len = new NativeLong(length);
+		iovec.write();
+		msghdr.write();
+		for (;;) {
+			if (LibC.INSTANCE.sendmsg(fd, msghdr, LibC.MSG_NOSIGNAL).longValue() >= 0) {
+				return;
+			}
+			final int error = Native.getLastError();
+			if (error == LibC.EMSGSIZE || error == LibC.ENOBUFS) {
+				sendMemfd(data, length);
+				return;
+			}
+			if (error != LibC.EINTR) {
+				throw new LastErrorException(error);
+			}
+		}
+	}
+
+	private void sendMemfd(final Pointer data, final int length) {
+		final int memfd = LibC.INSTANCE.memfd_create("log4jna-journal", LibC.MFD_CLOEXEC | LibC.MFD_ALLOW_SEALING);
+		if (memfd < 0) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		try {
+			long offset = 0;
+			while (offset < length) {
+				final long written = LibC.INSTANCE.write(memfd, data.share(offset),
+						new NativeLong(length - offset)).longValue();
+				if (written < 0) {
+					final int error = Native.getLastError();
+					if (error != LibC.EINTR) {
+						throw new LastErrorException(error);
+					}
+				} else {
+					offset += written;
+				}
+			}
+			// The journal daemon only accepts sealed descriptors.
+			if (LibC.INSTANCE.fcntl(memfd, LibC.F_ADD_SEALS,
+					LibC.F_SEAL_SHRINK | LibC.F_SEAL_GROW | LibC.F_SEAL_WRITE | LibC.F_SEAL_SEAL) < 0) {
+				throw new LastErrorException(Native.getLastError());
+			}
+			control.setInt(16, memfd);
+			fdMsghdr.write();
+			while (LibC.INSTANCE.sendmsg(fd, fdMsghdr, LibC.MSG_NOSIGNAL).longValue() < 0) {
+				final int error = Native.getLastError();
+				if (error != LibC.EINTR) {
+					throw new LastErrorException(error);
+				}
+			}
+		} finally {
+			LibC.INSTANCE.close(memfd);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.logging.log4j.core.appender.AbstractManager#releaseSub()
+	 */
+	@Override
+	protected synchronized void releaseSub() {
+		if (fd >= 0) {
+			if (LibC.INSTANCE.close(fd) != 0) {
+				LOGGER.error("Unable to close journal socket {}", socketPath);
+			}
+			fd = -1;
+		}
+	}
+
+	/**
+	 * @return the journal socket path
+	 */
+	public String getSocketPath() {
+		return socketPath;
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+
+/**
+ * Immutable table mapping log4j levels to event log type, category and event
+ * ID.
+ *
+ * <pre>
+ * &lt;LevelMapping&gt;
+ *   &lt;EventLogLevel level="NOTICE" type="INFORMATION" category="3"/&gt;
+ *   &lt;EventLogLevel level="FATAL" eventId="4097"/&gt;
+ * &lt;/LevelMapping&gt;
+ * </pre>
+ *
+ * Standard levels are looked up in an array indexed by their intLevel, custom
+ * levels in an identity map. Levels that are not configured get the defaults
+ * of {@link EventLogLevel}, including custom levels defined after the table
+ * was built.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "LevelMapping", category = "Core", printObject = true)
+public final class LevelMapping {
+
+	private static final int STEP = 100;
+
+	private static final Level[] STANDARD_LEVELS = { Level.OFF, Level.FATAL, Level.ERROR, Level.WARN, Level.INFO,
+			Level.DEBUG, Level.TRACE };
+
+	private final EventLogLevel[] standard = new EventLogLevel[STANDARD_LEVELS.length];
+	private final Map<Level, EventLogLevel> custom = new IdentityHashMap<Level, EventLogLevel>();
+
+	private LevelMapping(final EventLogLevel[] levels) {
+		for (final Level level : Level.values()) {
+			put(EventLogLevel.createDefault(level));
+		}
+		if (levels != null) {
+			for (final EventLogLevel level : levels) {
+				if (level != null) {
+					put(level);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a mapping table.
+	 *
+	 * @param levels
+	 *            Configured level mappings, overriding the defaults.
+	 * @return the mapping table.
+	 */
+	@PluginFactory
+	public static LevelMapping createLevelMapping(@PluginElement("EventLogLevels") final EventLogLevel[] levels) {
+		return new LevelMapping(levels);
+	}
+
+	/**
+	 * @return the default mapping table.
+	 */
+	public static LevelMapping createDefault() {
+		return new LevelMapping(null);
+	}
+
+	private void put(final EventLogLevel mapping) {
+		final int index = getStandardIndex(mapping.getLevel());
+		if (index >= 0) {
+			standard[index] = mapping;
+		} else {
+			custom.put(mapping.getLevel(), mapping);
+		}
+	}
+
+	private static int getStandardIndex(final Level level) {
+		final int intLevel = level.intLevel();
+		if (intLevel % STEP == 0) {
+			final int index = intLevel / STEP;
+			if (index < STANDARD_LEVELS.length && STANDARD_LEVELS[index] == level) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Looks up the mapping of a level.
+	 *
+	 * @param level
+	 *            Log4j level.
+	 * @return the event log mapping of the level.
+	 */
+	public EventLogLevel get(final Level level) {
+		final int index = getStandardIndex(level);
+		if (index >= 0) {
+			return standard[index];
+		}
+		final EventLogLevel mapping = custom.get(level);
+		return mapping != null ? mapping : EventLogLevel.createDefault(level);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("LevelMapping");
+		for (final EventLogLevel mapping : standard) {
+			sb.append(' ').append(mapping);
+		}
+		for (final EventLogLevel mapping : custom.values()) {
+			sb.append(' ').append(mapping);
+		}
+		return sb.toString();
+	}
+}
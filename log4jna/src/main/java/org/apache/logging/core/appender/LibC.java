@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+/**
+ * The parts of the Linux C library used by the native appenders. Structures
+ * follow the 64-bit (LP64) layout.
+ *
+ * <p>
+ * <b>WARNING</b> This library can only be loaded on a Linux system.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public interface LibC extends Library {
+
+	LibC INSTANCE = (LibC) Native.loadLibrary("c", LibC.class);
+
+	int AF_UNIX = 1;
+	int SOCK_DGRAM = 2;
+	int SOCK_NONBLOCK = 0x800;
+	int SOCK_CLOEXEC = 0x80000;
+	int SOL_SOCKET = 1;
+	int SO_SNDBUF = 7;
+	int SCM_RIGHTS = 1;
+	int MSG_DONTWAIT = 0x40;
+	int MSG_NOSIGNAL = 0x4000;
+
+	int EINTR = 4;
+	int EAGAIN = 11;
+	int EINVAL = 22;
+	int ENOBUFS = 105;
+	int EMSGSIZE = 90;
+	int ENOTCONN = 107;
+	int ECONNREFUSED = 111;
+	int EOPNOTSUPP = 95;
+
+	short POLLIN = 1;
+	short POLLOUT = 4;
+
+	int FIONREAD = 0x541b;
+	int IOV_MAX = 1024;
+
+	int O_RDONLY = 0;
+	int O_WRONLY = 1;
+	int O_RDWR = 2;
+	int O_CREAT = 0x40;
+	int O_TRUNC = 0x200;
+	int O_APPEND = 0x400;
+	int O_DIRECT = 0x4000;
+	int O_CLOEXEC = 0x80000;
+
+	int SEEK_END = 2;
+
+	int POSIX_FADV_DONTNEED = 4;
+
+	int FALLOC_FL_KEEP_SIZE = 1;
+
+	int SYNC_FILE_RANGE_WAIT_BEFORE = 1;
+	int SYNC_FILE_RANGE_WRITE = 2;
+	int SYNC_FILE_RANGE_WAIT_AFTER = 4;
+
+	// struct stat on x86-64.
+	int STAT_SIZE = 144;
+	int STAT_ST_SIZE = 48;
+	int STAT_ST_BLKSIZE = 56;
+
+	// struct rusage on x86-64, starting with ru_utime and ru_stime.
+	int RUSAGE_SELF = 0;
+	int RUSAGE_SIZE = 144;
+	int RUSAGE_RU_STIME = 16;
+
+	int IN_NONBLOCK = 0x800;
+	int IN_CLOEXEC = 0x80000;
+	int IN_CLOSE_WRITE = 0x8;
+	int IN_MOVED_TO = 0x80;
+	int IN_ONLYDIR = 0x1000000;
+	int IN_Q_OVERFLOW = 0x4000;
+	int IN_IGNORED = 0x8000;
+	// struct inotify_event without its name.
+	int INOTIFY_EVENT_SIZE = 16;
+
+	int PROT_READ = 1;
+	int PROT_WRITE = 2;
+	int MAP_SHARED = 1;
+	int MAP_POPULATE = 0x8000;
+	int MS_ASYNC = 1;
+	int MS_SYNC = 4;
+	int MADV_DONTNEED = 4;
+
+	int PRIO_PROCESS = 0;
+
+	int MFD_CLOEXEC = 1;
+	int MFD_ALLOW_SEALING = 2;
+	int F_GETPIPE_SZ = 1032;
+	int F_ADD_SEALS = 1033;
+	int F_SEAL_SEAL = 1;
+	int F_SEAL_SHRINK = 2;
+	int F_SEAL_GROW = 4;
+	int F_SEAL_WRITE = 8;
+
+	/**
+	 * struct iovec.
+	 */
+	class Iovec extends Structure {
+
+		public Pointer iov_base;
+		public NativeLong iov_len;
+
+		@Override
+		protected List<String> getFieldOrder() {
+			return Arrays.asList("iov_base", "iov_len");
+		}
+	}
+
+	/**
+	 * struct msghdr.
+	 */
+	class Msghdr extends Structure {
+
+		public Pointer msg_name;
+		public int msg_namelen;
+		public Pointer msg_iov;
+		public NativeLong msg_iovlen;
+		public Pointer msg_control;
+		public NativeLong msg_controllen;
+		public int msg_flags;
+
+		@Override
+		protected List<String> getFieldOrder() {
+			return Arrays.asList("msg_name", "msg_namelen", "msg_iov", "msg_iovlen", "msg_control",
+					"msg_controllen", "msg_flags");
+		}
+	}
+
+	/**
+	 * struct mmsghdr.
+	 */
+	class Mmsghdr extends Structure {
+
+		public Msghdr msg_hdr;
+		public int msg_len;
+
+		@Override
+		protected List<String> getFieldOrder() {
+			return Arrays.asList("msg_hdr", "msg_len");
+		}
+	}
+
+	/**
+	 * struct pollfd.
+	 */
+	class Pollfd extends Structure {
+
+		public int fd;
+		public short events;
+		public short revents;
+
+		@Override
+		protected List<String> getFieldOrder() {
+			return Arrays.asList("fd", "events", "revents");
+		}
+	}
+
+	/**
+	 * struct sockaddr_un.
+	 */
+	class SockaddrUn extends Structure {
+
+		public short sun_family;
+		public byte[] sun_path = new byte[108];
+
+		public SockaddrUn() {
+		}
+
+		public SockaddrUn(final String path) {
+			sun_family = AF_UNIX;
+			final byte[] bytes = Native.toByteArray(path);
+			if (bytes.length > sun_path.length) {
+				throw new IllegalArgumentException("Socket path too long: " + path);
+			}
+			System.arraycopy(bytes, 0, sun_path, 0, bytes.length);
+		}
+
+		@Override
+		protected List<String> getFieldOrder() {
+			return Arrays.asList("sun_family", "sun_path");
+		}
+	}
+
+	int socket(int domain, int type, int protocol);
+
+	int connect(int fd, SockaddrUn addr, int addrlen);
+
+	int bind(int fd, SockaddrUn addr, int addrlen);
+
+	int setsockopt(int fd, int level, int name, int[] value, int len);
+
+	NativeLong sendmsg(int fd, Msghdr msg, int flags);
+
+	NativeLong recvmsg(int fd, Msghdr msg, int flags);
+
+	int sendmmsg(int fd, Pointer msgvec, int vlen, int flags);
+
+	int poll(Pollfd fds, int nfds, int timeout);
+
+	int memfd_create(String name, int flags);
+
+	int fcntl(int fd, int cmd, int arg);
+
+	int open(String path, int flags, int mode);
+
+	int pipe(int[] fds);
+
+	int inotify_init1(int flags);
+
+	int inotify_add_watch(int fd, String pathname, int mask);
+
+	NativeLong read(int fd, Pointer buf, NativeLong count);
+
+	NativeLong write(int fd, Pointer buf, NativeLong count);
+
+	NativeLong writev(int fd, Pointer iov, int iovcnt);
+
+	NativeLong vmsplice(int fd, Pointer iov, NativeLong nr_segs, int flags);
+
+	int ioctl(int fd, NativeLong request, IntByReference arg);
+
+	int isatty(int fd);
+
+	NativeLong pread(int fd, Pointer buf, NativeLong count, long offset);
+
+	NativeLong pwrite(int fd, Pointer buf, NativeLong count, long offset);
+
+	long lseek(int fd, long offset, int whence);
+
+	int posix_fadvise(int fd, long offset, long len, int advice);
+
+	int sync_file_range(int fd, long offset, long nbytes, int flags);
+
+	int fdatasync(int fd);
+
+	int ftruncate(int fd, long length);
+
+	int fallocate(int fd, int mode, long offset, long len);
+
+	int rename(String oldpath, String newpath);
+
+	int fstat(int fd, Pointer buf);
+
+	int posix_memalign(PointerByReference memptr, NativeLong alignment, NativeLong size);
+
+	void free(Pointer ptr);
+
+	Pointer memmove(Pointer dest, Pointer src, NativeLong n);
+
+	int close(int fd);
+
+	Pointer mmap(Pointer addr, NativeLong length, int prot, int flags, int fd, long offset);
+
+	int munmap(Pointer addr, NativeLong length);
+
+	int msync(Pointer addr, NativeLong length, int flags);
+
+	int madvise(Pointer addr, NativeLong length, int advice);
+
+	NativeLong syscall(NativeLong number);
+
+	NativeLong syscall(NativeLong number, int arg1, Pointer arg2);
+
+	NativeLong syscall(NativeLong number, int arg1, int arg2, Pointer arg3, int arg4);
+
+	NativeLong syscall(NativeLong number, int arg1, int arg2, int arg3, int arg4, Pointer arg5, NativeLong arg6);
+
+	int getpid();
+
+	int setpriority(int which, int who, int prio);
+
+	int getrusage(int who, Pointer usage);
+
+	int getpagesize();
+
+	String strerror(int errnum);
+}
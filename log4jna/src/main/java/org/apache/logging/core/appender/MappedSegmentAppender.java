@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+
+import com.sun.jna.LastErrorException;
+
+/**
+ * Append to memory mapped segment files of a fixed size.
+ *
+ * <p>
+ * <b>WARNING</b> This appender can only be installed and used on a Linux
+ * system.
+ * </p>
+ *
+ * <p>
+ * Events are encoded as UTF-8 and copied into the mapping of the current
+ * segment, each thread claiming its space with an atomic add, so threads
+ * write concurrently without a lock. A full segment is followed by a new
+ * one and, in the background, handed to writeback with msync(MS_ASYNC),
+ * dropped from the process with madvise and truncated to its content.
+ * Segments are named fileName.000001, fileName.000002 and so on, numbered on
+ * from those already there. An event larger than segmentSize is rejected.
+ * </p>
+ *
+ * <p>
+ * The space of an event is claimed by its length, so an event is encoded
+ * into a buffer of its thread before it is copied into the mapping: the
+ * layout still renders a String per event, and the copy is a native memory
+ * write. Appenders writing the same fileName share one manager.
+ * </p>
+ *
+ * <p>
+ * With preallocate, the default, the next segment is created, allocated
+ * with fallocate and mapped in the background while the current one fills
+ * up, so that rolling over is a swap and a rename.
+ * </p>
+ *
+ * <p>
+ * With an indexInterval, each segment gets a sparse time index,
+ * fileName.000001.idx and so on, of an event every indexInterval bytes, for
+ * TimeIndexReader to read a time range of the segments without scanning
+ * them.
+ * </p>
+ *
+ * <p>
+ * With compress, segments are compressed once retired, on a pool of low
+ * priority background threads, into fileName.000001.z and so on, with a
+ * preset dictionary trained from the first of them. SegmentCompressor
+ * decompresses them. compressionLevel is the Deflater level. The time index
+ * of a segment is kept when it is compressed, and TimeIndexReader reads a
+ * time range of compressed segments too, decompressing only the blocks of
+ * the range.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "MappedSegment", category = "Core", elementType = "appender", printObject = true)
+public class MappedSegmentAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	private final MappedSegmentManager manager;
+
+	private final MappedSegmentManager.MessageWriter messageWriter = new MappedSegmentManager.MessageWriter() {
+		@Override
+		public void write(final LogEvent event, final ByteBuffer buffer) {
+			final Serializable message = getLayout().toSerializable(event);
+			if (message instanceof String) {
+				JournalEncoder.putUtf8(buffer, (String) message);
+			} else {
+				buffer.put(getLayout().toByteArray(event));
+			}
+		}
+	};
+
+	protected MappedSegmentAppender(final String name, final Filter filter,
+			final Layout<? extends Serializable> layout, final boolean ignoreExceptions,
+			final MappedSegmentManager manager) {
+		super(name, filter, layout, ignoreExceptions);
+		this.manager = manager;
+	}
+
+	@Override
+	public void append(final LogEvent event) {
+		try {
+			manager.write(event, messageWriter);
+		} catch (final LastErrorException e) {
+			getHandler().error("Failed to write event to " + manager.getFileName() + ".", event, e);
+		} catch (final IllegalArgumentException e) {
+			getHandler().error("Failed to write event to " + manager.getFileName() + ".", event, e);
+		}
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		manager.release();
+	}
+
+	/**
+	 * @return the manager of this appender
+	 */
+	public MappedSegmentManager getManager() {
+		return manager;
+	}
+
+	@PluginBuilderFactory
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder implements org.apache.logging.log4j.core.util.Builder<MappedSegmentAppender> {
+
+		@PluginBuilderAttribute
+		@Required(message = "A name for the MappedSegmentAppender must be specified")
+		private String name;
+
+		@PluginBuilderAttribute
+		@Required(message = "A fileName for the MappedSegmentAppender must be specified")
+		private String fileName;
+
+		@PluginBuilderAttribute
+		private long segmentSize = MappedSegmentManager.DEFAULT_SEGMENT_SIZE;
+
+		@PluginBuilderAttribute
+		private long indexInterval;
+
+		@PluginBuilderAttribute
+		private boolean compress;
+
+		@PluginBuilderAttribute
+		private boolean preallocate = true;
+
+		@PluginBuilderAttribute
+		private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+		@PluginElement("Layout")
+		private Layout<? extends Serializable> layout;
+
+		@PluginElement("Filter")
+		private Filter filter;
+
+		@PluginBuilderAttribute
+		private boolean ignoreExceptions = true;
+
+		private Builder() {
+		}
+
+		public Builder setName(final String name) {
+			this.name = name;
+			return this;
+		}
+
+		public Builder setFileName(final String fileName) {
+			this.fileName = fileName;
+			return this;
+		}
+
+		public Builder setSegmentSize(final long segmentSize) {
+			this.segmentSize = segmentSize;
+			return this;
+		}
+
+		public Builder setIndexInterval(final long indexInterval) {
+			this.indexInterval = indexInterval;
+			return this;
+		}
+
+		public Builder setCompress(final boolean compress) {
+			this.compress = compress;
+			return this;
+		}
+
+		public Builder setCompressionLevel(final int compressionLevel) {
+			this.compressionLevel = compressionLevel;
+			return this;
+		}
+
+		public Builder setPreallocate(final boolean preallocate) {
+			this.preallocate = preallocate;
+			return this;
+		}
+
+		public Builder setLayout(final Layout<? extends Serializable> layout) {
+			this.layout = layout;
+			return this;
+		}
+
+		public Builder setFilter(final Filter filter) {
+			this.filter = filter;
+			return this;
+		}
+
+		public Builder setIgnoreExceptions(final boolean ignoreExceptions) {
+			this.ignoreExceptions = ignoreExceptions;
+			return this;
+		}
+
+		@Override
+		public MappedSegmentAppender build() {
+			try {
+				final MappedSegmentManager manager = MappedSegmentManager.getMappedSegmentManager(fileName,
+						segmentSize, indexInterval, compress, compressionLevel, preallocate);
+				return new MappedSegmentAppender(name, filter, layout == null ? PatternLayout.createDefaultLayout()
+						: layout, ignoreExceptions, manager);
+			} catch (final LastErrorException e) {
+				LOGGER.error("Error creating MappedSegmentAppender [{}] for {}.", name, fileName, e);
+				return null;
+			} catch (final IllegalArgumentException e) {
+				LOGGER.error("Error creating MappedSegmentAppender [{}] for {}.", name, fileName, e);
+				return null;
+			}
+		}
+	}
+}
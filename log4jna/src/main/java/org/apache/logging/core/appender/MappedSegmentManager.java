@@ -0,0 +1,630 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.File;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractManager;
+import org.apache.logging.log4j.core.appender.ManagerFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+/**
+ * Writes encoded events into memory mapped segment files of a fixed size.
+ *
+ * <p>
+ * A writer claims the space of an event with one atomic add on the position
+ * of the current segment and copies the event into the mapping; writers do
+ * not otherwise wait for each other. The writer whose claim crosses the end
+ * of the segment waits for the claims before it to be copied and hands the
+ * segment to a background thread, which retires it with msync(MS_ASYNC) and
+ * madvise(MADV_DONTNEED), unmaps it and truncates the file to what was
+ * written. Writers that claimed past the end wait for the next segment,
+ * installed by the first of them to need it.
+ * </p>
+ *
+ * <p>
+ * With preallocation, the background thread prepares the next segment
+ * while the current one fills up: it creates the file under a name ending
+ * in ".next", allocates its blocks with fallocate(FALLOC_FL_KEEP_SIZE) and
+ * maps it with MAP_POPULATE. Installing it is then a swap of the current
+ * segment and a rename, and writers neither allocate blocks nor fault in
+ * pages. Without a spare ready, or without preallocation, the next segment
+ * is mapped when it is installed.
+ * </p>
+ *
+ * <p>
+ * Segments are named after the file name with a six digit index appended,
+ * numbered on from the segments already there. With an index interval,
+ * each segment has a sparse {@link TimeIndex} of its own. With a
+ * {@link SegmentCompressor}, retired segments are compressed in the
+ * background.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class MappedSegmentManager extends AbstractManager {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * Default segment size.
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+	private static final int INITIAL_EVENT_SIZE = 4096;
+
+	private static final String SPARE_SUFFIX = ".next";
+
+	/**
+	 * Writes one event.
+	 */
+	interface MessageWriter {
+
+		/**
+		 * @throws BufferOverflowException
+		 *             if the buffer is too small, the write is then retried
+		 *             with a larger buffer
+		 */
+		void write(LogEvent event, ByteBuffer buffer);
+	}
+
+	/**
+	 * A mapped segment file.
+	 */
+	private static final class Segment {
+
+		final int index;
+		final int fd;
+		final Pointer address;
+		final long size;
+		final TimeIndex timeIndex;
+		// Bytes claimed, and bytes copied by the claims that fit.
+		final AtomicLong position = new AtomicLong();
+		final AtomicLong written = new AtomicLong();
+		// Guarded by the manager: the name of a spare, and the length and
+		// last time of a retired segment.
+		String spareFileName;
+		long end;
+		long time;
+
+		Segment(final int index, final int fd, final Pointer address, final long size, final TimeIndex timeIndex,
+				final String spareFileName) {
+			this.index = index;
+			this.fd = fd;
+			this.address = address;
+			this.size = size;
+			this.timeIndex = timeIndex;
+			this.spareFileName = spareFileName;
+		}
+	}
+
+	private final String fileName;
+	private final long segmentSize;
+	private final long indexInterval;
+	private final SegmentCompressor compressor;
+	private final boolean preallocate;
+	private final Thread roller;
+	private volatile boolean fallocateFailed;
+	private final ThreadLocal<ByteBuffer> eventBuffer = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate((int) Math.min(INITIAL_EVENT_SIZE, segmentSize));
+		}
+	};
+	// Null between a retired segment and the next one.
+	private volatile Segment segment;
+	// Guarded by this.
+	private int nextIndex;
+	private boolean closed;
+	private final ArrayDeque<Segment> retiring = new ArrayDeque<Segment>();
+	private Segment spare;
+	private boolean wantSpare;
+	private boolean preparing;
+
+	private MappedSegmentManager(final String name, final String fileName, final long segmentSize,
+			final long indexInterval, final SegmentCompressor compressor, final boolean preallocate) {
+		super(name);
+		this.fileName = fileName;
+		this.segmentSize = segmentSize;
+		this.indexInterval = indexInterval;
+		this.compressor = compressor;
+		this.preallocate = preallocate;
+		this.nextIndex = findNextIndex(fileName);
+		this.segment = map(nextIndex++, false);
+		this.wantSpare = preallocate;
+		this.roller = new Thread("MappedSegmentManager-" + name) {
+			@Override
+			public void run() {
+				runRoller();
+			}
+		};
+		roller.setDaemon(true);
+		roller.start();
+	}
+
+	/**
+	 * Gets the MappedSegmentManager of a series of segment files, shared by
+	 * the appenders writing it, so that the appenders of a new configuration
+	 * and those of the old one it replaces do not number segments of their
+	 * own. The manager is created with the settings of the first appender.
+	 *
+	 * @param fileName		The file name the segment index is appended to, also the name of the manager.
+	 * @param segmentSize	The size of each segment.
+	 * @param indexInterval	Bytes between time index entries, 0 for no index.
+	 * @param compress		Compress retired segments in the background.
+	 * @param compressionLevel	The Deflater compression level.
+	 * @param preallocate	Prepare the next segment in the background.
+	 * @return The MappedSegmentManager as configured.
+	 */
+	public static MappedSegmentManager getMappedSegmentManager(final String fileName, final long segmentSize,
+			final long indexInterval, final boolean compress, final int compressionLevel, final boolean preallocate) {
+		if (segmentSize < 1 || segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("segmentSize must be between 1 and " + Integer.MAX_VALUE + ": "
+					+ segmentSize);
+		}
+		if (indexInterval < 0) {
+			throw new IllegalArgumentException("indexInterval must not be negative: " + indexInterval);
+		}
+		return getManager(fileName, FACTORY, new FactoryData(segmentSize, indexInterval, compress, compressionLevel,
+				preallocate));
+	}
+
+	/**
+	 * The settings of a MappedSegmentManager to create.
+	 */
+	private static final class FactoryData {
+
+		final long segmentSize;
+		final long indexInterval;
+		final boolean compress;
+		final int compressionLevel;
+		final boolean preallocate;
+
+		FactoryData(final long segmentSize, final long indexInterval, final boolean compress,
+				final int compressionLevel, final boolean preallocate) {
+			this.segmentSize = segmentSize;
+			this.indexInterval = indexInterval;
+			this.compress = compress;
+			this.compressionLevel = compressionLevel;
+			this.preallocate = preallocate;
+		}
+	}
+
+	private static final ManagerFactory<MappedSegmentManager, FactoryData> FACTORY =
+			new ManagerFactory<MappedSegmentManager, FactoryData>() {
+		@Override
+		public MappedSegmentManager createManager(final String fileName, final FactoryData data) {
+			return new MappedSegmentManager(fileName, fileName, data.segmentSize, data.indexInterval,
+					data.compress ? new SegmentCompressor(fileName, data.compressionLevel, true) : null,
+					data.preallocate);
+		}
+	};
+
+	/**
+	 * @return the file name of a segment
+	 */
+	static String getSegmentFileName(final String fileName, final int index) {
+		return String.format("%s.%06d", fileName, index);
+	}
+
+	private static int findNextIndex(final String fileName) {
+		// Spares count too, one may belong to another manager still open.
+		final SortedMap<Integer, File> segments = findSegments(fileName, true);
+		return segments.isEmpty() ? 1 : segments.lastKey().intValue() + 1;
+	}
+
+	/**
+	 * @return the segments there are of a file name, in order, as
+	 *         compressed segments once compressed
+	 */
+	static List<File> getSegmentFiles(final String fileName) {
+		return new ArrayList<File>(findSegments(fileName, false).values());
+	}
+
+	/**
+	 * @return the segments of a file name by index, compressed or not, and
+	 *         with the spares too
+	 */
+	private static SortedMap<Integer, File> findSegments(final String fileName, final boolean all) {
+		final File file = new File(fileName).getAbsoluteFile();
+		final String prefix = file.getName() + ".";
+		final String[] names = file.getParentFile().list();
+		final SortedMap<Integer, File> segments = new TreeMap<Integer, File>();
+		if (names != null) {
+			for (final String name : names) {
+				final boolean plain = name.length() == prefix.length() + 6;
+				if (name.startsWith(prefix) && (plain || isSegment(name, prefix, SegmentCompressor.SUFFIX) || all
+						&& isSegment(name, prefix, SPARE_SUFFIX))) {
+					try {
+						final Integer index = Integer.valueOf(name.substring(prefix.length(), prefix.length() + 6));
+						// A segment still being compressed is there as it is.
+						if (plain || !segments.containsKey(index)) {
+							segments.put(index, new File(file.getParentFile(), name));
+						}
+					} catch (final NumberFormatException e) {
+						// Not a segment.
+					}
+				}
+			}
+		}
+		return segments;
+	}
+
+	private static boolean isSegment(final String name, final String prefix, final String suffix) {
+		return name.length() == prefix.length() + 6 + suffix.length() && name.endsWith(suffix);
+	}
+
+	/**
+	 * Creates and maps a segment, as a spare under its spare name.
+	 */
+	private Segment map(final int index, final boolean asSpare) {
+		final String segmentFileName = getSegmentFileName(fileName, index);
+		final String mappedFileName = asSpare ? segmentFileName + SPARE_SUFFIX : segmentFileName;
+		final int fd = LibC.INSTANCE.open(mappedFileName, LibC.O_RDWR | LibC.O_CREAT | LibC.O_TRUNC
+				| LibC.O_CLOEXEC, 0644);
+		if (fd < 0) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		try {
+			if (preallocate && !fallocateFailed
+					&& LibC.INSTANCE.fallocate(fd, LibC.FALLOC_FL_KEEP_SIZE, 0, segmentSize) != 0) {
+				// Not supported by every file system.
+				fallocateFailed = true;
+				LOGGER.warn("fallocate failed for {}: {}, not preallocating segments", mappedFileName,
+						LibC.INSTANCE.strerror(Native.getLastError()));
+			}
+			if (LibC.INSTANCE.ftruncate(fd, segmentSize) != 0) {
+				throw new LastErrorException(Native.getLastError());
+			}
+			final Pointer address = LibC.INSTANCE.mmap(null, new NativeLong(segmentSize), LibC.PROT_READ
+					| LibC.PROT_WRITE, LibC.MAP_SHARED | (asSpare ? LibC.MAP_POPULATE : 0), fd, 0);
+			if (Pointer.nativeValue(address) == -1) {
+				throw new LastErrorException(Native.getLastError());
+			}
+			try {
+				return new Segment(index, fd, address, segmentSize, indexInterval > 0 ? new TimeIndex(
+						segmentFileName, indexInterval, 0) : null, asSpare ? mappedFileName : null);
+			} catch (final LastErrorException e) {
+				LibC.INSTANCE.munmap(address, new NativeLong(segmentSize));
+				throw e;
+			}
+		} catch (final LastErrorException e) {
+			LibC.INSTANCE.close(fd);
+			throw e;
+		}
+	}
+
+	/**
+	 * Encodes an event and copies it into the current segment.
+	 *
+	 * @param event
+	 *            Log event.
+	 * @param writer
+	 *            Writes the event.
+	 */
+	public void write(final LogEvent event, final MessageWriter writer) {
+		final ByteBuffer buffer = encode(event, writer);
+		final int length = buffer.position();
+		for (;;) {
+			final Segment current = current();
+			final long start = current.position.getAndAdd(length);
+			if (start + length <= current.size) {
+				if (current.timeIndex != null) {
+					current.timeIndex.add(event.getTimeMillis(), start);
+				}
+				current.address.write(start, buffer.array(), buffer.arrayOffset(), length);
+				current.written.addAndGet(length);
+				return;
+			}
+			if (start <= current.size) {
+				roll(current, start, event.getTimeMillis());
+			} else {
+				awaitRoll(current);
+			}
+		}
+	}
+
+	private ByteBuffer encode(final LogEvent event, final MessageWriter writer) {
+		ByteBuffer buffer = eventBuffer.get();
+		for (;;) {
+			buffer.clear();
+			try {
+				writer.write(event, buffer);
+				return buffer;
+			} catch (final BufferOverflowException e) {
+				if (buffer.capacity() >= segmentSize) {
+					throw new IllegalArgumentException("Event exceeds the segment size of " + segmentSize
+							+ " bytes", e);
+				}
+				buffer = ByteBuffer.allocate((int) Math.min(buffer.capacity() * 2L, segmentSize));
+				eventBuffer.set(buffer);
+			}
+		}
+	}
+
+	private Segment current() {
+		final Segment current = segment;
+		if (current != null) {
+			return current;
+		}
+		boolean interrupted = false;
+		try {
+			synchronized (this) {
+				for (;;) {
+					if (closed) {
+						throw new IllegalStateException("MappedSegmentManager " + getName() + " is closed");
+					}
+					if (segment != null) {
+						return segment;
+					}
+					if (spare != null || !preparing) {
+						return install();
+					}
+					// Waiting gives up the lock, so another writer may have
+					// installed the spare when this one wakes up.
+					try {
+						wait();
+					} catch (final InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Makes the spare, when prepared, or else a segment mapped now the
+	 * current segment. Called holding the lock, with no current segment.
+	 */
+	private Segment install() {
+		final Segment next = spare != null ? spare : map(nextIndex++, false);
+		spare = null;
+		segment = next;
+		if (next.spareFileName != null) {
+			final String segmentFileName = getSegmentFileName(fileName, next.index);
+			if (LibC.INSTANCE.rename(next.spareFileName, segmentFileName) == 0) {
+				next.spareFileName = null;
+			} else {
+				LOGGER.error("Unable to rename {} to {}: {}", next.spareFileName, segmentFileName,
+						LibC.INSTANCE.strerror(Native.getLastError()));
+			}
+		}
+		wantSpare = preallocate;
+		notifyAll();
+		return next;
+	}
+
+	/**
+	 * Hands a segment to the background thread to retire once the claims
+	 * before end are copied.
+	 *
+	 * @param time
+	 *            The time of the event that did not fit, for the time
+	 *            index.
+	 */
+	private void roll(final Segment retired, final long end, final long time) {
+		while (retired.written.get() < end) {
+			Thread.yield();
+		}
+		synchronized (this) {
+			retired.end = end;
+			retired.time = time;
+			retiring.add(retired);
+			segment = null;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Retires segments and prepares spares until closed.
+	 */
+	private void runRoller() {
+		for (;;) {
+			Segment retired = null;
+			int index = 0;
+			synchronized (this) {
+				// Closed, the last segment is still to be retired.
+				while (retiring.isEmpty() && !(closed ? segment == null : wantSpare)) {
+					try {
+						wait();
+					} catch (final InterruptedException e) {
+						// Only closing stops the roller.
+					}
+				}
+				if (!retiring.isEmpty()) {
+					retired = retiring.poll();
+				} else if (closed) {
+					return;
+				} else {
+					index = nextIndex++;
+					wantSpare = false;
+					preparing = true;
+				}
+			}
+			if (retired != null) {
+				retire(retired);
+				continue;
+			}
+			Segment prepared = null;
+			try {
+				prepared = map(index, true);
+			} catch (final LastErrorException e) {
+				LOGGER.error("Unable to prepare segment {}", getSegmentFileName(fileName, index), e);
+			}
+			synchronized (this) {
+				spare = prepared;
+				preparing = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private void retire(final Segment retired) {
+		final String segmentFileName = getSegmentFileName(fileName, retired.index);
+		final NativeLong size = new NativeLong(retired.size);
+		if (LibC.INSTANCE.msync(retired.address, size, LibC.MS_ASYNC) != 0) {
+			LOGGER.warn("msync failed for {}: {}", segmentFileName, LibC.INSTANCE.strerror(Native.getLastError()));
+		}
+		LibC.INSTANCE.madvise(retired.address, size, LibC.MADV_DONTNEED);
+		LibC.INSTANCE.munmap(retired.address, size);
+		if (LibC.INSTANCE.ftruncate(retired.fd, retired.end) != 0) {
+			LOGGER.error("Unable to truncate {} to its length: {}", segmentFileName,
+					LibC.INSTANCE.strerror(Native.getLastError()));
+		}
+		if (LibC.INSTANCE.close(retired.fd) != 0) {
+			LOGGER.error("Unable to close {}", segmentFileName);
+		}
+		if (retired.timeIndex != null) {
+			retired.timeIndex.close(retired.time, retired.end);
+		}
+		if (compressor != null) {
+			compressor.submit(new File(segmentFileName));
+		}
+	}
+
+	/**
+	 * Removes a spare that was never installed.
+	 */
+	private void discard(final Segment unused) {
+		LibC.INSTANCE.munmap(unused.address, new NativeLong(unused.size));
+		LibC.INSTANCE.close(unused.fd);
+		new File(unused.spareFileName).delete();
+		if (unused.timeIndex != null) {
+			unused.timeIndex.close();
+			new File(TimeIndex.getIndexFileName(getSegmentFileName(fileName, unused.index))).delete();
+		}
+	}
+
+	private synchronized void awaitRoll(final Segment retired) {
+		boolean interrupted = false;
+		while (segment == retired) {
+			try {
+				wait();
+			} catch (final InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.logging.log4j.core.appender.AbstractManager#releaseSub()
+	 */
+	@Override
+	protected void releaseSub() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		// Claim the rest of the segment, so no writer copies into it after it
+		// is unmapped.
+		Segment current;
+		while ((current = segment) != null) {
+			final long start = current.position.getAndAdd(current.size + 1);
+			if (start <= current.size) {
+				roll(current, start, System.currentTimeMillis());
+			} else {
+				awaitRoll(current);
+			}
+		}
+		try {
+			roller.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		final Segment unused;
+		synchronized (this) {
+			unused = spare;
+			spare = null;
+		}
+		if (unused != null) {
+			discard(unused);
+		}
+		if (compressor != null) {
+			compressor.await();
+		}
+	}
+
+	/**
+	 * @return the file name the segment index is appended to
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return whether retired segments are compressed
+	 */
+	public boolean isCompressed() {
+		return compressor != null;
+	}
+
+	/**
+	 * @return whether the next segment is prepared in the background
+	 */
+	public boolean isPreallocated() {
+		return preallocate;
+	}
+
+	/**
+	 * @return whether a spare segment is ready to be installed
+	 */
+	synchronized boolean hasSpare() {
+		return spare != null;
+	}
+
+	/**
+	 * @return the size of each segment
+	 */
+	public long getSegmentSize() {
+		return segmentSize;
+	}
+
+	/**
+	 * @return the file name of the current segment, or null between
+	 *         segments
+	 */
+	public String getSegmentFileName() {
+		final Segment current = segment;
+		return current == null ? null : getSegmentFileName(fileName, current.index);
+	}
+}
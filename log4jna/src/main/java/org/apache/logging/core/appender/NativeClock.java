@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.util.Clock;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+/**
+ * A clock for the timestamps of log events that avoids reading the time
+ * source of the host for every event.
+ *
+ * <pre>
+ * -Dlog4j.Clock=org.apache.logging.core.appender.NativeClock
+ * -Dlog4jna.clock.mode=COARSE
+ * </pre>
+ *
+ * <p>
+ * The mode is one of:
+ * </p>
+ * <ul>
+ * <li>COARSE: clock_gettime(CLOCK_REALTIME_COARSE) on 64-bit Linux, whose
+ * struct timespec is two 64-bit fields, the time of the last timer tick,
+ * read from the vDSO without touching the clock source, with a resolution of
+ * a tick, typically 1 to 4 milliseconds, behind by up to two ticks on a
+ * tickless kernel.</li>
+ * <li>PRECISE: GetSystemTimePreciseAsFileTime on Windows 8 and later.</li>
+ * <li>CACHED: a time updated every millisecond by a background thread, which
+ * costs a volatile read per event and that thread waking up a thousand times
+ * a second. The default.</li>
+ * <li>SYSTEM: System.currentTimeMillis, used when the mode asked for is not
+ * available on the platform.</li>
+ * </ul>
+ * <p>
+ * The native functions are called through JNA direct mapping, with a
+ * buffer of the calling thread for the result. Such a call still costs a few
+ * hundred nanoseconds, several times System.currentTimeMillis on a host
+ * whose clock source is read from the vDSO, so COARSE and PRECISE are to be
+ * asked for only where the clock source makes System.currentTimeMillis a
+ * system call, as some hypervisors do.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public final class NativeClock implements Clock {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * The system property naming the mode of clocks created by log4j.
+	 */
+	public static final String MODE_PROPERTY = "log4jna.clock.mode";
+
+	/**
+	 * Where the time is read from.
+	 */
+	public enum Mode {
+		COARSE, PRECISE, CACHED, SYSTEM
+	}
+
+	private static final int CLOCK_REALTIME_COARSE = 5;
+	// Milliseconds from 1601-01-01, the start of a FILETIME, to 1970-01-01.
+	private static final long FILETIME_EPOCH_MILLIS = 11644473600000L;
+
+	private static final class Linux {
+		static {
+			Native.register("c");
+		}
+
+		static native int clock_gettime(int clockId, Pointer timespec);
+
+		static native int clock_getres(int clockId, long[] timespec);
+	}
+
+	private static final class Windows {
+		static {
+			Native.register("kernel32");
+		}
+
+		static native void GetSystemTimePreciseAsFileTime(Pointer fileTime);
+	}
+
+	/**
+	 * The time of the CACHED mode and the thread updating it, started on
+	 * first use.
+	 */
+	private static final class Ticker {
+
+		static volatile long millis = System.currentTimeMillis();
+
+		static {
+			final Thread thread = new Thread("NativeClock-ticker") {
+				@Override
+				public void run() {
+					for (;;) {
+						LockSupport.parkNanos(1000000);
+						millis = System.currentTimeMillis();
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	// A timespec or a FILETIME.
+	private static final ThreadLocal<Memory> RESULT = new ThreadLocal<Memory>() {
+		@Override
+		protected Memory initialValue() {
+			return new Memory(16);
+		}
+	};
+
+	private final Mode mode;
+
+	/**
+	 * Creates a clock of the mode of the system property, or CACHED.
+	 */
+	public NativeClock() {
+		this(getConfiguredMode());
+	}
+
+	/**
+	 * Creates a clock of a mode, or of SYSTEM when that mode is not
+	 * available on the platform.
+	 *
+	 * @param mode
+	 *            The mode.
+	 */
+	public NativeClock(final Mode mode) {
+		this.mode = isSupported(mode) ? mode : Mode.SYSTEM;
+		if (this.mode != mode) {
+			LOGGER.warn("NativeClock mode {} is not available on this platform, using {}", mode, this.mode);
+		}
+		if (this.mode == Mode.CACHED) {
+			Ticker.millis = System.currentTimeMillis();
+		}
+	}
+
+	private static Mode getConfiguredMode() {
+		final String property = System.getProperty(MODE_PROPERTY);
+		if (property != null) {
+			try {
+				return Mode.valueOf(property.trim().toUpperCase());
+			} catch (final IllegalArgumentException e) {
+				LOGGER.error("Unknown {} {}", MODE_PROPERTY, property);
+			}
+		}
+		return Mode.CACHED;
+	}
+
+	/**
+	 * @return true if a mode can be used on this platform
+	 */
+	public static boolean isSupported(final Mode mode) {
+		try {
+			switch (mode) {
+			case COARSE:
+				return Platform.isLinux() && Platform.is64Bit()
+						&& Linux.clock_gettime(CLOCK_REALTIME_COARSE, RESULT.get()) == 0;
+			case PRECISE:
+				if (Platform.isWindows()) {
+					Windows.GetSystemTimePreciseAsFileTime(RESULT.get());
+					return true;
+				}
+				return false;
+			default:
+				return true;
+			}
+		} catch (final LinkageError e) {
+			// Missing, like GetSystemTimePreciseAsFileTime before Windows 8.
+			return false;
+		}
+	}
+
+	/**
+	 * @return the mode of this clock
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return the resolution of this clock in nanoseconds, where known, else
+	 *         0
+	 */
+	public long getResolutionNanos() {
+		switch (mode) {
+		case COARSE:
+			final long[] timespec = new long[2];
+			return Linux.clock_getres(CLOCK_REALTIME_COARSE, timespec) == 0 ? timespec[0] * 1000000000L
+					+ timespec[1] : 0;
+		case CACHED:
+			return 1000000;
+		default:
+			return 0;
+		}
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		switch (mode) {
+		case COARSE:
+			final Memory timespec = RESULT.get();
+			Linux.clock_gettime(CLOCK_REALTIME_COARSE, timespec);
+			return timespec.getLong(0) * 1000 + timespec.getLong(8) / 1000000;
+		case PRECISE:
+			final Memory fileTime = RESULT.get();
+			Windows.GetSystemTimePreciseAsFileTime(fileTime);
+			return fileTime.getLong(0) / 10000 - FILETIME_EPOCH_MILLIS;
+		case CACHED:
+			return Ticker.millis;
+		default:
+			return System.currentTimeMillis();
+		}
+	}
+}
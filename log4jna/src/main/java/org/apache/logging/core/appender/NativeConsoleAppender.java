@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.ConsoleAppender;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+
+import com.sun.jna.LastErrorException;
+
+/**
+ * Append to standard output or standard error through the file descriptor,
+ * bypassing System.out and System.err.
+ *
+ * <p>
+ * <b>WARNING</b> This appender can only be installed and used on a Linux
+ * system.
+ * </p>
+ *
+ * <p>
+ * Events are encoded as UTF-8 into per-thread buffers, whatever the charset
+ * of the layout, and written with writev. A terminal is flushed after every
+ * event; a pipe or file is flushed when a buffer is full, at the end of a
+ * batch of queued events and every flushInterval milliseconds, unless
+ * immediateFlush is set. With vmsplice set, large flushes into a pipe are
+ * spliced rather than copied. Output written through System.out is not
+ * ordered with buffered events.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "NativeConsole", category = "Core", elementType = "appender", printObject = true)
+public class NativeConsoleAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	private final NativeConsoleManager manager;
+
+	private final NativeConsoleManager.MessageWriter messageWriter = new NativeConsoleManager.MessageWriter() {
+		@Override
+		public void write(final LogEvent event, final ByteBuffer buffer) {
+			final Serializable message = getLayout().toSerializable(event);
+			if (message instanceof String) {
+				JournalEncoder.putUtf8(buffer, (String) message);
+			} else {
+				buffer.put(getLayout().toByteArray(event));
+			}
+		}
+	};
+
+	protected NativeConsoleAppender(final String name, final Filter filter,
+			final Layout<? extends Serializable> layout, final boolean ignoreExceptions,
+			final NativeConsoleManager manager) {
+		super(name, filter, layout, ignoreExceptions);
+		this.manager = manager;
+	}
+
+	@Override
+	public void append(final LogEvent event) {
+		try {
+			manager.write(event, messageWriter, event.isEndOfBatch());
+		} catch (final LastErrorException e) {
+			getHandler().error("Failed to write event to the console.", event, e);
+		} catch (final IllegalArgumentException e) {
+			getHandler().error("Failed to write event to the console.", event, e);
+		}
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		manager.release();
+	}
+
+	/**
+	 * @return the manager of this appender
+	 */
+	public NativeConsoleManager getManager() {
+		return manager;
+	}
+
+	@PluginBuilderFactory
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder implements org.apache.logging.log4j.core.util.Builder<NativeConsoleAppender> {
+
+		@PluginBuilderAttribute
+		@Required(message = "A name for the NativeConsoleAppender must be specified")
+		private String name;
+
+		@PluginBuilderAttribute
+		private ConsoleAppender.Target target = ConsoleAppender.Target.SYSTEM_OUT;
+
+		@PluginBuilderAttribute
+		private int bufferSize;
+
+		@PluginBuilderAttribute
+		private Boolean immediateFlush;
+
+		@PluginBuilderAttribute
+		private int flushInterval = 100;
+
+		@PluginBuilderAttribute
+		private boolean vmsplice;
+
+		@PluginBuilderAttribute
+		private int spliceThreshold;
+
+		@PluginElement("Layout")
+		private Layout<? extends Serializable> layout;
+
+		@PluginElement("Filter")
+		private Filter filter;
+
+		@PluginBuilderAttribute
+		private boolean ignoreExceptions = true;
+
+		// File descriptor instead of target, for tests.
+		private int fd = -1;
+
+		private Builder() {
+		}
+
+		public Builder setName(final String name) {
+			this.name = name;
+			return this;
+		}
+
+		public Builder setTarget(final ConsoleAppender.Target target) {
+			this.target = target;
+			return this;
+		}
+
+		Builder setFd(final int fd) {
+			this.fd = fd;
+			return this;
+		}
+
+		public Builder setBufferSize(final int bufferSize) {
+			this.bufferSize = bufferSize;
+			return this;
+		}
+
+		public Builder setImmediateFlush(final Boolean immediateFlush) {
+			this.immediateFlush = immediateFlush;
+			return this;
+		}
+
+		public Builder setFlushInterval(final int flushInterval) {
+			this.flushInterval = flushInterval;
+			return this;
+		}
+
+		public Builder setVmsplice(final boolean vmsplice) {
+			this.vmsplice = vmsplice;
+			return this;
+		}
+
+		public Builder setSpliceThreshold(final int spliceThreshold) {
+			this.spliceThreshold = spliceThreshold;
+			return this;
+		}
+
+		public Builder setLayout(final Layout<? extends Serializable> layout) {
+			this.layout = layout;
+			return this;
+		}
+
+		public Builder setFilter(final Filter filter) {
+			this.filter = filter;
+			return this;
+		}
+
+		public Builder setIgnoreExceptions(final boolean ignoreExceptions) {
+			this.ignoreExceptions = ignoreExceptions;
+			return this;
+		}
+
+		@Override
+		public NativeConsoleAppender build() {
+			final int descriptor = fd >= 0 ? fd : target == ConsoleAppender.Target.SYSTEM_ERR ? 2 : 1;
+			final NativeConsoleManager manager = NativeConsoleManager.getNativeConsoleManager(name, descriptor,
+					bufferSize, immediateFlush, flushInterval, vmsplice, spliceThreshold);
+			return new NativeConsoleAppender(name, filter, layout == null ? PatternLayout.createDefaultLayout()
+					: layout, ignoreExceptions, manager);
+		}
+	}
+}
@@ -0,0 +1,542 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractManager;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * Writes encoded events to a file descriptor, normally standard output or
+ * standard error, from per-thread buffers.
+ *
+ * <p>
+ * Each thread encodes its events into a buffer of its own. A flush gathers
+ * the buffers of all threads into one writev call; events of one thread stay
+ * in order, events of different threads are ordered by flush. A terminal is
+ * flushed after every event, a pipe or a file when a buffer is full, at the
+ * end of a batch and every flush interval. Buffers for a pipe default to the
+ * pipe capacity.
+ * </p>
+ *
+ * <p>
+ * With vmsplice, flushes of at least the splice threshold into a pipe hand
+ * the buffer pages to the pipe instead of copying them. A thread then waits
+ * for the reader to consume the pages before it writes to its buffer again.
+ * When the reader has not consumed them within the splice timeout, the
+ * thread goes on with a new buffer and flushes copy with writev until the
+ * pages are consumed. Pages still in the pipe when the manager is released
+ * are never freed, so that their memory is not reused while the reader can
+ * still read it.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class NativeConsoleManager extends AbstractManager {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private static final int TTY_BUFFER_SIZE = 4096;
+	private static final int MAX_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_LARGE_EVENT_SIZE = 64 * 1024 * 1024;
+	private static final long SPLICE_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+	private static final long SPLICE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long RELEASE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	// Spliced buffers of released managers the reader may not have read,
+	// kept reachable for the life of the process.
+	private static final List<ByteBuffer> ABANDONED = new ArrayList<ByteBuffer>();
+
+	// sizeof(struct iovec) and offsetof(struct iovec, iov_len) on LP64.
+	private static final int IOVEC_SIZE = 16;
+	private static final int IOV_LEN_OFFSET = 8;
+
+	/**
+	 * What the file descriptor refers to.
+	 */
+	public enum Kind {
+		TTY, PIPE, FILE
+	}
+
+	/**
+	 * Writes one event.
+	 */
+	interface MessageWriter {
+
+		/**
+		 * @throws BufferOverflowException
+		 *             if the event does not fit, it is then written again
+		 *             after a flush
+		 */
+		void write(LogEvent event, ByteBuffer buffer);
+	}
+
+	private static final class ThreadBuffer {
+
+		final Thread owner = Thread.currentThread();
+		final ReentrantLock lock = new ReentrantLock();
+		final IntByReference unread = new IntByReference();
+		// Guarded by lock.
+		ByteBuffer buffer;
+		Pointer pointer;
+		// Bytes written to the descriptor when the buffer was last spliced,
+		// zero when none of its pages are still in the pipe.
+		long spliceEnd;
+
+		ThreadBuffer(final int size) {
+			allocate(size);
+		}
+
+		void allocate(final int size) {
+			buffer = ByteBuffer.allocateDirect(size);
+			pointer = Native.getDirectBufferPointer(buffer);
+		}
+	}
+
+	/**
+	 * A buffer given up on while its pages were still in the pipe.
+	 */
+	private static final class Spliced {
+
+		final ByteBuffer buffer;
+		final long spliceEnd;
+
+		Spliced(final ByteBuffer buffer, final long spliceEnd) {
+			this.buffer = buffer;
+			this.spliceEnd = spliceEnd;
+		}
+	}
+
+	private final int fd;
+	private final Kind kind;
+	private final int bufferSize;
+	private final boolean immediateFlush;
+	private final boolean vmsplice;
+	private final int spliceThreshold;
+	private final List<ThreadBuffer> buffers = new ArrayList<ThreadBuffer>();
+	// Guarded by itself.
+	private final List<Spliced> spliced = new ArrayList<Spliced>();
+	private final ThreadLocal<ThreadBuffer> threadBuffer = new ThreadLocal<ThreadBuffer>();
+	private final LibC.Pollfd pollfd = new LibC.Pollfd();
+	private final IntByReference unread = new IntByReference();
+	private final Thread flusher;
+	private Memory iovecs = new Memory(16 * IOVEC_SIZE);
+	private ByteBuffer large;
+	private Pointer largePointer;
+	private volatile long written;
+	private volatile boolean closed;
+
+	private NativeConsoleManager(final String name, final int fd, final Kind kind, final int pipeSize,
+			final int bufferSize, final Boolean immediateFlush, final int flushInterval, final boolean vmsplice,
+			final int spliceThreshold) {
+		super(name);
+		this.fd = fd;
+		this.kind = kind;
+		if (bufferSize > 0) {
+			this.bufferSize = bufferSize;
+		} else if (kind == Kind.TTY) {
+			this.bufferSize = TTY_BUFFER_SIZE;
+		} else if (kind == Kind.PIPE) {
+			this.bufferSize = Math.min(pipeSize, MAX_BUFFER_SIZE);
+		} else {
+			this.bufferSize = MAX_BUFFER_SIZE;
+		}
+		this.immediateFlush = immediateFlush == null ? kind == Kind.TTY : immediateFlush.booleanValue();
+		this.vmsplice = vmsplice && kind == Kind.PIPE;
+		this.spliceThreshold = spliceThreshold > 0 ? spliceThreshold : this.bufferSize;
+		pollfd.fd = fd;
+		pollfd.events = LibC.POLLOUT;
+
+		if (!this.immediateFlush && flushInterval > 0) {
+			flusher = new Thread("NativeConsoleManager-" + name) {
+				@Override
+				public void run() {
+					while (!closed) {
+						try {
+							Thread.sleep(flushInterval);
+						} catch (final InterruptedException e) {
+							return;
+						}
+						try {
+							flush();
+						} catch (final LastErrorException e) {
+							LOGGER.error("Unable to flush {}", getName(), e);
+						}
+					}
+				}
+			};
+			flusher.setDaemon(true);
+			flusher.start();
+		} else {
+			flusher = null;
+		}
+	}
+
+	/**
+	 * Gets a NativeConsoleManager for a file descriptor.
+	 *
+	 * @param name				The name to use for this NativeConsoleManager.
+	 * @param fd				The file descriptor, 1 or 2.
+	 * @param bufferSize		The size of each thread buffer, or 0 to match the descriptor.
+	 * @param immediateFlush	Flush after every event, or null to flush only a terminal.
+	 * @param flushInterval		Milliseconds between flushes when buffering, 0 for none.
+	 * @param vmsplice			Splice large flushes into a pipe.
+	 * @param spliceThreshold	Smallest flush to splice, or 0 for the buffer size.
+	 * @return The NativeConsoleManager as configured.
+	 */
+	public static NativeConsoleManager getNativeConsoleManager(final String name, final int fd,
+			final int bufferSize, final Boolean immediateFlush, final int flushInterval, final boolean vmsplice,
+			final int spliceThreshold) {
+		final Kind kind;
+		int pipeSize = 0;
+		if (LibC.INSTANCE.isatty(fd) == 1) {
+			kind = Kind.TTY;
+		} else {
+			pipeSize = LibC.INSTANCE.fcntl(fd, LibC.F_GETPIPE_SZ, 0);
+			kind = pipeSize > 0 ? Kind.PIPE : Kind.FILE;
+		}
+		return new NativeConsoleManager(name, fd, kind, pipeSize, bufferSize, immediateFlush, flushInterval,
+				vmsplice, spliceThreshold);
+	}
+
+	/**
+	 * Encodes an event into the buffer of the calling thread.
+	 *
+	 * @param event
+	 *            Log event.
+	 * @param writer
+	 *            Writes the event.
+	 * @param endOfBatch
+	 *            The event ends a batch, flush after it.
+	 */
+	public void write(final LogEvent event, final MessageWriter writer, final boolean endOfBatch) {
+		if (closed) {
+			throw new IllegalStateException("NativeConsoleManager " + getName() + " is closed");
+		}
+		final ThreadBuffer buffer = getThreadBuffer();
+		if (!write(buffer, event, writer)) {
+			synchronized (this) {
+				flush();
+				if (!write(buffer, event, writer)) {
+					writeLarge(event, writer);
+				}
+			}
+		}
+		if (immediateFlush || endOfBatch) {
+			flush();
+		}
+	}
+
+	private boolean write(final ThreadBuffer buffer, final LogEvent event, final MessageWriter writer) {
+		buffer.lock.lock();
+		try {
+			if (!awaitConsumed(buffer, SPLICE_TIMEOUT_NANOS)) {
+				// Keep the pages in the pipe and go on with new ones.
+				synchronized (spliced) {
+					spliced.add(new Spliced(buffer.buffer, buffer.spliceEnd));
+				}
+				buffer.allocate(bufferSize);
+				buffer.spliceEnd = 0;
+			}
+			final int mark = buffer.buffer.position();
+			try {
+				writer.write(event, buffer.buffer);
+				return true;
+			} catch (final BufferOverflowException e) {
+				buffer.buffer.position(mark);
+				return false;
+			}
+		} finally {
+			buffer.lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes an event larger than a thread buffer, after everything buffered.
+	 */
+	private void writeLarge(final LogEvent event, final MessageWriter writer) {
+		int size = Math.max(large == null ? 0 : large.capacity(), bufferSize * 2);
+		for (;;) {
+			if (large == null || large.capacity() < size) {
+				large = ByteBuffer.allocateDirect(size);
+				largePointer = Native.getDirectBufferPointer(large);
+			}
+			large.clear();
+			try {
+				writer.write(event, large);
+				break;
+			} catch (final BufferOverflowException e) {
+				if (size >= MAX_LARGE_EVENT_SIZE) {
+					throw new IllegalArgumentException("Event exceeds " + MAX_LARGE_EVENT_SIZE + " bytes", e);
+				}
+				size = Math.min(size * 2, MAX_LARGE_EVENT_SIZE);
+			}
+		}
+		iovecs.setPointer(0, largePointer);
+		iovecs.setLong(IOV_LEN_OFFSET, large.position());
+		writeFully(1, false);
+	}
+
+	private ThreadBuffer getThreadBuffer() {
+		ThreadBuffer buffer = threadBuffer.get();
+		if (buffer == null) {
+			buffer = new ThreadBuffer(bufferSize);
+			synchronized (this) {
+				buffers.add(buffer);
+			}
+			threadBuffer.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Writes the buffers of all threads with one call.
+	 */
+	public synchronized void flush() {
+		if (iovecs.size() < (long) buffers.size() * IOVEC_SIZE) {
+			iovecs = new Memory((long) buffers.size() * 2 * IOVEC_SIZE);
+		}
+		int count = 0;
+		long total = 0;
+		for (final ThreadBuffer buffer : buffers) {
+			buffer.lock.lock();
+			final int length = buffer.buffer.position();
+			if (length > 0) {
+				iovecs.setPointer((long) count * IOVEC_SIZE, buffer.pointer);
+				iovecs.setLong((long) count * IOVEC_SIZE + IOV_LEN_OFFSET, length);
+				count++;
+				total += length;
+			}
+		}
+		try {
+			if (count > 0) {
+				final boolean splice = vmsplice && total >= spliceThreshold && !isSpliceStalled();
+				writeFully(count, splice);
+				if (splice) {
+					for (final ThreadBuffer buffer : buffers) {
+						if (buffer.buffer.position() > 0) {
+							buffer.spliceEnd = written;
+						}
+					}
+				}
+			}
+		} finally {
+			for (final Iterator<ThreadBuffer> i = buffers.iterator(); i.hasNext();) {
+				final ThreadBuffer buffer = i.next();
+				buffer.buffer.clear();
+				buffer.lock.unlock();
+				if (!buffer.owner.isAlive() && isConsumed(buffer, unread)) {
+					i.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true while buffers given up on are still in the pipe, when
+	 *         flushes copy rather than hand more pages to a slow reader
+	 */
+	private boolean isSpliceStalled() {
+		synchronized (spliced) {
+			for (final Iterator<Spliced> i = spliced.iterator(); i.hasNext();) {
+				if (isRead(i.next().spliceEnd, unread)) {
+					i.remove();
+				}
+			}
+			return !spliced.isEmpty();
+		}
+	}
+
+	/**
+	 * Writes the first count iovecs, continuing after partial writes.
+	 */
+	private void writeFully(final int count, final boolean splice) {
+		int first = 0;
+		while (first < count) {
+			final Pointer iov = iovecs.share((long) first * IOVEC_SIZE);
+			final int segments = Math.min(count - first, LibC.IOV_MAX);
+			long n = splice ? LibC.INSTANCE.vmsplice(fd, iov, new NativeLong(segments), 0).longValue()
+					: LibC.INSTANCE.writev(fd, iov, segments).longValue();
+			if (n < 0) {
+				final int error = Native.getLastError();
+				if (error == LibC.EAGAIN) {
+					awaitWritable();
+				} else if (error != LibC.EINTR) {
+					throw new LastErrorException(error);
+				}
+				continue;
+			}
+			written += n;
+			while (n > 0) {
+				final long offset = (long) first * IOVEC_SIZE;
+				final long length = iovecs.getLong(offset + IOV_LEN_OFFSET);
+				if (n >= length) {
+					n -= length;
+					first++;
+				} else {
+					iovecs.setPointer(offset, iovecs.getPointer(offset).share(n));
+					iovecs.setLong(offset + IOV_LEN_OFFSET, length - n);
+					n = 0;
+				}
+			}
+		}
+	}
+
+	private void awaitWritable() {
+		while (LibC.INSTANCE.poll(pollfd, 1, -1) < 0) {
+			final int error = Native.getLastError();
+			if (error != LibC.EINTR) {
+				throw new LastErrorException(error);
+			}
+		}
+	}
+
+	/**
+	 * Waits until the reader has consumed the pages last spliced from a
+	 * buffer, so that the buffer can be written again.
+	 *
+	 * @return false if they were not consumed in time
+	 */
+	private boolean awaitConsumed(final ThreadBuffer buffer, final long timeoutNanos) {
+		final long start = System.nanoTime();
+		while (!isConsumed(buffer, buffer.unread)) {
+			if (System.nanoTime() - start >= timeoutNanos) {
+				return false;
+			}
+			LockSupport.parkNanos(SPLICE_POLL_NANOS);
+		}
+		return true;
+	}
+
+	private boolean isConsumed(final ThreadBuffer buffer, final IntByReference unread) {
+		if (buffer.spliceEnd == 0) {
+			return true;
+		}
+		if (isRead(buffer.spliceEnd, unread)) {
+			buffer.spliceEnd = 0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the reader has read the bytes written to the
+	 *         descriptor up to an end
+	 */
+	private boolean isRead(final long end, final IntByReference unread) {
+		// Bytes other writers put in the pipe only make this estimate later.
+		return LibC.INSTANCE.ioctl(fd, new NativeLong(LibC.FIONREAD), unread) == 0
+				&& written - unread.getValue() >= end;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.logging.log4j.core.appender.AbstractManager#releaseSub()
+	 */
+	@Override
+	protected void releaseSub() {
+		if (flusher != null) {
+			flusher.interrupt();
+		}
+		try {
+			flush();
+		} catch (final LastErrorException e) {
+			LOGGER.error("Unable to flush {}", getName(), e);
+		}
+		synchronized (this) {
+			// Spliced pages must not be freed while still in the pipe.
+			final List<ByteBuffer> unconsumed = new ArrayList<ByteBuffer>();
+			for (final ThreadBuffer buffer : buffers) {
+				buffer.lock.lock();
+				try {
+					if (!awaitConsumed(buffer, RELEASE_TIMEOUT_NANOS)) {
+						unconsumed.add(buffer.buffer);
+					}
+				} finally {
+					buffer.lock.unlock();
+				}
+			}
+			if (isSpliceStalled()) {
+				synchronized (spliced) {
+					for (final Spliced pages : spliced) {
+						unconsumed.add(pages.buffer);
+					}
+				}
+			}
+			if (!unconsumed.isEmpty()) {
+				LOGGER.warn("{} buffers of {} are still in the pipe, keeping them", unconsumed.size(), getName());
+				synchronized (ABANDONED) {
+					ABANDONED.addAll(unconsumed);
+				}
+			}
+			closed = true;
+		}
+		// The descriptor belongs to the process and is left open.
+	}
+
+	/**
+	 * @return the file descriptor written to
+	 */
+	public int getFd() {
+		return fd;
+	}
+
+	/**
+	 * @return what the file descriptor refers to
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the size of each thread buffer
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @return whether every event is flushed
+	 */
+	public boolean isImmediateFlush() {
+		return immediateFlush;
+	}
+
+	/**
+	 * @return whether large flushes are spliced into the pipe
+	 */
+	public boolean isVmsplice() {
+		return vmsplice;
+	}
+}
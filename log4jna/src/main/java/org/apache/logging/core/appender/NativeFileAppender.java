@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.AppenderLoggingException;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+
+import com.sun.jna.LastErrorException;
+
+/**
+ * Append to a file through a descriptor owned by the appender, keeping the
+ * log out of the page cache.
+ *
+ * <p>
+ * <b>WARNING</b> This appender can only be installed and used on a Linux
+ * system.
+ * </p>
+ *
+ * <p>
+ * Events are encoded as UTF-8 into a page aligned buffer of bufferSize bytes
+ * and written with pwrite, after every event with immediateFlush, else when
+ * the buffer is full and at the end of a batch of queued events. Every
+ * writebackSize bytes, writeback is started with sync_file_range and the
+ * window before is dropped from the page cache; a writebackSize of 0 leaves
+ * the page cache alone.
+ * </p>
+ *
+ * <p>
+ * Appenders writing the same file share one manager, created with the
+ * settings of the first, so that the appenders of a new configuration and
+ * those of the old one it replaces do not write over each other.
+ * </p>
+ *
+ * <p>
+ * With ioUring, buffers are written through an io_uring: a full buffer is
+ * submitted and events go on into the next of bufferCount buffers, so an
+ * event only waits for the disk when every buffer is in flight. linkedSync
+ * links an fdatasync to every write. Without io_uring support in the kernel
+ * the appender falls back to pwrite.
+ * </p>
+ *
+ * <p>
+ * With direct, the file is written with O_DIRECT, bypassing the page cache,
+ * from buffers aligned to blockSize, by default the block size of the file
+ * system. The last partial block is padded with zeros and written again when
+ * it fills up, and the file is truncated to its length when the appender
+ * stops. File systems without O_DIRECT are written through the page cache.
+ * </p>
+ *
+ * <p>
+ * With durable, logging an event returns only once it is on disk. Events
+ * are committed in groups, one fdatasync covering every event appended
+ * while the previous one ran, so durable events come close to the
+ * throughput of buffered ones. With durableMarker, only events with that
+ * marker, or a marker descending from it, wait; the others are written with
+ * the next commit or as without durable.
+ * </p>
+ *
+ * <p>
+ * With an indexInterval, the time and offset of an event every
+ * indexInterval bytes are written to a sparse index in the file name with
+ * ".idx" appended, which TimeIndexReader uses to read a time range of the
+ * file without scanning it.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "NativeFile", category = "Core", elementType = "appender", printObject = true)
+public class NativeFileAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	private final NativeFileManager manager;
+	private final boolean immediateFlush;
+	private final String durableMarker;
+
+	private final NativeFileManager.MessageWriter messageWriter = new NativeFileManager.MessageWriter() {
+		@Override
+		public void write(final LogEvent event, final ByteBuffer buffer) {
+			final Serializable message = getLayout().toSerializable(event);
+			if (message instanceof String) {
+				JournalEncoder.putUtf8(buffer, (String) message);
+			} else {
+				buffer.put(getLayout().toByteArray(event));
+			}
+		}
+	};
+
+	protected NativeFileAppender(final String name, final Filter filter, final Layout<? extends Serializable> layout,
+			final boolean ignoreExceptions, final NativeFileManager manager, final boolean immediateFlush,
+			final String durableMarker) {
+		super(name, filter, layout, ignoreExceptions);
+		this.manager = manager;
+		this.immediateFlush = immediateFlush;
+		this.durableMarker = durableMarker;
+	}
+
+	@Override
+	public void append(final LogEvent event) {
+		try {
+			manager.write(event, messageWriter, immediateFlush || event.isEndOfBatch(), isDurable(event));
+		} catch (final LastErrorException e) {
+			fail(event, e);
+		} catch (final IllegalArgumentException e) {
+			fail(event, e);
+		}
+	}
+
+	/**
+	 * Reports a failed write, to the caller unless exceptions are ignored, so
+	 * that a durable event that did not reach the disk is not taken for one
+	 * that did.
+	 */
+	private void fail(final LogEvent event, final RuntimeException e) {
+		final String message = "Failed to write event to " + manager.getFileName() + ".";
+		if (!ignoreExceptions()) {
+			throw new AppenderLoggingException(message, e);
+		}
+		getHandler().error(message, event, e);
+	}
+
+	private boolean isDurable(final LogEvent event) {
+		if (durableMarker == null) {
+			return true;
+		}
+		final Marker marker = event.getMarker();
+		return marker != null && marker.isInstanceOf(durableMarker);
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		manager.release();
+	}
+
+	/**
+	 * @return the manager of this appender
+	 */
+	public NativeFileManager getManager() {
+		return manager;
+	}
+
+	@PluginBuilderFactory
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder implements org.apache.logging.log4j.core.util.Builder<NativeFileAppender> {
+
+		@PluginBuilderAttribute
+		@Required(message = "A name for the NativeFileAppender must be specified")
+		private String name;
+
+		@PluginBuilderAttribute
+		@Required(message = "A fileName for the NativeFileAppender must be specified")
+		private String fileName;
+
+		@PluginBuilderAttribute
+		private boolean append = true;
+
+		@PluginBuilderAttribute
+		private int bufferSize = NativeFileManager.DEFAULT_BUFFER_SIZE;
+
+		@PluginBuilderAttribute
+		private boolean immediateFlush = true;
+
+		@PluginBuilderAttribute
+		private long writebackSize = NativeFileManager.DEFAULT_WRITEBACK_SIZE;
+
+		@PluginBuilderAttribute
+		private boolean ioUring;
+
+		@PluginBuilderAttribute
+		private int bufferCount = NativeFileManager.DEFAULT_BUFFER_COUNT;
+
+		@PluginBuilderAttribute
+		private boolean linkedSync;
+
+		@PluginBuilderAttribute
+		private boolean direct;
+
+		@PluginBuilderAttribute
+		private int blockSize;
+
+		@PluginBuilderAttribute
+		private boolean durable;
+
+		@PluginBuilderAttribute
+		private String durableMarker;
+
+		@PluginBuilderAttribute
+		private long indexInterval;
+
+		@PluginElement("Layout")
+		private Layout<? extends Serializable> layout;
+
+		@PluginElement("Filter")
+		private Filter filter;
+
+		@PluginBuilderAttribute
+		private boolean ignoreExceptions = true;
+
+		private Builder() {
+		}
+
+		public Builder setName(final String name) {
+			this.name = name;
+			return this;
+		}
+
+		public Builder setFileName(final String fileName) {
+			this.fileName = fileName;
+			return this;
+		}
+
+		public Builder setAppend(final boolean append) {
+			this.append = append;
+			return this;
+		}
+
+		public Builder setBufferSize(final int bufferSize) {
+			this.bufferSize = bufferSize;
+			return this;
+		}
+
+		public Builder setImmediateFlush(final boolean immediateFlush) {
+			this.immediateFlush = immediateFlush;
+			return this;
+		}
+
+		public Builder setWritebackSize(final long writebackSize) {
+			this.writebackSize = writebackSize;
+			return this;
+		}
+
+		public Builder setIoUring(final boolean ioUring) {
+			this.ioUring = ioUring;
+			return this;
+		}
+
+		public Builder setBufferCount(final int bufferCount) {
+			this.bufferCount = bufferCount;
+			return this;
+		}
+
+		public Builder setLinkedSync(final boolean linkedSync) {
+			this.linkedSync = linkedSync;
+			return this;
+		}
+
+		public Builder setDirect(final boolean direct) {
+			this.direct = direct;
+			return this;
+		}
+
+		public Builder setBlockSize(final int blockSize) {
+			this.blockSize = blockSize;
+			return this;
+		}
+
+		public Builder setDurable(final boolean durable) {
+			this.durable = durable;
+			return this;
+		}
+
+		public Builder setDurableMarker(final String durableMarker) {
+			this.durableMarker = durableMarker;
+			return this;
+		}
+
+		public Builder setIndexInterval(final long indexInterval) {
+			this.indexInterval = indexInterval;
+			return this;
+		}
+
+		public Builder setLayout(final Layout<? extends Serializable> layout) {
+			this.layout = layout;
+			return this;
+		}
+
+		public Builder setFilter(final Filter filter) {
+			this.filter = filter;
+			return this;
+		}
+
+		public Builder setIgnoreExceptions(final boolean ignoreExceptions) {
+			this.ignoreExceptions = ignoreExceptions;
+			return this;
+		}
+
+		@Override
+		public NativeFileAppender build() {
+			try {
+				final NativeFileManager manager = NativeFileManager.getNativeFileManager(fileName, append,
+						bufferSize, writebackSize, ioUring, bufferCount, linkedSync, direct, blockSize, durable,
+						indexInterval);
+				return new NativeFileAppender(name, filter, layout == null ? PatternLayout.createDefaultLayout()
+						: layout, ignoreExceptions, manager, immediateFlush, durableMarker);
+			} catch (final LastErrorException e) {
+				LOGGER.error("Error creating NativeFileAppender [{}] for {}.", name, fileName, e);
+				return null;
+			} catch (final IllegalArgumentException e) {
+				LOGGER.error("Error creating NativeFileAppender [{}] for {}.", name, fileName, e);
+				return null;
+			}
+		}
+	}
+}
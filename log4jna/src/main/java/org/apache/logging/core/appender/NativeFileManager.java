@@ -0,0 +1,853 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractManager;
+import org.apache.logging.log4j.core.appender.ManagerFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.PointerByReference;
+
+/**
+ * Writes encoded events to a file it owns the descriptor of, with pwrite from
+ * a page aligned buffer, or through an io_uring from several.
+ *
+ * <p>
+ * To keep the log out of the page cache, writeback of every writeback size
+ * bytes is started with sync_file_range. Once the following window is
+ * written, the previous one is waited for and dropped from the cache with
+ * posix_fadvise(POSIX_FADV_DONTNEED), so the log occupies at most about two
+ * windows of cache and writeback is spread out instead of left to periodic
+ * flushes.
+ * </p>
+ *
+ * <p>
+ * With io_uring, a full buffer is submitted and events go on into the next
+ * buffer, so only when every buffer is in flight does a writer wait for the
+ * disk. Each submission carries the events of a whole buffer and, optionally,
+ * a linked fdatasync. When io_uring is not available the manager falls back
+ * to pwrite.
+ * </p>
+ *
+ * <p>
+ * With direct I/O the file is opened with O_DIRECT and buffers are aligned to
+ * the block size of the file system. A flush pads the last partial block
+ * with zeros and keeps it at the start of the buffer, to be written again,
+ * completed, by the next flush. Until the file is closed it may therefore
+ * end with up to a block of zeros; closing truncates it to its length.
+ * </p>
+ *
+ * <p>
+ * When durable, a committer thread makes events durable in groups: a writer
+ * asking for durability gets a sequence number and waits until a commit has
+ * covered it. A commit writes the buffer, then calls fdatasync once outside
+ * the lock, so events keep being buffered meanwhile and the writers that
+ * arrived during one fdatasync are all covered by the next.
+ * </p>
+ *
+ * <p>
+ * With an index interval, the time and offset of an event at least that
+ * many bytes after the last indexed one are added to a sparse
+ * {@link TimeIndex} next to the file, for {@link TimeIndexReader} to seek
+ * by time.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class NativeFileManager extends AbstractManager {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * Default buffer size.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * Default number of bytes between writeback calls.
+	 */
+	public static final long DEFAULT_WRITEBACK_SIZE = 1024 * 1024;
+
+	/**
+	 * Default number of buffers with io_uring.
+	 */
+	public static final int DEFAULT_BUFFER_COUNT = 4;
+
+	private static final int PAGE_SIZE = 4096;
+	private static final int MAX_LARGE_EVENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * A durable event waiting for the commit covering it, which leaves its
+	 * outcome here.
+	 */
+	private static final class CommitWaiter {
+
+		final long sequence;
+		boolean done;
+		int error;
+
+		CommitWaiter(final long sequence) {
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * Writes one event.
+	 */
+	interface MessageWriter {
+
+		/**
+		 * @throws BufferOverflowException
+		 *             if the event does not fit, it is then written again
+		 *             after a flush
+		 */
+		void write(LogEvent event, ByteBuffer buffer);
+	}
+
+	private final String fileName;
+	private final long writebackSize;
+	private final boolean direct;
+	private final int blockSize;
+	private final Pointer memory;
+	private final Pointer[] bufferPointers;
+	private final ByteBuffer[] buffers;
+	private final IoUring ioUring;
+	private final TimeIndex index;
+	private long lastTime = Long.MIN_VALUE;
+	private int current;
+	private Pointer bufferPointer;
+	private ByteBuffer buffer;
+	private ByteBuffer large;
+	private int fd;
+	// File offset of the start of the buffer.
+	private long bufferStart;
+	// Bytes at the start of the buffer that are already in the file, the
+	// last partial block written with direct I/O.
+	private int carried;
+	// With io_uring, the buffer submitted before the current one when the
+	// current one starts with its last block.
+	private int overlapped = -1;
+	private long writebackStart;
+	private long writebackEnd;
+	private boolean cacheControl;
+
+	// Group commit, guarded by the manager for appended and by commitLock for
+	// the rest.
+	private final Thread committer;
+	private final Object commitLock = new Object();
+	// Durable events waiting for a commit, by sequence number.
+	private final ArrayDeque<CommitWaiter> commitWaiters = new ArrayDeque<CommitWaiter>();
+	private long appended;
+	private long requested;
+	private long committed;
+	private long commitCount;
+	private boolean closing;
+
+	private NativeFileManager(final String name, final String fileName, final int fd, final long length,
+			final boolean direct, final int blockSize, final int bufferSize, final long writebackSize,
+			final boolean ioUring, final int bufferCount, final boolean linkedSync, final boolean durable,
+			final TimeIndex index) {
+		super(name);
+		this.fileName = fileName;
+		this.fd = fd;
+		this.index = index;
+		this.direct = direct;
+		this.blockSize = blockSize;
+		this.writebackSize = writebackSize;
+		// Direct I/O does not go through the page cache.
+		this.cacheControl = writebackSize > 0 && !direct;
+
+		final int count = ioUring ? Math.max(bufferCount, 2) : 1;
+		final long stride = (bufferSize + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+		final PointerByReference allocated = new PointerByReference();
+		final int error = LibC.INSTANCE.posix_memalign(allocated, new NativeLong(Math.max(blockSize, PAGE_SIZE)),
+				new NativeLong(stride * count));
+		if (error != 0) {
+			throw new LastErrorException(error);
+		}
+		memory = allocated.getValue();
+		bufferPointers = new Pointer[count];
+		buffers = new ByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			bufferPointers[i] = memory.share(i * stride);
+			buffers[i] = bufferPointers[i].getByteBuffer(0, bufferSize);
+		}
+		bufferPointer = bufferPointers[0];
+		buffer = buffers[0];
+
+		bufferStart = direct ? length / blockSize * blockSize : length;
+		carried = (int) (length - bufferStart);
+		if (carried > 0) {
+			try {
+				readFully(bufferPointer, blockSize, bufferStart);
+			} catch (final LastErrorException e) {
+				LibC.INSTANCE.free(memory);
+				throw e;
+			}
+			buffer.position(carried);
+		}
+		writebackStart = bufferStart;
+		writebackEnd = bufferStart;
+		this.ioUring = ioUring ? createIoUring(fd, bufferSize, linkedSync) : null;
+
+		if (durable) {
+			committer = new Thread("NativeFileManager-" + name) {
+				@Override
+				public void run() {
+					while (awaitRequest()) {
+						commit();
+					}
+				}
+			};
+			committer.setDaemon(true);
+			committer.start();
+		} else {
+			committer = null;
+		}
+	}
+
+	private IoUring createIoUring(final int fd, final int bufferSize, final boolean linkedSync) {
+		if (!IoUring.isSupported()) {
+			LOGGER.warn("io_uring is not supported on this platform, writing {} with pwrite", fileName);
+			return null;
+		}
+		try {
+			return new IoUring(fd, bufferPointers, bufferSize, linkedSync);
+		} catch (final LastErrorException e) {
+			LOGGER.warn("io_uring is not available ({}), writing {} with pwrite", e.getMessage(), fileName);
+			return null;
+		} catch (final UnsatisfiedLinkError e) {
+			LOGGER.warn("io_uring is not available ({}), writing {} with pwrite", e.getMessage(), fileName);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the NativeFileManager of a file, shared by the appenders writing
+	 * it, as log4j shares the FileManager of a file. A reconfiguration starts
+	 * the appenders of the new configuration before it stops those of the
+	 * old one, which must not write the same file at offsets of their own.
+	 * The manager is created with the settings of the first appender.
+	 *
+	 * @param fileName			The file to write to, also the name of the manager.
+	 * @param append			Keep the content of an existing file.
+	 * @param bufferSize		The size of the write buffer.
+	 * @param writebackSize		Bytes between writeback calls, 0 to leave the page cache alone.
+	 * @param ioUring			Write through an io_uring when available.
+	 * @param bufferCount		The number of buffers with io_uring.
+	 * @param linkedSync		Follow every io_uring write with a linked fdatasync.
+	 * @param direct			Open the file with O_DIRECT.
+	 * @param blockSize			The alignment for direct I/O, or 0 for the file system block size.
+	 * @param durable			Make events durable on request, with group commit.
+	 * @param indexInterval		Bytes between time index entries, 0 for no index.
+	 * @return The NativeFileManager as configured.
+	 */
+	public static NativeFileManager getNativeFileManager(final String fileName, final boolean append, final int bufferSize, final long writebackSize, final boolean ioUring,
+			final int bufferCount, final boolean linkedSync, final boolean direct, final int blockSize,
+			final boolean durable, final long indexInterval) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("bufferSize must be at least 1: " + bufferSize);
+		}
+		if (blockSize < 0 || Integer.bitCount(blockSize) > 1) {
+			throw new IllegalArgumentException("blockSize must be a power of two: " + blockSize);
+		}
+		if (indexInterval < 0) {
+			throw new IllegalArgumentException("indexInterval must not be negative: " + indexInterval);
+		}
+		return getManager(fileName, FACTORY, new FactoryData(append, bufferSize, writebackSize, ioUring, bufferCount,
+				linkedSync, direct, blockSize, durable, indexInterval));
+	}
+
+	/**
+	 * The settings of a NativeFileManager to create.
+	 */
+	private static final class FactoryData {
+
+		final boolean append;
+		final int bufferSize;
+		final long writebackSize;
+		final boolean ioUring;
+		final int bufferCount;
+		final boolean linkedSync;
+		final boolean direct;
+		final int blockSize;
+		final boolean durable;
+		final long indexInterval;
+
+		FactoryData(final boolean append, final int bufferSize, final long writebackSize, final boolean ioUring,
+				final int bufferCount, final boolean linkedSync, final boolean direct, final int blockSize,
+				final boolean durable, final long indexInterval) {
+			this.append = append;
+			this.bufferSize = bufferSize;
+			this.writebackSize = writebackSize;
+			this.ioUring = ioUring;
+			this.bufferCount = bufferCount;
+			this.linkedSync = linkedSync;
+			this.direct = direct;
+			this.blockSize = blockSize;
+			this.durable = durable;
+			this.indexInterval = indexInterval;
+		}
+	}
+
+	private static final ManagerFactory<NativeFileManager, FactoryData> FACTORY =
+			new ManagerFactory<NativeFileManager, FactoryData>() {
+		@Override
+		public NativeFileManager createManager(final String fileName, final FactoryData data) {
+			return open(fileName, data.append, data.bufferSize, data.writebackSize, data.ioUring, data.bufferCount,
+					data.linkedSync, data.direct, data.blockSize, data.durable, data.indexInterval);
+		}
+	};
+
+	private static NativeFileManager open(final String fileName, final boolean append, final int bufferSize,
+			final long writebackSize, final boolean ioUring, final int bufferCount, final boolean linkedSync,
+			final boolean direct, final int blockSize, final boolean durable, final long indexInterval) {
+		// Not O_APPEND: Linux ignores the offset of pwrite on such descriptors.
+		final int flags = LibC.O_CREAT | LibC.O_CLOEXEC | (append ? 0 : LibC.O_TRUNC);
+		int fd = -1;
+		boolean isDirect = direct;
+		if (direct) {
+			// Read access to complete the last block of an existing file.
+			fd = LibC.INSTANCE.open(fileName, flags | LibC.O_RDWR | LibC.O_DIRECT, 0644);
+			if (fd < 0 && Native.getLastError() == LibC.EINVAL) {
+				LOGGER.warn("The file system of {} does not support O_DIRECT, writing through the page cache",
+						fileName);
+				isDirect = false;
+			}
+		}
+		if (!isDirect) {
+			fd = LibC.INSTANCE.open(fileName, flags | LibC.O_WRONLY, 0644);
+		}
+		if (fd < 0) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		TimeIndex index = null;
+		try {
+			final long length = LibC.INSTANCE.lseek(fd, 0, LibC.SEEK_END);
+			if (length < 0) {
+				throw new LastErrorException(Native.getLastError());
+			}
+			final int alignment = isDirect ? blockSize > 0 ? blockSize : getBlockSize(fd) : 1;
+			final int size = isDirect ? (bufferSize + alignment - 1) / alignment * alignment : bufferSize;
+			index = indexInterval > 0 ? new TimeIndex(fileName, indexInterval, length) : null;
+			return new NativeFileManager(fileName, fileName, fd, length, isDirect, alignment, size, writebackSize,
+					ioUring, bufferCount, linkedSync, durable, index);
+		} catch (final LastErrorException e) {
+			if (index != null) {
+				index.close();
+			}
+			LibC.INSTANCE.close(fd);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the block size of the file system of a file, at least 512
+	 *         bytes, or the page size when it cannot be determined.
+	 */
+	private static int getBlockSize(final int fd) {
+		final Memory stat = new Memory(LibC.STAT_SIZE);
+		try {
+			if (LibC.INSTANCE.fstat(fd, stat) == 0) {
+				final long blockSize = stat.getLong(LibC.STAT_ST_BLKSIZE);
+				if (blockSize >= 512 && blockSize <= 1024 * 1024 && Long.bitCount(blockSize) == 1) {
+					return (int) blockSize;
+				}
+			}
+		} catch (final UnsatisfiedLinkError e) {
+			// fstat is only exported by glibc 2.33 and later.
+		}
+		return PAGE_SIZE;
+	}
+
+	/**
+	 * Encodes an event into the buffer, writing the buffer when it is full or
+	 * when flush is requested.
+	 *
+	 * @param event
+	 *            Log event.
+	 * @param writer
+	 *            Writes the event.
+	 * @param flush
+	 *            Write the buffer after this event.
+	 */
+	public void write(final LogEvent event, final MessageWriter writer, final boolean flush) {
+		write(event, writer, flush, false);
+	}
+
+	/**
+	 * Encodes an event into the buffer and, when durable is requested of a
+	 * durable manager, waits until a commit has made it durable.
+	 *
+	 * @param event
+	 *            Log event.
+	 * @param writer
+	 *            Writes the event.
+	 * @param flush
+	 *            Write the buffer after this event, when not durable.
+	 * @param durable
+	 *            Return only once the event is durable.
+	 * @throws LastErrorException
+	 *             if the commit covering the event failed
+	 */
+	public void write(final LogEvent event, final MessageWriter writer, final boolean flush,
+			final boolean durable) {
+		final CommitWaiter waiter = append(event, writer, flush, durable && committer != null);
+		if (waiter != null) {
+			awaitCommit(waiter);
+		}
+	}
+
+	/**
+	 * @return the waiter of the event when durable, else null
+	 */
+	private synchronized CommitWaiter append(final LogEvent event, final MessageWriter writer, final boolean flush,
+			final boolean durable) {
+		if (fd < 0) {
+			throw new IllegalStateException("NativeFileManager " + getName() + " is closed");
+		}
+		final long offset = bufferStart + buffer.position();
+		if (!encode(event, writer)) {
+			writeBuffer();
+			if (!encode(event, writer)) {
+				writeLarge(event, writer);
+			}
+		}
+		if (index != null) {
+			lastTime = Math.max(lastTime, event.getTimeMillis());
+			index.add(event.getTimeMillis(), offset);
+		}
+		// A durable event is written by the commit covering it.
+		if (flush && !durable || !buffer.hasRemaining()) {
+			writeBuffer();
+		}
+		if (!durable) {
+			return null;
+		}
+		final CommitWaiter waiter = new CommitWaiter(++appended);
+		synchronized (commitLock) {
+			commitWaiters.addLast(waiter);
+		}
+		return waiter;
+	}
+
+	private boolean encode(final LogEvent event, final MessageWriter writer) {
+		final int mark = buffer.position();
+		try {
+			writer.write(event, buffer);
+			return true;
+		} catch (final BufferOverflowException e) {
+			buffer.position(mark);
+			return false;
+		}
+	}
+
+	/**
+	 * Writes an event larger than the buffer through the buffer, in pieces.
+	 */
+	private void writeLarge(final LogEvent event, final MessageWriter writer) {
+		int size = Math.max(large == null ? 0 : large.capacity(), buffer.capacity() * 2);
+		for (;;) {
+			if (large == null || large.capacity() < size) {
+				large = ByteBuffer.allocateDirect(size);
+			}
+			large.clear();
+			try {
+				writer.write(event, large);
+				break;
+			} catch (final BufferOverflowException e) {
+				if (size >= MAX_LARGE_EVENT_SIZE) {
+					throw new IllegalArgumentException("Event exceeds " + MAX_LARGE_EVENT_SIZE + " bytes", e);
+				}
+				size = Math.min(size * 2, MAX_LARGE_EVENT_SIZE);
+			}
+		}
+		large.flip();
+		while (large.hasRemaining()) {
+			final int limit = large.limit();
+			large.limit(large.position() + Math.min(buffer.remaining(), large.remaining()));
+			buffer.put(large);
+			large.limit(limit);
+			if (!buffer.hasRemaining()) {
+				writeBuffer();
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffer to the file.
+	 */
+	public synchronized void flush() {
+		if (fd >= 0) {
+			writeBuffer();
+		}
+	}
+
+	private void writeBuffer() {
+		final int length = buffer.position();
+		if (length == carried) {
+			return;
+		}
+		int writeLength = length;
+		if (direct) {
+			writeLength = (length + blockSize - 1) / blockSize * blockSize;
+			bufferPointer.setMemory(length, writeLength - length, (byte) 0);
+		}
+		// The part of the last block that must be written again, completed.
+		final int tail = direct ? length % blockSize : 0;
+		final int written = length - tail;
+
+		if (ioUring == null) {
+			writeFully(bufferPointer, writeLength, bufferStart);
+			if (tail > 0 && written > 0) {
+				LibC.INSTANCE.memmove(bufferPointer, bufferPointer.share(written), new NativeLong(tail));
+			}
+		} else {
+			if (overlapped >= 0) {
+				// Two writes of the same block must not be in flight at once.
+				ioUring.await(overlapped);
+			}
+			ioUring.write(current, writeLength, bufferStart);
+			final int previous = current;
+			current = (current + 1) % buffers.length;
+			// A failed earlier write is thrown below, once the buffers are
+			// switched, so that the next event does not go into the buffer
+			// just submitted.
+			ioUring.complete(current);
+			if (tail > 0) {
+				LibC.INSTANCE.memmove(bufferPointers[current], bufferPointer.share(written), new NativeLong(tail));
+			}
+			overlapped = tail > 0 ? previous : -1;
+			bufferPointer = bufferPointers[current];
+			buffer = buffers[current];
+		}
+		bufferStart += written;
+		carried = tail;
+		buffer.clear();
+		buffer.position(tail);
+
+		if (cacheControl && bufferStart - writebackEnd >= writebackSize) {
+			writeback(ioUring == null ? bufferStart : ioUring.completedPosition(bufferStart));
+		}
+		if (ioUring != null) {
+			ioUring.throwIfFailed();
+		}
+	}
+
+	/**
+	 * Waits in the committer for a sequence number not yet committed.
+	 *
+	 * @return false once closing with nothing left to commit
+	 */
+	private boolean awaitRequest() {
+		synchronized (commitLock) {
+			while (requested <= committed && !closing) {
+				try {
+					commitLock.wait();
+				} catch (final InterruptedException e) {
+					// Only stopped by closing.
+				}
+			}
+			return requested > committed;
+		}
+	}
+
+	/**
+	 * Writes everything appended so far and makes it durable with one
+	 * fdatasync.
+	 */
+	private void commit() {
+		final long sequence;
+		final int syncFd;
+		int error = 0;
+		synchronized (this) {
+			sequence = appended;
+			syncFd = fd;
+			try {
+				writeBuffer();
+				if (ioUring != null) {
+					ioUring.drain();
+				}
+			} catch (final LastErrorException e) {
+				error = e.getErrorCode();
+			}
+		}
+		// The descriptor stays open until the committer has stopped.
+		if (error == 0) {
+			error = sync(syncFd);
+		}
+		committed(sequence, error);
+	}
+
+	private static int sync(final int fd) {
+		while (LibC.INSTANCE.fdatasync(fd) != 0) {
+			final int error = Native.getLastError();
+			if (error != LibC.EINTR) {
+				return error;
+			}
+		}
+		return 0;
+	}
+
+	private void committed(final long sequence, final int error) {
+		synchronized (commitLock) {
+			if (error != 0) {
+				LOGGER.error("Unable to make events durable in {}: {}", fileName, LibC.INSTANCE.strerror(error));
+			}
+			while (!commitWaiters.isEmpty() && commitWaiters.peekFirst().sequence <= sequence) {
+				final CommitWaiter waiter = commitWaiters.removeFirst();
+				waiter.error = error;
+				waiter.done = true;
+			}
+			committed = Math.max(committed, sequence);
+			commitCount++;
+			commitLock.notifyAll();
+		}
+	}
+
+	private void awaitCommit(final CommitWaiter waiter) {
+		boolean interrupted = false;
+		synchronized (commitLock) {
+			if (waiter.sequence > requested) {
+				requested = waiter.sequence;
+				commitLock.notifyAll();
+			}
+			while (!waiter.done) {
+				try {
+					commitLock.wait();
+				} catch (final InterruptedException e) {
+					// The event is in the buffer, so wait for it anyway.
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (waiter.error != 0) {
+				throw new LastErrorException(waiter.error);
+			}
+		}
+	}
+
+	private void writeFully(final Pointer data, final int length, final long offset) {
+		long done = 0;
+		while (done < length) {
+			final long n = LibC.INSTANCE.pwrite(fd, data.share(done), new NativeLong(length - done),
+					offset + done).longValue();
+			if (n < 0) {
+				final int error = Native.getLastError();
+				if (error != LibC.EINTR) {
+					throw new LastErrorException(error);
+				}
+			} else {
+				done += n;
+			}
+		}
+	}
+
+	private void readFully(final Pointer data, final int length, final long offset) {
+		long done = 0;
+		while (done < length) {
+			final long n = LibC.INSTANCE.pread(fd, data.share(done), new NativeLong(length - done),
+					offset + done).longValue();
+			if (n < 0) {
+				final int error = Native.getLastError();
+				if (error != LibC.EINTR) {
+					throw new LastErrorException(error);
+				}
+			} else if (n == 0) {
+				return;
+			} else {
+				done += n;
+			}
+		}
+	}
+
+	/**
+	 * Drops the previous window from the page cache and starts writeback of
+	 * the current one, up to the end of what is written.
+	 */
+	private void writeback(final long written) {
+		if (written <= writebackEnd) {
+			return;
+		}
+		if (writebackEnd > writebackStart) {
+			if (LibC.INSTANCE.sync_file_range(fd, writebackStart, writebackEnd - writebackStart,
+					LibC.SYNC_FILE_RANGE_WAIT_BEFORE | LibC.SYNC_FILE_RANGE_WRITE
+							| LibC.SYNC_FILE_RANGE_WAIT_AFTER) != 0) {
+				disableCacheControl("sync_file_range", Native.getLastError());
+				return;
+			}
+			final int error = LibC.INSTANCE.posix_fadvise(fd, writebackStart, writebackEnd - writebackStart,
+					LibC.POSIX_FADV_DONTNEED);
+			if (error != 0) {
+				disableCacheControl("posix_fadvise", error);
+				return;
+			}
+			writebackStart = writebackEnd;
+		}
+		if (LibC.INSTANCE.sync_file_range(fd, writebackEnd, written - writebackEnd,
+				LibC.SYNC_FILE_RANGE_WRITE) != 0) {
+			disableCacheControl("sync_file_range", Native.getLastError());
+			return;
+		}
+		writebackEnd = written;
+	}
+
+	private void disableCacheControl(final String function, final int error) {
+		cacheControl = false;
+		LOGGER.warn("{} failed for {}: {}, leaving the page cache alone", function, fileName,
+				LibC.INSTANCE.strerror(error));
+	}
+
+	/**
+	 * Writes what is buffered, waits for writes in flight, truncates the
+	 * padding of direct I/O and, when durable, commits what is left.
+	 */
+	private void closeFile() {
+		try {
+			writeBuffer();
+		} catch (final LastErrorException e) {
+			LOGGER.error("Unable to write buffered events to {}", fileName, e);
+		}
+		if (ioUring != null) {
+			try {
+				ioUring.drain();
+			} catch (final LastErrorException e) {
+				LOGGER.error("Unable to write buffered events to {}", fileName, e);
+			}
+		}
+		if (direct && LibC.INSTANCE.ftruncate(fd, bufferStart + carried) != 0) {
+			LOGGER.error("Unable to truncate {} to its length: {}", fileName,
+					LibC.INSTANCE.strerror(Native.getLastError()));
+		}
+		if (committer != null) {
+			committed(appended, sync(fd));
+		}
+		if (LibC.INSTANCE.close(fd) != 0) {
+			LOGGER.error("Unable to close {}", fileName);
+		}
+		fd = -1;
+		if (index != null) {
+			index.close(lastTime, bufferStart + carried);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.logging.log4j.core.appender.AbstractManager#releaseSub()
+	 */
+	@Override
+	protected void releaseSub() {
+		if (committer != null) {
+			synchronized (commitLock) {
+				closing = true;
+				commitLock.notifyAll();
+			}
+			try {
+				committer.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			if (fd >= 0) {
+				closeFile();
+				if (ioUring != null) {
+					ioUring.close();
+				}
+				LibC.INSTANCE.free(memory);
+			}
+		}
+	}
+
+	/**
+	 * @return the file written to
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return the size of the file including buffered events
+	 */
+	public synchronized long getLength() {
+		return bufferStart + buffer.position();
+	}
+
+	/**
+	 * @return whether events are written through an io_uring
+	 */
+	public boolean isIoUring() {
+		return ioUring != null;
+	}
+
+	/**
+	 * @return whether the file is written with direct I/O
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * @return the alignment of direct I/O
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return whether a time index is written next to the file
+	 */
+	public boolean isIndexed() {
+		return index != null;
+	}
+
+	/**
+	 * @return whether events are made durable on request
+	 */
+	public boolean isDurable() {
+		return committer != null;
+	}
+
+	/**
+	 * @return the number of commits, each one fdatasync
+	 */
+	long getCommitCount() {
+		synchronized (commitLock) {
+			return commitCount;
+		}
+	}
+
+	/**
+	 * @return the end of the range dropped from the page cache
+	 */
+	synchronized long getDroppedPosition() {
+		return writebackStart;
+	}
+}
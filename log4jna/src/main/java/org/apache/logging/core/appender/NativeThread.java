@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.platform.win32.Kernel32;
+
+/**
+ * The id the operating system knows the calling thread by, as shown by top
+ * -H, perf and Performance Monitor: gettid on Linux, GetCurrentThreadId on
+ * Windows.
+ *
+ * <p>
+ * The id of a thread does not change, so it is asked for once per thread and
+ * kept in a thread local.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+final class NativeThread {
+
+	// The number of gettid, which glibc only wraps since 2.30.
+	private static final NativeLong SYS_GETTID = new NativeLong(!Platform.isLinux() ? -1
+			: Platform.isIntel() ? Platform.is64Bit() ? 186 : 224 : Platform.isARM() ? Platform.is64Bit() ? 178
+					: 224 : -1);
+
+	private static final ThreadLocal<Integer> ID = new ThreadLocal<Integer>() {
+		@Override
+		protected Integer initialValue() {
+			return Integer.valueOf(queryId());
+		}
+	};
+
+	private NativeThread() {
+	}
+
+	private static int queryId() {
+		try {
+			if (SYS_GETTID.longValue() >= 0) {
+				return LibC.INSTANCE.syscall(SYS_GETTID).intValue();
+			}
+			if (Platform.isWindows()) {
+				return Kernel32.INSTANCE.GetCurrentThreadId();
+			}
+		} catch (final UnsatisfiedLinkError e) {
+			// Unknown.
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the native id of the calling thread, or -1 where it is not
+	 *         known
+	 */
+	static int getId() {
+		return ID.get().intValue();
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.pattern.ConverterKeys;
+import org.apache.logging.log4j.core.pattern.LogEventPatternConverter;
+import org.apache.logging.log4j.core.pattern.PatternConverter;
+
+/**
+ * Formats the native id of the thread, %ntid or %nativeThreadId, to match
+ * log lines with the threads of top -H, perf or Performance Monitor.
+ *
+ * <p>
+ * The id is that of the thread formatting the event, which is the thread
+ * logging it unless the appender formats events on a thread of its own, as
+ * asynchronous appenders do. Nothing is written where the id is unknown.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "NativeThreadIdPatternConverter", category = PatternConverter.CATEGORY)
+@ConverterKeys({ "ntid", "nativeThreadId" })
+public final class NativeThreadIdPatternConverter extends LogEventPatternConverter {
+
+	private static final NativeThreadIdPatternConverter INSTANCE = new NativeThreadIdPatternConverter();
+
+	private NativeThreadIdPatternConverter() {
+		super("NativeThreadId", "nativeThreadId");
+	}
+
+	/**
+	 * @param options
+	 *            Not used.
+	 * @return the converter
+	 */
+	public static NativeThreadIdPatternConverter newInstance(final String[] options) {
+		return INSTANCE;
+	}
+
+	@Override
+	public void format(final LogEvent event, final StringBuilder toAppendTo) {
+		final int id = NativeThread.getId();
+		if (id >= 0) {
+			toAppendTo.append(id);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.pattern.ConverterKeys;
+import org.apache.logging.log4j.core.pattern.LogEventPatternConverter;
+import org.apache.logging.log4j.core.pattern.PatternConverter;
+
+/**
+ * Formats the number of open file descriptors of the process, %fds or
+ * %openHandles, or of open handles on Windows.
+ *
+ * <p>
+ * The value is that of the last ProcessMetrics sample, taken by a
+ * background thread, so formatting an event neither calls the operating
+ * system nor allocates. Nothing is written where the value is unknown.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "OpenHandlesPatternConverter", category = PatternConverter.CATEGORY)
+@ConverterKeys({ "fds", "openHandles" })
+public final class OpenHandlesPatternConverter extends LogEventPatternConverter {
+
+	private static final OpenHandlesPatternConverter INSTANCE = new OpenHandlesPatternConverter();
+
+	private OpenHandlesPatternConverter() {
+		super("OpenHandles", "openHandles");
+	}
+
+	/**
+	 * @param options
+	 *            Not used.
+	 * @return the converter
+	 */
+	public static OpenHandlesPatternConverter newInstance(final String[] options) {
+		return INSTANCE;
+	}
+
+	@Override
+	public void format(final LogEvent event, final StringBuilder toAppendTo) {
+		final long value = ProcessMetrics.get().getOpenHandles();
+		if (value >= 0) {
+			toAppendTo.append(value);
+		}
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+import com.sun.jna.platform.win32.Kernel32;
+import com.sun.jna.platform.win32.WinNT.HANDLE;
+import com.sun.jna.win32.StdCallLibrary;
+import com.sun.jna.win32.W32APIOptions;
+
+/**
+ * Resident memory, processor time and open descriptors of the process, as
+ * of the last sample, for the pattern converters that log them.
+ *
+ * <p>
+ * A daemon thread samples the process every interval milliseconds, set with
+ * the system property log4jna.metrics.interval and 1000 by default, and
+ * publishes an immutable snapshot; formatting an event only reads the
+ * snapshot. The thread starts when the metrics are first asked for. On Linux
+ * the values come from /proc/self/statm, getrusage and /proc/self/fd, on
+ * Windows from GetProcessMemoryInfo, GetProcessTimes and
+ * GetProcessHandleCount. A value that cannot be read is -1.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public final class ProcessMetrics {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * The system property with the sampling interval in milliseconds.
+	 */
+	public static final String INTERVAL_PROPERTY = "log4jna.metrics.interval";
+
+	/**
+	 * Default sampling interval in milliseconds.
+	 */
+	public static final long DEFAULT_INTERVAL = 1000;
+
+	/**
+	 * The metrics of one sample.
+	 */
+	public static final class Snapshot {
+
+		private final long time;
+		private final long residentBytes;
+		private final long cpuTimeNanos;
+		private final long openHandles;
+
+		Snapshot(final long time, final long residentBytes, final long cpuTimeNanos, final long openHandles) {
+			this.time = time;
+			this.residentBytes = residentBytes;
+			this.cpuTimeNanos = cpuTimeNanos;
+			this.openHandles = openHandles;
+		}
+
+		/**
+		 * @return when the sample was taken, in milliseconds
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the resident set size, or working set on Windows, in bytes
+		 */
+		public long getResidentBytes() {
+			return residentBytes;
+		}
+
+		/**
+		 * @return the user and system processor time of the process in
+		 *         nanoseconds
+		 */
+		public long getCpuTimeNanos() {
+			return cpuTimeNanos;
+		}
+
+		/**
+		 * @return the number of open file descriptors, or handles on Windows
+		 */
+		public long getOpenHandles() {
+			return openHandles;
+		}
+	}
+
+	private interface Psapi extends StdCallLibrary {
+
+		Psapi INSTANCE = (Psapi) Native.loadLibrary("psapi", Psapi.class, W32APIOptions.DEFAULT_OPTIONS);
+
+		boolean GetProcessMemoryInfo(HANDLE process, Pointer counters, int cb);
+	}
+
+	private interface ProcessKernel32 extends StdCallLibrary {
+
+		ProcessKernel32 INSTANCE = (ProcessKernel32) Native.loadLibrary("kernel32", ProcessKernel32.class,
+				W32APIOptions.DEFAULT_OPTIONS);
+
+		// FILETIMEs as longs of 100 nanoseconds.
+		boolean GetProcessTimes(HANDLE process, long[] creationTime, long[] exitTime, long[] kernelTime,
+				long[] userTime);
+
+		boolean GetProcessHandleCount(HANDLE process, int[] handleCount);
+	}
+
+	// PROCESS_MEMORY_COUNTERS, its WorkingSetSize after two DWORDs and a SIZE_T.
+	private static final int MEMORY_COUNTERS_SIZE = Platform.is64Bit() ? 72 : 40;
+	private static final int WORKING_SET_SIZE = Platform.is64Bit() ? 16 : 12;
+
+	private static final Memory BUFFER = new Memory(Math.max(LibC.RUSAGE_SIZE, MEMORY_COUNTERS_SIZE));
+
+	/**
+	 * The sampling thread, started on first use.
+	 */
+	private static final class Sampler {
+
+		static final long INTERVAL = getInterval();
+
+		static volatile Snapshot snapshot;
+
+		static {
+			sample();
+			final Thread thread = new Thread("ProcessMetrics-sampler") {
+				@Override
+				public void run() {
+					for (;;) {
+						LockSupport.parkNanos(INTERVAL * 1000000);
+						try {
+							sample();
+						} catch (final RuntimeException e) {
+							LOGGER.error("Unable to sample process metrics", e);
+						}
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private static long getInterval() {
+			final String property = System.getProperty(INTERVAL_PROPERTY);
+			if (property != null) {
+				try {
+					final long interval = Long.parseLong(property.trim());
+					if (interval > 0) {
+						return interval;
+					}
+				} catch (final NumberFormatException e) {
+					// Reported below.
+				}
+				LOGGER.error("Invalid {} {}, sampling every {} ms", INTERVAL_PROPERTY, property,
+						Long.valueOf(DEFAULT_INTERVAL));
+			}
+			return DEFAULT_INTERVAL;
+		}
+	}
+
+	private ProcessMetrics() {
+	}
+
+	/**
+	 * @return the last sample, starting sampling if it is not started yet
+	 */
+	public static Snapshot get() {
+		return Sampler.snapshot;
+	}
+
+	/**
+	 * @return the sampling interval in milliseconds
+	 */
+	public static long getInterval() {
+		return Sampler.INTERVAL;
+	}
+
+	/**
+	 * Takes a sample now.
+	 */
+	static synchronized void sample() {
+		if (Platform.isLinux()) {
+			Sampler.snapshot = new Snapshot(System.currentTimeMillis(), linuxResidentBytes(), linuxCpuTimeNanos(),
+					linuxOpenHandles());
+		} else if (Platform.isWindows()) {
+			final HANDLE process = Kernel32.INSTANCE.GetCurrentProcess();
+			Sampler.snapshot = new Snapshot(System.currentTimeMillis(), windowsResidentBytes(process),
+					windowsCpuTimeNanos(process), windowsOpenHandles(process));
+		} else {
+			Sampler.snapshot = new Snapshot(System.currentTimeMillis(), -1, -1, -1);
+		}
+	}
+
+	private static long linuxResidentBytes() {
+		try {
+			// size resident shared text lib data dt, in pages.
+			final String[] statm = new String(Files.readAllBytes(new File("/proc/self/statm").toPath()), "US-ASCII")
+					.trim().split(" ");
+			return Long.parseLong(statm[1]) * LibC.INSTANCE.getpagesize();
+		} catch (final IOException e) {
+			return -1;
+		} catch (final RuntimeException e) {
+			return -1;
+		}
+	}
+
+	private static long linuxCpuTimeNanos() {
+		if (LibC.INSTANCE.getrusage(LibC.RUSAGE_SELF, BUFFER) != 0) {
+			return -1;
+		}
+		return timeval(BUFFER, 0) + timeval(BUFFER, LibC.RUSAGE_RU_STIME);
+	}
+
+	private static long timeval(final Pointer pointer, final long offset) {
+		return pointer.getLong(offset) * 1000000000L + pointer.getLong(offset + 8) * 1000;
+	}
+
+	private static long linuxOpenHandles() {
+		final String[] fds = new File("/proc/self/fd").list();
+		// Less the descriptor listing the directory.
+		return fds == null ? -1 : fds.length - 1;
+	}
+
+	private static long windowsResidentBytes(final HANDLE process) {
+		try {
+			BUFFER.setInt(0, MEMORY_COUNTERS_SIZE);
+			if (Psapi.INSTANCE.GetProcessMemoryInfo(process, BUFFER, MEMORY_COUNTERS_SIZE)) {
+				return Platform.is64Bit() ? BUFFER.getLong(WORKING_SET_SIZE) : BUFFER.getInt(WORKING_SET_SIZE)
+						& 0xffffffffL;
+			}
+		} catch (final UnsatisfiedLinkError e) {
+			// Unknown.
+		}
+		return -1;
+	}
+
+	private static long windowsCpuTimeNanos(final HANDLE process) {
+		final long[] creation = new long[1];
+		final long[] exit = new long[1];
+		final long[] kernel = new long[1];
+		final long[] user = new long[1];
+		try {
+			if (ProcessKernel32.INSTANCE.GetProcessTimes(process, creation, exit, kernel, user)) {
+				return (kernel[0] + user[0]) * 100;
+			}
+		} catch (final UnsatisfiedLinkError e) {
+			// Unknown.
+		}
+		return -1;
+	}
+
+	private static long windowsOpenHandles(final HANDLE process) {
+		final int[] count = new int[1];
+		try {
+			if (ProcessKernel32.INSTANCE.GetProcessHandleCount(process, count)) {
+				return count[0];
+			}
+		} catch (final UnsatisfiedLinkError e) {
+			// Unknown.
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+/**
+ * The binary encoding of events in a {@link SharedMemoryRing}.
+ *
+ * <p>
+ * An event is its time, level, logger, thread, marker, formatted message,
+ * context map, optionally its location, and its thrown exception and causes
+ * as class names, messages and stack traces; the encoding of exceptions is
+ * also used by {@link BinaryLogEncoder}. Strings are a length followed
+ * by UTF-8, a length of -1 for null.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+final class RingEventCodec {
+
+	private static final int MAX_CAUSES = 16;
+
+	/**
+	 * An exception thrown in the process that logged it.
+	 */
+	static final class ShippedThrowable extends Throwable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String className;
+
+		ShippedThrowable(final String className, final String message) {
+			super(message);
+			this.className = className;
+		}
+
+		/**
+		 * @return the class name of the original exception
+		 */
+		String getClassName() {
+			return className;
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			final String message = getLocalizedMessage();
+			return message == null ? className : className + ": " + message;
+		}
+	}
+
+	private RingEventCodec() {
+	}
+
+	/**
+	 * Encodes an event.
+	 *
+	 * @throws BufferOverflowException
+	 *             if the buffer is too small
+	 */
+	static void encode(final LogEvent event, final ByteBuffer buffer, final boolean includeLocation) {
+		buffer.putLong(event.getTimeMillis());
+		buffer.putInt(event.getLevel().intLevel());
+		putString(buffer, event.getLevel().name());
+		putString(buffer, event.getLoggerName());
+		putString(buffer, event.getThreadName());
+		putString(buffer, event.getMarker() == null ? null : event.getMarker().getName());
+		putString(buffer, event.getMessage() == null ? null : event.getMessage().getFormattedMessage());
+
+		final Map<String, String> contextMap = event.getContextMap();
+		if (contextMap == null) {
+			buffer.putInt(0);
+		} else {
+			buffer.putInt(contextMap.size());
+			for (final Map.Entry<String, String> entry : contextMap.entrySet()) {
+				putString(buffer, entry.getKey());
+				putString(buffer, entry.getValue());
+			}
+		}
+
+		final StackTraceElement source = includeLocation ? event.getSource() : null;
+		if (source == null) {
+			buffer.put((byte) 0);
+		} else {
+			buffer.put((byte) 1);
+			putElement(buffer, source);
+		}
+
+		putThrown(buffer, event.getThrown());
+	}
+
+	/**
+	 * Encodes an exception and its causes, or null.
+	 *
+	 * @throws BufferOverflowException
+	 *             if the buffer is too small
+	 */
+	static void putThrown(final ByteBuffer buffer, final Throwable throwable) {
+		int causes = 0;
+		for (Throwable cause = throwable; cause != null && causes < MAX_CAUSES; cause = cause.getCause()) {
+			causes++;
+		}
+		buffer.putInt(causes);
+		Throwable thrown = throwable;
+		for (int i = 0; i < causes; i++, thrown = thrown.getCause()) {
+			putString(buffer, thrown instanceof ShippedThrowable ? ((ShippedThrowable) thrown).getClassName()
+					: thrown.getClass().getName());
+			putString(buffer, thrown.getMessage());
+			final StackTraceElement[] stackTrace = thrown.getStackTrace();
+			buffer.putInt(stackTrace.length);
+			for (final StackTraceElement element : stackTrace) {
+				putElement(buffer, element);
+			}
+		}
+	}
+
+	/**
+	 * Decodes an event.
+	 */
+	static LogEvent decode(final ByteBuffer buffer) {
+		final long timeMillis = buffer.getLong();
+		final int intLevel = buffer.getInt();
+		final String levelName = getString(buffer);
+		final Level known = Level.getLevel(levelName);
+		final Level level = known != null ? known : Level.forName(levelName, intLevel);
+		final String loggerName = getString(buffer);
+		final String threadName = getString(buffer);
+		final String marker = getString(buffer);
+		final String message = getString(buffer);
+
+		final int contextSize = buffer.getInt();
+		final Map<String, String> contextMap = new HashMap<String, String>(contextSize * 2);
+		for (int i = 0; i < contextSize; i++) {
+			contextMap.put(getString(buffer), getString(buffer));
+		}
+
+		final StackTraceElement source = buffer.get() == 0 ? null : getElement(buffer);
+
+		final Throwable thrown = getThrown(buffer);
+
+		return Log4jLogEvent.createEvent(loggerName, marker == null ? null : MarkerManager.getMarker(marker), null,
+				level, new SimpleMessage(message), thrown, null, contextMap, ThreadContext.EMPTY_STACK, threadName,
+				source, timeMillis);
+	}
+
+	/**
+	 * Decodes an exception and its causes.
+	 *
+	 * @return the exception, or null
+	 */
+	static Throwable getThrown(final ByteBuffer buffer) {
+		final int causes = buffer.getInt();
+		ShippedThrowable thrown = null;
+		ShippedThrowable last = null;
+		for (int i = 0; i < causes; i++) {
+			final ShippedThrowable cause = new ShippedThrowable(getString(buffer), getString(buffer));
+			final StackTraceElement[] stackTrace = new StackTraceElement[buffer.getInt()];
+			for (int j = 0; j < stackTrace.length; j++) {
+				stackTrace[j] = getElement(buffer);
+			}
+			cause.setStackTrace(stackTrace);
+			if (last == null) {
+				thrown = cause;
+			} else {
+				last.initCause(cause);
+			}
+			last = cause;
+		}
+		return thrown;
+	}
+
+	private static void putElement(final ByteBuffer buffer, final StackTraceElement element) {
+		putString(buffer, element.getClassName());
+		putString(buffer, element.getMethodName());
+		putString(buffer, element.getFileName());
+		buffer.putInt(element.getLineNumber());
+	}
+
+	private static StackTraceElement getElement(final ByteBuffer buffer) {
+		return new StackTraceElement(getString(buffer), getString(buffer), getString(buffer), buffer.getInt());
+	}
+
+	private static void putString(final ByteBuffer buffer, final CharSequence s) {
+		if (s == null) {
+			buffer.putInt(-1);
+			return;
+		}
+		final int mark = buffer.position();
+		buffer.putInt(0);
+		JournalEncoder.putUtf8(buffer, s);
+		buffer.putInt(mark, buffer.position() - mark - 4);
+	}
+
+	private static String getString(final ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		final String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+				EncodedEvent.UTF_8);
+		buffer.position(buffer.position() + length);
+		return s;
+	}
+}
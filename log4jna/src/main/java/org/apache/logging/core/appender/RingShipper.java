@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Ships the events a {@link SharedMemoryRingAppender} publishes in a ring
+ * file, in a process of its own.
+ *
+ * <p>
+ * The shipper reads complete records from the delivered position on,
+ * forwards them, then stores the new delivered position in the ring, zeroes
+ * the records and releases their space to the writers. A shipper that stops
+ * between forwarding a batch and storing its position forwards the batch
+ * again when restarted, so events may be repeated but are not lost.
+ * </p>
+ *
+ * <p>
+ * A record that cannot be decoded is skipped and counted. An event the
+ * forwarder rejects is tried again on the next attempts to ship, and
+ * dropped and counted once it has failed maxRetries times, so that one bad
+ * event or a destination that is down does not stop shipping and fill the
+ * ring, blocking the writers.
+ * </p>
+ *
+ * <p>
+ * Run as a program with the ring file, events are forwarded to the logger configuration of the shipper process, whose
+ * log4j configuration, for instance with the Win32EventLog, Journald or
+ * NativeFile appenders, decides where they go.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class RingShipper implements Runnable {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * Default number of events shipped before the position is stored.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	/**
+	 * Default milliseconds to wait when the ring is empty.
+	 */
+	public static final long DEFAULT_POLL_INTERVAL = 10;
+
+	/**
+	 * Default number of times forwarding an event fails before it is
+	 * dropped.
+	 */
+	public static final int DEFAULT_MAX_RETRIES = 100;
+
+	/**
+	 * Where shipped events go.
+	 */
+	public interface Forwarder {
+
+		/**
+		 * Forwards an event, throwing if it could not be, to have it
+		 * forwarded again.
+		 */
+		void forward(LogEvent event);
+	}
+
+	private final SharedMemoryRing ring;
+	private final Forwarder forwarder;
+	private final int batchSize;
+	private final long pollInterval;
+	private final int maxRetries;
+	private long position;
+	private byte[] payload = new byte[4096];
+	// Failed attempts to forward the event at position.
+	private int failures;
+	private volatile long undecodableCount;
+	private volatile long droppedCount;
+	private volatile boolean stopped;
+
+	/**
+	 * Opens a ring file to ship from, which the appender must have created.
+	 * Its capacity is read from the file, which is never resized.
+	 *
+	 * @param fileName		The ring file.
+	 * @param forwarder		Where events go.
+	 * @param batchSize		The number of events shipped before the position is stored.
+	 * @param pollInterval	Milliseconds to wait when the ring is empty.
+	 */
+	public RingShipper(final String fileName, final Forwarder forwarder, final int batchSize,
+			final long pollInterval) {
+		this(fileName, forwarder, batchSize, pollInterval, DEFAULT_MAX_RETRIES);
+	}
+
+	/**
+	 * Opens a ring file to ship from, which the appender must have created.
+	 * Its capacity is read from the file, which is never resized.
+	 *
+	 * @param fileName		The ring file.
+	 * @param forwarder		Where events go.
+	 * @param batchSize		The number of events shipped before the position is stored.
+	 * @param pollInterval	Milliseconds to wait when the ring is empty.
+	 * @param maxRetries	The number of times forwarding an event fails before it is dropped.
+	 */
+	public RingShipper(final String fileName, final Forwarder forwarder, final int batchSize,
+			final long pollInterval, final int maxRetries) {
+		this.ring = SharedMemoryRing.open(fileName);
+		this.forwarder = forwarder;
+		this.batchSize = Math.max(batchSize, 1);
+		this.pollInterval = pollInterval;
+		this.maxRetries = Math.max(maxRetries, 1);
+		// Complete the release of the last batch of an earlier shipper.
+		position = ring.getDelivered();
+		release();
+	}
+
+	/**
+	 * Ships the complete records in the ring, up to a batch.
+	 *
+	 * @return the number of records shipped, skipped or dropped
+	 * @throws RuntimeException
+	 *             thrown by the forwarder, for an event to be forwarded
+	 *             again
+	 */
+	public int ship() {
+		final long start = position;
+		int shipped = 0;
+		try {
+			int length;
+			while (shipped < batchSize && (length = ring.getLength(position)) >= 0) {
+				if (SharedMemoryRing.frameSize(length) > ring.getCapacity() / 2) {
+					// The length cannot be trusted to find the next record.
+					throw new IllegalStateException("Corrupt record at position " + position + " of "
+							+ ring.getFileName());
+				}
+				if (payload.length < length) {
+					payload = new byte[Math.max(length, payload.length * 2)];
+				}
+				ring.readPayload(position, payload, length);
+				final LogEvent event = decode(length);
+				if (event != null) {
+					forward(event);
+				}
+				position += SharedMemoryRing.frameSize(length);
+				failures = 0;
+				shipped++;
+			}
+		} finally {
+			if (position != start) {
+				ring.setDelivered(position);
+				release();
+			}
+		}
+		return shipped;
+	}
+
+	/**
+	 * @return the event of the record at position, or null if it cannot be
+	 *         decoded
+	 */
+	private LogEvent decode(final int length) {
+		try {
+			return RingEventCodec.decode(ByteBuffer.wrap(payload, 0, length));
+		} catch (final RuntimeException e) {
+			undecodableCount++;
+			LOGGER.error("Skipping undecodable record at position {} of {}", position, ring.getFileName(), e);
+			return null;
+		}
+	}
+
+	private void forward(final LogEvent event) {
+		try {
+			forwarder.forward(event);
+		} catch (final RuntimeException e) {
+			if (++failures < maxRetries) {
+				throw e;
+			}
+			droppedCount++;
+			LOGGER.error("Dropping event at position {} of {} after {} failures to forward it", position,
+					ring.getFileName(), failures, e);
+		}
+	}
+
+	private void release() {
+		ring.zero(ring.getReleased(), position);
+		ring.setReleased(position);
+	}
+
+	/**
+	 * Ships until stopped.
+	 */
+	@Override
+	public void run() {
+		while (!stopped) {
+			int shipped;
+			try {
+				shipped = ship();
+			} catch (final RuntimeException e) {
+				LOGGER.error("Unable to ship event from {}", ring.getFileName(), e);
+				shipped = 0;
+			}
+			if (shipped == 0) {
+				try {
+					Thread.sleep(pollInterval);
+				} catch (final InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes {@link #run()} return.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Unmaps the ring, once no longer running.
+	 */
+	public void close() {
+		ring.close();
+	}
+
+	/**
+	 * @return the position of the next record to ship
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return the number of records skipped because they could not be
+	 *         decoded
+	 */
+	public long getUndecodableCount() {
+		return undecodableCount;
+	}
+
+	/**
+	 * @return the number of events dropped because forwarding them kept
+	 *         failing
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return the capacity of the ring, as read from its file
+	 */
+	public int getCapacity() {
+		return ring.getCapacity();
+	}
+
+	/**
+	 * @return a forwarder logging events through the logger configuration of
+	 *         a context
+	 */
+	public static Forwarder getLoggerConfigForwarder(final LoggerContext context) {
+		return new Forwarder() {
+			@Override
+			public void forward(final LogEvent event) {
+				final LoggerConfig config = context.getConfiguration().getLoggerConfig(
+						event.getLoggerName() == null ? LogManager.ROOT_LOGGER_NAME : event.getLoggerName());
+				if (event.getLevel().isMoreSpecificThan(config.getLevel())) {
+					config.log(event);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Ships events from a ring file to the logger configuration of this
+	 * process until terminated.
+	 *
+	 * @param args
+	 *            The ring file.
+	 */
+	public static void main(final String[] args) throws InterruptedException {
+		if (args.length != 1) {
+			System.err.println("Usage: RingShipper <file>");
+			System.exit(2);
+		}
+		final LoggerContext context = (LoggerContext) LogManager.getContext(false);
+		final RingShipper shipper = new RingShipper(args[0], getLoggerConfigForwarder(context), DEFAULT_BATCH_SIZE,
+				DEFAULT_POLL_INTERVAL);
+		final Thread thread = new Thread(shipper, "RingShipper");
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				shipper.stop();
+				try {
+					thread.join();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		thread.start();
+		thread.join();
+		shipper.close();
+		context.stop();
+	}
+}
@@ -0,0 +1,641 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.Platform;
+
+/**
+ * Compresses rolled segment files in the background.
+ *
+ * <p>
+ * A segment is compressed into a file with ".z" appended, a sequence of zlib
+ * streams of up to a block of the segment each, and then deleted. Every block
+ * is compressed on its own with a preset dictionary, trained from the first
+ * segment compressed: a representative line of each of the line templates
+ * that occur most often, digits told apart from other characters, up to the
+ * 32 KB window of deflate with the most frequent templates last. The
+ * dictionary primes each block with the repeated parts of the log, so that
+ * independent blocks compress nearly as well as one stream. It is stored
+ * next to the segments as the file name followed by its Adler-32 and
+ * ".dict", the id zlib records in every stream.
+ * </p>
+ *
+ * <p>
+ * Next to a compressed segment, a block table with ".blocks" appended holds
+ * the length of the segment and the offset of every block in the compressed
+ * file, as little-endian longs, so that a range of the segment, such as one
+ * found through its time index, is read by decompressing only its blocks.
+ * </p>
+ *
+ * <p>
+ * Segments are compressed on a pool of daemon threads shared by all
+ * compressors, one for every four processors, with the lowest Java priority
+ * and, on Linux, a nice value of 19, so that compressing does not
+ * take processor time from the application.
+ * </p>
+ *
+ * <p>
+ * Run with the names of compressed segments, it writes them decompressed to
+ * standard output.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public final class SegmentCompressor {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * Appended to the name of a compressed segment.
+	 */
+	public static final String SUFFIX = ".z";
+
+	static final String DICTIONARY_SUFFIX = ".dict";
+	static final String BLOCKS_SUFFIX = ".blocks";
+	static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+	static final int BLOCK_SIZE = 256 * 1024;
+
+	private static final Pattern COMPRESSED_NAME = Pattern.compile(".*\\.\\d{6}" + Pattern.quote(SUFFIX));
+
+	private static final int SAMPLE_SIZE = 4 * 1024 * 1024;
+	private static final int MAX_LINE_LENGTH = 2048;
+	private static final int NICE = 19;
+
+	private static final ThreadPoolExecutor POOL;
+
+	static {
+		final AtomicInteger threads = new AtomicInteger();
+		final int size = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+		POOL = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread("SegmentCompressor-" + threads.incrementAndGet()) {
+							@Override
+							public void run() {
+								lowerPriority();
+								runnable.run();
+							}
+						};
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+		POOL.allowCoreThreadTimeOut(true);
+	}
+
+	private final String fileName;
+	private final int level;
+	private final boolean useDictionary;
+	// Taken while training, apart from the lock of pending so that
+	// submitting a segment does not wait for it.
+	private final Object trainLock = new Object();
+	// Not empty once trained.
+	private volatile byte[] dictionary;
+	// Guarded by this.
+	private int pending;
+
+	/**
+	 * @param fileName
+	 *            The file name the segment index is appended to.
+	 * @param level
+	 *            The Deflater compression level.
+	 * @param useDictionary
+	 *            Train and use a preset dictionary.
+	 */
+	SegmentCompressor(final String fileName, final int level, final boolean useDictionary) {
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("compressionLevel must be between -1 and 9: " + level);
+		}
+		this.fileName = fileName;
+		this.level = level;
+		this.useDictionary = useDictionary;
+	}
+
+	private static void lowerPriority() {
+		if (Platform.isLinux() && NativeThread.getId() >= 0) {
+			try {
+				LibC.INSTANCE.setpriority(LibC.PRIO_PROCESS, NativeThread.getId(), NICE);
+			} catch (final UnsatisfiedLinkError e) {
+				// Java priority only.
+			}
+		}
+	}
+
+	/**
+	 * Compresses a segment in the background.
+	 *
+	 * @param segment
+	 *            The segment, complete.
+	 */
+	void submit(final File segment) {
+		synchronized (this) {
+			pending++;
+		}
+		POOL.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					compress(segment);
+				} catch (final IOException e) {
+					LOGGER.error("Unable to compress {}", segment, e);
+				} finally {
+					synchronized (SegmentCompressor.this) {
+						pending--;
+						SegmentCompressor.this.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits for the segments submitted to be compressed.
+	 */
+	synchronized void await() {
+		boolean interrupted = false;
+		while (pending > 0) {
+			try {
+				wait();
+			} catch (final InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Compresses a segment and deletes it.
+	 *
+	 * @return the compressed segment
+	 */
+	File compress(final File segment) throws IOException {
+		final byte[] preset = getDictionary(segment);
+		final File target = new File(segment.getPath() + SUFFIX);
+		final File temporary = new File(target.getPath() + ".tmp");
+		final Deflater deflater = new Deflater(level);
+		final byte[] block = new byte[BLOCK_SIZE];
+		final byte[] output = new byte[BLOCK_SIZE];
+		final ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+		long length = 0;
+		long position = 0;
+		final InputStream in = new FileInputStream(segment);
+		try {
+			final FileOutputStream out = new FileOutputStream(temporary);
+			try {
+				int read;
+				while ((read = readFully(in, block, block.length)) > 0) {
+					putLong(blocks, position);
+					length += read;
+					deflater.reset();
+					if (preset != null) {
+						deflater.setDictionary(preset);
+					}
+					deflater.setInput(block, 0, read);
+					deflater.finish();
+					while (!deflater.finished()) {
+						final int n = deflater.deflate(output);
+						out.write(output, 0, n);
+						position += n;
+					}
+				}
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+			deflater.end();
+		}
+		// In place before the compressed segment, which is never without it.
+		final ByteArrayOutputStream table = new ByteArrayOutputStream();
+		putLong(table, length);
+		blocks.writeTo(table);
+		write(getBlocksFile(target), table.toByteArray());
+		if (!temporary.renameTo(target)) {
+			throw new IOException("Unable to rename " + temporary + " to " + target);
+		}
+		if (!segment.delete()) {
+			LOGGER.warn("Unable to delete {} after compressing it", segment);
+		}
+		return target;
+	}
+
+	private static void putLong(final ByteArrayOutputStream out, final long value) {
+		for (int i = 0; i < 8; i++) {
+			out.write((int) (value >>> i * 8));
+		}
+	}
+
+	/**
+	 * Writes a file through a temporary one, synced and renamed.
+	 */
+	private static void write(final File file, final byte[] content) throws IOException {
+		final File temporary = new File(file.getPath() + ".tmp");
+		final FileOutputStream out = new FileOutputStream(temporary);
+		try {
+			out.write(content);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!temporary.renameTo(file)) {
+			throw new IOException("Unable to rename " + temporary + " to " + file);
+		}
+	}
+
+	/**
+	 * @return whether a file is a compressed segment
+	 */
+	static boolean isCompressed(final File file) {
+		return COMPRESSED_NAME.matcher(file.getName()).matches();
+	}
+
+	/**
+	 * @return the segment a compressed segment was compressed from
+	 */
+	static File getSegmentFile(final File compressed) {
+		final String name = compressed.getPath();
+		return new File(name.substring(0, name.length() - SUFFIX.length()));
+	}
+
+	static File getBlocksFile(final File compressed) {
+		return new File(compressed.getPath() + BLOCKS_SUFFIX);
+	}
+
+	/**
+	 * Reads the block table of a compressed segment.
+	 *
+	 * @return the length of the segment, followed by the offset of each of
+	 *         its blocks in the compressed segment
+	 * @throws IOException
+	 *             if there is no block table
+	 */
+	static long[] readBlocks(final File compressed) throws IOException {
+		final File file = getBlocksFile(compressed);
+		if (!file.isFile()) {
+			throw new IOException(compressed + " has no block table " + file);
+		}
+		final ByteBuffer table = ByteBuffer.wrap(readFile(file)).order(ByteOrder.LITTLE_ENDIAN);
+		final long[] blocks = new long[table.remaining() / 8];
+		for (int i = 0; i < blocks.length; i++) {
+			blocks[i] = table.getLong();
+		}
+		if (blocks.length == 0 || blocks.length - 1 != (blocks[0] + BLOCK_SIZE - 1) / BLOCK_SIZE) {
+			throw new IOException(file + " is corrupt");
+		}
+		return blocks;
+	}
+
+	/**
+	 * @return the dictionary, trained from the segment if there is none
+	 *         yet, or null without one. A segment without repeated lines to
+	 *         train from leaves the dictionary for the next segment.
+	 */
+	private byte[] getDictionary(final File segment) throws IOException {
+		if (!useDictionary) {
+			return null;
+		}
+		final byte[] trained = dictionary;
+		if (trained != null) {
+			return trained;
+		}
+		synchronized (trainLock) {
+			if (dictionary != null) {
+				return dictionary;
+			}
+			final byte[] sample = new byte[(int) Math.min(SAMPLE_SIZE, segment.length())];
+			final InputStream in = new FileInputStream(segment);
+			try {
+				readFully(in, sample, sample.length);
+			} finally {
+				in.close();
+			}
+			final byte[] next = train(sample, sample.length, MAX_DICTIONARY_SIZE);
+			if (next.length == 0) {
+				return null;
+			}
+			final File file = getDictionaryFile(fileName, getId(next));
+			if (!file.exists()) {
+				write(file, next);
+			}
+			// Published once its file exists, for segments compressed with it.
+			dictionary = next;
+			return next;
+		}
+	}
+
+	/**
+	 * @return the zlib id of a dictionary
+	 */
+	static int getId(final byte[] dictionary) {
+		final Adler32 adler = new Adler32();
+		adler.update(dictionary);
+		return (int) adler.getValue();
+	}
+
+	static File getDictionaryFile(final String fileName, final int id) {
+		return new File(String.format("%s.%08x%s", fileName, id, DICTIONARY_SUFFIX));
+	}
+
+	/**
+	 * A line template and its first line.
+	 */
+	private static final class Template {
+
+		final int start;
+		final int end;
+		int count;
+
+		Template(final int start, final int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		long getWeight() {
+			return (long) count * (end - start);
+		}
+	}
+
+	/**
+	 * Trains a dictionary from a sample of a log: the first line of each of
+	 * the templates with the largest number of bytes in the sample, lines
+	 * that differ only in their digits sharing a template.
+	 *
+	 * @param sample
+	 *            The sample.
+	 * @param length
+	 *            The length of the sample.
+	 * @param maxSize
+	 *            The largest dictionary.
+	 * @return the dictionary, the most frequent template last
+	 */
+	static byte[] train(final byte[] sample, final int length, final int maxSize) {
+		final Map<String, Template> templates = new HashMap<String, Template>();
+		final StringBuilder key = new StringBuilder();
+		int start = 0;
+		while (start < length) {
+			int end = start;
+			while (end < length && sample[end] != '\n') {
+				end++;
+			}
+			end = Math.min(end + 1, length);
+			if (end - start <= MAX_LINE_LENGTH) {
+				key.setLength(0);
+				for (int i = start; i < end; i++) {
+					final char c = (char) (sample[i] & 0xff);
+					if (c >= '0' && c <= '9') {
+						if (key.length() == 0 || key.charAt(key.length() - 1) != '0') {
+							key.append('0');
+						}
+					} else {
+						key.append(c);
+					}
+				}
+				final String skeleton = key.toString();
+				Template template = templates.get(skeleton);
+				if (template == null) {
+					template = new Template(start, end);
+					templates.put(skeleton, template);
+				}
+				template.count++;
+			}
+			start = end;
+		}
+
+		final List<Template> frequent = new ArrayList<Template>();
+		for (final Template template : templates.values()) {
+			if (template.count > 1) {
+				frequent.add(template);
+			}
+		}
+		Collections.sort(frequent, new Comparator<Template>() {
+			@Override
+			public int compare(final Template a, final Template b) {
+				final long difference = b.getWeight() - a.getWeight();
+				return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+			}
+		});
+		final List<Template> chosen = new ArrayList<Template>();
+		int size = 0;
+		for (final Template template : frequent) {
+			if (size + template.end - template.start <= maxSize) {
+				chosen.add(template);
+				size += template.end - template.start;
+			}
+		}
+		final byte[] dictionary = new byte[size];
+		int position = size;
+		for (final Template template : chosen) {
+			position -= template.end - template.start;
+			System.arraycopy(sample, template.start, dictionary, position, template.end - template.start);
+		}
+		return dictionary;
+	}
+
+	private static int readFully(final InputStream in, final byte[] buffer, final int length) throws IOException {
+		int done = 0;
+		while (done < length) {
+			final int n = in.read(buffer, done, length - done);
+			if (n < 0) {
+				break;
+			}
+			done += n;
+		}
+		return done;
+	}
+
+	/**
+	 * Decompresses a compressed segment.
+	 *
+	 * @param compressed
+	 *            The compressed segment, its dictionary next to it.
+	 * @param out
+	 *            Where to write the segment.
+	 * @throws IOException
+	 *             if the segment or its dictionary cannot be read
+	 */
+	public static void decompress(final File compressed, final OutputStream out) throws IOException {
+		final InputStream in = new FileInputStream(compressed);
+		try {
+			inflate(compressed, in, 0, Long.MAX_VALUE, out);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Decompresses a range of a compressed segment, inflating only the blocks
+	 * it covers.
+	 *
+	 * @param compressed
+	 *            The compressed segment, its block table and dictionary next
+	 *            to it.
+	 * @param start
+	 *            The offset in the segment of the first byte of the range.
+	 * @param end
+	 *            The offset in the segment after the last byte of the range.
+	 * @param out
+	 *            Where to write the range.
+	 * @throws IOException
+	 *             if the segment, its block table or its dictionary cannot be
+	 *             read
+	 */
+	static void decompress(final File compressed, final long start, final long end, final OutputStream out)
+			throws IOException {
+		final long[] blocks = readBlocks(compressed);
+		final long to = Math.min(end, blocks[0]);
+		if (start >= to) {
+			return;
+		}
+		final int block = (int) (start / BLOCK_SIZE);
+		final FileInputStream in = new FileInputStream(compressed);
+		try {
+			in.getChannel().position(blocks[block + 1]);
+			inflate(compressed, in, start - (long) block * BLOCK_SIZE, to - start, out);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Inflates the zlib streams of a compressed segment from the start of a
+	 * block, writing a range of what they hold.
+	 *
+	 * @param skip
+	 *            The bytes to leave out before the range.
+	 * @param limit
+	 *            The length of the range.
+	 */
+	private static void inflate(final File compressed, final InputStream in, final long skip, final long limit,
+			final OutputStream out) throws IOException {
+		final String name = compressed.getPath();
+		// The file name of the segments, without the index and suffix.
+		final String fileName = name.endsWith(SUFFIX) && name.length() > SUFFIX.length() + 7 ? name.substring(0,
+				name.length() - SUFFIX.length() - 7) : name;
+		final Inflater inflater = new Inflater();
+		final byte[] input = new byte[BLOCK_SIZE];
+		final byte[] output = new byte[BLOCK_SIZE];
+		try {
+			byte[] preset = null;
+			int length = 0;
+			boolean started = false;
+			long position = 0;
+			while (position - skip < limit) {
+				if (inflater.finished()) {
+					final int remaining = inflater.getRemaining();
+					inflater.reset();
+					inflater.setInput(input, length - remaining, remaining);
+					started = remaining > 0;
+				}
+				if (inflater.needsInput()) {
+					length = in.read(input);
+					if (length < 0) {
+						if (started) {
+							throw new IOException(compressed + " is truncated");
+						}
+						return;
+					}
+					inflater.setInput(input, 0, length);
+				}
+				final int n = inflater.inflate(output);
+				started |= n > 0 || inflater.needsDictionary() || inflater.finished();
+				if (inflater.needsDictionary()) {
+					if (preset == null || getId(preset) != inflater.getAdler()) {
+						preset = readFile(getDictionaryFile(fileName, inflater.getAdler()));
+					}
+					inflater.setDictionary(preset);
+				}
+				// The part of the output in the range.
+				final long from = Math.max(position, skip);
+				final long to = Math.min(position + n, skip + limit);
+				if (from < to) {
+					out.write(output, (int) (from - position), (int) (to - from));
+				}
+				position += n;
+			}
+		} catch (final DataFormatException e) {
+			throw new IOException(compressed + " is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static byte[] readFile(final File file) throws IOException {
+		final byte[] content = new byte[(int) file.length()];
+		final InputStream in = new FileInputStream(file);
+		try {
+			if (readFully(in, content, content.length) != content.length) {
+				throw new IOException(file + " is truncated");
+			}
+		} finally {
+			in.close();
+		}
+		return content;
+	}
+
+	/**
+	 * Writes compressed segments decompressed to standard output.
+	 *
+	 * @param args
+	 *            The compressed segments.
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: SegmentCompressor <segment.z>...");
+			System.exit(2);
+		}
+		final OutputStream out = System.out;
+		for (final String arg : args) {
+			decompress(new File(arg), out);
+		}
+		out.flush();
+	}
+}
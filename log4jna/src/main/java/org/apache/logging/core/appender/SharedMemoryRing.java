@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+/**
+ * A ring of event records in a file mapped shared, written by the threads
+ * of one process and read by a shipper in another.
+ *
+ * <p>
+ * The file starts with a header page holding its magic, version and the
+ * capacity of the data area, and two positions in the stream of all records
+ * ever written, kept by the shipper: delivered, up to which records have
+ * been forwarded, and released, up to which their space has been zeroed and
+ * may be written again. Records are aligned to 8 bytes and start with their
+ * length plus one, written after the rest of the record, so a zero there
+ * means the record is not complete yet; the ring is zeroed behind the
+ * shipper to keep it that way.
+ * </p>
+ *
+ * <p>
+ * Positions and lengths are read and written with single aligned native
+ * accesses, which x86-64 keeps in order.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+final class SharedMemoryRing {
+
+	static final long MAGIC = 0x314752414e4a344cL; // "L4JNARG1"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 4096;
+	static final int FRAME_HEADER_SIZE = 8;
+
+	private static final int HEADER_VERSION = 8;
+	private static final int HEADER_CAPACITY = 16;
+	// On cache lines of their own.
+	private static final int HEADER_DELIVERED = 128;
+	private static final int HEADER_RELEASED = 192;
+
+	private final String fileName;
+	private final int capacity;
+	private final int fd;
+	private final Pointer address;
+	private final Pointer data;
+
+	private SharedMemoryRing(final String fileName, final int capacity, final int fd, final Pointer address) {
+		this.fileName = fileName;
+		this.capacity = capacity;
+		this.fd = fd;
+		this.address = address;
+		this.data = address.share(HEADER_SIZE);
+	}
+
+	/**
+	 * Maps a ring file for writing, creating it, or starting it over when it
+	 * has another capacity.
+	 *
+	 * @param fileName
+	 *            The ring file.
+	 * @param capacity
+	 *            The size of the data area, a multiple of 8.
+	 */
+	static SharedMemoryRing create(final String fileName, final int capacity) {
+		if (capacity < 4096 || capacity % 8 != 0) {
+			throw new IllegalArgumentException("capacity must be a multiple of 8 of at least 4096: " + capacity);
+		}
+		final int fd = LibC.INSTANCE.open(fileName, LibC.O_RDWR | LibC.O_CREAT | LibC.O_CLOEXEC, 0644);
+		if (fd < 0) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		final long size = HEADER_SIZE + (long) capacity;
+		final Pointer address;
+		try {
+			final long length = LibC.INSTANCE.lseek(fd, 0, LibC.SEEK_END);
+			if (length < 0) {
+				throw new LastErrorException(Native.getLastError());
+			}
+			if (length != size && (LibC.INSTANCE.ftruncate(fd, 0) != 0 || LibC.INSTANCE.ftruncate(fd, size) != 0)) {
+				throw new LastErrorException(Native.getLastError());
+			}
+			address = map(fd, size);
+		} catch (final LastErrorException e) {
+			LibC.INSTANCE.close(fd);
+			throw e;
+		}
+		if (address.getLong(0) != MAGIC || address.getInt(HEADER_VERSION) != VERSION
+				|| address.getLong(HEADER_CAPACITY) != capacity) {
+			address.setMemory(0, size, (byte) 0);
+			address.setLong(HEADER_CAPACITY, capacity);
+			address.setInt(HEADER_VERSION, VERSION);
+			address.setLong(0, MAGIC);
+		}
+		return new SharedMemoryRing(fileName, capacity, fd, address);
+	}
+
+	/**
+	 * Maps an existing ring file for shipping, with the capacity in its
+	 * header, leaving its size and contents alone.
+	 *
+	 * @param fileName
+	 *            The ring file.
+	 * @throws IllegalArgumentException
+	 *             if the file is not a ring of this version
+	 */
+	static SharedMemoryRing open(final String fileName) {
+		final int fd = LibC.INSTANCE.open(fileName, LibC.O_RDWR | LibC.O_CLOEXEC, 0);
+		if (fd < 0) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		try {
+			final Memory header = new Memory(HEADER_CAPACITY + 8);
+			final long read = LibC.INSTANCE.pread(fd, header, new NativeLong(header.size()), 0).longValue();
+			if (read < 0) {
+				throw new LastErrorException(Native.getLastError());
+			}
+			if (read < header.size() || header.getLong(0) != MAGIC || header.getInt(HEADER_VERSION) != VERSION) {
+				throw new IllegalArgumentException(fileName + " is not a version " + VERSION + " ring file");
+			}
+			final long capacity = header.getLong(HEADER_CAPACITY);
+			final long length = LibC.INSTANCE.lseek(fd, 0, LibC.SEEK_END);
+			if (length < 0) {
+				throw new LastErrorException(Native.getLastError());
+			}
+			if (capacity < 4096 || capacity % 8 != 0 || capacity > Integer.MAX_VALUE
+					|| length != HEADER_SIZE + capacity) {
+				throw new IllegalArgumentException(fileName + " has " + length + " bytes for a capacity of "
+						+ capacity);
+			}
+			return new SharedMemoryRing(fileName, (int) capacity, fd, map(fd, length));
+		} catch (final RuntimeException e) {
+			LibC.INSTANCE.close(fd);
+			throw e;
+		}
+	}
+
+	private static Pointer map(final int fd, final long size) {
+		final Pointer address = LibC.INSTANCE.mmap(null, new NativeLong(size), LibC.PROT_READ | LibC.PROT_WRITE,
+				LibC.MAP_SHARED, fd, 0);
+		if (Pointer.nativeValue(address) == -1) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		return address;
+	}
+
+	static int frameSize(final int length) {
+		return (FRAME_HEADER_SIZE + length + 7) & ~7;
+	}
+
+	int getCapacity() {
+		return capacity;
+	}
+
+	String getFileName() {
+		return fileName;
+	}
+
+	long getDelivered() {
+		return address.getLong(HEADER_DELIVERED);
+	}
+
+	void setDelivered(final long position) {
+		address.setLong(HEADER_DELIVERED, position);
+	}
+
+	long getReleased() {
+		return address.getLong(HEADER_RELEASED);
+	}
+
+	void setReleased(final long position) {
+		address.setLong(HEADER_RELEASED, position);
+	}
+
+	private int offset(final long position) {
+		return (int) (position % capacity);
+	}
+
+	/**
+	 * @return the length of the record at a position, or -1 if it is not
+	 *         complete
+	 */
+	int getLength(final long position) {
+		return data.getInt(offset(position)) - 1;
+	}
+
+	/**
+	 * Completes a record whose payload is written.
+	 */
+	void commit(final long position, final int length) {
+		data.setInt(offset(position), length + 1);
+	}
+
+	/**
+	 * Writes the payload of a record, wrapping around the end of the data
+	 * area.
+	 */
+	void writePayload(final long position, final byte[] src, final int index, final int length) {
+		final int offset = offset(position + FRAME_HEADER_SIZE);
+		final int first = Math.min(length, capacity - offset);
+		data.write(offset, src, index, first);
+		if (first < length) {
+			data.write(0, src, index + first, length - first);
+		}
+	}
+
+	/**
+	 * Reads the payload of a record, wrapping around the end of the data
+	 * area.
+	 */
+	void readPayload(final long position, final byte[] dst, final int length) {
+		final int offset = offset(position + FRAME_HEADER_SIZE);
+		final int first = Math.min(length, capacity - offset);
+		data.read(offset, dst, 0, first);
+		if (first < length) {
+			data.read(0, dst, first, length - first);
+		}
+	}
+
+	/**
+	 * Zeroes the records from one position to another.
+	 */
+	void zero(final long from, final long to) {
+		if (to <= from) {
+			return;
+		}
+		final int offset = offset(from);
+		final long length = Math.min(to - from, capacity);
+		final long first = Math.min(length, capacity - offset);
+		data.setMemory(offset, first, (byte) 0);
+		if (first < length) {
+			data.setMemory(0, length - first, (byte) 0);
+		}
+	}
+
+	void close() {
+		final NativeLong size = new NativeLong(HEADER_SIZE + (long) capacity);
+		LibC.INSTANCE.msync(address, size, LibC.MS_ASYNC);
+		LibC.INSTANCE.munmap(address, size);
+		LibC.INSTANCE.close(fd);
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+
+import com.sun.jna.LastErrorException;
+
+/**
+ * Append to a ring in shared memory, from which a {@link RingShipper} in
+ * another process forwards the events to their destinations.
+ *
+ * <p>
+ * <b>WARNING</b> This appender can only be installed and used on a Linux
+ * system.
+ * </p>
+ *
+ * <p>
+ * Events are not formatted: their time, level, logger, thread, marker,
+ * message, context map, thrown exception and, with includeLocation, their
+ * location are encoded in binary into a ring of capacity bytes in a file
+ * mapped shared, which threads write concurrently. Formatting and delivery
+ * to slow destinations happen in the shipper, which keeps its place in the
+ * ring file, so events published while it is down are shipped when it is
+ * back. When the ring is full, overflowPolicy BLOCK waits for the shipper
+ * and DROP drops the event. Only one process may append to a ring file.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "SharedMemoryRing", category = "Core", elementType = "appender", printObject = true)
+public class SharedMemoryRingAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	private final SharedMemoryRingManager manager;
+
+	protected SharedMemoryRingAppender(final String name, final Filter filter, final boolean ignoreExceptions,
+			final SharedMemoryRingManager manager) {
+		super(name, filter, null, ignoreExceptions);
+		this.manager = manager;
+	}
+
+	@Override
+	public void append(final LogEvent event) {
+		try {
+			manager.write(event);
+		} catch (final IllegalArgumentException e) {
+			getHandler().error("Failed to publish event to " + manager.getFileName() + ".", event, e);
+		}
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		manager.release();
+	}
+
+	/**
+	 * @return the manager of this appender
+	 */
+	public SharedMemoryRingManager getManager() {
+		return manager;
+	}
+
+	@PluginBuilderFactory
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder implements org.apache.logging.log4j.core.util.Builder<SharedMemoryRingAppender> {
+
+		@PluginBuilderAttribute
+		@Required(message = "A name for the SharedMemoryRingAppender must be specified")
+		private String name;
+
+		@PluginBuilderAttribute
+		@Required(message = "A fileName for the SharedMemoryRingAppender must be specified")
+		private String fileName;
+
+		@PluginBuilderAttribute
+		private int capacity = SharedMemoryRingManager.DEFAULT_CAPACITY;
+
+		@PluginBuilderAttribute
+		private SharedMemoryRingManager.OverflowPolicy overflowPolicy = SharedMemoryRingManager.OverflowPolicy.BLOCK;
+
+		@PluginBuilderAttribute
+		private boolean includeLocation;
+
+		@PluginElement("Filter")
+		private Filter filter;
+
+		@PluginBuilderAttribute
+		private boolean ignoreExceptions = true;
+
+		private Builder() {
+		}
+
+		public Builder setName(final String name) {
+			this.name = name;
+			return this;
+		}
+
+		public Builder setFileName(final String fileName) {
+			this.fileName = fileName;
+			return this;
+		}
+
+		public Builder setCapacity(final int capacity) {
+			this.capacity = capacity;
+			return this;
+		}
+
+		public Builder setOverflowPolicy(final SharedMemoryRingManager.OverflowPolicy overflowPolicy) {
+			this.overflowPolicy = overflowPolicy;
+			return this;
+		}
+
+		public Builder setIncludeLocation(final boolean includeLocation) {
+			this.includeLocation = includeLocation;
+			return this;
+		}
+
+		public Builder setFilter(final Filter filter) {
+			this.filter = filter;
+			return this;
+		}
+
+		public Builder setIgnoreExceptions(final boolean ignoreExceptions) {
+			this.ignoreExceptions = ignoreExceptions;
+			return this;
+		}
+
+		@Override
+		public SharedMemoryRingAppender build() {
+			try {
+				final SharedMemoryRingManager manager = SharedMemoryRingManager.getSharedMemoryRingManager(name,
+						fileName, capacity, overflowPolicy, includeLocation);
+				return new SharedMemoryRingAppender(name, filter, ignoreExceptions, manager);
+			} catch (final LastErrorException e) {
+				LOGGER.error("Error creating SharedMemoryRingAppender [{}] for {}.", name, fileName, e);
+				return null;
+			} catch (final IllegalArgumentException e) {
+				LOGGER.error("Error creating SharedMemoryRingAppender [{}] for {}.", name, fileName, e);
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractManager;
+
+/**
+ * Publishes binary encoded events into a {@link SharedMemoryRing} for a
+ * {@link RingShipper} to forward.
+ *
+ * <p>
+ * A writer encodes the event into a buffer of its thread, claims its place
+ * with a compare-and-set on the position once the shipper has released
+ * enough space, copies it into the mapping and completes it by writing its
+ * length. When the ring is full, a writer waits for the shipper or drops the
+ * event, according to the overflow policy.
+ * </p>
+ *
+ * <p>
+ * Only the threads of one process may write a ring. On opening, writing goes
+ * on after the records the shipper has not delivered yet.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class SharedMemoryRingManager extends AbstractManager {
+
+	/**
+	 * Default capacity of the ring.
+	 */
+	public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+	private static final int INITIAL_EVENT_SIZE = 4096;
+	private static final long BLOCK_WAIT_NANOS = 50 * 1000;
+
+	/**
+	 * What to do with an event when the ring is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Wait until the shipper has made room.
+		 */
+		BLOCK,
+		/**
+		 * Drop the event and count it.
+		 */
+		DROP
+	}
+
+	private final SharedMemoryRing ring;
+	private final OverflowPolicy overflowPolicy;
+	private final boolean includeLocation;
+	private final int maxFrameSize;
+	private final AtomicLong position;
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicInteger writers = new AtomicInteger();
+	// Last released position read from the ring.
+	private volatile long released;
+	private volatile boolean closed;
+	private final ThreadLocal<ByteBuffer> eventBuffer = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(INITIAL_EVENT_SIZE);
+		}
+	};
+
+	private SharedMemoryRingManager(final String name, final SharedMemoryRing ring,
+			final OverflowPolicy overflowPolicy, final boolean includeLocation) {
+		super(name);
+		this.ring = ring;
+		this.overflowPolicy = overflowPolicy;
+		this.includeLocation = includeLocation;
+		this.maxFrameSize = ring.getCapacity() / 2;
+
+		// Go on after the complete records not delivered yet, and zero what
+		// an earlier process may have left incomplete.
+		released = ring.getReleased();
+		long end = Math.max(ring.getDelivered(), released);
+		int length;
+		while (end - released < ring.getCapacity() && (length = ring.getLength(end)) >= 0
+				&& SharedMemoryRing.frameSize(length) <= maxFrameSize) {
+			end += SharedMemoryRing.frameSize(length);
+		}
+		ring.zero(end, released + ring.getCapacity());
+		position = new AtomicLong(end);
+	}
+
+	/**
+	 * Gets a SharedMemoryRingManager for a ring file.
+	 *
+	 * @param name				The name to use for this SharedMemoryRingManager.
+	 * @param fileName			The ring file.
+	 * @param capacity			The size of the ring, rounded down to a multiple of 8.
+	 * @param overflowPolicy	What to do when the ring is full.
+	 * @param includeLocation	Encode the location of events.
+	 * @return The SharedMemoryRingManager as configured.
+	 */
+	public static SharedMemoryRingManager getSharedMemoryRingManager(final String name, final String fileName,
+			final int capacity, final OverflowPolicy overflowPolicy, final boolean includeLocation) {
+		final SharedMemoryRing ring = SharedMemoryRing.create(fileName, capacity & ~7);
+		return new SharedMemoryRingManager(name, ring, overflowPolicy == null ? OverflowPolicy.BLOCK
+				: overflowPolicy, includeLocation);
+	}
+
+	/**
+	 * Encodes an event and publishes it in the ring.
+	 *
+	 * @param event
+	 *            Log event.
+	 * @return false if the event was dropped
+	 */
+	public boolean write(final LogEvent event) {
+		writers.incrementAndGet();
+		try {
+			if (closed) {
+				throw new IllegalStateException("SharedMemoryRingManager " + getName() + " is closed");
+			}
+			final ByteBuffer buffer = encode(event);
+			final int length = buffer.position();
+			final int frameSize = SharedMemoryRing.frameSize(length);
+			long start;
+			for (;;) {
+				start = position.get();
+				if (start + frameSize - released > ring.getCapacity()) {
+					released = ring.getReleased();
+					if (start + frameSize - released > ring.getCapacity()) {
+						if (overflowPolicy == OverflowPolicy.DROP) {
+							dropped.incrementAndGet();
+							return false;
+						}
+						if (closed) {
+							throw new IllegalStateException("SharedMemoryRingManager " + getName() + " is closed");
+						}
+						LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+						continue;
+					}
+				}
+				if (position.compareAndSet(start, start + frameSize)) {
+					break;
+				}
+			}
+			ring.writePayload(start, buffer.array(), buffer.arrayOffset(), length);
+			ring.commit(start, length);
+			return true;
+		} finally {
+			writers.decrementAndGet();
+		}
+	}
+
+	private ByteBuffer encode(final LogEvent event) {
+		ByteBuffer buffer = eventBuffer.get();
+		for (;;) {
+			buffer.clear();
+			try {
+				RingEventCodec.encode(event, buffer, includeLocation);
+				if (SharedMemoryRing.frameSize(buffer.position()) <= maxFrameSize) {
+					return buffer;
+				}
+			} catch (final BufferOverflowException e) {
+				// Retried below.
+			}
+			if (buffer.capacity() >= maxFrameSize) {
+				throw new IllegalArgumentException("Event exceeds half the ring capacity of " + ring.getCapacity()
+						+ " bytes");
+			}
+			buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, maxFrameSize));
+			eventBuffer.set(buffer);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.logging.log4j.core.appender.AbstractManager#releaseSub()
+	 */
+	@Override
+	protected void releaseSub() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		// No writer may copy into the mapping once it is gone.
+		while (writers.get() > 0) {
+			Thread.yield();
+		}
+		ring.close();
+	}
+
+	/**
+	 * @return the ring file
+	 */
+	public String getFileName() {
+		return ring.getFileName();
+	}
+
+	/**
+	 * @return the position of the next record in the stream of all records
+	 */
+	public long getPosition() {
+		return position.get();
+	}
+
+	/**
+	 * @return what is done when the ring is full
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @return the number of events dropped because the ring was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+}
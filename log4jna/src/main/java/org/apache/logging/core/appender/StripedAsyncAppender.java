@@ -0,0 +1,425 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.AppenderControl;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginConfiguration;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+
+/**
+ * Hand events to other appenders on a background thread, buffering them per
+ * processor.
+ *
+ * <pre>
+ * &lt;StripedAsync name="Async" bufferSize="4096"&gt;
+ *   &lt;AppenderRef ref="File"/&gt;
+ * &lt;/StripedAsync&gt;
+ * </pre>
+ *
+ * <p>
+ * There is a stripe, a buffer of bufferSize events with a lock of its own,
+ * for each of stripes processors, by default all there are. A thread adds
+ * its event to the stripe of the processor it runs on, from sched_getcpu on
+ * Linux or GetCurrentProcessorNumber on Windows, so threads only meet on a
+ * lock when one was preempted holding it, and the memory taken does not grow
+ * with the number of threads. Where the processor is unknown, threads are
+ * striped by id.
+ * </p>
+ *
+ * <p>
+ * A drain thread takes the events of all stripes at once, swapping each
+ * buffer for an empty one, orders them by time and calls the referenced
+ * appenders, marking the last event of the batch as its end. Events of the
+ * same millisecond keep the order of their stripe, so two events of a thread
+ * moved to another processor within a millisecond may change places. When
+ * a stripe is full, the thread logging waits for the drain thread with
+ * blocking, the default, else the event is dropped and counted.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "StripedAsync", category = "Core", elementType = "appender", printObject = true)
+public class StripedAsyncAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Default number of events buffered per stripe.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+	private static final Comparator<LogEvent> BY_TIME = new Comparator<LogEvent>() {
+		@Override
+		public int compare(final LogEvent a, final LogEvent b) {
+			return a.getTimeMillis() < b.getTimeMillis() ? -1 : a.getTimeMillis() == b.getTimeMillis() ? 0 : 1;
+		}
+	};
+
+	/**
+	 * The buffer of a processor, guarded by itself. Padded so that stripes
+	 * locked on different processors do not share a cache line.
+	 */
+	private static final class Stripe {
+
+		long p1, p2, p3, p4, p5, p6, p7;
+		private LogEvent[] events;
+		private LogEvent[] spare;
+		private int size;
+		private boolean waiting;
+		long q1, q2, q3, q4, q5, q6, q7;
+
+		Stripe(final int bufferSize) {
+			events = new LogEvent[bufferSize];
+			spare = new LogEvent[bufferSize];
+		}
+	}
+
+	private final Configuration configuration;
+	private final AppenderRef[] appenderRefs;
+	private final boolean blocking;
+	private final boolean includeLocation;
+	private final Stripe[] stripes;
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile AppenderControl[] appenders;
+	private volatile Thread drainer;
+	private volatile boolean draining;
+	private volatile boolean sleeping;
+
+	protected StripedAsyncAppender(final String name, final Filter filter, final boolean ignoreExceptions,
+			final Configuration configuration, final AppenderRef[] appenderRefs, final int stripes,
+			final int bufferSize, final boolean blocking, final boolean includeLocation) {
+		super(name, filter, null, ignoreExceptions);
+		this.configuration = configuration;
+		this.appenderRefs = appenderRefs.clone();
+		this.blocking = blocking;
+		this.includeLocation = includeLocation;
+		this.stripes = new Stripe[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe(bufferSize);
+		}
+	}
+
+	@Override
+	public void start() {
+		final List<AppenderControl> controls = new ArrayList<AppenderControl>();
+		for (final AppenderRef ref : appenderRefs) {
+			final Appender appender = configuration.getAppender(ref.getRef());
+			if (appender == null) {
+				LOGGER.error("No appender named {} was found for StripedAsyncAppender {}.", ref.getRef(), getName());
+			} else {
+				controls.add(new AppenderControl(appender, ref.getLevel(), ref.getFilter()));
+			}
+		}
+		if (controls.isEmpty()) {
+			LOGGER.error("No appenders are referenced by StripedAsyncAppender {}.", getName());
+		}
+		appenders = controls.toArray(new AppenderControl[controls.size()]);
+		draining = true;
+		final Thread thread = new Thread("StripedAsyncAppender-" + getName()) {
+			@Override
+			public void run() {
+				drain();
+			}
+		};
+		thread.setDaemon(true);
+		drainer = thread;
+		thread.start();
+		super.start();
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		final Thread thread = drainer;
+		if (thread != null) {
+			draining = false;
+			LockSupport.unpark(thread);
+			try {
+				thread.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			drainer = null;
+		}
+	}
+
+	@Override
+	public void append(final LogEvent event) {
+		if (!draining) {
+			throw new IllegalStateException("StripedAsyncAppender " + getName() + " is not active");
+		}
+		final LogEvent snapshot = snapshot(event);
+		final Stripe stripe = stripes[(CurrentCpu.get() & Integer.MAX_VALUE) % stripes.length];
+		synchronized (stripe) {
+			// Read under the lock, so the last harvest sees every event added.
+			while (!draining || stripe.size == stripe.events.length) {
+				if (!draining || !blocking) {
+					dropped.incrementAndGet();
+					return;
+				}
+				stripe.waiting = true;
+				wake();
+				try {
+					stripe.wait();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					dropped.incrementAndGet();
+					return;
+				}
+			}
+			stripe.events[stripe.size++] = snapshot;
+		}
+		wake();
+	}
+
+	/**
+	 * @return the event with everything taken from the calling thread lazily
+	 *         taken now
+	 */
+	private LogEvent snapshot(final LogEvent event) {
+		if (event instanceof Log4jLogEvent) {
+			event.getThreadName();
+			if (includeLocation) {
+				event.getSource();
+			}
+			return event;
+		}
+		// Such as the events of asynchronous loggers, which are reused.
+		return Log4jLogEvent.createEvent(event.getLoggerName(), event.getMarker(), event.getLoggerFqcn(),
+				event.getLevel(), event.getMessage(), event.getThrown(), event.getThrownProxy(),
+				event.getContextMap(), event.getContextStack(), event.getThreadName(),
+				includeLocation ? event.getSource() : null, event.getTimeMillis());
+	}
+
+	private void wake() {
+		if (sleeping) {
+			sleeping = false;
+			LockSupport.unpark(drainer);
+		}
+	}
+
+	/**
+	 * Harvests and appends events until stopped and empty.
+	 */
+	private void drain() {
+		LogEvent[] batch = new LogEvent[stripes.length * stripes[0].events.length];
+		for (;;) {
+			final boolean stopping = !draining;
+			int count = 0;
+			for (final Stripe stripe : stripes) {
+				final LogEvent[] events;
+				final int size;
+				synchronized (stripe) {
+					events = stripe.events;
+					size = stripe.size;
+					if (size == 0) {
+						continue;
+					}
+					stripe.events = stripe.spare;
+					stripe.spare = events;
+					stripe.size = 0;
+					if (stripe.waiting) {
+						stripe.waiting = false;
+						stripe.notifyAll();
+					}
+				}
+				System.arraycopy(events, 0, batch, count, size);
+				Arrays.fill(events, 0, size, null);
+				count += size;
+			}
+			if (count > 0) {
+				append(batch, count);
+			} else if (stopping) {
+				return;
+			} else {
+				sleeping = true;
+				// Checked again, an event may have come before sleeping was set.
+				if (isEmpty() && draining) {
+					LockSupport.park(this);
+				}
+				sleeping = false;
+			}
+		}
+	}
+
+	private boolean isEmpty() {
+		for (final Stripe stripe : stripes) {
+			synchronized (stripe) {
+				if (stripe.size > 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void append(final LogEvent[] batch, final int count) {
+		// Stable: events of one time keep the order of their stripe.
+		Arrays.sort(batch, 0, count, BY_TIME);
+		batch[count - 1].setEndOfBatch(true);
+		for (int i = 0; i < count; i++) {
+			for (final AppenderControl control : appenders) {
+				try {
+					control.callAppender(batch[i]);
+				} catch (final RuntimeException e) {
+					LOGGER.error("Unable to append to {} from StripedAsyncAppender {}.",
+							control.getAppender().getName(), getName(), e);
+				}
+			}
+			batch[i] = null;
+		}
+	}
+
+	/**
+	 * @return the number of stripes
+	 */
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 * @return the number of events dropped because their stripe was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	@PluginBuilderFactory
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder implements org.apache.logging.log4j.core.util.Builder<StripedAsyncAppender> {
+
+		@PluginBuilderAttribute
+		@Required(message = "A name for the StripedAsyncAppender must be specified")
+		private String name;
+
+		@PluginElement("AppenderRef")
+		@Required(message = "An AppenderRef for the StripedAsyncAppender must be specified")
+		private AppenderRef[] appenderRefs;
+
+		@PluginConfiguration
+		private Configuration configuration;
+
+		@PluginBuilderAttribute
+		private int stripes;
+
+		@PluginBuilderAttribute
+		private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+		@PluginBuilderAttribute
+		private boolean blocking = true;
+
+		@PluginBuilderAttribute
+		private boolean includeLocation;
+
+		@PluginElement("Filter")
+		private Filter filter;
+
+		@PluginBuilderAttribute
+		private boolean ignoreExceptions = true;
+
+		private Builder() {
+		}
+
+		public Builder setName(final String name) {
+			this.name = name;
+			return this;
+		}
+
+		public Builder setAppenderRefs(final AppenderRef... appenderRefs) {
+			this.appenderRefs = appenderRefs;
+			return this;
+		}
+
+		public Builder setConfiguration(final Configuration configuration) {
+			this.configuration = configuration;
+			return this;
+		}
+
+		public Builder setStripes(final int stripes) {
+			this.stripes = stripes;
+			return this;
+		}
+
+		public Builder setBufferSize(final int bufferSize) {
+			this.bufferSize = bufferSize;
+			return this;
+		}
+
+		public Builder setBlocking(final boolean blocking) {
+			this.blocking = blocking;
+			return this;
+		}
+
+		public Builder setIncludeLocation(final boolean includeLocation) {
+			this.includeLocation = includeLocation;
+			return this;
+		}
+
+		public Builder setFilter(final Filter filter) {
+			this.filter = filter;
+			return this;
+		}
+
+		public Builder setIgnoreExceptions(final boolean ignoreExceptions) {
+			this.ignoreExceptions = ignoreExceptions;
+			return this;
+		}
+
+		@Override
+		public StripedAsyncAppender build() {
+			if (stripes < 0) {
+				LOGGER.error("stripes of StripedAsyncAppender [{}] must not be negative: {}.", name,
+						Integer.valueOf(stripes));
+				return null;
+			}
+			if (bufferSize < 1) {
+				LOGGER.error("bufferSize of StripedAsyncAppender [{}] must be at least 1: {}.", name,
+						Integer.valueOf(bufferSize));
+				return null;
+			}
+			if (configuration == null || appenderRefs == null) {
+				LOGGER.error("StripedAsyncAppender [{}] needs a configuration and appender references.", name);
+				return null;
+			}
+			return new StripedAsyncAppender(name, filter, ignoreExceptions, configuration, appenderRefs,
+					stripes > 0 ? stripes : Runtime.getRuntime().availableProcessors(), bufferSize, blocking,
+					includeLocation);
+		}
+	}
+}
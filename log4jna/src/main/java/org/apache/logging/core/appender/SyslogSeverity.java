@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Maps log4j levels to syslog severities.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+final class SyslogSeverity {
+
+	private SyslogSeverity() {
+	}
+
+	/**
+	 * Convert a log4j level to a syslog severity: FATAL is critical (2),
+	 * ERROR error (3), WARN warning (4), INFO informational (6) and anything
+	 * less severe debug (7). Custom levels between WARN and INFO are notice
+	 * (5), other custom levels go with the next less severe standard level.
+	 *
+	 * @param level
+	 *            Log4j level.
+	 * @return syslog severity.
+	 */
+	static int getSeverity(final Level level) {
+		if (level.intLevel() <= Level.FATAL.intLevel()) {
+			return 2;
+		}
+		if (level.intLevel() <= Level.ERROR.intLevel()) {
+			return 3;
+		}
+		if (level.intLevel() <= Level.WARN.intLevel()) {
+			return 4;
+		}
+		if (level.intLevel() < Level.INFO.intLevel()) {
+			return 5;
+		}
+		if (level.intLevel() <= Level.INFO.intLevel()) {
+			return 6;
+		}
+		return 7;
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+
+import com.sun.jna.LastErrorException;
+
+/**
+ * Append to a file per thread, so that threads logging at once never wait
+ * for each other.
+ *
+ * <p>
+ * <b>WARNING</b> This appender can only be installed and used on a Linux
+ * system.
+ * </p>
+ *
+ * <p>
+ * Events are encoded as UTF-8 into a buffer of bufferSize bytes of the
+ * logging thread and written to the file of that thread, after every event
+ * with immediateFlush, else when the buffer is full and when the appender
+ * is stopped. Each event is preceded by a sequence number shared by all
+ * threads and its time. The files of an appender are named
+ * fileName.000001.1, fileName.000001.2 and so on, by run and thread, each
+ * start of the appender beginning a new run.
+ * </p>
+ *
+ * <p>
+ * Run ThreadSegmentMerger with the file name to read the runs back as one
+ * log, in the order the events were appended.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "ThreadSegment", category = "Core", elementType = "appender", printObject = true)
+public class ThreadSegmentAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ThreadSegmentManager manager;
+	private final boolean immediateFlush;
+
+	private final NativeFileManager.MessageWriter messageWriter = new NativeFileManager.MessageWriter() {
+		@Override
+		public void write(final LogEvent event, final ByteBuffer buffer) {
+			final Serializable message = getLayout().toSerializable(event);
+			if (message instanceof String) {
+				JournalEncoder.putUtf8(buffer, (String) message);
+			} else {
+				buffer.put(getLayout().toByteArray(event));
+			}
+		}
+	};
+
+	protected ThreadSegmentAppender(final String name, final Filter filter,
+			final Layout<? extends Serializable> layout, final boolean ignoreExceptions,
+			final ThreadSegmentManager manager, final boolean immediateFlush) {
+		super(name, filter, layout, ignoreExceptions);
+		this.manager = manager;
+		this.immediateFlush = immediateFlush;
+	}
+
+	@Override
+	public void append(final LogEvent event) {
+		try {
+			manager.write(event, messageWriter, immediateFlush || event.isEndOfBatch());
+		} catch (final LastErrorException e) {
+			getHandler().error("Failed to write event to " + manager.getFileName() + ".", event, e);
+		} catch (final IllegalArgumentException e) {
+			getHandler().error("Failed to write event to " + manager.getFileName() + ".", event, e);
+		}
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		manager.release();
+	}
+
+	/**
+	 * @return the manager of this appender
+	 */
+	public ThreadSegmentManager getManager() {
+		return manager;
+	}
+
+	@PluginBuilderFactory
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder implements org.apache.logging.log4j.core.util.Builder<ThreadSegmentAppender> {
+
+		@PluginBuilderAttribute
+		@Required(message = "A name for the ThreadSegmentAppender must be specified")
+		private String name;
+
+		@PluginBuilderAttribute
+		@Required(message = "A fileName for the ThreadSegmentAppender must be specified")
+		private String fileName;
+
+		@PluginBuilderAttribute
+		private int bufferSize = ThreadSegmentManager.DEFAULT_BUFFER_SIZE;
+
+		@PluginBuilderAttribute
+		private boolean immediateFlush = true;
+
+		@PluginElement("Layout")
+		private Layout<? extends Serializable> layout;
+
+		@PluginElement("Filter")
+		private Filter filter;
+
+		@PluginBuilderAttribute
+		private boolean ignoreExceptions = true;
+
+		private Builder() {
+		}
+
+		public Builder setName(final String name) {
+			this.name = name;
+			return this;
+		}
+
+		public Builder setFileName(final String fileName) {
+			this.fileName = fileName;
+			return this;
+		}
+
+		public Builder setBufferSize(final int bufferSize) {
+			this.bufferSize = bufferSize;
+			return this;
+		}
+
+		public Builder setImmediateFlush(final boolean immediateFlush) {
+			this.immediateFlush = immediateFlush;
+			return this;
+		}
+
+		public Builder setLayout(final Layout<? extends Serializable> layout) {
+			this.layout = layout;
+			return this;
+		}
+
+		public Builder setFilter(final Filter filter) {
+			this.filter = filter;
+			return this;
+		}
+
+		public Builder setIgnoreExceptions(final boolean ignoreExceptions) {
+			this.ignoreExceptions = ignoreExceptions;
+			return this;
+		}
+
+		@Override
+		public ThreadSegmentAppender build() {
+			try {
+				final ThreadSegmentManager manager = ThreadSegmentManager.getThreadSegmentManager(name, fileName,
+						bufferSize);
+				return new ThreadSegmentAppender(name, filter, layout == null ? PatternLayout.createDefaultLayout()
+						: layout, ignoreExceptions, manager, immediateFlush);
+			} catch (final LastErrorException e) {
+				LOGGER.error("Error creating ThreadSegmentAppender [{}] for {}.", name, fileName, e);
+				return null;
+			} catch (final IllegalArgumentException e) {
+				LOGGER.error("Error creating ThreadSegmentAppender [{}] for {}.", name, fileName, e);
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.File;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractManager;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+/**
+ * Writes encoded events to a file per thread, so that threads share no file
+ * position, buffer or lock.
+ *
+ * <p>
+ * Each thread gets a writer of its own on its first event, with a buffer and
+ * a file opened with O_APPEND, written by that thread only. Every record
+ * starts with the length of the event, a sequence number and the time of the
+ * event, all little-endian; the sequence number is taken from a counter
+ * shared by the threads with an atomic add, the only thing they share, and
+ * orders the records of all files as they were appended.
+ * </p>
+ *
+ * <p>
+ * The files of a manager make up a run, named fileName.000001.1,
+ * fileName.000001.2 and so on by run and writer, runs numbered on from those
+ * already there. {@link ThreadSegmentMerger} merges the files of each run
+ * back into one stream.
+ * </p>
+ *
+ * <p>
+ * The writers of threads that have ended are flushed and closed when a new
+ * thread starts writing and on flush, so descriptors and buffers are only
+ * kept for live threads, and the others when the manager is closed.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class ThreadSegmentManager extends AbstractManager {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * Default buffer size of each thread.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Size of the record header: length, sequence number and time.
+	 */
+	static final int HEADER_SIZE = 4 + 8 + 8;
+
+	private static final int MAX_LARGE_EVENT_SIZE = 64 * 1024 * 1024;
+
+	private final String fileName;
+	private final int run;
+	private final int bufferSize;
+	private final AtomicLong sequence = new AtomicLong();
+	private final ThreadLocal<Writer> threadWriter = new ThreadLocal<Writer>();
+	// Guarded by the manager.
+	private final List<Writer> writers = new ArrayList<Writer>();
+	private int writerCount;
+	private boolean closed;
+
+	/**
+	 * The file and buffer of one thread. Only locked by another thread to
+	 * flush or close it.
+	 */
+	private final class Writer {
+
+		private final String fileName;
+		private final Thread thread;
+		private final ByteBuffer buffer;
+		private final Pointer bufferPointer;
+		private ByteBuffer large;
+		private int fd;
+
+		Writer(final String fileName) {
+			this.fileName = fileName;
+			this.thread = Thread.currentThread();
+			fd = LibC.INSTANCE.open(fileName, LibC.O_WRONLY | LibC.O_CREAT | LibC.O_APPEND | LibC.O_CLOEXEC, 0644);
+			if (fd < 0) {
+				throw new LastErrorException(Native.getLastError());
+			}
+			buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+			bufferPointer = Native.getDirectBufferPointer(buffer);
+		}
+
+		synchronized void write(final LogEvent event, final NativeFileManager.MessageWriter messageWriter,
+				final boolean flush) {
+			if (fd < 0) {
+				throw new IllegalStateException("ThreadSegmentManager " + getName() + " is closed");
+			}
+			if (!encode(event, messageWriter, buffer)) {
+				writeBuffer();
+				if (!encode(event, messageWriter, buffer)) {
+					writeLarge(event, messageWriter);
+				}
+			}
+			if (flush) {
+				writeBuffer();
+			}
+		}
+
+		/**
+		 * Writes an event larger than the buffer from a buffer of its own.
+		 */
+		private void writeLarge(final LogEvent event, final NativeFileManager.MessageWriter messageWriter) {
+			int size = Math.max(large == null ? 0 : large.capacity(), buffer.capacity() * 2);
+			for (;;) {
+				if (large == null || large.capacity() < size) {
+					large = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+				}
+				large.clear();
+				if (encode(event, messageWriter, large)) {
+					break;
+				}
+				if (size >= MAX_LARGE_EVENT_SIZE) {
+					throw new IllegalArgumentException("Event exceeds " + MAX_LARGE_EVENT_SIZE + " bytes");
+				}
+				size = Math.min(size * 2, MAX_LARGE_EVENT_SIZE);
+			}
+			writeFully(Native.getDirectBufferPointer(large), large.position());
+		}
+
+		synchronized void flush() {
+			if (fd >= 0) {
+				writeBuffer();
+			}
+		}
+
+		synchronized void close() {
+			if (fd >= 0) {
+				try {
+					writeBuffer();
+				} finally {
+					LibC.INSTANCE.close(fd);
+					fd = -1;
+				}
+			}
+		}
+
+		private void writeBuffer() {
+			if (buffer.position() > 0) {
+				writeFully(bufferPointer, buffer.position());
+				buffer.clear();
+			}
+		}
+
+		private void writeFully(final Pointer data, final int length) {
+			long done = 0;
+			while (done < length) {
+				final long n = LibC.INSTANCE.write(fd, data.share(done), new NativeLong(length - done)).longValue();
+				if (n < 0) {
+					final int error = Native.getLastError();
+					if (error != LibC.EINTR) {
+						throw new LastErrorException(error);
+					}
+				} else {
+					done += n;
+				}
+			}
+		}
+	}
+
+	private ThreadSegmentManager(final String name, final String fileName, final int run, final int bufferSize) {
+		super(name);
+		this.fileName = fileName;
+		this.run = run;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Gets a ThreadSegmentManager for a run of files per thread.
+	 *
+	 * @param name			The name to use for this ThreadSegmentManager.
+	 * @param fileName		The file name the run and writer are appended to.
+	 * @param bufferSize	The size of the write buffer of each thread.
+	 * @return The ThreadSegmentManager as configured.
+	 */
+	public static ThreadSegmentManager getThreadSegmentManager(final String name, final String fileName,
+			final int bufferSize) {
+		if (bufferSize < HEADER_SIZE) {
+			throw new IllegalArgumentException("bufferSize must be at least " + HEADER_SIZE + ": " + bufferSize);
+		}
+		final SortedMap<Integer, List<File>> runs = findRuns(fileName);
+		return new ThreadSegmentManager(name, fileName, runs.isEmpty() ? 1 : runs.lastKey().intValue() + 1,
+				bufferSize);
+	}
+
+	/**
+	 * @return the name of the file of a writer of a run
+	 */
+	static String getThreadFileName(final String fileName, final int run, final int writer) {
+		return String.format("%s.%06d.%d", fileName, Integer.valueOf(run), Integer.valueOf(writer));
+	}
+
+	/**
+	 * @return the files of each run of a file name, by run
+	 */
+	static SortedMap<Integer, List<File>> findRuns(final String fileName) {
+		final File file = new File(fileName).getAbsoluteFile();
+		final String prefix = file.getName() + ".";
+		final String[] names = file.getParentFile().list();
+		final SortedMap<Integer, List<File>> runs = new TreeMap<Integer, List<File>>();
+		if (names != null) {
+			for (final String name : names) {
+				if (name.startsWith(prefix) && name.length() > prefix.length() + 7
+						&& name.charAt(prefix.length() + 6) == '.') {
+					try {
+						final Integer run = Integer.valueOf(name.substring(prefix.length(), prefix.length() + 6));
+						Integer.parseInt(name.substring(prefix.length() + 7));
+						List<File> files = runs.get(run);
+						if (files == null) {
+							files = new ArrayList<File>();
+							runs.put(run, files);
+						}
+						files.add(new File(file.getParentFile(), name));
+					} catch (final NumberFormatException e) {
+						// Not a file of a run.
+					}
+				}
+			}
+		}
+		return runs;
+	}
+
+	/**
+	 * Encodes an event with its record header into a buffer.
+	 *
+	 * @return false if the event does not fit, the buffer left as it was
+	 */
+	private boolean encode(final LogEvent event, final NativeFileManager.MessageWriter messageWriter,
+			final ByteBuffer buffer) {
+		final int mark = buffer.position();
+		if (buffer.remaining() < HEADER_SIZE) {
+			return false;
+		}
+		buffer.position(mark + HEADER_SIZE);
+		try {
+			messageWriter.write(event, buffer);
+		} catch (final BufferOverflowException e) {
+			buffer.position(mark);
+			return false;
+		}
+		buffer.putInt(mark, buffer.position() - mark - HEADER_SIZE);
+		buffer.putLong(mark + 4, sequence.getAndIncrement());
+		buffer.putLong(mark + 12, event.getTimeMillis());
+		return true;
+	}
+
+	/**
+	 * Encodes an event into the buffer of the calling thread, writing the
+	 * buffer to the file of the thread when it is full or when flush is
+	 * requested.
+	 *
+	 * @param event
+	 *            Log event.
+	 * @param messageWriter
+	 *            Writes the event.
+	 * @param flush
+	 *            Write the buffer after this event.
+	 */
+	public void write(final LogEvent event, final NativeFileManager.MessageWriter messageWriter,
+			final boolean flush) {
+		Writer writer = threadWriter.get();
+		if (writer == null) {
+			writer = newWriter();
+			threadWriter.set(writer);
+		}
+		writer.write(event, messageWriter, flush);
+	}
+
+	private synchronized Writer newWriter() {
+		if (closed) {
+			throw new IllegalStateException("ThreadSegmentManager " + getName() + " is closed");
+		}
+		closeEndedWriters();
+		final Writer writer = new Writer(getThreadFileName(fileName, run, writerCount + 1));
+		writerCount++;
+		writers.add(writer);
+		return writer;
+	}
+
+	/**
+	 * Flushes and closes the writers of threads that have ended.
+	 */
+	private synchronized void closeEndedWriters() {
+		for (final Iterator<Writer> iterator = writers.iterator(); iterator.hasNext();) {
+			final Writer writer = iterator.next();
+			if (!writer.thread.isAlive()) {
+				iterator.remove();
+				try {
+					writer.close();
+				} catch (final LastErrorException e) {
+					LOGGER.error("Unable to write {}", writer.fileName, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffers of all threads to their files, closing those of
+	 * threads that have ended.
+	 */
+	public void flush() {
+		closeEndedWriters();
+		for (final Writer writer : getWriters()) {
+			writer.flush();
+		}
+	}
+
+	private synchronized List<Writer> getWriters() {
+		return new ArrayList<Writer>(writers);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.logging.log4j.core.appender.AbstractManager#releaseSub()
+	 */
+	@Override
+	protected void releaseSub() {
+		synchronized (this) {
+			closed = true;
+		}
+		for (final Writer writer : getWriters()) {
+			try {
+				writer.close();
+			} catch (final LastErrorException e) {
+				LOGGER.error("Unable to write {}", writer.fileName, e);
+			}
+		}
+	}
+
+	/**
+	 * @return the file name the runs are named after
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return the number of the run of this manager
+	 */
+	public int getRun() {
+		return run;
+	}
+
+	/**
+	 * @return the number of threads that have written so far
+	 */
+	public synchronized int getWriterCount() {
+		return writerCount;
+	}
+
+	/**
+	 * @return the number of writers open, those of live threads and of
+	 *         ended threads not closed yet
+	 */
+	public synchronized int getOpenWriterCount() {
+		return writers.size();
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.ParseException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the files per thread of a run of a {@link ThreadSegmentAppender}
+ * back into one stream of records, in the order of their sequence numbers,
+ * which is the order the events were appended in.
+ *
+ * <p>
+ * Each file is read sequentially and in order already, so a heap of the next
+ * record of every file gives the next record of the run: reading a record
+ * costs a log of the number of files. A record cut short at the end of a
+ * file, written by a process that died, ends that file.
+ * </p>
+ *
+ * <p>
+ * Run with the file name and optionally a time range, it writes the events
+ * of all runs, run after run, to standard output.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public final class ThreadSegmentMerger implements Closeable {
+
+	/**
+	 * A record of a file per thread.
+	 */
+	public static final class Record {
+
+		private final long sequence;
+		private final long time;
+		private final byte[] data;
+
+		Record(final long sequence, final long time, final byte[] data) {
+			this.sequence = sequence;
+			this.time = time;
+			this.data = data;
+		}
+
+		/**
+		 * @return the sequence number, unique within the run
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return the time of the event in milliseconds
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the event as encoded by the layout
+		 */
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+	/**
+	 * A file and its next record.
+	 */
+	private static final class Input {
+
+		private final File file;
+		private final DataInputStream in;
+		private final byte[] header = new byte[ThreadSegmentManager.HEADER_SIZE];
+		private Record next;
+
+		Input(final File file) throws IOException {
+			this.file = file;
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		}
+
+		/**
+		 * Reads the next record.
+		 *
+		 * @return false at the end of the file
+		 */
+		boolean advance() throws IOException {
+			next = null;
+			final int n = in.read(header, 0, 1);
+			if (n < 0) {
+				return false;
+			}
+			try {
+				in.readFully(header, 1, header.length - 1);
+				final ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+				final int length = buffer.getInt();
+				if (length < 0) {
+					throw new IOException("Invalid record length " + length + " in " + file);
+				}
+				final long sequence = buffer.getLong();
+				final long time = buffer.getLong();
+				final byte[] data = new byte[length];
+				in.readFully(data);
+				next = new Record(sequence, time, data);
+				return true;
+			} catch (final EOFException e) {
+				return false;
+			}
+		}
+	}
+
+	private final PriorityQueue<Input> inputs;
+	private final Input[] opened;
+
+	/**
+	 * @param files
+	 *            The files of one run.
+	 * @throws IOException
+	 *             if a file cannot be read
+	 */
+	public ThreadSegmentMerger(final List<File> files) throws IOException {
+		inputs = new PriorityQueue<Input>(Math.max(files.size(), 1), new Comparator<Input>() {
+			@Override
+			public int compare(final Input a, final Input b) {
+				return a.next.sequence < b.next.sequence ? -1 : a.next.sequence == b.next.sequence ? 0 : 1;
+			}
+		});
+		opened = new Input[files.size()];
+		try {
+			for (int i = 0; i < opened.length; i++) {
+				opened[i] = new Input(files.get(i));
+				if (opened[i].advance()) {
+					inputs.add(opened[i]);
+				}
+			}
+		} catch (final IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the next record of the run.
+	 *
+	 * @return the record with the lowest sequence number not read yet, or
+	 *         null at the end of the run
+	 * @throws IOException
+	 *             if a file cannot be read
+	 */
+	public Record next() throws IOException {
+		final Input input = inputs.poll();
+		if (input == null) {
+			return null;
+		}
+		final Record record = input.next;
+		if (input.advance()) {
+			inputs.add(input);
+		}
+		return record;
+	}
+
+	@Override
+	public void close() throws IOException {
+		inputs.clear();
+		IOException failure = null;
+		for (final Input input : opened) {
+			if (input != null) {
+				try {
+					input.in.close();
+				} catch (final IOException e) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Writes the events of all runs of a file name to standard output.
+	 *
+	 * @param args
+	 *            The file name and optionally the start and end of a time
+	 *            range.
+	 */
+	public static void main(final String[] args) throws IOException, ParseException {
+		if (args.length != 1 && args.length != 3) {
+			System.err.println("Usage: ThreadSegmentMerger <file> [<from> <to>]");
+			System.exit(2);
+		}
+		final long from = args.length == 3 ? TimeIndexReader.parseTime(args[1]) : Long.MIN_VALUE;
+		final long to = args.length == 3 ? TimeIndexReader.parseTime(args[2]) : Long.MAX_VALUE;
+		final OutputStream out = System.out;
+		for (final List<File> run : ThreadSegmentManager.findRuns(args[0]).values()) {
+			final ThreadSegmentMerger merger = new ThreadSegmentMerger(run);
+			try {
+				for (Record record = merger.next(); record != null; record = merger.next()) {
+					if (record.time >= from && record.time <= to) {
+						out.write(record.data);
+					}
+				}
+			} finally {
+				merger.close();
+			}
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+
+/**
+ * Writes the sparse time index of a log file: a sidecar file of entries of
+ * two little-endian longs, a time in milliseconds and the offset of the
+ * event logged at that time, one entry at most every interval bytes.
+ *
+ * <p>
+ * Entry times never decrease: an event logged with a time before that of
+ * the previous entry is indexed with the time of that entry. Events are
+ * therefore found by binary search, and every event before the offset of an
+ * entry has a time no later than that of the entry, as long as events are
+ * written in time order. {@link TimeIndexReader} allows one interval of
+ * events out of order.
+ * </p>
+ *
+ * <p>
+ * Closing the index with the length of the log file adds an entry for the
+ * end of the file, so that a reader can tell a file entirely before a time
+ * range.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+final class TimeIndex {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	static final int ENTRY_SIZE = 16;
+
+	private final String fileName;
+	private final long interval;
+	private final Memory entry = new Memory(ENTRY_SIZE);
+	private int fd;
+	// Offset of the next event to index.
+	private volatile long next;
+	private long lastTime = Long.MIN_VALUE;
+	private long lastOffset = -1;
+
+	/**
+	 * Opens the index of a log file.
+	 *
+	 * @param logFileName
+	 *            The log file.
+	 * @param interval
+	 *            The least number of bytes between entries.
+	 * @param length
+	 *            The length of the log file, the offset of the next event;
+	 *            an existing index is kept when not 0.
+	 */
+	TimeIndex(final String logFileName, final long interval, final long length) {
+		this.fileName = getIndexFileName(logFileName);
+		this.interval = interval;
+		this.next = length;
+		fd = LibC.INSTANCE.open(fileName, LibC.O_RDWR | LibC.O_CREAT | LibC.O_APPEND | LibC.O_CLOEXEC
+				| (length == 0 ? LibC.O_TRUNC : 0), 0644);
+		if (fd < 0) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		// Drop a partial entry.
+		final long size = truncate();
+		if (size > 0 && LibC.INSTANCE.pread(fd, entry, new NativeLong(ENTRY_SIZE), size - ENTRY_SIZE).longValue()
+				== ENTRY_SIZE && entry.getLong(8) < length) {
+			lastTime = entry.getLong(0);
+			lastOffset = entry.getLong(8);
+		}
+	}
+
+	/**
+	 * @return the file name of the index of a log file
+	 */
+	static String getIndexFileName(final String logFileName) {
+		return logFileName + ".idx";
+	}
+
+	/**
+	 * Indexes an event if it is interval bytes past the last indexed one.
+	 *
+	 * @param time
+	 *            The time of the event.
+	 * @param offset
+	 *            The offset of the event in the log file.
+	 */
+	void add(final long time, final long offset) {
+		if (offset < next) {
+			return;
+		}
+		synchronized (this) {
+			if (offset < next || fd < 0) {
+				return;
+			}
+			next = offset + interval;
+			write(time, offset);
+		}
+	}
+
+	private void write(final long time, final long offset) {
+		lastTime = Math.max(lastTime, time);
+		lastOffset = offset;
+		entry.setLong(0, lastTime);
+		entry.setLong(8, offset);
+		if (LibC.INSTANCE.write(fd, entry, new NativeLong(ENTRY_SIZE)).longValue() != ENTRY_SIZE) {
+			LOGGER.warn("Unable to write an entry to {}: {}", fileName, LibC.INSTANCE.strerror(Native
+					.getLastError()));
+			truncate();
+		}
+	}
+
+	/**
+	 * Truncates the index to whole entries.
+	 *
+	 * @return the size of the index
+	 */
+	private long truncate() {
+		final long length = LibC.INSTANCE.lseek(fd, 0, LibC.SEEK_END);
+		final long size = Math.max(0, length / ENTRY_SIZE * ENTRY_SIZE);
+		if (size != length && length >= 0) {
+			LibC.INSTANCE.ftruncate(fd, size);
+		}
+		return size;
+	}
+
+	/**
+	 * Adds the entry for the end of the log file and closes the index.
+	 *
+	 * @param time
+	 *            The time of the last event.
+	 * @param length
+	 *            The length of the log file.
+	 */
+	synchronized void close(final long time, final long length) {
+		if (fd >= 0 && length > lastOffset) {
+			write(time, length);
+		}
+		close();
+	}
+
+	synchronized void close() {
+		if (fd >= 0) {
+			LibC.INSTANCE.close(fd);
+			fd = -1;
+		}
+	}
+}
@@ -0,0 +1,424 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads a time range of log files with a sparse {@link TimeIndex}, as
+ * written by the NativeFile and MappedSegment appenders with an
+ * indexInterval, without scanning the files.
+ *
+ * <p>
+ * The index of a file is memory mapped and binary searched for the byte
+ * range of the events in the time range, and the range of the file is
+ * memory mapped and copied. The range is exact to an index entry: it starts
+ * up to two intervals before the first event of the time range and ends up
+ * to two intervals after the last one, which keeps events logged by threads
+ * a little out of order in it. A file that ends before the time range, as
+ * told by the entry for its end, or starts after it is skipped. A file
+ * without an index is read whole. A range running to the end of a file
+ * stops at its written end, leaving out the zeros after the events of a
+ * MappedSegment segment still being written.
+ * </p>
+ *
+ * <p>
+ * A segment compressed by {@link SegmentCompressor} is looked up through the
+ * index of the segment it was compressed from, the range given in offsets of
+ * that segment, and read by decompressing the blocks the range covers,
+ * found through the block table of the compressed segment.
+ * </p>
+ *
+ * <p>
+ * The ranges of several files, such as the segments of a MappedSegment
+ * appender, are looked up and read in from disk in parallel on a fork-join
+ * pool, then copied in order.
+ * </p>
+ *
+ * <p>
+ * Run with the start and end of the time range, as milliseconds or as
+ * yyyy-MM-dd'T'HH:mm:ss[.SSS] in local time, and the files, it writes the
+ * range to standard output. A file name that does not exist stands for the
+ * segments of a MappedSegment appender with that file name.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public final class TimeIndexReader {
+
+	// Files are mapped in chunks of at most this size.
+	private static final long CHUNK_SIZE = 1L << 30;
+
+	/**
+	 * The byte range of a file holding a time range.
+	 */
+	public static final class Range {
+
+		private final File file;
+		private final long start;
+		private final long end;
+
+		Range(final File file, final long start, final long end) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return the file
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return the offset of the first byte of the range, in the segment
+		 *         a compressed segment was compressed from
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		/**
+		 * @return the offset after the last byte of the range
+		 */
+		public long getEnd() {
+			return end;
+		}
+
+		@Override
+		public String toString() {
+			return file + " [" + start + ", " + end + ")";
+		}
+	}
+
+	private TimeIndexReader() {
+	}
+
+	/**
+	 * Finds the byte range of a file holding the events of a time range.
+	 *
+	 * @param file
+	 *            The log file.
+	 * @param from
+	 *            The start of the time range in milliseconds.
+	 * @param to
+	 *            The end of the time range in milliseconds, inclusive.
+	 * @return the range, empty when no event is in the time range
+	 * @throws IOException
+	 *             if the file or its index cannot be read
+	 */
+	public static Range find(final File file, final long from, final long to) throws IOException {
+		final boolean compressed = SegmentCompressor.isCompressed(file);
+		final long length = compressed ? SegmentCompressor.readBlocks(file)[0] : file.length();
+		final File indexFile = new File(TimeIndex.getIndexFileName(compressed ? SegmentCompressor.getSegmentFile(
+				file).getPath() : file.getPath()));
+		if (!indexFile.isFile()) {
+			return new Range(file, 0, getWrittenLength(file, length));
+		}
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+		try {
+			final FileChannel channel = randomAccessFile.getChannel();
+			final int count = (int) Math.min(channel.size() / TimeIndex.ENTRY_SIZE, Integer.MAX_VALUE
+					/ TimeIndex.ENTRY_SIZE);
+			if (count == 0) {
+				return new Range(file, 0, getWrittenLength(file, length));
+			}
+			final ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					(long) count * TimeIndex.ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			// Files entirely after or, closed, entirely before the range.
+			if (getOffset(index, 0) == 0 && getTime(index, 0) > to || getOffset(index, count - 1) >= length
+					&& getTime(index, count - 1) < from) {
+				return new Range(file, 0, 0);
+			}
+			// One entry before the last entry before the range.
+			final int first = search(index, count, from - 1) - 1;
+			final long start = first < 0 ? 0 : Math.min(getOffset(index, first), length);
+			// One entry after the first entry after the range.
+			final int last = search(index, count, to) + 2;
+			final long end = last >= count ? getWrittenLength(file, length) : Math.min(getOffset(index, last),
+					length);
+			return new Range(file, start, Math.max(start, end));
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * @return the last entry with a time no later than time, or -1
+	 */
+	private static int search(final ByteBuffer index, final int count, final long time) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			if (getTime(index, middle) <= time) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return high;
+	}
+
+	private static long getTime(final ByteBuffer index, final int entry) {
+		return index.getLong(entry * TimeIndex.ENTRY_SIZE);
+	}
+
+	private static long getOffset(final ByteBuffer index, final int entry) {
+		return index.getLong(entry * TimeIndex.ENTRY_SIZE + 8);
+	}
+
+	/**
+	 * @return the length of a file without the zeros at its end
+	 */
+	private static long getWrittenLength(final File file, final long length) throws IOException {
+		if (SegmentCompressor.isCompressed(file)) {
+			// Truncated to its content before it was compressed.
+			return length;
+		}
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = randomAccessFile.getChannel();
+			final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			long end = length;
+			while (end > 0) {
+				final long start = Math.max(0, end - buffer.capacity());
+				buffer.clear();
+				buffer.limit((int) (end - start));
+				while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0) {
+					// Until the block is read.
+				}
+				for (int i = buffer.position() - 1; i >= 0; i--) {
+					if (buffer.get(i) != 0) {
+						return start + i + 1;
+					}
+				}
+				end = start;
+			}
+			return 0;
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Finds the byte ranges of files holding the events of a time range, in
+	 * parallel, reading the ranges in from disk.
+	 *
+	 * @param files
+	 *            The log files.
+	 * @param from
+	 *            The start of the time range in milliseconds.
+	 * @param to
+	 *            The end of the time range in milliseconds, inclusive.
+	 * @return the ranges that are not empty, in the order of the files
+	 * @throws IOException
+	 *             if a file or its index cannot be read
+	 */
+	public static List<Range> find(final List<File> files, final long from, final long to) throws IOException {
+		final ForkJoinPool pool = new ForkJoinPool();
+		try {
+			return pool.invoke(new FindTask(files, from, to));
+		} catch (final FindException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Carries an IOException out of a fork-join task.
+	 */
+	private static final class FindException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		FindException(final IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+	/**
+	 * Finds the ranges of a part of the files, splitting it in two until
+	 * one file is left.
+	 */
+	private static final class FindTask extends RecursiveTask<List<Range>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<File> files;
+		private final long from;
+		private final long to;
+
+		FindTask(final List<File> files, final long from, final long to) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<Range> compute() {
+			if (files.size() > 1) {
+				final int middle = files.size() / 2;
+				final FindTask second = new FindTask(files.subList(middle, files.size()), from, to);
+				second.fork();
+				final List<Range> ranges = new ArrayList<Range>(new FindTask(files.subList(0, middle), from, to)
+						.compute());
+				ranges.addAll(second.join());
+				return ranges;
+			}
+			if (files.isEmpty()) {
+				return Collections.emptyList();
+			}
+			try {
+				final Range range = find(files.get(0), from, to);
+				if (range.getStart() == range.getEnd()) {
+					return Collections.emptyList();
+				}
+				load(range);
+				return Collections.singletonList(range);
+			} catch (final IOException e) {
+				throw new FindException(e);
+			}
+		}
+	}
+
+	/**
+	 * Reads a range, or the blocks holding it, into the page cache.
+	 */
+	private static void load(final Range range) throws IOException {
+		long start = range.getStart();
+		long end = range.getEnd();
+		if (SegmentCompressor.isCompressed(range.getFile())) {
+			final long[] blocks = SegmentCompressor.readBlocks(range.getFile());
+			final int last = (int) ((end + SegmentCompressor.BLOCK_SIZE - 1) / SegmentCompressor.BLOCK_SIZE);
+			start = blocks[1 + (int) (start / SegmentCompressor.BLOCK_SIZE)];
+			end = last + 1 < blocks.length ? blocks[1 + last] : range.getFile().length();
+		}
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(range.getFile(), "r");
+		try {
+			final FileChannel channel = randomAccessFile.getChannel();
+			for (long position = start; position < end; position += CHUNK_SIZE) {
+				channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, end - position)).load();
+			}
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Copies a range of a file.
+	 *
+	 * @param range
+	 *            The range.
+	 * @param out
+	 *            Where to copy it.
+	 * @throws IOException
+	 *             if the file cannot be read or out written
+	 */
+	public static void copy(final Range range, final WritableByteChannel out) throws IOException {
+		if (SegmentCompressor.isCompressed(range.getFile())) {
+			SegmentCompressor.decompress(range.getFile(), range.getStart(), range.getEnd(), Channels
+					.newOutputStream(out));
+			return;
+		}
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(range.getFile(), "r");
+		try {
+			final FileChannel channel = randomAccessFile.getChannel();
+			for (long position = range.getStart(); position < range.getEnd(); position += CHUNK_SIZE) {
+				final MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(CHUNK_SIZE, range.getEnd() - position));
+				while (chunk.hasRemaining()) {
+					out.write(chunk);
+				}
+			}
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * @return the file of a file name, or the segments of a MappedSegment
+	 *         appender, compressed or not, when there is no such file
+	 */
+	static List<File> getFiles(final String fileName) {
+		final File file = new File(fileName);
+		return file.exists() ? Collections.singletonList(file) : MappedSegmentManager.getSegmentFiles(fileName);
+	}
+
+	/**
+	 * @return the milliseconds of a time given as milliseconds or as
+	 *         yyyy-MM-dd'T'HH:mm:ss[.SSS] in local time
+	 */
+	static long parseTime(final String time) throws ParseException {
+		if (time.matches("-?\\d+")) {
+			return Long.parseLong(time);
+		}
+		final SimpleDateFormat format = new SimpleDateFormat(time.indexOf('.') < 0 ? "yyyy-MM-dd'T'HH:mm:ss"
+				: "yyyy-MM-dd'T'HH:mm:ss.SSS");
+		format.setLenient(false);
+		return format.parse(time).getTime();
+	}
+
+	/**
+	 * Writes a time range of log files to standard output.
+	 *
+	 * @param args
+	 *            The start and end of the time range and the files.
+	 */
+	public static void main(final String[] args) throws IOException, ParseException {
+		if (args.length < 3) {
+			System.err.println("Usage: TimeIndexReader <from> <to> <file>...");
+			System.exit(2);
+		}
+		final long from = parseTime(args[0]);
+		final long to = parseTime(args[1]);
+		final List<File> files = new ArrayList<File>();
+		for (int i = 2; i < args.length; i++) {
+			files.addAll(getFiles(args[i]));
+		}
+		final OutputStream out = System.out;
+		final WritableByteChannel channel = Channels.newChannel(out);
+		for (final Range range : find(files, from, to)) {
+			copy(range, channel);
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.net.Facility;
+import org.apache.logging.log4j.core.util.NetUtils;
+
+import com.sun.jna.LastErrorException;
+
+/**
+ * Append to the local syslog daemon through its datagram socket, /dev/log,
+ * in RFC 5424 format.
+ *
+ * <p>
+ * <b>WARNING</b> This appender can only be installed and used on a Linux
+ * system.
+ * </p>
+ *
+ * <p>
+ * The PRI, hostname, app-name and procid parts of the header are encoded
+ * once, the timestamp once per second. Messages are sent in batches of
+ * batchSize with one system call. Batching needs immediateFlush set to false,
+ * as by default every message is sent on its own; a batch is then sent when
+ * it is full, at the end of a batch of queued events, as marked by async
+ * loggers and the Async appender, and every flushInterval milliseconds, so
+ * that a partial batch waits no longer than that. When the socket is full,
+ * overflowPolicy decides whether to wait (BLOCK) or drop messages (DROP).
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+@Plugin(name = "UnixSyslog", category = "Core", elementType = "appender", printObject = true)
+public class UnixSyslogAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final byte[] NILVALUE = { '-' };
+
+	private final UnixSyslogManager manager;
+	private final boolean immediateFlush;
+	private final byte[][] prefixes = new byte[8][];
+	private final byte[] header;
+
+	private final SimpleDateFormat secondFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+	private final byte[] second = new byte[19];
+	private long currentSecond = Long.MIN_VALUE;
+
+	private final UnixSyslogManager.MessageWriter messageWriter = new UnixSyslogManager.MessageWriter() {
+		@Override
+		public void write(final LogEvent event, final ByteBuffer buffer) {
+			writeMessage(event, buffer);
+		}
+	};
+
+	protected UnixSyslogAppender(final String name, final Filter filter, final Layout<? extends Serializable> layout,
+			final boolean ignoreExceptions, final UnixSyslogManager manager, final boolean immediateFlush,
+			final Facility facility, final String hostname, final String appName, final int procId) {
+		super(name, filter, layout, ignoreExceptions);
+		this.manager = manager;
+		this.immediateFlush = immediateFlush;
+		for (int severity = 0; severity < prefixes.length; severity++) {
+			prefixes[severity] = ("<" + (facility.getCode() * 8 + severity) + ">1 ").getBytes(EncodedEvent.UTF_8);
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(512);
+		buffer.put((byte) ' ');
+		buffer.put(toHeaderField(hostname, 255));
+		buffer.put((byte) ' ');
+		buffer.put(toHeaderField(appName, 48));
+		buffer.put((byte) ' ');
+		JournalEncoder.putDecimal(buffer, procId);
+		// No MSGID and no STRUCTURED-DATA.
+		buffer.put(" - - ".getBytes(EncodedEvent.UTF_8));
+		header = new byte[buffer.position()];
+		buffer.flip();
+		buffer.get(header);
+		secondFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	/**
+	 * A header field is printable US-ASCII without spaces, or NILVALUE.
+	 */
+	static byte[] toHeaderField(final String value, final int maxLength) {
+		if (value == null || value.isEmpty()) {
+			return NILVALUE;
+		}
+		final byte[] bytes = new byte[Math.min(value.length(), maxLength)];
+		for (int i = 0; i < bytes.length; i++) {
+			final char c = value.charAt(i);
+			bytes[i] = c > ' ' && c < 127 ? (byte) c : (byte) '_';
+		}
+		return bytes;
+	}
+
+	@Override
+	public void append(final LogEvent event) {
+		try {
+			manager.write(event, messageWriter, immediateFlush || event.isEndOfBatch());
+		} catch (final LastErrorException e) {
+			getHandler().error("Failed to send event to syslog.", event, e);
+		}
+	}
+
+	/**
+	 * Writes the RFC 5424 message of an event. Called by the manager while
+	 * holding its lock.
+	 */
+	void writeMessage(final LogEvent event, final ByteBuffer buffer) {
+		buffer.put(prefixes[SyslogSeverity.getSeverity(event.getLevel())]);
+		final long millis = event.getTimeMillis();
+		final long eventSecond = millis >= 0 ? millis / 1000 : (millis - 999) / 1000;
+		if (eventSecond != currentSecond) {
+			final String formatted = secondFormat.format(new Date(eventSecond * 1000));
+			for (int i = 0; i < second.length; i++) {
+				second[i] = (byte) formatted.charAt(i);
+			}
+			currentSecond = eventSecond;
+		}
+		buffer.put(second);
+		final int fraction = (int) (millis - eventSecond * 1000);
+		buffer.put((byte) '.');
+		buffer.put((byte) ('0' + fraction / 100));
+		buffer.put((byte) ('0' + fraction / 10 % 10));
+		buffer.put((byte) ('0' + fraction % 10));
+		buffer.put((byte) 'Z');
+		buffer.put(header);
+		final Layout<? extends Serializable> layout = getLayout();
+		final Serializable message = layout == null ? null : layout.toSerializable(event);
+		JournalEncoder.putUtf8(buffer, message instanceof String ? (String) message
+				: event.getMessage().getFormattedMessage());
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		manager.release();
+	}
+
+	/**
+	 * @return the manager of this appender
+	 */
+	public UnixSyslogManager getManager() {
+		return manager;
+	}
+
+	@PluginBuilderFactory
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder implements org.apache.logging.log4j.core.util.Builder<UnixSyslogAppender> {
+
+		@PluginBuilderAttribute
+		@Required(message = "A name for the UnixSyslogAppender must be specified")
+		private String name;
+
+		@PluginBuilderAttribute
+		private String socketPath = UnixSyslogManager.DEFAULT_SOCKET_PATH;
+
+		@PluginBuilderAttribute
+		private Facility facility = Facility.USER;
+
+		@PluginBuilderAttribute
+		private String hostname;
+
+		@PluginBuilderAttribute
+		private String appName;
+
+		@PluginBuilderAttribute
+		private int batchSize = 32;
+
+		@PluginBuilderAttribute
+		private int maxMessageSize = 8192;
+
+		@PluginBuilderAttribute
+		private boolean immediateFlush = true;
+
+		@PluginBuilderAttribute
+		private int flushInterval = 100;
+
+		@PluginBuilderAttribute
+		private UnixSyslogManager.OverflowPolicy overflowPolicy = UnixSyslogManager.OverflowPolicy.BLOCK;
+
+		@PluginElement("Layout")
+		private Layout<? extends Serializable> layout;
+
+		@PluginElement("Filter")
+		private Filter filter;
+
+		@PluginBuilderAttribute
+		private boolean ignoreExceptions = true;
+
+		private Builder() {
+		}
+
+		public Builder setName(final String name) {
+			this.name = name;
+			return this;
+		}
+
+		public Builder setSocketPath(final String socketPath) {
+			this.socketPath = socketPath;
+			return this;
+		}
+
+		public Builder setFacility(final Facility facility) {
+			this.facility = facility;
+			return this;
+		}
+
+		public Builder setHostname(final String hostname) {
+			this.hostname = hostname;
+			return this;
+		}
+
+		public Builder setAppName(final String appName) {
+			this.appName = appName;
+			return this;
+		}
+
+		public Builder setBatchSize(final int batchSize) {
+			this.batchSize = batchSize;
+			return this;
+		}
+
+		public Builder setMaxMessageSize(final int maxMessageSize) {
+			this.maxMessageSize = maxMessageSize;
+			return this;
+		}
+
+		public Builder setImmediateFlush(final boolean immediateFlush) {
+			this.immediateFlush = immediateFlush;
+			return this;
+		}
+
+		public Builder setFlushInterval(final int flushInterval) {
+			this.flushInterval = flushInterval;
+			return this;
+		}
+
+		public Builder setOverflowPolicy(final UnixSyslogManager.OverflowPolicy overflowPolicy) {
+			this.overflowPolicy = overflowPolicy;
+			return this;
+		}
+
+		public Builder setLayout(final Layout<? extends Serializable> layout) {
+			this.layout = layout;
+			return this;
+		}
+
+		public Builder setFilter(final Filter filter) {
+			this.filter = filter;
+			return this;
+		}
+
+		public Builder setIgnoreExceptions(final boolean ignoreExceptions) {
+			this.ignoreExceptions = ignoreExceptions;
+			return this;
+		}
+
+		@Override
+		public UnixSyslogAppender build() {
+			try {
+				final UnixSyslogManager manager = UnixSyslogManager.getUnixSyslogManager(name, socketPath,
+						batchSize, maxMessageSize, overflowPolicy, immediateFlush ? 0 : flushInterval);
+				return new UnixSyslogAppender(name, filter, layout, ignoreExceptions, manager, immediateFlush,
+						facility == null ? Facility.USER : facility,
+						hostname == null ? NetUtils.getLocalHostname() : hostname, appName,
+						LibC.INSTANCE.getpid());
+			} catch (final LastErrorException e) {
+				LOGGER.error("Error creating UnixSyslogAppender [{}].", name, e);
+				return null;
+			} catch (final IllegalArgumentException e) {
+				LOGGER.error("Error creating UnixSyslogAppender [{}].", name, e);
+				return null;
+			}
+		}
+	}
+}
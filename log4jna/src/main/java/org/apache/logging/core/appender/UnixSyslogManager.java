@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractManager;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+/**
+ * Sends messages to the local syslog datagram socket in batches.
+ *
+ * <p>
+ * Messages are encoded into slots of one direct buffer. A batch is sent with
+ * a single sendmmsg call, through mmsghdr and iovec arrays allocated once,
+ * when it is full or when a flush is requested, and with a flushInterval
+ * by a background thread every flushInterval milliseconds, so that a partial
+ * batch is not held back until more messages come. When the socket is full
+ * the {@link OverflowPolicy} decides whether to wait or to drop the batch.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class UnixSyslogManager extends AbstractManager {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * The local syslog socket.
+	 */
+	public static final String DEFAULT_SOCKET_PATH = "/dev/log";
+
+	// sizeof(struct iovec) and offsetof(struct iovec, iov_len) on LP64.
+	private static final int IOVEC_SIZE = 16;
+	private static final int IOV_LEN_OFFSET = 8;
+
+	/**
+	 * What to do when the syslog socket cannot take more messages.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Wait until the socket is writable.
+		 */
+		BLOCK,
+		/**
+		 * Drop the rest of the batch.
+		 */
+		DROP
+	}
+
+	/**
+	 * Writes one message.
+	 */
+	interface MessageWriter {
+
+		/**
+		 * @throws BufferOverflowException
+		 *             if the message does not fit, it is then truncated
+		 */
+		void write(LogEvent event, ByteBuffer buffer);
+	}
+
+	private final String socketPath;
+	private final OverflowPolicy overflowPolicy;
+	private final int maxMessageSize;
+	private final LibC.SockaddrUn address;
+	private final ByteBuffer[] slots;
+	private final Pointer iovecs;
+	private final Pointer mmsgs;
+	private final int mmsgSize;
+	private final LibC.Pollfd pollfd = new LibC.Pollfd();
+	private final Thread flusher;
+	private volatile boolean closed;
+	private int fd = -1;
+	private int count;
+	private long droppedCount;
+	private boolean dropping;
+
+	private UnixSyslogManager(final String name, final String socketPath, final int batchSize,
+			final int maxMessageSize, final OverflowPolicy overflowPolicy, final int flushInterval) {
+		super(name);
+		this.socketPath = socketPath;
+		this.overflowPolicy = overflowPolicy;
+		this.maxMessageSize = maxMessageSize;
+		this.address = new LibC.SockaddrUn(socketPath);
+
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(batchSize * maxMessageSize);
+		final Pointer base = Native.getDirectBufferPointer(buffer);
+		slots = new ByteBuffer[batchSize];
+		for (int i = 0; i < batchSize; i++) {
+			buffer.limit((i + 1) * maxMessageSize).position(i * maxMessageSize);
+			slots[i] = buffer.slice();
+		}
+
+		final LibC.Iovec[] iovecArray = (LibC.Iovec[]) new LibC.Iovec().toArray(batchSize);
+		final LibC.Mmsghdr[] mmsgArray = (LibC.Mmsghdr[]) new LibC.Mmsghdr().toArray(batchSize);
+		for (int i = 0; i < batchSize; i++) {
+			iovecArray[i].iov_base = base.share((long) i * maxMessageSize);
+			iovecArray[i].iov_len = new NativeLong(0);
+			iovecArray[i].write();
+			mmsgArray[i].msg_hdr.msg_iov = iovecArray[i].getPointer();
+			mmsgArray[i].msg_hdr.msg_iovlen = new NativeLong(1);
+			mmsgArray[i].write();
+		}
+		iovecs = iovecArray[0].getPointer();
+		mmsgs = mmsgArray[0].getPointer();
+		mmsgSize = mmsgArray[0].size();
+
+		fd = LibC.INSTANCE.socket(LibC.AF_UNIX, LibC.SOCK_DGRAM | LibC.SOCK_NONBLOCK | LibC.SOCK_CLOEXEC, 0);
+		if (fd < 0) {
+			throw new LastErrorException(Native.getLastError());
+		}
+		if (LibC.INSTANCE.connect(fd, address, address.size()) != 0) {
+			final int error = Native.getLastError();
+			LibC.INSTANCE.close(fd);
+			fd = -1;
+			throw new LastErrorException(error);
+		}
+		pollfd.fd = fd;
+		pollfd.events = LibC.POLLOUT;
+
+		if (flushInterval > 0) {
+			flusher = new Thread("UnixSyslogManager-" + name) {
+				@Override
+				public void run() {
+					while (!closed) {
+						try {
+							Thread.sleep(flushInterval);
+						} catch (final InterruptedException e) {
+							return;
+						}
+						try {
+							flush();
+						} catch (final LastErrorException e) {
+							LOGGER.error("Unable to send messages to syslog socket {}", socketPath, e);
+						}
+					}
+				}
+			};
+			flusher.setDaemon(true);
+			flusher.start();
+		} else {
+			flusher = null;
+		}
+	}
+
+	/**
+	 * Gets a UnixSyslogManager connected to a syslog socket.
+	 *
+	 * @param name				The name to use for this UnixSyslogManager.
+	 * @param socketPath		The syslog socket, or null for the default.
+	 * @param batchSize			The number of messages sent in one call.
+	 * @param maxMessageSize	The size in bytes longer messages are truncated to.
+	 * @param overflowPolicy	What to do when the socket is full.
+	 * @param flushInterval		Milliseconds between sends of a partial batch, 0 for none.
+	 * @return The UnixSyslogManager as configured.
+	 */
+	public static UnixSyslogManager getUnixSyslogManager(final String name, final String socketPath,
+			final int batchSize, final int maxMessageSize, final OverflowPolicy overflowPolicy,
+			final int flushInterval) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+		}
+		if (maxMessageSize < 1) {
+			throw new IllegalArgumentException("maxMessageSize must be at least 1: " + maxMessageSize);
+		}
+		if (flushInterval < 0) {
+			throw new IllegalArgumentException("Negative flushInterval " + flushInterval);
+		}
+		return new UnixSyslogManager(name, socketPath == null ? DEFAULT_SOCKET_PATH : socketPath, batchSize,
+				maxMessageSize, overflowPolicy == null ? OverflowPolicy.BLOCK : overflowPolicy, flushInterval);
+	}
+
+	/**
+	 * Encodes a message into the batch, sending the batch when it is full or
+	 * when flush is requested.
+	 *
+	 * @param event
+	 *            Log event.
+	 * @param writer
+	 *            Writes the message.
+	 * @param flush
+	 *            Send the batch after this message.
+	 */
+	public synchronized void write(final LogEvent event, final MessageWriter writer, final boolean flush) {
+		if (fd < 0) {
+			throw new IllegalStateException("UnixSyslogManager " + getName() + " is closed");
+		}
+		final ByteBuffer slot = slots[count];
+		slot.clear();
+		int length;
+		try {
+			writer.write(event, slot);
+			length = slot.position();
+		} catch (final BufferOverflowException e) {
+			length = truncate(slot, slot.position());
+		}
+		iovecs.setLong((long) count * IOVEC_SIZE + IOV_LEN_OFFSET, length);
+		count++;
+		if (flush || count == slots.length) {
+			flush();
+		}
+	}
+
+	/**
+	 * Drops a trailing, partially written UTF-8 sequence.
+	 */
+	private static int truncate(final ByteBuffer slot, final int length) {
+		int start = length;
+		while (start > 0 && (slot.get(start - 1) & 0xc0) == 0x80) {
+			start--;
+		}
+		if (start == 0) {
+			return length;
+		}
+		final int lead = slot.get(start - 1) & 0xff;
+		final int expected = lead >= 0xf0 ? 4 : lead >= 0xe0 ? 3 : lead >= 0xc0 ? 2 : 1;
+		return length - (start - 1) < expected ? start - 1 : length;
+	}
+
+	/**
+	 * Sends the messages of the current batch.
+	 */
+	public synchronized void flush() {
+		int sent = 0;
+		boolean reconnected = false;
+		try {
+			while (sent < count) {
+				final int n = LibC.INSTANCE.sendmmsg(fd, mmsgs.share((long) sent * mmsgSize), count - sent,
+						LibC.MSG_NOSIGNAL);
+				if (n > 0) {
+					sent += n;
+					dropping = false;
+					continue;
+				}
+				final int error = n == 0 ? LibC.EAGAIN : Native.getLastError();
+				if (error == LibC.EINTR) {
+					continue;
+				}
+				if (error == LibC.EAGAIN) {
+					if (overflowPolicy == OverflowPolicy.DROP) {
+						drop(count - sent);
+						return;
+					}
+					awaitWritable();
+				} else if ((error == LibC.ECONNREFUSED || error == LibC.ENOTCONN) && !reconnected) {
+					// The syslog daemon was restarted, its socket is a new one.
+					reconnected = true;
+					LibC.INSTANCE.connect(fd, address, address.size());
+				} else {
+					throw new LastErrorException(error);
+				}
+			}
+		} finally {
+			count = 0;
+		}
+	}
+
+	private void drop(final int messages) {
+		droppedCount += messages;
+		if (!dropping) {
+			dropping = true;
+			LOGGER.warn("Syslog socket {} is full, dropping messages", socketPath);
+		}
+	}
+
+	private void awaitWritable() {
+		while (LibC.INSTANCE.poll(pollfd, 1, -1) < 0) {
+			final int error = Native.getLastError();
+			if (error != LibC.EINTR) {
+				throw new LastErrorException(error);
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.logging.log4j.core.appender.AbstractManager#releaseSub()
+	 */
+	@Override
+	protected void releaseSub() {
+		closed = true;
+		if (flusher != null) {
+			flusher.interrupt();
+		}
+		close();
+	}
+
+	private synchronized void close() {
+		if (fd >= 0) {
+			try {
+				flush();
+			} catch (final LastErrorException e) {
+				LOGGER.error("Unable to send pending messages to syslog socket {}", socketPath, e);
+			}
+			if (LibC.INSTANCE.close(fd) != 0) {
+				LOGGER.error("Unable to close syslog socket {}", socketPath);
+			}
+			fd = -1;
+		}
+	}
+
+	/**
+	 * @return what is done when the socket is full
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @return the number of messages dropped because the socket was full
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return the size in bytes longer messages are truncated to
+	 */
+	public int getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	/**
+	 * @return the syslog socket path
+	 */
+	public String getSocketPath() {
+		return socketPath;
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Cache of user SIDs: a bounded least recently used map keyed by account
+ * name, and a thread local holding the SID of the token of each thread.
+ *
+ * <p>
+ * Account names map to the same SID for the lifetime of the cache. The SID of
+ * a thread token is re-resolved once it is older than the thread expiry, so
+ * that a thread which starts or stops impersonating is picked up within that
+ * delay. Failed account lookups are cached for the failure expiry, so an
+ * unknown account is not looked up again for every event, while an account
+ * that failed because a domain controller could not be reached is resolved
+ * again once it can. Threads are kept apart from the accounts, so that a
+ * large pool of threads neither evicts accounts nor is kept reachable by the
+ * cache.
+ * </p>
+ *
+ * @param <S>
+ *            SID type.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+class UserSidCache<S> {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * Milliseconds a failed account lookup is cached by default.
+	 */
+	static final long DEFAULT_FAILURE_EXPIRY_MILLIS = 30000;
+
+	/**
+	 * Looks up SIDs, typically through native calls.
+	 */
+	interface Resolver<S> {
+
+		S lookupAccount(String account);
+
+		S lookupThreadToken();
+	}
+
+	/**
+	 * A clock, in milliseconds.
+	 */
+	interface Clock {
+
+		long currentTimeMillis();
+	}
+
+	private static final Clock SYSTEM_CLOCK = new Clock() {
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	private static final class CachedSid<S> {
+
+		private final S sid;
+		private final long expires;
+
+		CachedSid(final S sid, final long expires) {
+			this.sid = sid;
+			this.expires = expires;
+		}
+	}
+
+	private final Resolver<S> resolver;
+	private final long threadExpiryMillis;
+	private final long failureExpiryMillis;
+	private final Clock clock;
+	private final Map<String, CachedSid<S>> accounts;
+	private final ThreadLocal<CachedSid<S>> threads = new ThreadLocal<CachedSid<S>>();
+
+	UserSidCache(final Resolver<S> resolver, final int maxSize, final long threadExpiryMillis) {
+		this(resolver, maxSize, threadExpiryMillis, DEFAULT_FAILURE_EXPIRY_MILLIS, SYSTEM_CLOCK);
+	}
+
+	UserSidCache(final Resolver<S> resolver, final int maxSize, final long threadExpiryMillis,
+			final long failureExpiryMillis, final Clock clock) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+		}
+		this.resolver = resolver;
+		this.threadExpiryMillis = threadExpiryMillis;
+		this.failureExpiryMillis = failureExpiryMillis;
+		this.clock = clock;
+		this.accounts = new LinkedHashMap<String, CachedSid<S>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, CachedSid<S>> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @param account
+	 *            Account name, optionally qualified by domain.
+	 * @return the SID of the account, or null if it cannot be resolved.
+	 */
+	S getAccountSid(final String account) {
+		final long now = clock.currentTimeMillis();
+		synchronized (accounts) {
+			final CachedSid<S> cached = accounts.get(account);
+			if (cached != null && cached.expires > now) {
+				return cached.sid;
+			}
+		}
+		S sid = null;
+		try {
+			sid = resolver.lookupAccount(account);
+		} catch (final RuntimeException e) {
+			LOGGER.error("Unable to look up the SID of account [{}].", account, e);
+		}
+		synchronized (accounts) {
+			accounts.put(account, new CachedSid<S>(sid, sid != null ? Long.MAX_VALUE : now + failureExpiryMillis));
+		}
+		return sid;
+	}
+
+	/**
+	 * @return the SID of the current thread token, or null if it cannot be
+	 *         resolved.
+	 */
+	S getThreadSid() {
+		final long now = clock.currentTimeMillis();
+		final CachedSid<S> cached = threads.get();
+		if (cached != null && cached.expires > now) {
+			return cached.sid;
+		}
+		S sid = null;
+		try {
+			sid = resolver.lookupThreadToken();
+		} catch (final RuntimeException e) {
+			LOGGER.error("Unable to look up the SID of the thread token of [{}].", Thread.currentThread().getName(),
+					e);
+		}
+		threads.set(new CachedSid<S>(sid, now + threadExpiryMillis));
+		return sid;
+	}
+
+	/**
+	 * @return number of cached account SIDs.
+	 */
+	int size() {
+		synchronized (accounts) {
+			return accounts.size();
+		}
+	}
+}
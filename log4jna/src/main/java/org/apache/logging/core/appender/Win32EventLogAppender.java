@@ -18,6 +18,10 @@
 package org.apache.logging.core.appender;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.Filter;
@@ -34,7 +38,8 @@ import org.apache.logging.log4j.core.layout.SerializedLayout;
 import com.sun.jna.platform.win32.Advapi32;
 import com.sun.jna.platform.win32.Kernel32;
 import com.sun.jna.platform.win32.Win32Exception;
-import com.sun.jna.platform.win32.WinNT;
+import com.sun.jna.platform.win32.WinNT.HANDLE;
+import com.sun.jna.platform.win32.WinNT.PSID;
 
 /**
  * Append to the NT event log system.
@@ -47,6 +52,41 @@ import com.sun.jna.platform.win32.WinNT;
  * Do not forget to place jna.jar and platform.jar in the CLASSPATH.
  * </p>
  * 
+ * <p>
+ * Events are reported under the configured source unless routing is enabled:
+ * with routingKey set, an event whose ThreadContext holds that key is reported
+ * under the source named by its value; with routeByMarker, an event carrying a
+ * marker is reported under the marker's name. Registering a source writes
+ * its key to the registry, so only the sources listed in routableSources,
+ * which routing requires, are routed to; an event routed to any other source
+ * is reported under the configured source. At most maxSources routed sources
+ * are kept registered, about the least recently used one is deregistered
+ * beyond that.
+ * </p>
+ * 
+ * <p>
+ * With userSidKey set, an event whose ThreadContext holds that key is reported
+ * with the SID of the account named by its value; with threadUserSid, other
+ * events are reported with the SID of the token of the appending thread. SIDs
+ * are cached, a thread token is queried again after threadUserSidExpiry
+ * milliseconds.
+ * </p>
+ * 
+ * <p>
+ * With backtraceSize set, events at backtraceLevel or less severe are not
+ * reported but kept in a ring of that many rendered events per thread, or per
+ * value of the ThreadContext backtraceKey. When an event at backtraceTrigger
+ * or more severe is appended, the kept events are reported as one record just
+ * before it.
+ * </p>
+ * 
+ * <p>
+ * With includeNativeThread, each event is reported with two more insertion
+ * strings, the native id of the thread logging it and the processor it runs
+ * on, kept with the record for Event Viewer and Get-WinEvent to show. A
+ * value that is unknown is left empty.
+ * </p>
+ * 
  * @author <a href="mailto:cstaylor@pacbell.net">Chris Taylor</a>
  * @author <a href="mailto:jim_cakalic@na.biomerieux.com">Jim Cakalic</a>
  * @author <a href="mailto:dblock@dblock.org">Daniel Doubrovkine</a>
@@ -58,35 +98,177 @@ public class Win32EventLogAppender extends AbstractAppender {
 
 	private static final long serialVersionUID = 1L;
     private final Win32EventLogManager manager;
+    private final String routingKey;
+    private final boolean routeByMarker;
+    private final Set<String> routableSources;
+    private final LevelMapping levelMapping;
+    private final UserSidCache<PSID> userSids;
+    private final String userSidKey;
+    private final boolean threadUserSid;
+    private final BacktraceBuffer backtrace;
+    private final Level backtraceLevel;
+    private final Level backtraceTrigger;
+    private final boolean includeNativeThread;
 
     protected Win32EventLogAppender(final String name, final Filter filter, final Layout<? extends Serializable> layout,
                         final boolean ignoreExceptions, final Win32EventLogManager manager) {
+        this(name, filter, layout, ignoreExceptions, manager, null, false, Collections.<String> emptySet(),
+        		LevelMapping.createDefault(),
+        		null, null, false, null, null, null, false);
+    }	
+
+    protected Win32EventLogAppender(final String name, final Filter filter, final Layout<? extends Serializable> layout,
+                        final boolean ignoreExceptions, final Win32EventLogManager manager,
+                        final String routingKey, final boolean routeByMarker, final Set<String> routableSources,
+                        final LevelMapping levelMapping,
+                        final UserSidCache<PSID> userSids, final String userSidKey, final boolean threadUserSid,
+                        final BacktraceBuffer backtrace, final Level backtraceLevel, final Level backtraceTrigger,
+                        final boolean includeNativeThread) {
         super(name, filter, layout, ignoreExceptions);
         this.manager = manager;
+        this.routingKey = routingKey;
+        this.routeByMarker = routeByMarker;
+        this.routableSources = routableSources;
+        this.levelMapping = levelMapping;
+        this.userSids = userSids;
+        this.userSidKey = userSidKey;
+        this.threadUserSid = threadUserSid;
+        this.backtrace = backtrace;
+        this.backtraceLevel = backtraceLevel;
+        this.backtraceTrigger = backtraceTrigger;
+        this.includeNativeThread = includeNativeThread;
     }	
     
     public void append(final LogEvent event) {
 		String s = new String(getLayout().toByteArray(event));
-		// Normalize the log message level into the supported categories
-		// Anything above FATAL or below DEBUG is labeled as INFO.
-		// if (nt_category > FATAL || nt_category < DEBUG) {
-		// 	nt_category = INFO;
-		// }
-		// This is the only message supported by the package. It is backed by
-		// a message resource which consists of just '%1' which is replaced
-		// by the string we just created.
-		final int messageID = 0x1000;
-		
-		String[] buffer = { s };
+		if (backtrace != null && event.getLevel().isLessSpecificThan(backtraceLevel)) {
+			// Kept until an error occurs, without any native call.
+			backtrace.add(event, s);
+			return;
+		}
+
+		// Type, category and event ID come from the level mapping table, by
+		// default the event ID is that of the only message supported by the
+		// package, whose '%1' is replaced by the string we just created.
+		final EventLogLevel mapping = levelMapping.get(event.getLevel());
 		
-		if (Advapi32.INSTANCE.ReportEvent(manager.getHandle(), getEventLogType(event.getLevel()),
-				getEventLogCategory(event.getLevel()), messageID, null, buffer.length, 0, buffer,
+		String[] buffer = includeNativeThread ? new String[] { s, getNativeThreadId(), getCurrentCpu() }
+				: new String[] { s };
+		String[] backtraceBuffer = null;
+		if (backtrace != null && event.getLevel().isMoreSpecificThan(backtraceTrigger)) {
+			final String kept = backtrace.drain(event);
+			if (kept != null) {
+				backtraceBuffer = new String[] { kept };
+			}
+		}
+
+		final String source = getRoutedSource(event);
+		if (source == null) {
+			reportEvents(manager.getHandle(), event, mapping, backtraceBuffer, buffer);
+			return;
+		}
+
+		final EventSourceCache.Lease<HANDLE> lease;
+		try {
+			lease = manager.acquireHandle(source);
+		} catch (final Win32Exception e) {
+			getHandler().error(
+					"Failed to register event source [" + source + "].", event, e);
+			return;
+		}
+		try {
+			reportEvents(lease.getHandle(), event, mapping, backtraceBuffer, buffer);
+		} finally {
+			lease.release();
+		}
+    }
+
+	private static String getNativeThreadId() {
+		final int id = NativeThread.getId();
+		return id >= 0 ? Integer.toString(id) : "";
+	}
+
+	private static String getCurrentCpu() {
+		return CurrentCpu.isSupported() ? Integer.toString(CurrentCpu.get()) : "";
+	}
+
+	private void reportEvents(final HANDLE handle, final LogEvent event, final EventLogLevel mapping,
+			final String[] backtraceBuffer, final String[] buffer) {
+		if (backtraceBuffer != null) {
+			reportEvent(handle, event, mapping, backtraceBuffer);
+		}
+		reportEvent(handle, event, mapping, buffer);
+	}
+
+	private void reportEvent(final HANDLE handle, final LogEvent event, final EventLogLevel mapping,
+			final String[] buffer) {
+		if (Advapi32.INSTANCE.ReportEvent(handle, mapping.getType(),
+				mapping.getCategory(), mapping.getEventId(), getUserSid(event), buffer.length, 0, buffer,
 				null) == false) {
 			Exception e = new Win32Exception(Kernel32.INSTANCE.GetLastError());
 			getHandler().error(
-					"Failed to report event [" + s + "].", event, e);
+					"Failed to report event [" + buffer[0] + "].", event, e);
 		}
-    }
+	}
+
+	/**
+	 * Resolves the user SID attached to an event: that of the account named
+	 * by its ThreadContext userSidKey, or else that of the token of the
+	 * appending thread.
+	 * 
+	 * @param event
+	 *            Log event.
+	 * @return cached SID, or null to report the event without a user.
+	 */
+	private PSID getUserSid(final LogEvent event) {
+		if (userSids == null) {
+			return null;
+		}
+		if (userSidKey != null) {
+			final Map<String, String> contextMap = event.getContextMap();
+			final String account = contextMap == null ? null : contextMap.get(userSidKey);
+			if (account != null && !account.isEmpty()) {
+				return userSids.getAccountSid(account);
+			}
+		}
+		return threadUserSid ? userSids.getThreadSid() : null;
+	}
+
+	/**
+	 * Picks the event source of an event from its ThreadContext routing key,
+	 * or else from its marker.
+	 * 
+	 * @param event
+	 *            Log event.
+	 * @return routed source, or null for the configured source, also when
+	 *         the source is not one of the routable sources.
+	 */
+	private String getRoutedSource(final LogEvent event) {
+		String source = null;
+		if (routingKey != null) {
+			final Map<String, String> contextMap = event.getContextMap();
+			source = contextMap == null ? null : contextMap.get(routingKey);
+		}
+		if ((source == null || source.isEmpty()) && routeByMarker && event.getMarker() != null) {
+			source = event.getMarker().getName();
+		}
+		return source != null && routableSources.contains(source) ? source : null;
+	}
+
+	/**
+	 * @return the sources of a comma separated list
+	 */
+	static Set<String> parseSources(final String sources) {
+		final Set<String> set = new HashSet<String>();
+		if (sources != null) {
+			for (final String source : sources.split(",")) {
+				if (!source.trim().isEmpty()) {
+					set.add(source.trim());
+				}
+			}
+		}
+		return Collections.unmodifiableSet(set);
+	}
     
     @PluginBuilderFactory
     public static Builder newBuilder() {
@@ -116,9 +298,51 @@ public class Win32EventLogAppender extends AbstractAppender {
         @PluginBuilderAttribute
         private String categoryMessageFile = "";
 
+        @PluginBuilderAttribute
+        private String routingKey;
+
+        @PluginBuilderAttribute
+        private boolean routeByMarker;
+
+        @PluginBuilderAttribute
+        private String routableSources;
+
+        @PluginBuilderAttribute
+        private int maxSources = Win32EventLogManager.DEFAULT_MAX_SOURCES;
+
+        @PluginBuilderAttribute
+        private String userSidKey;
+
+        @PluginBuilderAttribute
+        private boolean threadUserSid;
+
+        @PluginBuilderAttribute
+        private int userSidCacheSize = 256;
+
+        @PluginBuilderAttribute
+        private long threadUserSidExpiry = 1000;
+
+        @PluginBuilderAttribute
+        private int backtraceSize;
+
+        @PluginBuilderAttribute
+        private Level backtraceLevel = Level.DEBUG;
+
+        @PluginBuilderAttribute
+        private Level backtraceTrigger = Level.ERROR;
+
+        @PluginBuilderAttribute
+        private String backtraceKey;
+
+        @PluginBuilderAttribute
+        private boolean includeNativeThread;
+
         @PluginElement("Layout")
         private Layout<? extends Serializable> layout = SerializedLayout.createLayout();
 
+        @PluginElement("LevelMapping")
+        private LevelMapping levelMapping;
+
         @PluginElement("Filter")
         private Filter filter;
 
@@ -158,11 +382,81 @@ public class Win32EventLogAppender extends AbstractAppender {
             return this;
         }
         
+        public Builder setRoutingKey(final String routingKey) {
+            this.routingKey = routingKey;
+            return this;
+        }
+
+        public Builder setRouteByMarker(final boolean routeByMarker) {
+            this.routeByMarker = routeByMarker;
+            return this;
+        }
+
+        public Builder setRoutableSources(final String routableSources) {
+            this.routableSources = routableSources;
+            return this;
+        }
+
+        public Builder setMaxSources(final int maxSources) {
+            this.maxSources = maxSources;
+            return this;
+        }
+
+        public Builder setUserSidKey(final String userSidKey) {
+            this.userSidKey = userSidKey;
+            return this;
+        }
+
+        public Builder setThreadUserSid(final boolean threadUserSid) {
+            this.threadUserSid = threadUserSid;
+            return this;
+        }
+
+        public Builder setUserSidCacheSize(final int userSidCacheSize) {
+            this.userSidCacheSize = userSidCacheSize;
+            return this;
+        }
+
+        public Builder setThreadUserSidExpiry(final long threadUserSidExpiry) {
+            this.threadUserSidExpiry = threadUserSidExpiry;
+            return this;
+        }
+
+        public Builder setBacktraceSize(final int backtraceSize) {
+            this.backtraceSize = backtraceSize;
+            return this;
+        }
+
+        public Builder setBacktraceLevel(final Level backtraceLevel) {
+            this.backtraceLevel = backtraceLevel;
+            return this;
+        }
+
+        public Builder setBacktraceTrigger(final Level backtraceTrigger) {
+            this.backtraceTrigger = backtraceTrigger;
+            return this;
+        }
+
+        public Builder setBacktraceKey(final String backtraceKey) {
+            this.backtraceKey = backtraceKey;
+            return this;
+        }
+
+        public Builder setIncludeNativeThread(final boolean includeNativeThread) {
+            this.includeNativeThread = includeNativeThread;
+            return this;
+        }
+
         public Builder setLayout(final Layout<? extends Serializable> layout) {
             this.layout = layout;
             return this;
         }
 
+        public Builder setLevelMapping(final LevelMapping levelMapping) {
+            this.levelMapping = levelMapping;
+            return this;
+        }
+
         public Builder setFilter(final Filter filter) {
             this.filter = filter;
             return this;
@@ -174,10 +468,22 @@ public class Win32EventLogAppender extends AbstractAppender {
         }
 
         public Win32EventLogAppender build() {
+            final Set<String> routable = parseSources(routableSources);
+            if ((routingKey != null || routeByMarker) && routable.isEmpty()) {
+                LOGGER.error("Win32EventLogAppender [{}] routes events but lists no routableSources.", name);
+                return null;
+            }
             final Win32EventLogManager win32EventLogManager = Win32EventLogManager.getWin32EventLogManager(name, source, server, 
-            		application, eventMessageFile, categoryMessageFile);
+            		application, eventMessageFile, categoryMessageFile, maxSources);
+            final UserSidCache<PSID> userSids = userSidKey != null || threadUserSid
+            		? new UserSidCache<PSID>(new Win32UserSidResolver(), userSidCacheSize, threadUserSidExpiry)
+            		: null;
             try {
-                return new Win32EventLogAppender(name, filter, layout, ignoreExceptions, win32EventLogManager);
+                return new Win32EventLogAppender(name, filter, layout, ignoreExceptions, win32EventLogManager,
+                		routingKey, routeByMarker, routable, levelMapping != null ? levelMapping : LevelMapping.createDefault(),
+                		userSids, userSidKey, threadUserSid,
+                		backtraceSize > 0 ? new BacktraceBuffer(backtraceSize, backtraceKey) : null,
+                		backtraceLevel, backtraceTrigger, includeNativeThread);
             } catch (final Win32Exception e) {
                 LOGGER.error("Error creating Win32EventLogAppender [{}].", name, e);
                 return null;
@@ -185,59 +491,4 @@ public class Win32EventLogAppender extends AbstractAppender {
         }
     }
 
-
-	/**
-	 * Convert log4j Priority to an EventLog type. The log4j package supports 8
-	 * defined priorities, but the NT EventLog only knows 3 event types of
-	 * interest to us: ERROR, WARNING, and INFO.
-	 * 
-	 * @param level
-	 *            Log4j priority.
-	 * @return EventLog type.
-	 */
-	private static int getEventLogType(Level level) {
-		int type = WinNT.EVENTLOG_SUCCESS;
-		
-		if (level.intLevel() <= Level.INFO.intLevel()) {
-			type = WinNT.EVENTLOG_INFORMATION_TYPE;
-			if (level.intLevel() <= Level.WARN.intLevel()) {
-				type = WinNT.EVENTLOG_WARNING_TYPE;
-				if (level.intLevel() <=  Level.ERROR.intLevel()) {
-					type = WinNT.EVENTLOG_ERROR_TYPE;
-				}
-			}
-		}
-
-		return type;
-	}
-
-	/**
-	 * Convert log4j Priority to an EventLog category. Each category is backed
-	 * by a message resource so that proper category names will be displayed in
-	 * the NT Event Viewer.
-	 * 
-	 * @param level.intLevel()
-	 *            Log4J priority.
-	 * @return EventLog category.
-	 */
-	private static int getEventLogCategory(Level level) {
-		int category = 1;
-		if (level.intLevel() >= Level.DEBUG.intLevel()) {
-			category = 2;
-			if (level.intLevel() >= Level.INFO.intLevel()) {
-				category = 3;
-				if (level.intLevel() >= Level.WARN.intLevel()) {
-					category = 4;
-					if (level.intLevel() >= Level.ERROR.intLevel()) {
-						category = 5;
-						if (level.intLevel() >= Level.FATAL.intLevel()) {
-							category = 6;
-						}
-					}
-				}
-			}
-		}
-		return category;
-	}
-
 }
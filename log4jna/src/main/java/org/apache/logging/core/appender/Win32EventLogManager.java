@@ -39,10 +39,18 @@ public class Win32EventLogManager extends AbstractManager {
 	private static final Logger LOGGER = StatusLogger.getLogger();
 
 	
+	/**
+	 * Default number of routed event sources kept registered at once.
+	 */
+	public static final int DEFAULT_MAX_SOURCES = 32;
+
 	private HANDLE handle = null;
+
+	private final EventSourceCache<HANDLE> sources;
 	
 	private Win32EventLogManager(final String name, final String source, final String server,
-			final String application, final String eventMessageFile, final String categoryMessageFile) {
+			final String application, final String eventMessageFile, final String categoryMessageFile,
+			final int maxSources) {
 		super(name);
 	
 		LOGGER.debug(String.format("Server: %s; source:%s; application:%s; eventMessageFile:%s;categoryFile:%s",
@@ -51,6 +59,23 @@ public class Win32EventLogManager extends AbstractManager {
 
 		handle = registerEventSource(server, source, application,
 				eventMessageFile, categoryMessageFile);
+
+		sources = new EventSourceCache<HANDLE>(new EventSourceCache.Registrar<HANDLE>() {
+			@Override
+			public HANDLE register(final String routedSource) {
+				LOGGER.debug("Registering event source {}", routedSource);
+				return registerEventSource(server, routedSource, application,
+						eventMessageFile, categoryMessageFile);
+			}
+
+			@Override
+			public void deregister(final HANDLE routedHandle) {
+				if (!Advapi32.INSTANCE.DeregisterEventSource(routedHandle)) {
+					LOGGER.error("Failed to deregister event source",
+							new Win32Exception(Kernel32.INSTANCE.GetLastError()));
+				}
+			}
+		}, maxSources);
 	}
 
     /**
@@ -67,7 +92,28 @@ public class Win32EventLogManager extends AbstractManager {
     public static Win32EventLogManager getWin32EventLogManager(final String name, final String source,
                                            final String server, final String application,
                                            final String eventMessageFile, final String categoryMessageFile) {
-        return new Win32EventLogManager(name, source, server, application, eventMessageFile, categoryMessageFile);
+        return getWin32EventLogManager(name, source, server, application, eventMessageFile, categoryMessageFile,
+        		DEFAULT_MAX_SOURCES);
+    }
+
+    /**
+     * Gets a Win32EventManager using the specified configuration parameters.
+     *
+     * @param name                  The name to use for this Win32EventManager.
+     * @param source           		The default source to use for this Win32EventManager.
+     * @param server				The server to use for this Win32EventManager.
+     * @param application       	The application to use for this Win32EventManager.
+     * @param eventMessageFile      The eventMessageFile to use for this Win32EventManager.
+     * @param categoryMessageFile	The categoryMessageFile to use for this Win32EventManager.
+     * @param maxSources			The number of routed sources kept registered by this Win32EventManager.
+     * @return The Win32EventManager as configured.
+     */
+    public static Win32EventLogManager getWin32EventLogManager(final String name, final String source,
+                                           final String server, final String application,
+                                           final String eventMessageFile, final String categoryMessageFile,
+                                           final int maxSources) {
+        return new Win32EventLogManager(name, source, server, application, eventMessageFile, categoryMessageFile,
+        		maxSources);
     }
 
 	/* (non-Javadoc)
@@ -75,6 +121,7 @@ public class Win32EventLogManager extends AbstractManager {
 	 */
 	@Override
 	protected void releaseSub() {
+		sources.clear();
 		if (handle != null) {
 			if (!Advapi32.INSTANCE.DeregisterEventSource(handle)) {
 				throw new Win32Exception(Kernel32.INSTANCE.GetLastError());
@@ -118,5 +165,18 @@ public class Win32EventLogManager extends AbstractManager {
 	protected HANDLE getHandle() {
 		return handle;
 	}
+
+	/**
+	 * Acquires the handle of a routed event source, registering the source
+	 * on first use. The least recently used source is deregistered once more
+	 * than maxSources are in use.
+	 * 
+	 * @param source
+	 *            the routed event source
+	 * @return a lease on the handle, to be released after reporting
+	 */
+	protected EventSourceCache.Lease<HANDLE> acquireHandle(final String source) {
+		return sources.acquire(source);
+	}
     
 }
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import com.sun.jna.platform.win32.Advapi32;
+import com.sun.jna.platform.win32.Advapi32Util;
+import com.sun.jna.platform.win32.Kernel32;
+import com.sun.jna.platform.win32.W32Errors;
+import com.sun.jna.platform.win32.Win32Exception;
+import com.sun.jna.platform.win32.WinNT;
+import com.sun.jna.platform.win32.WinNT.HANDLEByReference;
+import com.sun.jna.platform.win32.WinNT.PSID;
+
+/**
+ * Resolves SIDs through LookupAccountName and the token of the current
+ * thread, or of the process when the thread is not impersonating.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+class Win32UserSidResolver implements UserSidCache.Resolver<PSID> {
+
+	@Override
+	public PSID lookupAccount(final String account) {
+		return new PSID(Advapi32Util.getAccountByName(account).sid);
+	}
+
+	@Override
+	public PSID lookupThreadToken() {
+		final HANDLEByReference token = new HANDLEByReference();
+		if (!Advapi32.INSTANCE.OpenThreadToken(Kernel32.INSTANCE.GetCurrentThread(), WinNT.TOKEN_QUERY, true,
+				token)) {
+			final int error = Kernel32.INSTANCE.GetLastError();
+			if (error != W32Errors.ERROR_NO_TOKEN) {
+				throw new Win32Exception(error);
+			}
+			if (!Advapi32.INSTANCE.OpenProcessToken(Kernel32.INSTANCE.GetCurrentProcess(), WinNT.TOKEN_QUERY,
+					token)) {
+				throw new Win32Exception(Kernel32.INSTANCE.GetLastError());
+			}
+		}
+		try {
+			return new PSID(Advapi32Util.getTokenAccount(token.getValue()).sid);
+		} finally {
+			Kernel32.INSTANCE.CloseHandle(token.getValue());
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Test;
+
+/**
+ * BacktraceBuffer tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class BacktraceBufferTest {
+
+	@Test
+	public void testKeepsMostRecentEntries() {
+		BacktraceBuffer buffer = new BacktraceBuffer(3, null);
+		LogEvent event = asLogEvent(null);
+		for (int i = 1; i <= 5; i++) {
+			buffer.add(event, i + ";");
+		}
+		assertEquals("3;4;5;", buffer.drain(event));
+		assertNull(buffer.drain(event));
+	}
+
+	@Test
+	public void testRingIsPerThread() throws Exception {
+		final BacktraceBuffer buffer = new BacktraceBuffer(3, null);
+		final LogEvent event = asLogEvent(null);
+		buffer.add(event, "main;");
+		Thread other = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				buffer.add(event, "other;");
+			}
+		});
+		other.start();
+		other.join();
+		assertEquals("main;", buffer.drain(event));
+	}
+
+	@Test
+	public void testRingIsPerContextKey() {
+		BacktraceBuffer buffer = new BacktraceBuffer(3, "request");
+		buffer.add(asLogEvent("a"), "a1;");
+		buffer.add(asLogEvent("b"), "b1;");
+		buffer.add(asLogEvent("a"), "a2;");
+		buffer.add(asLogEvent(null), "none;");
+		assertEquals("a1;a2;", buffer.drain(asLogEvent("a")));
+		assertEquals("b1;", buffer.drain(asLogEvent("b")));
+		assertEquals("none;", buffer.drain(asLogEvent(null)));
+	}
+
+	@Test
+	public void testDropsOldestBeyondMaxLength() {
+		BacktraceBuffer.Ring ring = new BacktraceBuffer.Ring(4);
+		ring.add("aaaa");
+		ring.add("bbbb");
+		ring.add("cccc");
+		assertEquals("bbbbcccc", ring.drain(10));
+	}
+
+	@Test
+	public void testTruncatesNewestBeyondMaxLength() {
+		BacktraceBuffer.Ring ring = new BacktraceBuffer.Ring(4);
+		ring.add("aaaa");
+		ring.add("bbbbbbbbbbbb");
+		assertEquals("bbbbbbbbbb", ring.drain(10));
+		assertNull(ring.drain(10));
+	}
+
+	private static LogEvent asLogEvent(String request) {
+		if (request != null) {
+			ThreadContext.put("request", request);
+		}
+		try {
+			return Log4jLogEvent.newBuilder()
+					.setLoggerName("testLogger")
+					.setLevel(Level.DEBUG)
+					.setMessage(new SimpleMessage("message"))
+					.build();
+		} finally {
+			ThreadContext.remove("request");
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Minimal timing harness shared by the *Benchmark mains. They are not run by
+ * the build; run them with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=...}.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+final class Benchmarks {
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * A measured operation.
+	 */
+	interface Operation {
+
+		void run(long i) throws Exception;
+	}
+
+	private Benchmarks() {
+	}
+
+	/**
+	 * Runs an operation for warm-up and then measures it on the current
+	 * thread, printing wall-clock and CPU nanoseconds per operation.
+	 *
+	 * @return CPU nanoseconds per operation
+	 */
+	static double measure(final String label, final long operations, final Operation operation) throws Exception {
+		for (long i = 0; i < operations; i++) {
+			operation.run(i);
+		}
+		final long cpu = THREADS.getCurrentThreadCpuTime();
+		final long wall = System.nanoTime();
+		for (long i = 0; i < operations; i++) {
+			operation.run(i);
+		}
+		final double wallPerOp = (double) (System.nanoTime() - wall) / operations;
+		final double cpuPerOp = (double) (THREADS.getCurrentThreadCpuTime() - cpu) / operations;
+		System.out.println(String.format("%-40s %10.1f ns/op wall %10.1f ns/op cpu", label, wallPerOp, cpuPerOp));
+		return cpuPerOp;
+	}
+
+	/**
+	 * Runs an operation for warm-up and then times each run, printing the
+	 * median, 99th and 99.9th percentile and maximum latency.
+	 *
+	 * @return 99th percentile latency in nanoseconds
+	 */
+	static long latency(final String label, final int operations, final Operation operation) throws Exception {
+		for (long i = 0; i < operations; i++) {
+			operation.run(i);
+		}
+		final long[] latencies = new long[operations];
+		for (int i = 0; i < operations; i++) {
+			final long start = System.nanoTime();
+			operation.run(i);
+			latencies[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(latencies);
+		final long p99 = latencies[(int) (operations * 0.99)];
+		System.out.println(String.format("%-40s %10d ns p50 %10d ns p99 %10d ns p99.9 %10d ns max", label,
+				latencies[operations / 2], p99, latencies[(int) (operations * 0.999)], latencies[operations - 1]));
+		return p99;
+	}
+}
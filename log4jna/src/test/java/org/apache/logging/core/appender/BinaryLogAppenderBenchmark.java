@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.File;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+/**
+ * Compares the cost of logging an event with a BinaryLogAppender to a
+ * NativeFileAppender formatting it with a PatternLayout, both writing
+ * through the same buffer. Every event carries a new message, as in an
+ * application, so that formatting is not cached. Pass the number of events
+ * and a directory.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class BinaryLogAppenderBenchmark {
+
+	private static final String PATTERN = "%d{ISO8601} [%t] %-5p %c{1.} - %m%n";
+
+	public static void main(String[] args) throws Exception {
+		final int operations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		final File directory = new File(args.length > 1 ? args[1] : "target");
+
+		final LogEvent[] sink = new LogEvent[1];
+		final double creation = Benchmarks.measure("event creation", operations, new Benchmarks.Operation() {
+			@Override
+			public void run(long i) {
+				sink[0] = event(i);
+			}
+		});
+
+		final File text = new File(directory, "BinaryLogAppenderBenchmark.log");
+		final double formatted = measure("NativeFile, PatternLayout", text, operations, NativeFileAppender
+				.newBuilder().setName("text").setFileName(text.getPath()).setAppend(false).setImmediateFlush(false)
+				.setLayout(PatternLayout.newBuilder().withPattern(PATTERN).build()).build());
+		final File binary = new File(directory, "BinaryLogAppenderBenchmark.bin");
+		final double deferred = measure("BinaryLog", binary, operations, BinaryLogAppender.newBuilder()
+				.setName("binary").setFileName(binary.getPath()).setAppend(false).setImmediateFlush(false).build());
+
+		System.out.println(String.format("BinaryLog CPU time: %.1f%% of PatternLayout (%.1fx cheaper)", 100
+				* deferred / formatted, formatted / deferred));
+		System.out.println(String.format("Without event creation: %.0f ns/op against %.0f ns/op (%.1fx cheaper)",
+				deferred - creation, formatted - creation, (formatted - creation) / (deferred - creation)));
+	}
+
+	/**
+	 * @return CPU nanoseconds per event
+	 */
+	private static double measure(final String label, final File file, final int operations,
+			final AbstractAppender appender) throws Exception {
+		appender.start();
+		final double cpu = Benchmarks.measure(label, operations, new Benchmarks.Operation() {
+			@Override
+			public void run(long i) {
+				appender.append(event(i));
+			}
+		});
+		Benchmarks.latency(label, operations, new Benchmarks.Operation() {
+			@Override
+			public void run(long i) {
+				appender.append(event(i));
+			}
+		});
+		appender.stop();
+		System.out.println(String.format("%-40s %10d bytes", label, file.length()));
+		file.delete();
+		return cpu;
+	}
+
+	private static LogEvent event(final long i) {
+		return Log4jLogEvent.newBuilder()
+				.setLoggerName("org.apache.logging.core.appender.BinaryLogAppenderBenchmark")
+				.setLevel(Level.INFO)
+				.setMessage(new ParameterizedMessage("Processed {} records for tenant {} in {} ms", new Object[] { i, "acme",
+						i * 0.25 })).build();
+	}
+}
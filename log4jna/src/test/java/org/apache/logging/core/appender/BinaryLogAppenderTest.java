@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.junit.InitialLoggerContext;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+/**
+ * BinaryLogAppender tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class BinaryLogAppenderTest {
+
+	private final LinuxFixture fixture = new LinuxFixture("target/BinaryLogAppenderTest.log");
+
+	private final InitialLoggerContext ctx = new InitialLoggerContext("BinaryLogAppenderTest.xml");
+
+	@Rule
+	public RuleChain rules = RuleChain.outerRule(fixture).around(ctx);
+
+	private File file;
+	private BinaryLogAppender appender;
+
+	@Before
+	public void setUp() {
+		file = fixture.newFile("binary", ".log");
+	}
+
+	@After
+	public void tearDown() {
+		stop();
+	}
+
+	private void start(final boolean append, final int bufferSize, final int maxStrings) {
+		appender = LinuxFixture.start(BinaryLogAppender.newBuilder().setName("binary").setFileName(file.getPath())
+				.setAppend(append).setBufferSize(bufferSize).setMaxStrings(maxStrings).setImmediateFlush(false)
+				.build());
+	}
+
+	private void stop() {
+		LinuxFixture.stop(appender);
+		appender = null;
+	}
+
+	private static LogEvent event(final Level level, final Message message) {
+		return Log4jLogEvent.newBuilder().setLoggerName("testLogger").setLevel(level).setMessage(message).build();
+	}
+
+	private static List<LogEvent> decode(final File file) throws IOException {
+		final List<LogEvent> events = new ArrayList<LogEvent>();
+		final BinaryLogDecoder decoder = new BinaryLogDecoder(new FileInputStream(file));
+		try {
+			LogEvent event;
+			while ((event = decoder.next()) != null) {
+				events.add(event);
+			}
+		} finally {
+			decoder.close();
+		}
+		return events;
+	}
+
+	private List<LogEvent> decode() throws IOException {
+		return decode(file);
+	}
+
+	private static int count(final byte[] bytes, final String s) {
+		final byte[] pattern = s.getBytes(EncodedEvent.UTF_8);
+		int count = 0;
+		for (int i = 0; i + pattern.length <= bytes.length; i++) {
+			int j = 0;
+			while (j < pattern.length && bytes[i + j] == pattern[j]) {
+				j++;
+			}
+			if (j == pattern.length) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testConfiguration() throws Exception {
+		ctx.getRequiredAppender("BinaryLog");
+		final Logger logger = ctx.getLogger("testLogger");
+		logger.info("filtered");
+		logger.warn("Disk {} almost full", "/var");
+
+		final List<LogEvent> events = decode(new File("target/BinaryLogAppenderTest.log"));
+		assertEquals(1, events.size());
+		assertEquals(Level.WARN, events.get(0).getLevel());
+		assertEquals("Disk /var almost full", events.get(0).getMessage().getFormattedMessage());
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		start(false, NativeFileManager.DEFAULT_BUFFER_SIZE, BinaryLogAppender.DEFAULT_MAX_STRINGS);
+		final Level custom = Level.forName("BINARY_NOTICE", 350);
+		final Object[] parameters = { Integer.valueOf(-42), Long.valueOf(Long.MAX_VALUE), Double.valueOf(1.5),
+				Float.valueOf(-0.25f), Boolean.TRUE, Character.valueOf('\u00e5'), "\u00e5\u00e4\u00f6", null,
+				new int[] { 1, 2 } };
+		final ParameterizedMessage parameterized = new ParameterizedMessage(
+				"i={} l={} d={} f={} b={} c={} s={} n={} a={}", parameters);
+		final LogEvent first = event(Level.WARN, parameterized);
+		appender.append(first);
+		appender.append(Log4jLogEvent.newBuilder().setLoggerName("other").setLevel(custom)
+				.setMarker(MarkerManager.getMarker("AUDIT")).setMessage(new SimpleMessage("literal {}")).build());
+		final IllegalStateException thrown = new IllegalStateException("failed");
+		appender.append(Log4jLogEvent.newBuilder().setLoggerName("testLogger").setLevel(Level.ERROR)
+				.setMessage(new ParameterizedMessage("error {}", "x")).setThrown(thrown).build());
+		stop();
+
+		final List<LogEvent> events = decode();
+		assertEquals(3, events.size());
+		final LogEvent decoded = events.get(0);
+		assertEquals(parameterized.getFormattedMessage(), decoded.getMessage().getFormattedMessage());
+		assertEquals(Level.WARN, decoded.getLevel());
+		assertEquals("testLogger", decoded.getLoggerName());
+		assertEquals(first.getThreadName(), decoded.getThreadName());
+		assertEquals(first.getTimeMillis(), decoded.getTimeMillis());
+		assertNull(decoded.getMarker());
+		assertNull(decoded.getThrown());
+
+		assertEquals("literal {}", events.get(1).getMessage().getFormattedMessage());
+		assertEquals(custom, events.get(1).getLevel());
+		assertEquals("other", events.get(1).getLoggerName());
+		assertEquals("AUDIT", events.get(1).getMarker().getName());
+
+		assertEquals("error x", events.get(2).getMessage().getFormattedMessage());
+		assertEquals(thrown.toString(), events.get(2).getThrown().toString());
+		assertEquals(thrown.getStackTrace()[0].toString(), events.get(2).getThrown().getStackTrace()[0].toString());
+	}
+
+	@Test
+	public void testPatternsDefinedOnce() throws Exception {
+		start(false, NativeFileManager.DEFAULT_BUFFER_SIZE, BinaryLogAppender.DEFAULT_MAX_STRINGS);
+		for (int i = 0; i < 1000; i++) {
+			appender.append(event(Level.INFO, new ParameterizedMessage("request {} took {} ms", "r" + i,
+					Integer.valueOf(i))));
+		}
+		stop();
+
+		final byte[] bytes = Files.readAllBytes(file.toPath());
+		assertEquals(1, count(bytes, "request {} took {} ms"));
+		assertEquals(1, count(bytes, "testLogger"));
+		final List<LogEvent> events = decode();
+		assertEquals(1000, events.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("request r" + i + " took " + i + " ms", events.get(i).getMessage().getFormattedMessage());
+		}
+	}
+
+	@Test
+	public void testAppendStartsSession() throws Exception {
+		start(false, NativeFileManager.DEFAULT_BUFFER_SIZE, BinaryLogAppender.DEFAULT_MAX_STRINGS);
+		appender.append(event(Level.INFO, new ParameterizedMessage("first {}", "run")));
+		stop();
+		start(true, NativeFileManager.DEFAULT_BUFFER_SIZE, BinaryLogAppender.DEFAULT_MAX_STRINGS);
+		appender.append(event(Level.DEBUG, new ParameterizedMessage("second {}", "run")));
+		stop();
+
+		final List<LogEvent> events = decode();
+		assertEquals(2, events.size());
+		assertEquals("first run", events.get(0).getMessage().getFormattedMessage());
+		assertEquals("second run", events.get(1).getMessage().getFormattedMessage());
+		assertEquals(Level.DEBUG, events.get(1).getLevel());
+		assertEquals("testLogger", events.get(1).getLoggerName());
+	}
+
+	@Test
+	public void testMaxStrings() throws Exception {
+		start(false, NativeFileManager.DEFAULT_BUFFER_SIZE, 2);
+		for (int i = 0; i < 100; i++) {
+			appender.append(event(Level.INFO, new ParameterizedMessage("pattern " + i + " {}", "x")));
+		}
+		stop();
+
+		final List<LogEvent> events = decode();
+		assertEquals(100, events.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals("pattern " + i + " x", events.get(i).getMessage().getFormattedMessage());
+			assertEquals("testLogger", events.get(i).getLoggerName());
+		}
+	}
+
+	@Test
+	public void testBufferOverflow() throws Exception {
+		start(false, 4096, BinaryLogAppender.DEFAULT_MAX_STRINGS);
+		final StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			large.append('\u00e5');
+		}
+		for (int i = 0; i < 500; i++) {
+			appender.append(event(Level.INFO, new ParameterizedMessage("event {} of logger {}", Integer.valueOf(i),
+					"logger" + i % 7)));
+			if (i % 100 == 0) {
+				appender.append(event(Level.INFO, new ParameterizedMessage("large {}", large.toString())));
+			}
+		}
+		stop();
+
+		final List<LogEvent> events = decode();
+		assertEquals(505, events.size());
+		int index = 0;
+		for (int i = 0; i < 500; i++) {
+			assertEquals("event " + i + " of logger logger" + i % 7, events.get(index++).getMessage()
+					.getFormattedMessage());
+			if (i % 100 == 0) {
+				assertEquals("large " + large, events.get(index++).getMessage().getFormattedMessage());
+			}
+		}
+	}
+}
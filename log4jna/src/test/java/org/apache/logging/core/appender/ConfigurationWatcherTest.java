@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.jna.Platform;
+
+/**
+ * ConfigurationWatcher tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class ConfigurationWatcherTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private File directory;
+	private File file;
+	private LoggerContext context;
+	private ConfigurationWatcher watcher;
+
+	@Before
+	public void setUp() throws Exception {
+		Assume.assumeTrue(Platform.isLinux() && Platform.is64Bit());
+		directory = new File("target", "watch-" + System.nanoTime()).getAbsoluteFile();
+		directory.mkdirs();
+		file = new File(directory, "log4j2.xml");
+		write(file, "info");
+		context = new LoggerContext("ConfigurationWatcherTest", null, file.toURI());
+		context.start();
+		assertEquals(Level.INFO, level());
+	}
+
+	@After
+	public void tearDown() {
+		if (watcher != null) {
+			watcher.close();
+		}
+		if (context != null) {
+			context.stop();
+		}
+		if (directory != null && directory.exists()) {
+			for (final File child : directory.listFiles()) {
+				child.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	private static void write(final File file, final String level) throws Exception {
+		Files.write(file.toPath(), ("<Configuration><Loggers><Root level=\"" + level
+				+ "\"/></Loggers></Configuration>").getBytes(UTF_8));
+	}
+
+	private Level level() {
+		return context.getConfiguration().getLoggerConfig(LogManager.ROOT_LOGGER_NAME).getLevel();
+	}
+
+	private void awaitLevel(final Level level) throws InterruptedException {
+		for (int i = 0; i < 500 && !level.equals(level()); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(level, level());
+	}
+
+	private void awaitReconfigurationCount(final int count) throws InterruptedException {
+		// The count is raised after the new configuration is started.
+		for (int i = 0; i < 500 && watcher.getReconfigurationCount() < count; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, watcher.getReconfigurationCount());
+	}
+
+	@Test
+	public void testWritten() throws Exception {
+		watcher = ConfigurationWatcher.watch(context);
+		write(file, "debug");
+		awaitLevel(Level.DEBUG);
+		write(file, "warn");
+		awaitLevel(Level.WARN);
+		awaitReconfigurationCount(2);
+		assertTrue(watcher.isWatching());
+	}
+
+	@Test
+	public void testRenamedOver() throws Exception {
+		watcher = ConfigurationWatcher.watch(context);
+		final File next = new File(directory, "log4j2.xml.tmp");
+		write(next, "error");
+		Files.move(next.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		awaitLevel(Level.ERROR);
+		awaitReconfigurationCount(1);
+	}
+
+	@Test
+	public void testOtherFileIgnored() throws Exception {
+		watcher = ConfigurationWatcher.watch(context);
+		write(new File(directory, "other.xml"), "debug");
+		Thread.sleep(200);
+		assertEquals(0, watcher.getReconfigurationCount());
+		assertEquals(Level.INFO, level());
+	}
+
+	@Test
+	public void testDirectoryRemoved() throws Exception {
+		watcher = ConfigurationWatcher.watch(context);
+		assertTrue(watcher.isWatching());
+		assertTrue(file.delete());
+		assertTrue(directory.delete());
+		for (int i = 0; i < 500 && watcher.isWatching(); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse(watcher.isWatching());
+	}
+
+	@Test
+	public void testClosed() throws Exception {
+		watcher = ConfigurationWatcher.watch(context);
+		watcher.close();
+		watcher = null;
+		write(file, "debug");
+		Thread.sleep(200);
+		assertEquals(Level.INFO, level());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotFromFile() {
+		final LoggerContext defaultContext = new LoggerContext("default");
+		defaultContext.start(new DefaultConfiguration());
+		try {
+			ConfigurationWatcher.watch(defaultContext);
+		} finally {
+			defaultContext.stop();
+		}
+	}
+}
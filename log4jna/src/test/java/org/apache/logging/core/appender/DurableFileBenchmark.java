@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.File;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+/**
+ * Measures durable events of a NativeFileAppender from a growing number of
+ * threads: with one thread every event costs an fdatasync, with more the
+ * events appended during one fdatasync share the next. Pass the number of
+ * events per thread and a directory on the disk to measure.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class DurableFileBenchmark {
+
+	private static final String PATTERN = "%d{ISO8601} [%t] %-5p %c{1.} - %m%n";
+
+	public static void main(String[] args) throws Exception {
+		final int operations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		final File directory = new File(args.length > 1 ? args[1] : "target");
+
+		final LogEvent event = Log4jLogEvent.newBuilder()
+				.setLoggerName("org.apache.logging.core.appender.DurableFileBenchmark")
+				.setLevel(Level.INFO)
+				.setMessage(new ParameterizedMessage("Committed transaction {} for tenant {}", 42, "acme"))
+				.build();
+
+		for (final int threads : new int[] { 1, 4, 16, 64 }) {
+			measure(directory, threads, operations, event);
+		}
+	}
+
+	private static void measure(final File directory, final int threadCount, final int operations,
+			final LogEvent event) throws Exception {
+		final File file = new File(directory, "DurableFileBenchmark.log");
+		final NativeFileAppender appender = NativeFileAppender.newBuilder().setName("durable")
+				.setFileName(file.getPath()).setAppend(false).setImmediateFlush(false).setDurable(true)
+				.setLayout(PatternLayout.newBuilder().withPattern(PATTERN).build()).build();
+		appender.start();
+		final Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < operations; i++) {
+						appender.append(event);
+					}
+				}
+			};
+		}
+		final long start = System.nanoTime();
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		final long elapsed = System.nanoTime() - start;
+		final long events = (long) threadCount * operations;
+		final long commits = appender.getManager().getCommitCount();
+		appender.stop();
+		file.delete();
+		System.out.println(String.format("%3d threads %12.0f events/s %8.1f events per fdatasync %10.1f us/event",
+				threadCount, events * 1e9 / elapsed, (double) events / commits,
+				(double) elapsed * threadCount / events / 1000));
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * EventSourceCache tests, using a stand-in registrar.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class EventSourceCacheTest {
+
+	private static class StubRegistrar implements EventSourceCache.Registrar<String> {
+
+		final AtomicInteger registrations = new AtomicInteger();
+		final List<String> deregistered = new CopyOnWriteArrayList<String>();
+		volatile CountDownLatch gate;
+		volatile String failing;
+
+		@Override
+		public String register(String source) {
+			registrations.incrementAndGet();
+			if (source.equals(failing)) {
+				throw new IllegalStateException("cannot register " + source);
+			}
+			CountDownLatch g = gate;
+			if (g != null && source.startsWith("slow")) {
+				try {
+					g.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return "handle:" + source;
+		}
+
+		@Override
+		public void deregister(String handle) {
+			deregistered.add(handle);
+		}
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		StubRegistrar registrar = new StubRegistrar();
+		EventSourceCache<String> cache = new EventSourceCache<String>(registrar, 2);
+		cache.acquire("a").release();
+		cache.acquire("b").release();
+		cache.acquire("a").release();
+		cache.acquire("c").release();
+		assertEquals(2, cache.size());
+		assertEquals(1, registrar.deregistered.size());
+		assertEquals("handle:b", registrar.deregistered.get(0));
+		assertEquals(3, registrar.registrations.get());
+	}
+
+	@Test
+	public void testEvictedHandleInUseIsDeregisteredOnRelease() {
+		StubRegistrar registrar = new StubRegistrar();
+		EventSourceCache<String> cache = new EventSourceCache<String>(registrar, 1);
+		EventSourceCache.Lease<String> lease = cache.acquire("a");
+		cache.acquire("b").release();
+		assertTrue(registrar.deregistered.isEmpty());
+		assertEquals("handle:a", lease.getHandle());
+		lease.release();
+		assertEquals(1, registrar.deregistered.size());
+		cache.clear();
+		assertEquals(2, registrar.deregistered.size());
+	}
+
+	@Test
+	public void testFailedRegistrationIsRetried() {
+		StubRegistrar registrar = new StubRegistrar();
+		EventSourceCache<String> cache = new EventSourceCache<String>(registrar, 4);
+		registrar.failing = "a";
+		try {
+			cache.acquire("a");
+			fail("expected registration failure");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(0, cache.size());
+		registrar.failing = null;
+		cache.acquire("a").release();
+		assertEquals(2, registrar.registrations.get());
+		assertTrue(registrar.deregistered.isEmpty());
+	}
+
+	@Test
+	public void testRegistrationIsSingleFlightAndDoesNotBlockOtherSources() throws Exception {
+		final StubRegistrar registrar = new StubRegistrar();
+		registrar.gate = new CountDownLatch(1);
+		final EventSourceCache<String> cache = new EventSourceCache<String>(registrar, 8);
+		cache.acquire("other").release();
+
+		final CountDownLatch done = new CountDownLatch(4);
+		for (int i = 0; i < 4; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					EventSourceCache.Lease<String> lease = cache.acquire("slow");
+					lease.release();
+					done.countDown();
+				}
+			}).start();
+		}
+
+		long start = System.nanoTime();
+		while (registrar.registrations.get() < 2) {
+			assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+			Thread.yield();
+		}
+
+		// While "slow" is being registered, other sources are still served.
+		start = System.nanoTime();
+		EventSourceCache.Lease<String> other = cache.acquire("other");
+		assertEquals("handle:other", other.getHandle());
+		other.release();
+		assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 1);
+		assertEquals(4, done.getCount());
+
+		registrar.gate.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(2, registrar.registrations.get());
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.OutputStream;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+/**
+ * Compares the CPU cost of one FanOutAppender writing to N sinks with N
+ * independent layouts rendering the same event.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class FanOutAppenderBenchmark {
+
+	private static final String PATTERN = "%d{ISO8601} [%t] %-5p %c{1.} - %m%n";
+
+	private static final OutputStream NULL = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		final int sinks = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		final long operations = args.length > 1 ? Long.parseLong(args[1]) : 1000000;
+
+		final LogEvent event = Log4jLogEvent.newBuilder()
+				.setLoggerName("org.apache.logging.core.appender.FanOutAppenderBenchmark")
+				.setLevel(Level.INFO)
+				.setMessage(new ParameterizedMessage("Processed {} records for tenant {}", 42, "acme"))
+				.build();
+
+		final PatternLayout[] layouts = new PatternLayout[sinks];
+		for (int i = 0; i < sinks; i++) {
+			layouts[i] = PatternLayout.newBuilder().withPattern(PATTERN).build();
+		}
+		final double independent = Benchmarks.measure(sinks + " independent layouts", operations,
+				new Benchmarks.Operation() {
+					@Override
+					public void run(long i) throws Exception {
+						for (final PatternLayout layout : layouts) {
+							final byte[] bytes = layout.toByteArray(event);
+							NULL.write(bytes, 0, bytes.length);
+						}
+					}
+				});
+
+		final EventSink[] fileSinks = new EventSink[sinks];
+		for (int i = 0; i < sinks; i++) {
+			fileSinks[i] = new FileSink("null" + i, Level.ALL, NULL, false);
+		}
+		final FanOutAppender appender = FanOutAppender.newBuilder().setName("fanOut")
+				.setLayout(PatternLayout.newBuilder().withPattern(PATTERN).build()).setSinks(fileSinks).build();
+		final double fanOut = Benchmarks.measure("FanOut to " + sinks + " sinks", operations,
+				new Benchmarks.Operation() {
+					@Override
+					public void run(long i) {
+						appender.append(event);
+					}
+				});
+
+		System.out.println(String.format("CPU saved: %.0f%%", 100 * (1 - fanOut / independent)));
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.AbstractLayout;
+import org.apache.logging.log4j.core.layout.AbstractStringLayout;
+import org.apache.logging.log4j.junit.InitialLoggerContext;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * FanOutAppender tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class FanOutAppenderTest {
+
+	@Rule
+	public InitialLoggerContext ctx = new InitialLoggerContext("FanOutAppenderTest.xml");
+
+	private static final String TEST_LOGGER_NAME = "testLogger";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String NL = System.getProperty("line.separator");
+
+	private static class CountingLayout extends AbstractStringLayout {
+
+		private static final long serialVersionUID = 1L;
+
+		int count;
+
+		CountingLayout() {
+			super(UTF_8);
+		}
+
+		@Override
+		public String toSerializable(LogEvent event) {
+			count++;
+			return event.getLevel() + " " + event.getMessage().getFormattedMessage();
+		}
+	}
+
+	private static class BinaryLayout extends AbstractLayout<byte[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		static final byte[] BYTES = { (byte) 0xff, 0, (byte) 0x80 };
+
+		BinaryLayout() {
+			super(null, null);
+		}
+
+		@Override
+		public byte[] toSerializable(LogEvent event) {
+			return BYTES.clone();
+		}
+
+		@Override
+		public byte[] toByteArray(LogEvent event) {
+			return BYTES.clone();
+		}
+
+		@Override
+		public String getContentType() {
+			return "application/octet-stream";
+		}
+	}
+
+	private static class StubSink implements EventSink {
+
+		final Level level;
+		final boolean utf8;
+		final List<EncodedEvent> events = new ArrayList<EncodedEvent>();
+
+		StubSink(Level level, boolean utf8) {
+			this.level = level;
+			this.utf8 = utf8;
+		}
+
+		@Override
+		public Level getLevel() {
+			return level;
+		}
+
+		@Override
+		public boolean requiresUtf8() {
+			return utf8;
+		}
+
+		@Override
+		public void write(EncodedEvent event) {
+			events.add(event);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	@Test
+	public void testConfiguredSinks() throws Exception {
+		final FanOutAppender appender = (FanOutAppender) ctx.getRequiredAppender("FanOutAppender");
+		appender.append(asLogEvent("info \u00e5\u00e4\u00f6", Level.INFO));
+		appender.append(asLogEvent("warn", Level.WARN));
+		assertEquals("INFO testLogger - info \u00e5\u00e4\u00f6" + NL + "WARN testLogger - warn" + NL,
+				read("target/FanOutAppenderTest/all.log"));
+		assertEquals("WARN testLogger - warn" + NL, read("target/FanOutAppenderTest/warn.log"));
+	}
+
+	@Test
+	public void testRendersOncePerEvent() {
+		CountingLayout layout = new CountingLayout();
+		StubSink text = new StubSink(Level.ALL, false);
+		StubSink bytes = new StubSink(Level.WARN, true);
+		FanOutAppender appender = FanOutAppender.newBuilder().setName("fanOut").setLayout(layout)
+				.setSinks(text, bytes).build();
+
+		appender.append(asLogEvent("error", Level.ERROR));
+		assertEquals(1, layout.count);
+		assertEquals(1, text.events.size());
+		assertEquals(1, bytes.events.size());
+		assertSame(text.events.get(0), bytes.events.get(0));
+		assertEquals("ERROR error", new String(bytes.events.get(0).getUtf8(), UTF_8));
+
+		appender.append(asLogEvent("debug", Level.DEBUG));
+		assertEquals(2, layout.count);
+		assertEquals(2, text.events.size());
+		assertEquals(1, bytes.events.size());
+	}
+
+	@Test
+	public void testSkipsRenderingWhenNoSinkAccepts() {
+		CountingLayout layout = new CountingLayout();
+		StubSink text = new StubSink(Level.WARN, false);
+		FanOutAppender appender = FanOutAppender.newBuilder().setName("fanOut").setLayout(layout)
+				.setSinks(text).build();
+		appender.append(asLogEvent("info", Level.INFO));
+		assertEquals(0, layout.count);
+		appender.append(asLogEvent("warn", Level.WARN));
+		assertEquals(1, layout.count);
+		assertNull(text.events.get(0).getUtf8());
+	}
+
+	@Test
+	public void testKeepsBytesOfBinaryLayout() {
+		StubSink text = new StubSink(Level.ALL, false);
+		StubSink bytes = new StubSink(Level.ALL, true);
+		FanOutAppender appender = FanOutAppender.newBuilder().setName("fanOut").setLayout(new BinaryLayout())
+				.setSinks(text, bytes).build();
+		appender.append(asLogEvent("binary", Level.INFO));
+		// Not valid UTF-8, and not replaced.
+		assertArrayEquals(BinaryLayout.BYTES, bytes.events.get(0).getUtf8());
+		assertEquals(new String(BinaryLayout.BYTES, UTF_8), text.events.get(0).getText());
+	}
+
+	private static String read(String fileName) throws Exception {
+		return new String(Files.readAllBytes(Paths.get(fileName)), UTF_8);
+	}
+
+	private static LogEvent asLogEvent(String message, Level level) {
+		return Log4jLogEvent.newBuilder()
+				.setLoggerName(TEST_LOGGER_NAME)
+				.setLoggerFqcn(FanOutAppenderTest.class.getName())
+				.setLevel(level)
+				.setMessage(new SimpleMessage(message))
+				.build();
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.apache.logging.core.appender.LinuxFixture.UTF_8;
+import static org.apache.logging.core.appender.LinuxFixture.event;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.junit.InitialLoggerContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+/**
+ * FlightRecorderAppender and FlightRecorderRecovery tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class FlightRecorderAppenderTest {
+
+	private final LinuxFixture fixture = new LinuxFixture("target/FlightRecorderAppenderTest.bin");
+
+	private final InitialLoggerContext ctx = new InitialLoggerContext("FlightRecorderAppenderTest.xml");
+
+	@Rule
+	public RuleChain rules = RuleChain.outerRule(fixture).around(ctx);
+
+	private File file;
+	private FlightRecorderAppender appender;
+
+	@Before
+	public void setUp() {
+		file = fixture.newFile("recorder", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		stop();
+	}
+
+	private void start(final int capacity) {
+		appender = LinuxFixture.start(FlightRecorderAppender.newBuilder().setName("recorder")
+				.setFileName(file.getPath()).setCapacity(capacity).setLayout(LinuxFixture.layout("%m")).build());
+	}
+
+	private void stop() {
+		LinuxFixture.stop(appender);
+		appender = null;
+	}
+
+	private static List<String> recover(final File file, final int count) throws Exception {
+		final List<String> messages = new ArrayList<String>();
+		for (final byte[] payload : FlightRecorderRecovery.recover(file, count)) {
+			messages.add(new String(payload, UTF_8));
+		}
+		return messages;
+	}
+
+	private List<String> recover(final int count) throws Exception {
+		return recover(file, count);
+	}
+
+	@Test
+	public void testConfiguration() throws Exception {
+		final FlightRecorderAppender configured = (FlightRecorderAppender) ctx.getRequiredAppender("FlightRecorder");
+		assertEquals(16384, configured.getManager().getCapacity());
+		final Logger logger = ctx.getLogger("testLogger");
+		logger.info("filtered");
+		logger.warn("warning");
+		assertEquals(Arrays.asList("WARN warning"), recover(new File("target/FlightRecorderAppenderTest.bin"), -1));
+	}
+
+	@Test
+	public void testRecoverWhileRunning() throws Exception {
+		start(64 * 1024);
+		for (int i = 0; i < 100; i++) {
+			appender.append(event("message " + i));
+		}
+		// What a process that died now would have left.
+		assertEquals(Arrays.asList("message 97", "message 98", "message 99"), recover(3));
+		assertEquals(100, recover(-1).size());
+	}
+
+	@Test
+	public void testWrapAround() throws Exception {
+		start(8192);
+		for (int i = 0; i < 1000; i++) {
+			appender.append(event("message " + i + (i % 3 == 0 ? " \u00e5\u00e4\u00f6" : "")));
+		}
+		stop();
+		final List<String> messages = recover(-1);
+		assertTrue(messages.size() > 10 && messages.size() < 1000);
+		final int first = 1000 - messages.size();
+		for (int i = first; i < 1000; i++) {
+			assertEquals("message " + i + (i % 3 == 0 ? " \u00e5\u00e4\u00f6" : ""), messages.get(i - first));
+		}
+	}
+
+	@Test
+	public void testTornRecordSkipped() throws Exception {
+		start(8192);
+		for (int i = 0; i < 5; i++) {
+			appender.append(event("message " + i));
+		}
+		stop();
+		// Frames of "message n" take 40 bytes; tear the payload of the third.
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.seek(FlightRecorderRecovery.HEADER_SIZE + 2 * 40
+					+ FlightRecorderRecovery.FRAME_HEADER_SIZE);
+			randomAccessFile.write('M');
+		} finally {
+			randomAccessFile.close();
+		}
+		assertEquals(Arrays.asList("message 0", "message 1", "message 3", "message 4"), recover(-1));
+	}
+
+	@Test
+	public void testGoesOnAfterRestart() throws Exception {
+		start(8192);
+		appender.append(event("first"));
+		stop();
+		start(8192);
+		assertEquals(FlightRecorderRecovery.frameSize(5), appender.getManager().getPosition());
+		appender.append(event("second"));
+		stop();
+		assertEquals(Arrays.asList("first", "second"), recover(-1));
+
+		// Another capacity starts over.
+		start(16384);
+		appender.append(event("third"));
+		stop();
+		assertEquals(Arrays.asList("third"), recover(-1));
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		start(256 * 1024);
+		final Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 5000; i++) {
+						appender.append(event(thread + " " + i));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		stop();
+
+		final List<String> messages = recover(-1);
+		assertTrue(messages.size() > 1000);
+		final int[] last = new int[threads.length];
+		Arrays.fill(last, -1);
+		for (final String message : messages) {
+			final String[] parts = message.split(" ");
+			final int thread = Integer.parseInt(parts[0]);
+			final int i = Integer.parseInt(parts[1]);
+			assertTrue(i > last[thread]);
+			last[thread] = i;
+		}
+		// Threads that finished early may be overwritten by the others.
+		Arrays.sort(last);
+		assertEquals(4999, last[last.length - 1]);
+	}
+}
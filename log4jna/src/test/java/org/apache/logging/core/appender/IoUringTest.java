@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * IoUring tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class IoUringTest {
+
+	private static final int ENOSPC = 28;
+
+	@Test
+	public void testDrainAwaitsEveryBuffer() {
+		Assume.assumeTrue(IoUring.isSupported() && new File("/dev/full").canWrite());
+		final int fd = LibC.INSTANCE.open("/dev/full", LibC.O_WRONLY | LibC.O_CLOEXEC, 0);
+		assertTrue(fd >= 0);
+		try {
+			final Pointer[] buffers = new Pointer[3];
+			for (int i = 0; i < buffers.length; i++) {
+				buffers[i] = new Memory(4096);
+			}
+			final IoUring ring;
+			try {
+				ring = new IoUring(fd, buffers, 4096, false);
+			} catch (final LastErrorException e) {
+				Assume.assumeNoException("io_uring unavailable", e);
+				return;
+			}
+			try {
+				for (int i = 0; i < buffers.length; i++) {
+					ring.write(i, 4096, i * 4096L);
+				}
+				try {
+					ring.drain();
+					fail("A failed write must be thrown");
+				} catch (final LastErrorException e) {
+					assertEquals(ENOSPC, e.getErrorCode());
+				}
+				// Every buffer completed, though the first one failed.
+				assertEquals(Long.MAX_VALUE, ring.completedPosition(Long.MAX_VALUE));
+				ring.drain();
+			} finally {
+				ring.close();
+			}
+		} finally {
+			LibC.INSTANCE.close(fd);
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.apache.logging.core.appender.LinuxFixture.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.junit.InitialLoggerContext;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExternalResource;
+import org.junit.rules.RuleChain;
+
+import com.sun.jna.Memory;
+import com.sun.jna.NativeLong;
+
+/**
+ * JournaldAppender tests, against a stand-in journal socket.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class JournaldAppenderTest {
+
+	private static final int RECEIVE_SIZE = 1024 * 1024;
+
+	private final LinuxFixture fixture = new LinuxFixture();
+
+	private final File socketFile = new File("target", "JournaldAppenderTest.sock");
+
+	private int serverFd = -1;
+
+	private final InitialLoggerContext ctx = new InitialLoggerContext("JournaldAppenderTest.xml");
+
+	// The socket is bound before the configuration connects to it.
+	@Rule
+	public RuleChain rules = RuleChain.outerRule(fixture).around(new ExternalResource() {
+		@Override
+		protected void before() {
+			serverFd = fixture.bind(socketFile);
+		}
+	}).around(ctx);
+
+	private JournaldAppender appender;
+
+	@Before
+	public void setUp() {
+		appender = LinuxFixture.start(JournaldAppender.newBuilder().setName("journal")
+				.setSocketPath(socketFile.getAbsolutePath()).setSyslogIdentifier("log4jna-test").build());
+	}
+
+	@After
+	public void tearDown() {
+		LinuxFixture.stop(appender);
+		ThreadContext.clearMap();
+	}
+
+	@Test
+	public void testConfiguration() {
+		ctx.getRequiredAppender("Journald");
+		final Logger logger = ctx.getLogger("testLogger");
+		ThreadContext.put("request-id", "42");
+		logger.info("filtered");
+		logger.warn("warning");
+
+		final Map<String, String> fields = receive();
+		assertEquals("warning", fields.get("MESSAGE"));
+		assertEquals("4", fields.get("PRIORITY"));
+		assertEquals("log4jna-config", fields.get("SYSLOG_IDENTIFIER"));
+		assertEquals(Integer.toString(NativeThread.getId()), fields.get("TID"));
+		assertNull(fields.get("REQUEST_ID"));
+	}
+
+	@Test
+	public void testFields() {
+		ThreadContext.put("request-id", "42");
+		final LogEvent event = Log4jLogEvent.newBuilder().setLoggerName("testLogger").setLevel(Level.WARN)
+				.setMarker(MarkerManager.getMarker("AUDIT")).setMessage(new SimpleMessage("Disk almost full"))
+				.build();
+		appender.append(event);
+
+		final Map<String, String> fields = receive();
+		assertEquals("Disk almost full", fields.get("MESSAGE"));
+		assertEquals("4", fields.get("PRIORITY"));
+		assertEquals("log4jna-test", fields.get("SYSLOG_IDENTIFIER"));
+		assertEquals("testLogger", fields.get("LOG4J_LOGGER"));
+		assertEquals("AUDIT", fields.get("LOG4J_MARKER"));
+		assertEquals("42", fields.get("REQUEST_ID"));
+		assertNull(fields.get("TID"));
+	}
+
+	@Test
+	public void testNativeThread() {
+		appender.stop();
+		appender = LinuxFixture.start(JournaldAppender.newBuilder().setName("journal")
+				.setSocketPath(socketFile.getAbsolutePath()).setIncludeNativeThread(true).build());
+		appender.append(Log4jLogEvent.newBuilder().setLoggerName("testLogger").setLevel(Level.INFO)
+				.setMessage(new SimpleMessage("Threaded")).build());
+
+		final Map<String, String> fields = receive();
+		final String tid = fields.get("TID");
+		assertEquals(Integer.toString(NativeThread.getId()), tid);
+		assertTrue(new File("/proc/self/task/" + tid).isDirectory());
+		assertTrue(Integer.parseInt(fields.get("LOG4J_CPU")) >= 0);
+	}
+
+	@Test
+	public void testMultilineValue() {
+		final LogEvent event = Log4jLogEvent.newBuilder().setLoggerName("testLogger").setLevel(Level.ERROR)
+				.setMessage(new SimpleMessage("First line\nsecond line \u00e5\u00e4\u00f6"))
+				.setThrown(new IllegalStateException("failure")).build();
+		appender.append(event);
+
+		final Map<String, String> fields = receive();
+		assertEquals("First line\nsecond line \u00e5\u00e4\u00f6", fields.get("MESSAGE"));
+		assertEquals("3", fields.get("PRIORITY"));
+		assertTrue(fields.get("STACK_TRACE").startsWith("java.lang.IllegalStateException: failure\n"));
+	}
+
+	@Test
+	public void testLargeMessageSentAsMemfd() {
+		final StringBuilder sb = new StringBuilder(512 * 1024);
+		while (sb.length() < 512 * 1024) {
+			sb.append("0123456789abcdef");
+		}
+		final String message = sb.toString();
+		final LogEvent event = Log4jLogEvent.newBuilder().setLoggerName("testLogger").setLevel(Level.INFO)
+				.setMessage(new SimpleMessage(message)).build();
+		appender.append(event);
+
+		final Map<String, String> fields = receive();
+		assertEquals(message, fields.get("MESSAGE"));
+		assertEquals("6", fields.get("PRIORITY"));
+	}
+
+	@Test
+	public void testSyslogSeverity() {
+		assertEquals(2, SyslogSeverity.getSeverity(Level.FATAL));
+		assertEquals(3, SyslogSeverity.getSeverity(Level.ERROR));
+		assertEquals(4, SyslogSeverity.getSeverity(Level.WARN));
+		assertEquals(6, SyslogSeverity.getSeverity(Level.INFO));
+		assertEquals(7, SyslogSeverity.getSeverity(Level.DEBUG));
+		assertEquals(7, SyslogSeverity.getSeverity(Level.TRACE));
+		assertEquals(5, SyslogSeverity.getSeverity(Level.forName("NOTICE", 350)));
+	}
+
+	@Test
+	public void testFieldName() {
+		assertEquals("REQUEST_ID", new String(JournalEncoder.fieldName("request-id"), UTF_8));
+		assertEquals("USER", new String(JournalEncoder.fieldName("_user"), UTF_8));
+		assertEquals("A1", new String(JournalEncoder.fieldName("1a1"), UTF_8));
+		assertNull(JournalEncoder.fieldName("--"));
+	}
+
+	/**
+	 * Receives one entry from the stand-in socket, reading a passed
+	 * descriptor when the entry came as a memfd.
+	 */
+	private Map<String, String> receive() {
+		final Memory data = new Memory(RECEIVE_SIZE);
+		final Memory control = new Memory(64);
+		control.clear();
+		final LibC.Iovec iovec = new LibC.Iovec();
+		iovec.iov_base = data;
+		iovec.iov_len = new NativeLong(RECEIVE_SIZE);
+		iovec.write();
+		final LibC.Msghdr msghdr = new LibC.Msghdr();
+		msghdr.msg_iov = iovec.getPointer();
+		msghdr.msg_iovlen = new NativeLong(1);
+		msghdr.msg_control = control;
+		msghdr.msg_controllen = new NativeLong(64);
+		msghdr.write();
+
+		long length = LibC.INSTANCE.recvmsg(serverFd, msghdr, LibC.MSG_DONTWAIT).longValue();
+		assertTrue("Nothing received", length >= 0);
+		msghdr.read();
+		if (length == 0 && msghdr.msg_controllen.longValue() > 0) {
+			assertEquals(LibC.SOL_SOCKET, control.getInt(8));
+			assertEquals(LibC.SCM_RIGHTS, control.getInt(12));
+			final int fd = control.getInt(16);
+			try {
+				length = LibC.INSTANCE.pread(fd, data, new NativeLong(RECEIVE_SIZE), 0).longValue();
+				assertTrue(length > 0);
+			} finally {
+				LibC.INSTANCE.close(fd);
+			}
+		}
+		return parse(data.getByteArray(0, (int) length));
+	}
+
+	private static Map<String, String> parse(final byte[] bytes) {
+		final Map<String, String> fields = new HashMap<String, String>();
+		int i = 0;
+		while (i < bytes.length) {
+			int end = i;
+			while (bytes[end] != '=' && bytes[end] != '\n') {
+				end++;
+			}
+			final String name = new String(bytes, i, end - i, UTF_8);
+			if (bytes[end] == '=') {
+				int valueEnd = end + 1;
+				while (bytes[valueEnd] != '\n') {
+					valueEnd++;
+				}
+				fields.put(name, new String(bytes, end + 1, valueEnd - end - 1, UTF_8));
+				i = valueEnd + 1;
+			} else {
+				long size = 0;
+				for (int b = 7; b >= 0; b--) {
+					size = size << 8 | bytes[end + 1 + b] & 0xff;
+				}
+				final int start = end + 9;
+				fields.put(name, new String(bytes, start, (int) size, UTF_8));
+				assertEquals('\n', bytes[start + (int) size]);
+				i = start + (int) size + 1;
+			}
+		}
+		return fields;
+	}
+}
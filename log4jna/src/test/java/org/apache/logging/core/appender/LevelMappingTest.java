@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.logging.log4j.Level;
+import org.junit.Test;
+
+import com.sun.jna.platform.win32.WinNT;
+
+/**
+ * LevelMapping tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class LevelMappingTest {
+
+	private static final Level NOTICE = Level.forName("NOTICE", 350);
+
+	@Test
+	public void testDefaultStandardLevels() {
+		LevelMapping mapping = LevelMapping.createDefault();
+		assertMapping(mapping.get(Level.FATAL), WinNT.EVENTLOG_ERROR_TYPE, 6);
+		assertMapping(mapping.get(Level.ERROR), WinNT.EVENTLOG_ERROR_TYPE, 5);
+		assertMapping(mapping.get(Level.WARN), WinNT.EVENTLOG_WARNING_TYPE, 4);
+		assertMapping(mapping.get(Level.INFO), WinNT.EVENTLOG_INFORMATION_TYPE, 3);
+		assertMapping(mapping.get(Level.DEBUG), WinNT.EVENTLOG_SUCCESS, 2);
+		assertMapping(mapping.get(Level.TRACE), WinNT.EVENTLOG_SUCCESS, 1);
+		assertMapping(mapping.get(Level.ALL), WinNT.EVENTLOG_SUCCESS, 1);
+	}
+
+	@Test
+	public void testDefaultCustomLevelUsesLessSevereBucket() {
+		LevelMapping mapping = LevelMapping.createDefault();
+		assertMapping(mapping.get(NOTICE), WinNT.EVENTLOG_INFORMATION_TYPE, 3);
+	}
+
+	@Test
+	public void testConfiguredLevels() {
+		LevelMapping mapping = LevelMapping.createLevelMapping(new EventLogLevel[] {
+				EventLogLevel.createEventLogLevel("notice", "warning", 4, 0x1001),
+				EventLogLevel.createEventLogLevel("FATAL", null, 0, 0x1002) });
+		EventLogLevel notice = mapping.get(NOTICE);
+		assertSame(NOTICE, notice.getLevel());
+		assertMapping(notice, WinNT.EVENTLOG_WARNING_TYPE, 4);
+		assertEquals(0x1001, notice.getEventId());
+		EventLogLevel fatal = mapping.get(Level.FATAL);
+		assertMapping(fatal, WinNT.EVENTLOG_ERROR_TYPE, 6);
+		assertEquals(0x1002, fatal.getEventId());
+		assertEquals(EventLogLevel.DEFAULT_EVENT_ID, mapping.get(Level.ERROR).getEventId());
+	}
+
+	@Test
+	public void testLevelDefinedAfterTableIsBuilt() {
+		LevelMapping mapping = LevelMapping.createDefault();
+		Level late = Level.forName("LATE_WARNING", 250);
+		assertMapping(mapping.get(late), WinNT.EVENTLOG_WARNING_TYPE, 4);
+	}
+
+	@Test
+	public void testUnknownLevelOrType() {
+		assertNull(EventLogLevel.createEventLogLevel("NO_SUCH_LEVEL", null, 0, 0x1000));
+		assertNull(EventLogLevel.createEventLogLevel("INFO", "NO_SUCH_TYPE", 0, 0x1000));
+	}
+
+	private static void assertMapping(EventLogLevel mapping, int type, int category) {
+		assertEquals(type, mapping.getType());
+		assertEquals(category, mapping.getCategory());
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Assume;
+import org.junit.rules.ExternalResource;
+
+import com.sun.jna.Platform;
+
+/**
+ * Fixture of the tests of the Linux appenders.
+ *
+ * <p>
+ * Skips a test unless it runs on 64-bit Linux, and cleans up after it: the
+ * files it names, and those named after them, such as segments and indexes,
+ * are deleted and the sockets it binds are closed. Put it outside any
+ * InitialLoggerContext, so that the configuration is only started on Linux
+ * and is stopped before its files are deleted.
+ * </p>
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+class LinuxFixture extends ExternalResource {
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final List<File> files = new ArrayList<File>();
+	private final List<Integer> sockets = new ArrayList<Integer>();
+
+	/**
+	 * @param paths
+	 *            Files written by the configuration of the test, deleted
+	 *            with the others.
+	 */
+	LinuxFixture(final String... paths) {
+		for (final String path : paths) {
+			files.add(new File(path));
+		}
+	}
+
+	@Override
+	protected void before() {
+		Assume.assumeTrue(Platform.isLinux() && Platform.is64Bit());
+	}
+
+	@Override
+	protected void after() {
+		for (final Integer fd : sockets) {
+			LibC.INSTANCE.close(fd.intValue());
+		}
+		sockets.clear();
+		for (final File file : files) {
+			file.delete();
+			final File[] siblings = file.getAbsoluteFile().getParentFile().listFiles();
+			if (siblings != null) {
+				for (final File sibling : siblings) {
+					if (sibling.getName().startsWith(file.getName() + ".")) {
+						sibling.delete();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Names a file in target, unique to the test.
+	 */
+	File newFile(final String prefix, final String suffix) {
+		final File file = new File("target", prefix + "-" + System.nanoTime() + suffix);
+		files.add(file);
+		return file;
+	}
+
+	/**
+	 * Binds a datagram socket standing in for a system service.
+	 *
+	 * @return the descriptor of the socket
+	 */
+	int bind(final File file) {
+		file.delete();
+		final int fd = LibC.INSTANCE.socket(LibC.AF_UNIX, LibC.SOCK_DGRAM, 0);
+		assertTrue(fd >= 0);
+		sockets.add(Integer.valueOf(fd));
+		files.add(file);
+		final LibC.SockaddrUn address = new LibC.SockaddrUn(file.getAbsolutePath());
+		assertEquals(0, LibC.INSTANCE.bind(fd, address, address.size()));
+		return fd;
+	}
+
+	static <A extends Appender> A start(final A appender) {
+		assertNotNull(appender);
+		appender.start();
+		return appender;
+	}
+
+	static void stop(final Appender appender) {
+		if (appender != null) {
+			appender.stop();
+		}
+	}
+
+	static PatternLayout layout(final String pattern) {
+		return PatternLayout.newBuilder().withPattern(pattern).build();
+	}
+
+	static LogEvent event(final String message) {
+		return event(Level.INFO, message);
+	}
+
+	static LogEvent event(final Level level, final String message) {
+		return Log4jLogEvent.newBuilder().setLoggerName("testLogger").setLevel(level)
+				.setMessage(new SimpleMessage(message)).build();
+	}
+}
@@ -0,0 +1,381 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.apache.logging.core.appender.LinuxFixture.UTF_8;
+import static org.apache.logging.core.appender.LinuxFixture.event;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.junit.InitialLoggerContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+/**
+ * MappedSegmentAppender tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class MappedSegmentAppenderTest {
+
+	private final LinuxFixture fixture = new LinuxFixture("target/MappedSegmentAppenderTest.log");
+
+	private final InitialLoggerContext ctx = new InitialLoggerContext("MappedSegmentAppenderTest.xml");
+
+	@Rule
+	public RuleChain rules = RuleChain.outerRule(fixture).around(ctx);
+
+	private String fileName;
+	private MappedSegmentAppender appender;
+
+	@Before
+	public void setUp() {
+		fileName = fixture.newFile("segment", ".log").getPath();
+	}
+
+	@After
+	public void tearDown() {
+		stop();
+	}
+
+	private void start(final long segmentSize) {
+		start(MappedSegmentAppender.newBuilder().setSegmentSize(segmentSize));
+	}
+
+	private void start(final MappedSegmentAppender.Builder builder) {
+		appender = LinuxFixture.start(builder.setName("segment").setFileName(fileName)
+				.setLayout(LinuxFixture.layout("%m%n")).build());
+	}
+
+	private void stop() {
+		LinuxFixture.stop(appender);
+		appender = null;
+	}
+
+	private List<File> segments() {
+		final List<File> segments = new ArrayList<File>();
+		for (int index = 1;; index++) {
+			final File segment = new File(MappedSegmentManager.getSegmentFileName(fileName, index));
+			if (!segment.exists()) {
+				return segments;
+			}
+			segments.add(segment);
+		}
+	}
+
+	private List<String> lines() throws Exception {
+		final List<String> lines = new ArrayList<String>();
+		for (final File segment : segments()) {
+			lines.addAll(Files.readAllLines(segment.toPath(), UTF_8));
+		}
+		return lines;
+	}
+
+	@Test
+	public void testConfiguration() throws Exception {
+		final MappedSegmentAppender configured = (MappedSegmentAppender) ctx.getRequiredAppender("MappedSegment");
+		assertEquals(64 * 1024, configured.getManager().getSegmentSize());
+		assertTrue(configured.getManager().isCompressed());
+		assertTrue(!configured.getManager().isPreallocated());
+		final Logger logger = ctx.getLogger("testLogger");
+		logger.info("filtered");
+		logger.warn("warning");
+		// The current segment is mapped at its full size, zeros after the events.
+		final byte[] bytes = Files.readAllBytes(Paths.get(configured.getManager().getSegmentFileName()));
+		assertEquals("WARN warning", new String(bytes, UTF_8).trim());
+	}
+
+	@Test
+	public void testSegmentsRoll() throws Exception {
+		start(4096);
+		assertEquals(MappedSegmentManager.getSegmentFileName(fileName, 1), appender.getManager()
+				.getSegmentFileName());
+		for (int i = 0; i < 1000; i++) {
+			appender.append(event("message " + i));
+		}
+		stop();
+
+		final List<File> segments = segments();
+		assertTrue(segments.size() > 1);
+		for (final File segment : segments) {
+			assertTrue(segment.length() <= 4096);
+		}
+		final List<String> lines = lines();
+		assertEquals(1000, lines.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("message " + i, lines.get(i));
+		}
+	}
+
+	@Test
+	public void testNumberedOn() throws Exception {
+		start(4096);
+		appender.append(event("first \u00e5\u00e4\u00f6"));
+		stop();
+		start(4096);
+		assertEquals(MappedSegmentManager.getSegmentFileName(fileName, 2), appender.getManager()
+				.getSegmentFileName());
+		appender.append(event("second"));
+		stop();
+		assertEquals(Arrays.asList("first \u00e5\u00e4\u00f6", "second"), lines());
+	}
+
+	@Test
+	public void testManagerSharedDuringReconfiguration() throws Exception {
+		start(4096);
+		final MappedSegmentAppender next = MappedSegmentAppender.newBuilder().setName("next").setFileName(fileName)
+				.setSegmentSize(4096).setLayout(LinuxFixture.layout("%m%n")).build();
+		assertNotNull(next);
+		next.start();
+		try {
+			assertSame(appender.getManager(), next.getManager());
+			appender.append(event("old"));
+			next.append(event("new"));
+			stop();
+			next.append(event("after"));
+		} finally {
+			next.stop();
+		}
+		assertEquals(Arrays.asList("old", "new", "after"), lines());
+	}
+
+	@Test
+	public void testSpareIndexTaken() throws Exception {
+		// The spare of another manager of the same files.
+		assertTrue(new File(MappedSegmentManager.getSegmentFileName(fileName, 1) + ".next").createNewFile());
+		start(4096);
+		assertEquals(MappedSegmentManager.getSegmentFileName(fileName, 2), appender.getManager()
+				.getSegmentFileName());
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		start(64 * 1024);
+		final Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 5000; i++) {
+						appender.append(event(thread + " " + i));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		stop();
+
+		final List<String> lines = lines();
+		assertEquals(40000, lines.size());
+		final int[] next = new int[threads.length];
+		for (final String line : lines) {
+			final String[] parts = line.split(" ");
+			assertEquals(next[Integer.parseInt(parts[0])]++, Integer.parseInt(parts[1]));
+		}
+	}
+
+	@Test
+	public void testEventLargerThanSegment() throws Exception {
+		start(4096);
+		final char[] large = new char[5000];
+		Arrays.fill(large, 'x');
+		appender.append(event(new String(large)));
+		appender.append(event("small"));
+		stop();
+		assertEquals(Arrays.asList("small"), lines());
+	}
+
+	private List<File> compressedSegments() {
+		final List<File> segments = new ArrayList<File>();
+		for (int index = 1;; index++) {
+			final File segment = new File(MappedSegmentManager.getSegmentFileName(fileName, index)
+					+ SegmentCompressor.SUFFIX);
+			if (!segment.exists()) {
+				return segments;
+			}
+			segments.add(segment);
+		}
+	}
+
+	private List<String> decompressedLines() throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (final File segment : compressedSegments()) {
+			SegmentCompressor.decompress(segment, out);
+		}
+		return Arrays.asList(new String(out.toByteArray(), UTF_8).split("\n"));
+	}
+
+	@Test
+	public void testCompress() throws Exception {
+		start(MappedSegmentAppender.newBuilder().setSegmentSize(64 * 1024).setCompress(true));
+		assertTrue(appender.getManager().isCompressed());
+		for (int i = 0; i < 20000; i++) {
+			appender.append(event("Processed " + i + " records for tenant " + (i % 3 == 0 ? "acme" : "\u00e5\u00e4\u00f6")
+					+ " in " + i % 97 + " ms"));
+		}
+		stop();
+
+		assertTrue(segments().isEmpty());
+		final List<File> compressed = compressedSegments();
+		assertTrue(compressed.size() > 5);
+		long size = 0;
+		for (final File segment : compressed) {
+			size += segment.length();
+		}
+		assertTrue(size + " bytes", size < 20000 * 50 / 5);
+		assertEquals(1, dictionaries().length);
+
+		final List<String> lines = decompressedLines();
+		assertEquals(20000, lines.size());
+		for (int i = 0; i < 20000; i++) {
+			assertEquals("Processed " + i + " records for tenant " + (i % 3 == 0 ? "acme" : "\u00e5\u00e4\u00f6") + " in "
+					+ i % 97 + " ms", lines.get(i));
+		}
+
+		// Numbered on from the compressed segments.
+		start(MappedSegmentAppender.newBuilder().setSegmentSize(64 * 1024).setCompress(true));
+		assertEquals(MappedSegmentManager.getSegmentFileName(fileName, compressed.size() + 1), appender
+				.getManager().getSegmentFileName());
+		appender.append(event("after"));
+		stop();
+		assertEquals("after", decompressedLines().get(20000));
+	}
+
+	private File[] dictionaries() {
+		return new File(fileName).getParentFile().listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.startsWith(new File(fileName).getName())
+						&& name.endsWith(SegmentCompressor.DICTIONARY_SUFFIX);
+			}
+		});
+	}
+
+	@Test
+	public void testDictionaryAfterEmptySegment() throws Exception {
+		final SegmentCompressor compressor = new SegmentCompressor(fileName, Deflater.DEFAULT_COMPRESSION, true);
+		final File empty = new File(MappedSegmentManager.getSegmentFileName(fileName, 1));
+		Files.write(empty.toPath(), new byte[0]);
+		compressor.compress(empty);
+		assertEquals(0, dictionaries().length);
+
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append("Processed ").append(i).append(" records\n");
+		}
+		final File segment = new File(MappedSegmentManager.getSegmentFileName(fileName, 2));
+		Files.write(segment.toPath(), text.toString().getBytes(UTF_8));
+		compressor.compress(segment);
+		assertEquals(1, dictionaries().length);
+		assertEquals(1000, decompressedLines().size());
+	}
+
+	@Test
+	public void testTrainDictionary() throws Exception {
+		final StringBuilder sample = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sample.append("frequent line ").append(i).append('\n');
+			if (i % 10 == 0) {
+				sample.append("rare line ").append(i).append('\n');
+			}
+			sample.append("unique ").append((char) ('a' + i % 26)).append((char) ('a' + i / 26)).append('\n');
+		}
+		final byte[] bytes = sample.toString().getBytes(UTF_8);
+		final String dictionary = new String(SegmentCompressor.train(bytes, bytes.length, 1024), UTF_8);
+		assertEquals("rare line 0\nfrequent line 0\n", dictionary);
+		assertEquals("frequent line 0\n", new String(SegmentCompressor.train(bytes, bytes.length, 20), UTF_8));
+	}
+
+	private void awaitSpare() throws InterruptedException {
+		for (int i = 0; i < 500 && !appender.getManager().hasSpare(); i++) {
+			Thread.sleep(10);
+		}
+		assertTrue(appender.getManager().hasSpare());
+	}
+
+	@Test
+	public void testPreallocatedSpare() throws Exception {
+		start(MappedSegmentAppender.newBuilder().setSegmentSize(64 * 1024).setIndexInterval(1024));
+		assertTrue(appender.getManager().isPreallocated());
+		awaitSpare();
+		final File spare = new File(MappedSegmentManager.getSegmentFileName(fileName, 2) + ".next");
+		assertTrue(spare.exists());
+		assertEquals(64 * 1024, spare.length());
+
+		int count = 0;
+		while (appender.getManager().getSegmentFileName().equals(MappedSegmentManager.getSegmentFileName(fileName,
+				1))) {
+			appender.append(event("message " + count++));
+		}
+		assertEquals(MappedSegmentManager.getSegmentFileName(fileName, 2), appender.getManager()
+				.getSegmentFileName());
+		assertTrue(!spare.exists());
+		awaitSpare();
+		appender.append(event("message " + count++));
+		stop();
+
+		final File[] left = new File(fileName).getParentFile().listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.startsWith(new File(fileName).getName()) && (name.endsWith(".next")
+						|| name.startsWith(new File(fileName).getName() + ".000003"));
+			}
+		});
+		assertEquals(0, left.length);
+		final List<String> lines = lines();
+		assertEquals(count, lines.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals("message " + i, lines.get(i));
+		}
+	}
+
+	@Test
+	public void testWithoutPreallocation() throws Exception {
+		start(MappedSegmentAppender.newBuilder().setSegmentSize(4096).setPreallocate(false));
+		for (int i = 0; i < 1000; i++) {
+			appender.append(event("message " + i));
+		}
+		assertTrue(!appender.getManager().hasSpare());
+		stop();
+		final List<String> lines = lines();
+		assertEquals(1000, lines.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("message " + i, lines.get(i));
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.logging.log4j.core.util.CachedClock;
+import org.apache.logging.log4j.core.util.Clock;
+import org.apache.logging.log4j.core.util.CoarseCachedClock;
+import org.apache.logging.log4j.core.util.SystemClock;
+
+/**
+ * Measures reading the time with the modes of NativeClock available on this
+ * platform against the clocks of log4j. The cost of System.currentTimeMillis
+ * depends on the clock source of the host, which is printed on Linux. Pass
+ * the number of reads.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class NativeClockBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		final int operations = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		final File clockSource = new File("/sys/devices/system/clocksource/clocksource0/current_clocksource");
+		if (clockSource.canRead()) {
+			System.out.println("clock source: "
+					+ new String(Files.readAllBytes(clockSource.toPath()), "US-ASCII").trim());
+		}
+
+		measure("SystemClock", new SystemClock(), operations);
+		measure("CachedClock (log4j)", CachedClock.instance(), operations);
+		measure("CoarseCachedClock (log4j)", CoarseCachedClock.instance(), operations);
+		for (final NativeClock.Mode mode : NativeClock.Mode.values()) {
+			if (mode != NativeClock.Mode.SYSTEM && NativeClock.isSupported(mode)) {
+				measure("NativeClock " + mode, new NativeClock(mode), operations);
+			}
+		}
+	}
+
+	private static void measure(final String label, final Clock clock, final int operations) throws Exception {
+		final long[] sink = new long[1];
+		Benchmarks.measure(label, operations, new Benchmarks.Operation() {
+			@Override
+			public void run(long i) {
+				sink[0] += clock.currentTimeMillis();
+			}
+		});
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.logging.log4j.core.util.Clock;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.sun.jna.Platform;
+
+/**
+ * NativeClock tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class NativeClockTest {
+
+	/**
+	 * Compares a clock to System.currentTimeMillis over some milliseconds.
+	 *
+	 * @return the largest difference seen
+	 */
+	private static long maxError(final Clock clock) throws InterruptedException {
+		long max = 0;
+		for (int i = 0; i < 200; i++) {
+			final long before = System.currentTimeMillis();
+			final long time = clock.currentTimeMillis();
+			final long after = System.currentTimeMillis();
+			// Behind the clock read before, or ahead of the one read after.
+			max = Math.max(max, Math.max(before - time, time - after));
+			Thread.sleep(0, 500000);
+		}
+		return max;
+	}
+
+	@Test
+	public void testCoarse() throws Exception {
+		Assume.assumeTrue(Platform.isLinux());
+		final NativeClock clock = new NativeClock(NativeClock.Mode.COARSE);
+		assertEquals(NativeClock.Mode.COARSE, clock.getMode());
+		final long resolution = clock.getResolutionNanos();
+		assertTrue(resolution > 0 && resolution <= 10000000);
+		final long error = maxError(clock);
+		// The tick may be late by another tick on a tickless kernel.
+		assertTrue(error + " ms", error <= 2 * resolution / 1000000 + 1);
+	}
+
+	@Test
+	public void testPrecise() throws Exception {
+		Assume.assumeTrue(NativeClock.isSupported(NativeClock.Mode.PRECISE));
+		final long error = maxError(new NativeClock(NativeClock.Mode.PRECISE));
+		assertTrue(error + " ms", error <= 1);
+	}
+
+	@Test
+	public void testCached() throws Exception {
+		final NativeClock clock = new NativeClock(NativeClock.Mode.CACHED);
+		assertEquals(NativeClock.Mode.CACHED, clock.getMode());
+		// A tick a millisecond, late by however long the ticker waits for a processor.
+		final long error = maxError(clock);
+		assertTrue(error + " ms", error <= 50);
+		final long start = clock.currentTimeMillis();
+		Thread.sleep(100);
+		assertTrue(clock.currentTimeMillis() - start >= 50);
+	}
+
+	@Test
+	public void testUnsupportedModeFallsBack() {
+		final NativeClock.Mode mode = Platform.isWindows() ? NativeClock.Mode.COARSE : NativeClock.Mode.PRECISE;
+		final NativeClock clock = new NativeClock(mode);
+		assertEquals(NativeClock.Mode.SYSTEM, clock.getMode());
+		final long time = clock.currentTimeMillis();
+		assertTrue(Math.abs(time - System.currentTimeMillis()) <= 1);
+	}
+
+	@Test
+	public void testConfiguredMode() {
+		System.setProperty(NativeClock.MODE_PROPERTY, "system");
+		try {
+			assertEquals(NativeClock.Mode.SYSTEM, new NativeClock().getMode());
+		} finally {
+			System.clearProperty(NativeClock.MODE_PROPERTY);
+		}
+		assertEquals(NativeClock.Mode.CACHED, new NativeClock().getMode());
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.apache.logging.core.appender.LinuxFixture.UTF_8;
+import static org.apache.logging.core.appender.LinuxFixture.event;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.junit.InitialLoggerContext;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.sun.jna.Memory;
+import com.sun.jna.NativeLong;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * NativeConsoleAppender tests, writing to a pipe and to a file in place of
+ * standard output.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class NativeConsoleAppenderTest {
+
+	private final LinuxFixture fixture = new LinuxFixture();
+
+	private final InitialLoggerContext ctx = new InitialLoggerContext("NativeConsoleAppenderTest.xml");
+
+	@Rule
+	public RuleChain rules = RuleChain.outerRule(fixture).around(ctx);
+
+	private final int[] pipe = { -1, -1 };
+	private int fileFd = -1;
+	private File file;
+	private NativeConsoleAppender appender;
+
+	@After
+	public void tearDown() {
+		LinuxFixture.stop(appender);
+		for (final int fd : new int[] { pipe[0], pipe[1], fileFd }) {
+			if (fd >= 0) {
+				LibC.INSTANCE.close(fd);
+			}
+		}
+	}
+
+	private NativeConsoleAppender.Builder newBuilder(final int fd) {
+		return NativeConsoleAppender.newBuilder().setName("console").setFd(fd).setFlushInterval(0)
+				.setLayout(LinuxFixture.layout("%m%n"));
+	}
+
+	private void openPipe() {
+		assertEquals(0, LibC.INSTANCE.pipe(pipe));
+	}
+
+	private void openFile() {
+		file = fixture.newFile("console", ".log");
+		fileFd = LibC.INSTANCE.open(file.getAbsolutePath(), LibC.O_WRONLY | LibC.O_CREAT | LibC.O_TRUNC, 0644);
+		assertTrue(fileFd >= 0);
+	}
+
+	@Test
+	public void testConfiguration() {
+		final NativeConsoleAppender configured = (NativeConsoleAppender) ctx.getRequiredAppender("NativeConsole");
+		assertEquals(2, configured.getManager().getFd());
+		assertEquals(8192, configured.getManager().getBufferSize());
+		assertTrue(configured.getManager().isImmediateFlush());
+		assertTrue(configured.isFiltered(event(Level.INFO, "filtered")));
+		assertFalse(configured.isFiltered(event(Level.WARN, "warning")));
+	}
+
+	@Test
+	public void testPipeBufferedUntilEndOfBatch() {
+		openPipe();
+		appender = LinuxFixture.start(newBuilder(pipe[1]).build());
+		assertEquals(NativeConsoleManager.Kind.PIPE, appender.getManager().getKind());
+		assertFalse(appender.getManager().isImmediateFlush());
+
+		for (int i = 0; i < 3; i++) {
+			appender.append(event("message " + i));
+		}
+		assertEquals(0, unread(pipe[0]));
+
+		final Log4jLogEvent last = (Log4jLogEvent) event("message 3");
+		last.setEndOfBatch(true);
+		appender.append(last);
+		final String nl = System.getProperty("line.separator");
+		assertEquals("message 0" + nl + "message 1" + nl + "message 2" + nl + "message 3" + nl,
+				new String(read(pipe[0], unread(pipe[0])), UTF_8));
+	}
+
+	@Test
+	public void testImmediateFlush() {
+		openPipe();
+		appender = LinuxFixture.start(newBuilder(pipe[1]).setImmediateFlush(Boolean.TRUE).build());
+		appender.append(event("\u00e5\u00e4\u00f6"));
+		assertEquals("\u00e5\u00e4\u00f6" + System.getProperty("line.separator"),
+				new String(read(pipe[0], unread(pipe[0])), UTF_8));
+	}
+
+	@Test
+	public void testThreadsAndLargeEvents() throws Exception {
+		openFile();
+		appender = LinuxFixture.start(newBuilder(fileFd).setBufferSize(256).build());
+		assertEquals(NativeConsoleManager.Kind.FILE, appender.getManager().getKind());
+
+		final char[] large = new char[1000];
+		Arrays.fill(large, 'x');
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						appender.append(event(i % 100 == 0 ? thread + " " + i + " " + new String(large) : thread
+								+ " " + i));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		appender.stop();
+		appender = null;
+
+		final List<String> lines = Files.readAllLines(file.toPath(), UTF_8);
+		assertEquals(4000, lines.size());
+		final int[] next = new int[threads.length];
+		for (final String line : lines) {
+			final String[] parts = line.split(" ");
+			final int thread = Integer.parseInt(parts[0]);
+			final int i = Integer.parseInt(parts[1]);
+			assertEquals(next[thread]++, i);
+			assertEquals(i % 100 == 0 ? 3 : 2, parts.length);
+		}
+	}
+
+	@Test
+	public void testVmsplice() throws Exception {
+		openPipe();
+		appender = LinuxFixture.start(newBuilder(pipe[1]).setBufferSize(4096).setVmsplice(true)
+				.setSpliceThreshold(1).build());
+		assertTrue(appender.getManager().isVmsplice());
+
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				final Memory data = new Memory(65536);
+				long n;
+				while ((n = LibC.INSTANCE.read(pipe[0], data, new NativeLong(data.size())).longValue()) > 0) {
+					received.write(data.getByteArray(0, (int) n), 0, (int) n);
+				}
+			}
+		};
+		reader.start();
+
+		final StringBuilder expected = new StringBuilder();
+		final String nl = System.getProperty("line.separator");
+		for (int i = 0; i < 20000; i++) {
+			final String message = "message " + i;
+			appender.append(event(message));
+			expected.append(message).append(nl);
+		}
+		appender.stop();
+		appender = null;
+		LibC.INSTANCE.close(pipe[1]);
+		pipe[1] = -1;
+		reader.join(10000);
+		assertEquals(expected.toString(), new String(received.toByteArray(), UTF_8));
+	}
+
+	@Test
+	public void testVmspliceStalledReader() {
+		openPipe();
+		appender = LinuxFixture.start(newBuilder(pipe[1]).setBufferSize(4096).setVmsplice(true)
+				.setSpliceThreshold(1).build());
+		final String nl = System.getProperty("line.separator");
+		final Log4jLogEvent first = (Log4jLogEvent) event("spliced");
+		first.setEndOfBatch(true);
+		appender.append(first);
+
+		// Nothing is read, so the spliced pages stay in the pipe.
+		final long start = System.nanoTime();
+		final Log4jLogEvent second = (Log4jLogEvent) event("copied");
+		second.setEndOfBatch(true);
+		appender.append(second);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		appender.stop();
+		appender = null;
+		assertEquals("spliced" + nl + "copied" + nl, new String(read(pipe[0], unread(pipe[0])), UTF_8));
+	}
+
+	private static int unread(final int fd) {
+		final IntByReference unread = new IntByReference();
+		assertEquals(0, LibC.INSTANCE.ioctl(fd, new NativeLong(LibC.FIONREAD), unread));
+		return unread.getValue();
+	}
+
+	private static byte[] read(final int fd, final int length) {
+		final Memory data = new Memory(Math.max(length, 1));
+		final long n = LibC.INSTANCE.read(fd, data, new NativeLong(length)).longValue();
+		assertEquals(length, n);
+		return data.getByteArray(0, length);
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.File;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+/**
+ * Compares a NativeFileAppender writing with pwrite to one writing through
+ * an io_uring, and buffered to direct I/O, on the same disk, for throughput
+ * and latency. Pass the number of events and a directory on the disk to
+ * measure; direct I/O needs a file system that supports O_DIRECT, unlike
+ * tmpfs before Linux 6.6.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class NativeFileAppenderBenchmark {
+
+	private static final String PATTERN = "%d{ISO8601} [%t] %-5p %c{1.} - %m%n";
+
+	public static void main(String[] args) throws Exception {
+		final int operations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		final File directory = new File(args.length > 1 ? args[1] : "target");
+
+		final LogEvent event = Log4jLogEvent.newBuilder()
+				.setLoggerName("org.apache.logging.core.appender.NativeFileAppenderBenchmark")
+				.setLevel(Level.INFO)
+				.setMessage(new ParameterizedMessage("Processed {} records for tenant {}", 42, "acme"))
+				.build();
+
+		final double pwrite = measure("pwrite", directory, operations, event,
+				NativeFileAppender.newBuilder().setIoUring(false));
+		final double ioUring = measure("io_uring", directory, operations, event,
+				NativeFileAppender.newBuilder().setIoUring(true));
+		measure("io_uring, linked fdatasync", directory, operations, event,
+				NativeFileAppender.newBuilder().setIoUring(true).setLinkedSync(true));
+		final double direct = measure("O_DIRECT", directory, operations, event,
+				NativeFileAppender.newBuilder().setDirect(true));
+		measure("O_DIRECT, io_uring", directory, operations, event,
+				NativeFileAppender.newBuilder().setDirect(true).setIoUring(true));
+
+		System.out.println(String.format("io_uring wall time: %.0f%% of pwrite", 100 * ioUring / pwrite));
+		System.out.println(String.format("O_DIRECT wall time: %.0f%% of buffered", 100 * direct / pwrite));
+	}
+
+	/**
+	 * @return wall-clock nanoseconds per event, including the final flush
+	 */
+	private static double measure(final String label, final File directory, final int operations,
+			final LogEvent event, final NativeFileAppender.Builder builder) throws Exception {
+		final File file = new File(directory, "NativeFileAppenderBenchmark.log");
+		final NativeFileAppender appender = builder.setName(label).setFileName(file.getPath()).setAppend(false)
+				.setImmediateFlush(false).setLayout(PatternLayout.newBuilder().withPattern(PATTERN).build())
+				.build();
+		appender.start();
+		if (label.contains("io_uring") && !appender.getManager().isIoUring()) {
+			System.out.println(label + ": io_uring unavailable, measuring the pwrite fallback");
+		}
+		if (label.contains("O_DIRECT") && !appender.getManager().isDirect()) {
+			System.out.println(label + ": O_DIRECT unsupported, measuring buffered I/O");
+		}
+		final long start = System.nanoTime();
+		Benchmarks.measure(label, operations, new Benchmarks.Operation() {
+			@Override
+			public void run(long i) {
+				appender.append(event);
+			}
+		});
+		Benchmarks.latency(label, operations, new Benchmarks.Operation() {
+			@Override
+			public void run(long i) {
+				appender.append(event);
+			}
+		});
+		appender.stop();
+		final double wall = (double) (System.nanoTime() - start) / (4L * operations);
+		System.out.println(String.format("%-40s %10.1f ns/op wall including close", label, wall));
+		file.delete();
+		return wall;
+	}
+}
@@ -0,0 +1,323 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.apache.logging.core.appender.LinuxFixture.UTF_8;
+import static org.apache.logging.core.appender.LinuxFixture.event;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.appender.AppenderLoggingException;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.junit.InitialLoggerContext;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.sun.jna.LastErrorException;
+
+/**
+ * NativeFileAppender tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class NativeFileAppenderTest {
+
+	private final LinuxFixture fixture = new LinuxFixture("target/NativeFileAppenderTest.log");
+
+	private final InitialLoggerContext ctx = new InitialLoggerContext("NativeFileAppenderTest.xml");
+
+	@Rule
+	public RuleChain rules = RuleChain.outerRule(fixture).around(ctx);
+
+	private File file;
+	private NativeFileAppender appender;
+
+	@Before
+	public void setUp() {
+		file = fixture.newFile("native", ".log");
+	}
+
+	@After
+	public void tearDown() {
+		stop();
+	}
+
+	private void start(final NativeFileAppender.Builder builder) {
+		appender = LinuxFixture.start(builder.build());
+	}
+
+	private void stop() {
+		LinuxFixture.stop(appender);
+		appender = null;
+	}
+
+	private NativeFileAppender.Builder newBuilder() {
+		return NativeFileAppender.newBuilder().setName("file").setFileName(file.getPath())
+				.setLayout(LinuxFixture.layout("%m%n"));
+	}
+
+	private static List<String> lines(final File file) throws Exception {
+		return Files.readAllLines(file.toPath(), UTF_8);
+	}
+
+	private List<String> lines() throws Exception {
+		return lines(file);
+	}
+
+	@Test
+	public void testConfiguration() throws Exception {
+		final NativeFileAppender configured = (NativeFileAppender) ctx.getRequiredAppender("NativeFile");
+		assertTrue(configured.getManager().isDurable());
+		assertTrue(configured.getManager().isIndexed());
+		final Logger logger = ctx.getLogger("testLogger");
+		logger.info("filtered");
+		logger.warn("warning");
+		logger.error(MarkerManager.getMarker("AUDIT"), "audited");
+		// The durable event is committed with the buffered one before it.
+		assertEquals(Arrays.asList("WARN warning", "ERROR audited"),
+				lines(new File("target/NativeFileAppenderTest.log")));
+		assertEquals(1, configured.getManager().getCommitCount());
+	}
+
+	@Test
+	public void testAppendAndTruncate() throws Exception {
+		start(newBuilder());
+		appender.append(event("first \u00e5\u00e4\u00f6"));
+		assertEquals(Arrays.asList("first \u00e5\u00e4\u00f6"), lines());
+		stop();
+
+		start(newBuilder());
+		appender.append(event("second"));
+		stop();
+		assertEquals(Arrays.asList("first \u00e5\u00e4\u00f6", "second"), lines());
+
+		start(newBuilder().setAppend(false));
+		appender.append(event("third"));
+		stop();
+		assertEquals(Arrays.asList("third"), lines());
+	}
+
+	@Test
+	public void testManagerSharedDuringReconfiguration() throws Exception {
+		start(newBuilder().setDirect(true));
+		final NativeFileAppender next = newBuilder().setName("next").setDirect(true).build();
+		assertNotNull(next);
+		next.start();
+		try {
+			assertSame(appender.getManager(), next.getManager());
+			appender.append(event("old"));
+			next.append(event("new"));
+			stop();
+			next.append(event("after"));
+		} finally {
+			next.stop();
+		}
+		assertEquals(Arrays.asList("old", "new", "after"), lines());
+	}
+
+	@Test
+	public void testBufferedUntilEndOfBatch() throws Exception {
+		start(newBuilder().setImmediateFlush(false).setBufferSize(1024));
+		for (int i = 0; i < 3; i++) {
+			appender.append(event("message " + i));
+		}
+		assertEquals(0, file.length());
+		assertTrue(appender.getManager().getLength() > 0);
+
+		final Log4jLogEvent last = (Log4jLogEvent) event("message 3");
+		last.setEndOfBatch(true);
+		appender.append(last);
+		assertEquals(Arrays.asList("message 0", "message 1", "message 2", "message 3"), lines());
+	}
+
+	@Test
+	public void testBufferFullAndLargeEvents() throws Exception {
+		start(newBuilder().setImmediateFlush(false).setBufferSize(64));
+		final char[] large = new char[1000];
+		Arrays.fill(large, 'x');
+		for (int i = 0; i < 100; i++) {
+			appender.append(event(i % 10 == 0 ? i + " " + new String(large) : Integer.toString(i)));
+		}
+		stop();
+		final List<String> lines = lines();
+		assertEquals(100, lines.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i % 10 == 0 ? i + " " + new String(large) : Integer.toString(i), lines.get(i));
+		}
+	}
+
+	@Test
+	public void testWritebackDropsWrittenRanges() throws Exception {
+		start(newBuilder().setImmediateFlush(false).setBufferSize(4096).setWritebackSize(16384));
+		for (int i = 0; i < 10000; i++) {
+			appender.append(event("message " + i));
+		}
+		final long dropped = appender.getManager().getDroppedPosition();
+		assertTrue("dropped " + dropped, dropped >= 16384);
+		stop();
+		final List<String> lines = lines();
+		assertEquals(10000, lines.size());
+		assertEquals("message 9999", lines.get(9999));
+	}
+
+	@Test
+	public void testIoUring() throws Exception {
+		testIoUring(false);
+	}
+
+	@Test
+	public void testIoUringLinkedSync() throws Exception {
+		testIoUring(true);
+	}
+
+	private void testIoUring(final boolean linkedSync) throws Exception {
+		start(newBuilder().setImmediateFlush(false).setBufferSize(4096).setBufferCount(3).setIoUring(true)
+				.setLinkedSync(linkedSync).setWritebackSize(16384));
+		Assume.assumeTrue("io_uring unavailable", appender.getManager().isIoUring());
+		final char[] large = new char[10000];
+		Arrays.fill(large, 'x');
+		for (int i = 0; i < 20000; i++) {
+			appender.append(event(i % 1000 == 0 ? i + " " + new String(large) : "message " + i));
+		}
+		stop();
+		final List<String> lines = lines();
+		assertEquals(20000, lines.size());
+		for (int i = 0; i < 20000; i++) {
+			assertEquals(i % 1000 == 0 ? i + " " + new String(large) : "message " + i, lines.get(i));
+		}
+	}
+
+	@Test
+	public void testDirect() throws Exception {
+		start(newBuilder().setDirect(true).setBufferSize(8192));
+		Assume.assumeTrue("O_DIRECT unsupported", appender.getManager().isDirect());
+		final int blockSize = appender.getManager().getBlockSize();
+		appender.append(event("first"));
+		assertEquals(0, file.length() % blockSize);
+		assertEquals("first", lines().get(0));
+		stop();
+		assertEquals(Arrays.asList("first"), lines());
+
+		start(newBuilder().setDirect(true).setBufferSize(8192).setImmediateFlush(false));
+		for (int i = 0; i < 5000; i++) {
+			appender.append(event("message " + i));
+		}
+		stop();
+		final List<String> lines = lines();
+		assertEquals(5001, lines.size());
+		assertEquals("first", lines.get(0));
+		assertEquals("message 4999", lines.get(5000));
+	}
+
+	@Test
+	public void testDirectIoUring() throws Exception {
+		start(newBuilder().setDirect(true).setIoUring(true).setBufferSize(8192).setBufferCount(3)
+				.setImmediateFlush(false));
+		Assume.assumeTrue("O_DIRECT unsupported", appender.getManager().isDirect());
+		final char[] large = new char[20000];
+		Arrays.fill(large, 'x');
+		for (int i = 0; i < 5000; i++) {
+			final Log4jLogEvent event = (Log4jLogEvent) event(i % 500 == 0 ? i + " " + new String(large)
+					: "message " + i);
+			// Flush partial blocks now and then.
+			event.setEndOfBatch(i % 7 == 0);
+			appender.append(event);
+		}
+		stop();
+		final List<String> lines = lines();
+		assertEquals(5000, lines.size());
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(i % 500 == 0 ? i + " " + new String(large) : "message " + i, lines.get(i));
+		}
+	}
+
+	@Test
+	public void testDurableGroupCommit() throws Exception {
+		start(newBuilder().setDurable(true).setImmediateFlush(false));
+		assertTrue(appender.getManager().isDurable());
+		final Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 200; i++) {
+						appender.append(event(thread + " " + i));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		// Every event is in the file before the appender stops.
+		final List<String> lines = lines();
+		assertEquals(1600, lines.size());
+		final int[] next = new int[threads.length];
+		for (final String line : lines) {
+			final String[] parts = line.split(" ");
+			assertEquals(next[Integer.parseInt(parts[0])]++, Integer.parseInt(parts[1]));
+		}
+		final long commits = appender.getManager().getCommitCount();
+		assertTrue(commits > 0);
+		assertTrue("No commit was shared: " + commits, commits < 1600);
+	}
+
+	@Test
+	public void testDurableFailureThrown() throws Exception {
+		final File full = new File("/dev/full");
+		Assume.assumeTrue(full.canWrite());
+		start(NativeFileAppender.newBuilder().setName("full").setFileName(full.getPath())
+				.setLayout(LinuxFixture.layout("%m%n")).setDurable(true)
+				.setIgnoreExceptions(false));
+		try {
+			appender.append(event("lost"));
+			fail("A failed commit must reach the caller");
+		} catch (final AppenderLoggingException e) {
+			assertTrue(e.getCause() instanceof LastErrorException);
+		}
+	}
+
+	@Test
+	public void testDurableMarker() throws Exception {
+		start(newBuilder().setDurable(true).setDurableMarker("AUDIT").setImmediateFlush(false));
+		appender.append(event("buffered"));
+		assertEquals(0, file.length());
+		appender.append(Log4jLogEvent.newBuilder().setLoggerName("testLogger").setLevel(Level.INFO)
+				.setMarker(MarkerManager.getMarker("AUDIT")).setMessage(new SimpleMessage("durable")).build());
+		assertEquals(Arrays.asList("buffered", "durable"), lines());
+		assertEquals(1, appender.getManager().getCommitCount());
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.sun.jna.Platform;
+
+/**
+ * NativeThreadIdPatternConverter and CurrentCpuPatternConverter tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class NativeThreadIdPatternConverterTest {
+
+	private static String format(final String pattern) {
+		final LogEvent event = Log4jLogEvent.newBuilder().setLoggerName("testLogger").setLevel(Level.INFO)
+				.setMessage(new SimpleMessage("message")).build();
+		return PatternLayout.newBuilder().withPattern(pattern).build().toSerializable(event);
+	}
+
+	@Test
+	public void testNativeThreadId() throws Exception {
+		Assume.assumeTrue(Platform.isLinux());
+		final String tid = format("%ntid");
+		assertEquals(tid, format("%nativeThreadId"));
+		assertTrue(new File("/proc/self/task/" + tid).isDirectory());
+
+		// Each thread has its own.
+		final String[] other = new String[1];
+		final Thread thread = new Thread() {
+			@Override
+			public void run() {
+				other[0] = format("%ntid %m");
+			}
+		};
+		thread.start();
+		thread.join();
+		assertTrue(other[0].endsWith(" message"));
+		assertFalse(other[0].startsWith(tid + " "));
+	}
+
+	@Test
+	public void testCurrentCpu() {
+		Assume.assumeTrue(CurrentCpu.isSupported());
+		final int cpu = Integer.parseInt(format("%cpu"));
+		assertTrue(cpu >= 0);
+		assertTrue(Integer.parseInt(format("%currentCpu")) >= 0);
+	}
+}
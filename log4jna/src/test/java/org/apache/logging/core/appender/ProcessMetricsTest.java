@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.jna.Platform;
+
+/**
+ * ProcessMetrics and its pattern converter tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class ProcessMetricsTest {
+
+	@Before
+	public void setUp() {
+		Assume.assumeTrue(Platform.isLinux() && Platform.is64Bit());
+	}
+
+	private static String format(final String pattern) {
+		final LogEvent event = Log4jLogEvent.newBuilder().setLoggerName("testLogger").setLevel(Level.ERROR)
+				.setMessage(new SimpleMessage("message")).build();
+		return PatternLayout.newBuilder().withPattern(pattern).build().toSerializable(event);
+	}
+
+	@Test
+	public void testSnapshot() {
+		final ProcessMetrics.Snapshot snapshot = ProcessMetrics.get();
+		assertTrue(snapshot.getResidentBytes() > 1024 * 1024);
+		assertTrue(snapshot.getCpuTimeNanos() > 0);
+		assertTrue(snapshot.getOpenHandles() >= 3);
+		assertEquals(ProcessMetrics.DEFAULT_INTERVAL, ProcessMetrics.getInterval());
+	}
+
+	@Test
+	public void testSampled() throws Exception {
+		ProcessMetrics.sample();
+		final ProcessMetrics.Snapshot before = ProcessMetrics.get();
+		final FileInputStream in = new FileInputStream("/proc/self/stat");
+		try {
+			final long end = System.nanoTime() + 50000000;
+			long sum = 0;
+			while (System.nanoTime() < end) {
+				sum += sum * 31 + 1;
+			}
+			assertTrue(sum != 1);
+			ProcessMetrics.sample();
+			final ProcessMetrics.Snapshot after = ProcessMetrics.get();
+			assertTrue(after.getCpuTimeNanos() > before.getCpuTimeNanos());
+			assertTrue(after.getOpenHandles() > before.getOpenHandles());
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void testPattern() {
+		ProcessMetrics.sample();
+		final ProcessMetrics.Snapshot snapshot = ProcessMetrics.get();
+		final String[] values = format("%rss %cputime %fds").split(" ");
+		assertEquals(snapshot.getResidentBytes() / 1024, Long.parseLong(values[0]));
+		assertEquals(snapshot.getCpuTimeNanos() / 1000000, Long.parseLong(values[1]));
+		assertEquals(snapshot.getOpenHandles(), Long.parseLong(values[2]));
+		assertEquals(format("%rss %cputime %fds"), format("%residentMemory %processCpuTime %openHandles"));
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+/**
+ * Measures the compression ratio and processor time of compressing a segment
+ * of formatted events: as one zlib stream, as the independent blocks of
+ * SegmentCompressor, and as blocks with a preset dictionary. Pass the segment
+ * size in megabytes and a directory.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class SegmentCompressorBenchmark {
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private static final String PATTERN = "%d{ISO8601} [%t] %-5p %c{1.} - %m%n";
+
+	private static final String[] TEMPLATES = { "Processed {} records for tenant {} in {} ms",
+			"Request {} from {} completed with status {}", "Cache miss for key {}, loading from {}",
+			"Connection {} to {} closed after {} requests", "Scheduled job {} finished, next run at {}" };
+
+	public static void main(String[] args) throws Exception {
+		final long size = (args.length > 0 ? Long.parseLong(args[0]) : 64) * 1024 * 1024;
+		final File directory = new File(args.length > 1 ? args[1] : "target");
+		final String fileName = new File(directory, "SegmentCompressorBenchmark").getPath();
+		final File segment = new File(MappedSegmentManager.getSegmentFileName(fileName, 1));
+		generate(segment, size);
+
+		for (final int level : new int[] { Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION }) {
+			// Once for warm-up.
+			for (int run = 0; run < 2; run++) {
+				final boolean print = run > 0;
+				measure("level " + level + ", one stream", segment, print, new Compression() {
+					@Override
+					public File compress(final File copy) throws IOException {
+						return compressStream(copy, level);
+					}
+				});
+				measure("level " + level + ", blocks", segment, print, new Compression() {
+					@Override
+					public File compress(final File copy) throws IOException {
+						return new SegmentCompressor(fileName, level, false).compress(copy);
+					}
+				});
+				measure("level " + level + ", blocks, dictionary", segment, print, new Compression() {
+					@Override
+					public File compress(final File copy) throws IOException {
+						return new SegmentCompressor(fileName, level, true).compress(copy);
+					}
+				});
+			}
+		}
+		segment.delete();
+		for (final File file : directory.listFiles()) {
+			if (file.getName().startsWith("SegmentCompressorBenchmark.")
+					&& file.getName().endsWith(SegmentCompressor.DICTIONARY_SUFFIX)) {
+				file.delete();
+			}
+		}
+	}
+
+	private interface Compression {
+
+		File compress(File copy) throws IOException;
+	}
+
+	private static void measure(final String label, final File segment, final boolean print,
+			final Compression compression) throws IOException {
+		final File copy = new File(segment.getPath().replace(".000001", ".000002"));
+		Files.copy(segment.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		final long cpu = THREADS.getCurrentThreadCpuTime();
+		final long wall = System.nanoTime();
+		final File compressed = compression.compress(copy);
+		final double cpuMillis = (THREADS.getCurrentThreadCpuTime() - cpu) / 1e6;
+		final double wallMillis = (System.nanoTime() - wall) / 1e6;
+		if (print) {
+			final double megabytes = segment.length() / (1024.0 * 1024);
+			System.out.println(String.format("%-32s ratio %5.1f  %8.0f ms cpu %8.0f ms wall %7.1f MB/s cpu",
+					label, (double) segment.length() / compressed.length(), cpuMillis, wallMillis, megabytes
+							/ cpuMillis * 1000));
+		}
+		compressed.delete();
+		copy.delete();
+	}
+
+	private static File compressStream(final File segment, final int level) throws IOException {
+		final File target = new File(segment.getPath() + SegmentCompressor.SUFFIX);
+		final Deflater deflater = new Deflater(level);
+		final InputStream in = new FileInputStream(segment);
+		try {
+			final OutputStream out = new DeflaterOutputStream(new FileOutputStream(target), deflater,
+					SegmentCompressor.BLOCK_SIZE);
+			try {
+				final byte[] buffer = new byte[SegmentCompressor.BLOCK_SIZE];
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					out.write(buffer, 0, n);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+			deflater.end();
+		}
+		return target;
+	}
+
+	private static void generate(final File segment, final long size) throws IOException {
+		final PatternLayout layout = PatternLayout.newBuilder().withPattern(PATTERN).build();
+		final Random random = new Random(42);
+		final OutputStream out = new FileOutputStream(segment);
+		try {
+			long written = 0;
+			long time = 1500000000000L;
+			while (written < size) {
+				time += random.nextInt(5);
+				final int template = random.nextInt(TEMPLATES.length);
+				final Object[] parameters = { random.nextInt(100000), "tenant-" + random.nextInt(50),
+						random.nextInt(1000) };
+				final byte[] bytes = layout.toByteArray(Log4jLogEvent.createEvent(
+						"org.apache.logging.core.appender.Service" + template, null, null,
+						template == 2 ? Level.DEBUG : Level.INFO, new ParameterizedMessage(TEMPLATES[template],
+								parameters), null, null, null, null, "worker-" + random.nextInt(16), null, time));
+				out.write(bytes);
+				written += bytes.length;
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
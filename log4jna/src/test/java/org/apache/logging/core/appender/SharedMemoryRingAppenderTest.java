@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.apache.logging.core.appender.LinuxFixture.event;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.junit.InitialLoggerContext;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.sun.jna.LastErrorException;
+
+/**
+ * SharedMemoryRingAppender and RingShipper tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class SharedMemoryRingAppenderTest {
+
+	private final LinuxFixture fixture = new LinuxFixture("target/SharedMemoryRingAppenderTest.bin");
+
+	private final InitialLoggerContext ctx = new InitialLoggerContext("SharedMemoryRingAppenderTest.xml");
+
+	@Rule
+	public RuleChain rules = RuleChain.outerRule(fixture).around(ctx);
+
+	private File file;
+	private SharedMemoryRingAppender appender;
+	private RingShipper shipper;
+	private final List<LogEvent> shipped = Collections.synchronizedList(new ArrayList<LogEvent>());
+
+	private final RingShipper.Forwarder collector = new RingShipper.Forwarder() {
+		@Override
+		public void forward(final LogEvent event) {
+			shipped.add(event);
+		}
+	};
+
+	@Before
+	public void setUp() {
+		file = fixture.newFile("ring", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		stopAppender();
+		closeShipper();
+		ThreadContext.clearMap();
+	}
+
+	private void startAppender(final int capacity, final SharedMemoryRingManager.OverflowPolicy overflowPolicy) {
+		appender = LinuxFixture.start(SharedMemoryRingAppender.newBuilder().setName("ring")
+				.setFileName(file.getPath()).setCapacity(capacity).setOverflowPolicy(overflowPolicy).build());
+	}
+
+	private void stopAppender() {
+		LinuxFixture.stop(appender);
+		appender = null;
+	}
+
+	private void openShipper(final RingShipper.Forwarder forwarder, final int batchSize) {
+		shipper = new RingShipper(file.getPath(), forwarder, batchSize, 1);
+	}
+
+	private void closeShipper() {
+		if (shipper != null) {
+			shipper.close();
+			shipper = null;
+		}
+	}
+
+	private List<String> messages() {
+		final List<String> messages = new ArrayList<String>();
+		synchronized (shipped) {
+			for (final LogEvent event : shipped) {
+				messages.add(event.getMessage().getFormattedMessage());
+			}
+		}
+		return messages;
+	}
+
+	private static List<String> range(final int from, final int to) {
+		final List<String> messages = new ArrayList<String>();
+		for (int i = from; i < to; i++) {
+			messages.add("message " + i);
+		}
+		return messages;
+	}
+
+	@Test
+	public void testConfiguration() {
+		final SharedMemoryRingAppender configured = (SharedMemoryRingAppender) ctx
+				.getRequiredAppender("SharedMemoryRing");
+		assertEquals(SharedMemoryRingManager.OverflowPolicy.DROP, configured.getManager().getOverflowPolicy());
+		final Logger logger = ctx.getLogger("testLogger");
+		logger.info("filtered");
+		// Dropped rather than waited for once the ring is full.
+		for (int i = 0; i < 1000; i++) {
+			logger.warn("message " + i);
+		}
+		assertTrue(configured.getManager().getDroppedCount() > 0);
+
+		shipper = new RingShipper("target/SharedMemoryRingAppenderTest.bin", collector, 1000, 1);
+		final int count = shipper.ship();
+		assertTrue(count > 0 && count < 1000);
+		assertEquals(range(0, count), messages());
+		assertEquals(Level.WARN, shipped.get(0).getLevel());
+		assertEquals(getClass().getName(), shipped.get(0).getSource().getClassName());
+	}
+
+	@Test
+	public void testEventFields() {
+		startAppender(64 * 1024, SharedMemoryRingManager.OverflowPolicy.BLOCK);
+		ThreadContext.put("request-id", "42");
+		final Throwable thrown = new IllegalStateException("failure", new IllegalArgumentException("cause"));
+		final LogEvent event = Log4jLogEvent.newBuilder().setLoggerName("org.example.Service")
+				.setLevel(Level.forName("NOTICE", 350)).setMarker(MarkerManager.getMarker("AUDIT"))
+				.setMessage(new SimpleMessage("Disk \u00e5\u00e4\u00f6 almost full")).setThrown(thrown).build();
+		appender.append(event);
+
+		openShipper(collector, RingShipper.DEFAULT_BATCH_SIZE);
+		assertEquals(1, shipper.ship());
+		final LogEvent received = shipped.get(0);
+		assertEquals(event.getTimeMillis(), received.getTimeMillis());
+		assertEquals("NOTICE", received.getLevel().name());
+		assertEquals(350, received.getLevel().intLevel());
+		assertEquals("org.example.Service", received.getLoggerName());
+		assertEquals(event.getThreadName(), received.getThreadName());
+		assertEquals("AUDIT", received.getMarker().getName());
+		assertEquals("Disk \u00e5\u00e4\u00f6 almost full", received.getMessage().getFormattedMessage());
+		assertEquals("42", received.getContextMap().get("request-id"));
+		assertEquals("java.lang.IllegalStateException: failure", received.getThrown().toString());
+		assertEquals("java.lang.IllegalArgumentException: cause", received.getThrown().getCause().toString());
+		assertEquals(thrown.getStackTrace()[0].toString(), received.getThrown().getStackTrace()[0].toString());
+		assertEquals(0, shipper.ship());
+	}
+
+	@Test
+	public void testShipperRestart() {
+		startAppender(64 * 1024, SharedMemoryRingManager.OverflowPolicy.BLOCK);
+		for (int i = 0; i < 10; i++) {
+			appender.append(event("message " + i));
+		}
+		openShipper(collector, 4);
+		assertEquals(4, shipper.ship());
+		closeShipper();
+
+		// A shipper failing to forward the third event of its batch.
+		openShipper(new RingShipper.Forwarder() {
+			@Override
+			public void forward(final LogEvent event) {
+				if (event.getMessage().getFormattedMessage().equals("message 6")) {
+					throw new IllegalStateException("Destination unavailable");
+				}
+				shipped.add(event);
+			}
+		}, 4);
+		try {
+			shipper.ship();
+		} catch (final IllegalStateException e) {
+			// Expected.
+		}
+		closeShipper();
+
+		openShipper(collector, 4);
+		assertEquals(4, shipper.ship());
+		assertEquals(0, shipper.ship());
+		assertEquals(range(0, 10), messages());
+	}
+
+	@Test
+	public void testUndecodableRecordSkipped() throws Exception {
+		startAppender(64 * 1024, SharedMemoryRingManager.OverflowPolicy.BLOCK);
+		appender.append(event("message 0"));
+		appender.append(event("message 1"));
+		stopAppender();
+		// The length of the level name, after the time and the level.
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(SharedMemoryRing.HEADER_SIZE + SharedMemoryRing.FRAME_HEADER_SIZE + 12);
+			raf.writeInt(Integer.MAX_VALUE);
+		} finally {
+			raf.close();
+		}
+		openShipper(collector, 4);
+		assertEquals(2, shipper.ship());
+		assertEquals(1, shipper.getUndecodableCount());
+		assertEquals(range(1, 2), messages());
+	}
+
+	@Test
+	public void testForwardRetriesBounded() {
+		startAppender(64 * 1024, SharedMemoryRingManager.OverflowPolicy.BLOCK);
+		appender.append(event("message 0"));
+		appender.append(event("message 1"));
+		shipper = new RingShipper(file.getPath(), new RingShipper.Forwarder() {
+			@Override
+			public void forward(final LogEvent event) {
+				if (event.getMessage().getFormattedMessage().equals("message 0")) {
+					throw new IllegalStateException("Rejected");
+				}
+				shipped.add(event);
+			}
+		}, 4, 1, 3);
+		for (int i = 0; i < 2; i++) {
+			try {
+				shipper.ship();
+				fail("The failure is thrown until the retries are used up");
+			} catch (final IllegalStateException e) {
+				// Expected.
+			}
+		}
+		assertEquals(2, shipper.ship());
+		assertEquals(1, shipper.getDroppedCount());
+		assertEquals(range(1, 2), messages());
+		assertEquals(0, shipper.ship());
+	}
+
+	@Test
+	public void testAppenderRestart() {
+		startAppender(64 * 1024, SharedMemoryRingManager.OverflowPolicy.BLOCK);
+		for (int i = 0; i < 5; i++) {
+			appender.append(event("message " + i));
+		}
+		stopAppender();
+		startAppender(64 * 1024, SharedMemoryRingManager.OverflowPolicy.BLOCK);
+		for (int i = 5; i < 10; i++) {
+			appender.append(event("message " + i));
+		}
+		openShipper(collector, 100);
+		assertEquals(10, shipper.ship());
+		assertEquals(range(0, 10), messages());
+	}
+
+	@Test
+	public void testDropWhenFull() {
+		startAppender(4096, SharedMemoryRingManager.OverflowPolicy.DROP);
+		int published = 0;
+		while (appender.getManager().write(event("message " + published))) {
+			published++;
+		}
+		assertEquals(1, appender.getManager().getDroppedCount());
+		assertFalse(appender.getManager().write(event("dropped")));
+
+		openShipper(collector, 1000);
+		assertEquals(published, shipper.ship());
+		assertTrue(appender.getManager().write(event("after")));
+		assertEquals(1, shipper.ship());
+		final List<String> expected = range(0, published);
+		expected.add("after");
+		assertEquals(expected, messages());
+	}
+
+	@Test
+	public void testBlockWhileShipping() throws Exception {
+		startAppender(8192, SharedMemoryRingManager.OverflowPolicy.BLOCK);
+		openShipper(collector, 64);
+		final Thread shipperThread = new Thread(shipper);
+		shipperThread.start();
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 2000; i++) {
+						appender.append(event(thread + " " + i));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		final long end = appender.getManager().getPosition();
+		while (shipper.getPosition() < end) {
+			Thread.sleep(1);
+		}
+		shipper.stop();
+		shipperThread.join();
+
+		final List<String> messages = messages();
+		assertEquals(8000, messages.size());
+		final int[] next = new int[threads.length];
+		for (final String message : messages) {
+			final String[] parts = message.split(" ");
+			assertEquals(next[Integer.parseInt(parts[0])]++, Integer.parseInt(parts[1]));
+		}
+	}
+
+	@Test
+	public void testShipperKeepsRing() throws Exception {
+		startAppender(8192, SharedMemoryRingManager.OverflowPolicy.BLOCK);
+		appender.append(event("message 0"));
+		openShipper(collector, 4);
+		assertEquals(8192, shipper.getCapacity());
+		assertEquals(SharedMemoryRing.HEADER_SIZE + 8192, file.length());
+		assertEquals(1, shipper.ship());
+		assertEquals(range(0, 1), messages());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testShipperRejectsOtherFile() throws Exception {
+		Files.write(file.toPath(), new byte[8192]);
+		try {
+			openShipper(collector, 4);
+		} finally {
+			assertEquals(8192, file.length());
+		}
+	}
+
+	@Test(expected = LastErrorException.class)
+	public void testShipperRequiresRing() {
+		openShipper(collector, 4);
+	}
+}
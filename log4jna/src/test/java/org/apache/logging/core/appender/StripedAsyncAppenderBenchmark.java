@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.AsyncAppender;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+/**
+ * Measures a StripedAsyncAppender against the AsyncAppender of log4j, with
+ * one queue shared by all threads, and against a buffer per thread, from
+ * 1000 and more threads logging to an appender that only counts. Besides
+ * the events per second, the number of buffered event slots shows what each
+ * design costs in memory. Pass the number of events per thread.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class StripedAsyncAppenderBenchmark {
+
+	private static final int BUFFER_SIZE = 1024;
+
+	private static final class CountingAppender extends AbstractAppender {
+
+		private static final long serialVersionUID = 1L;
+
+		volatile long count;
+
+		CountingAppender() {
+			super("counting", null, null);
+		}
+
+		@Override
+		public void append(final LogEvent event) {
+			count++;
+		}
+	}
+
+	/**
+	 * A buffer per thread, all harvested by a drain thread.
+	 */
+	private static final class ThreadLocalAppender extends AbstractAppender {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Appender target;
+		private final List<List<LogEvent>> buffers = new ArrayList<List<LogEvent>>();
+		private final ThreadLocal<List<LogEvent>> buffer = new ThreadLocal<List<LogEvent>>();
+		private volatile boolean running = true;
+		private final Thread drainer = new Thread() {
+			@Override
+			public void run() {
+				for (;;) {
+					final boolean stopping = !running;
+					if (drainOnce() == 0) {
+						if (stopping) {
+							return;
+						}
+						LockSupport.parkNanos(100000);
+					}
+				}
+			}
+		};
+
+		ThreadLocalAppender(final Appender target) {
+			super("threadLocal", null, null);
+			this.target = target;
+			drainer.setDaemon(true);
+		}
+
+		@Override
+		public void start() {
+			super.start();
+			drainer.start();
+		}
+
+		@Override
+		public void stop() {
+			super.stop();
+			running = false;
+			try {
+				drainer.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		int drainOnce() {
+			final List<List<LogEvent>> all;
+			synchronized (buffers) {
+				all = new ArrayList<List<LogEvent>>(buffers);
+			}
+			int count = 0;
+			for (final List<LogEvent> events : all) {
+				final List<LogEvent> taken;
+				synchronized (events) {
+					taken = new ArrayList<LogEvent>(events);
+					events.clear();
+					events.notifyAll();
+				}
+				for (final LogEvent event : taken) {
+					target.append(event);
+				}
+				count += taken.size();
+			}
+			return count;
+		}
+
+		int getSlots() {
+			synchronized (buffers) {
+				return buffers.size() * BUFFER_SIZE;
+			}
+		}
+
+		@Override
+		public void append(final LogEvent event) {
+			List<LogEvent> events = buffer.get();
+			if (events == null) {
+				events = new ArrayList<LogEvent>(BUFFER_SIZE);
+				synchronized (buffers) {
+					buffers.add(events);
+				}
+				buffer.set(events);
+			}
+			event.getThreadName();
+			synchronized (events) {
+				while (events.size() == BUFFER_SIZE) {
+					try {
+						events.wait();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				events.add(event);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int operations = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		System.out.println("CPU known: " + CurrentCpu.isSupported() + ", processors: "
+				+ Runtime.getRuntime().availableProcessors());
+
+		for (final int threads : new int[] { 1000, 4000 }) {
+			for (int round = 0; round < 2; round++) {
+				CountingAppender counting = new CountingAppender();
+				final StripedAsyncAppender striped = StripedAsyncAppender.newBuilder().setName("striped")
+						.setConfiguration(configuration(counting)).setBufferSize(BUFFER_SIZE)
+						.setAppenderRefs(AppenderRef.createAppenderRef("counting", null, null)).build();
+				print("striped", threads, measure(striped, counting, threads, operations),
+						striped.getStripeCount() * BUFFER_SIZE);
+
+				counting = new CountingAppender();
+				// As much buffer as the stripes have.
+				final int queueSize = striped.getStripeCount() * BUFFER_SIZE;
+				final AsyncAppender shared = AsyncAppender.createAppender(
+						new AppenderRef[] { AppenderRef.createAppenderRef("counting", null, null) }, null, true,
+						queueSize, "shared", false, null, configuration(counting), true);
+				print("shared queue", threads, measure(shared, counting, threads, operations), queueSize);
+
+				counting = new CountingAppender();
+				counting.start();
+				final ThreadLocalAppender threadLocal = new ThreadLocalAppender(counting);
+				print("thread-local", threads, measure(threadLocal, counting, threads, operations),
+						threadLocal.getSlots());
+			}
+		}
+	}
+
+	private static DefaultConfiguration configuration(final CountingAppender counting) {
+		counting.start();
+		final DefaultConfiguration configuration = new DefaultConfiguration();
+		configuration.addAppender(counting);
+		return configuration;
+	}
+
+	private static void print(final String label, final int threads, final double rate, final int slots) {
+		System.out.println(String.format("%-14s %5d threads %12.0f events/s %8d slots", label, threads, rate,
+				slots));
+	}
+
+	/**
+	 * @return the events per second
+	 */
+	private static double measure(final Appender appender, final CountingAppender counting, final int threadCount,
+			final int operations) throws Exception {
+		appender.start();
+		final Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < operations; i++) {
+						appender.append(Log4jLogEvent.newBuilder()
+								.setLoggerName("org.apache.logging.core.appender.StripedAsyncAppenderBenchmark")
+								.setLevel(Level.INFO)
+								.setMessage(new ParameterizedMessage("Processed batch {} for tenant {}", i, "acme"))
+								.build());
+					}
+				}
+			};
+		}
+		final long start = System.nanoTime();
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		appender.stop();
+		final long elapsed = System.nanoTime() - start;
+		final long events = (long) threadCount * operations;
+		if (counting.count != events) {
+			throw new IllegalStateException(appender.getName() + " delivered " + counting.count + " of " + events);
+		}
+		return events * 1e9 / elapsed;
+	}
+}
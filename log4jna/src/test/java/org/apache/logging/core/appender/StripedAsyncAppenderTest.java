@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.junit.InitialLoggerContext;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.sun.jna.Platform;
+
+/**
+ * StripedAsyncAppender tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class StripedAsyncAppenderTest {
+
+	@Rule
+	public InitialLoggerContext ctx = new InitialLoggerContext("StripedAsyncAppenderTest.xml");
+
+	/**
+	 * Collects the events appended, the first one only once released.
+	 */
+	private static final class ListAppender extends AbstractAppender {
+
+		private static final long serialVersionUID = 1L;
+
+		final List<LogEvent> events = Collections.synchronizedList(new ArrayList<LogEvent>());
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch released = new CountDownLatch(1);
+
+		ListAppender() {
+			super("list", null, null);
+		}
+
+		@Override
+		public void append(final LogEvent event) {
+			entered.countDown();
+			try {
+				released.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			events.add(event);
+		}
+
+		List<String> messages() {
+			final List<String> messages = new ArrayList<String>();
+			for (final LogEvent event : events) {
+				messages.add(event.getMessage().getFormattedMessage());
+			}
+			return messages;
+		}
+	}
+
+	private ListAppender list;
+	private StripedAsyncAppender appender;
+
+	@Before
+	public void setUp() {
+		list = new ListAppender();
+		list.start();
+	}
+
+	@After
+	public void tearDown() {
+		list.released.countDown();
+		if (appender != null) {
+			appender.stop();
+		}
+	}
+
+	private void start(final StripedAsyncAppender.Builder builder) {
+		final DefaultConfiguration configuration = new DefaultConfiguration();
+		configuration.addAppender(list);
+		appender = builder.setName("async").setConfiguration(configuration)
+				.setAppenderRefs(AppenderRef.createAppenderRef("list", null, null)).build();
+		assertNotNull(appender);
+		appender.start();
+	}
+
+	private static LogEvent event(final String message, final long time) {
+		return Log4jLogEvent.createEvent("testLogger", null, null, Level.INFO, new SimpleMessage(message), null,
+				null, null, null, null, null, time);
+	}
+
+	@Test
+	public void testConfiguration() throws Exception {
+		final StripedAsyncAppender configured = (StripedAsyncAppender) ctx.getRequiredAppender("StripedAsync");
+		assertEquals(2, configured.getStripeCount());
+		final Logger logger = ctx.getLogger("testLogger");
+		logger.info("filtered");
+		logger.warn("warning");
+		configured.stop();
+
+		final List<LogEvent> events = ctx.getListAppender("List").getEvents();
+		assertEquals(1, events.size());
+		assertEquals(Level.WARN, events.get(0).getLevel());
+		assertEquals("warning", events.get(0).getMessage().getFormattedMessage());
+		assertEquals(getClass().getName(), events.get(0).getSource().getClassName());
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		start(StripedAsyncAppender.newBuilder().setStripes(4).setBufferSize(16));
+		assertEquals(4, appender.getStripeCount());
+		list.released.countDown();
+		final Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 2000; i++) {
+						appender.append(event(thread + " " + i, System.currentTimeMillis()));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		appender.stop();
+
+		assertEquals(0, appender.getDroppedCount());
+		assertEquals(16000, list.events.size());
+		final int[] counts = new int[threads.length];
+		for (final String message : list.messages()) {
+			counts[Integer.parseInt(message.split(" ")[0])]++;
+		}
+		for (final int count : counts) {
+			assertEquals(2000, count);
+		}
+	}
+
+	@Test
+	public void testBatchInTimeOrder() throws Exception {
+		start(StripedAsyncAppender.newBuilder());
+		appender.append(event("first", 1));
+		list.entered.await();
+		// Buffered while the drain thread is held up by the first event.
+		appender.append(event("c", 30));
+		appender.append(event("a", 10));
+		appender.append(event("b", 20));
+		list.released.countDown();
+		appender.stop();
+
+		assertEquals(Arrays.asList("first", "a", "b", "c"), list.messages());
+		assertTrue(list.events.get(0).isEndOfBatch());
+		assertFalse(list.events.get(1).isEndOfBatch());
+		assertTrue(list.events.get(3).isEndOfBatch());
+	}
+
+	@Test
+	public void testNonBlockingDrops() throws Exception {
+		start(StripedAsyncAppender.newBuilder().setStripes(1).setBufferSize(2).setBlocking(false));
+		appender.append(event("first", 1));
+		list.entered.await();
+		appender.append(event("second", 2));
+		appender.append(event("third", 3));
+		appender.append(event("dropped", 4));
+		assertEquals(1, appender.getDroppedCount());
+		list.released.countDown();
+		appender.stop();
+		assertEquals(Arrays.asList("first", "second", "third"), list.messages());
+	}
+
+	@Test
+	public void testCurrentCpu() {
+		if (Platform.isLinux() || Platform.isWindows()) {
+			assertTrue(CurrentCpu.isSupported());
+			final int cpu = CurrentCpu.get();
+			assertTrue(cpu >= 0 && cpu < 4096);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import java.io.File;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+/**
+ * Measures a growing number of threads logging to one NativeFileAppender,
+ * sharing its buffer and file position, against a ThreadSegmentAppender,
+ * writing a file each, and the cost of merging the files back afterwards.
+ * Pass the number of events per thread and a directory on the disk to
+ * measure.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class ThreadSegmentAppenderBenchmark {
+
+	private static final String PATTERN = "%d{ISO8601} [%t] %-5p %c{1.} - %m%n";
+
+	public static void main(String[] args) throws Exception {
+		final int operations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final File directory = new File(args.length > 1 ? args[1] : "target");
+
+		final LogEvent event = Log4jLogEvent.newBuilder()
+				.setLoggerName("org.apache.logging.core.appender.ThreadSegmentAppenderBenchmark")
+				.setLevel(Level.INFO)
+				.setMessage(new ParameterizedMessage("Processed batch {} for tenant {}", 42, "acme"))
+				.build();
+
+		for (final int threads : new int[] { 1, 4, 16, 64 }) {
+			final File file = new File(directory, "ThreadSegmentAppenderBenchmark.log");
+			final NativeFileAppender shared = NativeFileAppender.newBuilder().setName("shared")
+					.setFileName(file.getPath()).setAppend(false).setImmediateFlush(false)
+					.setLayout(PatternLayout.newBuilder().withPattern(PATTERN).build()).build();
+			measure("NativeFile", shared, threads, operations, event);
+			file.delete();
+
+			final ThreadSegmentAppender perThread = ThreadSegmentAppender.newBuilder().setName("perThread")
+					.setFileName(file.getPath()).setImmediateFlush(false)
+					.setLayout(PatternLayout.newBuilder().withPattern(PATTERN).build()).build();
+			measure("ThreadSegment", perThread, threads, operations, event);
+			final long start = System.nanoTime();
+			long records = 0;
+			final ThreadSegmentMerger merger = new ThreadSegmentMerger(ThreadSegmentManager.findRuns(file.getPath())
+					.get(Integer.valueOf(perThread.getManager().getRun())));
+			try {
+				while (merger.next() != null) {
+					records++;
+				}
+			} finally {
+				merger.close();
+			}
+			final long elapsed = System.nanoTime() - start;
+			System.out.println(String.format("%-14s %3d threads %12.0f events/s", "merge", threads,
+					records * 1e9 / elapsed));
+			for (final File files : ThreadSegmentManager.findRuns(file.getPath()).get(
+					Integer.valueOf(perThread.getManager().getRun()))) {
+				files.delete();
+			}
+		}
+	}
+
+	private static void measure(final String label, final Appender appender, final int threadCount,
+			final int operations, final LogEvent event) throws Exception {
+		appender.start();
+		final Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < operations; i++) {
+						appender.append(event);
+					}
+				}
+			};
+		}
+		final long start = System.nanoTime();
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		appender.stop();
+		final long elapsed = System.nanoTime() - start;
+		final long events = (long) threadCount * operations;
+		System.out.println(String.format("%-14s %3d threads %12.0f events/s", label, threadCount, events * 1e9
+				/ elapsed));
+	}
+}
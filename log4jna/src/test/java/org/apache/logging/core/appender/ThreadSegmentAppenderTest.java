@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.apache.logging.core.appender.LinuxFixture.UTF_8;
+import static org.apache.logging.core.appender.LinuxFixture.event;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.junit.InitialLoggerContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+/**
+ * ThreadSegmentAppender tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class ThreadSegmentAppenderTest {
+
+	private final LinuxFixture fixture = new LinuxFixture("target/ThreadSegmentAppenderTest.log");
+
+	private final InitialLoggerContext ctx = new InitialLoggerContext("ThreadSegmentAppenderTest.xml");
+
+	@Rule
+	public RuleChain rules = RuleChain.outerRule(fixture).around(ctx);
+
+	private String fileName;
+	private ThreadSegmentAppender appender;
+
+	@Before
+	public void setUp() {
+		fileName = fixture.newFile("thread", ".log").getPath();
+	}
+
+	@After
+	public void tearDown() {
+		stop();
+	}
+
+	private void start(final ThreadSegmentAppender.Builder builder) {
+		appender = LinuxFixture.start(builder.setName("thread").setFileName(fileName)
+				.setLayout(LinuxFixture.layout("%m%n")).build());
+	}
+
+	private void stop() {
+		LinuxFixture.stop(appender);
+		appender = null;
+	}
+
+	private static List<ThreadSegmentMerger.Record> merge(final String fileName, final int run) throws Exception {
+		final List<ThreadSegmentMerger.Record> records = new ArrayList<ThreadSegmentMerger.Record>();
+		final ThreadSegmentMerger merger = new ThreadSegmentMerger(ThreadSegmentManager.findRuns(fileName).get(
+				Integer.valueOf(run)));
+		try {
+			for (ThreadSegmentMerger.Record record = merger.next(); record != null; record = merger.next()) {
+				records.add(record);
+			}
+		} finally {
+			merger.close();
+		}
+		return records;
+	}
+
+	private List<ThreadSegmentMerger.Record> merge(final int run) throws Exception {
+		return merge(fileName, run);
+	}
+
+	private static List<String> lines(final List<ThreadSegmentMerger.Record> records) {
+		final List<String> lines = new ArrayList<String>();
+		for (final ThreadSegmentMerger.Record record : records) {
+			final String line = new String(record.getData(), UTF_8);
+			lines.add(line.substring(0, line.length() - 1));
+		}
+		return lines;
+	}
+
+	@Test
+	public void testConfiguration() throws Exception {
+		ctx.getRequiredAppender("ThreadSegment");
+		final Logger logger = ctx.getLogger("testLogger");
+		logger.info("filtered");
+		logger.warn("warning");
+		assertEquals(Arrays.asList("WARN warning"), lines(merge("target/ThreadSegmentAppenderTest.log", 1)));
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		start(ThreadSegmentAppender.newBuilder().setImmediateFlush(false).setBufferSize(4096));
+		final Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 5000; i++) {
+						appender.append(event(thread + " " + i));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(threads.length, appender.getManager().getWriterCount());
+		stop();
+
+		final SortedMap<Integer, List<File>> runs = ThreadSegmentManager.findRuns(fileName);
+		assertEquals(1, runs.size());
+		assertEquals(threads.length, runs.get(Integer.valueOf(1)).size());
+		final List<ThreadSegmentMerger.Record> records = merge(1);
+		assertEquals(40000, records.size());
+		final int[] next = new int[threads.length];
+		for (int i = 0; i < records.size(); i++) {
+			assertEquals(i, records.get(i).getSequence());
+			final String[] parts = lines(records.subList(i, i + 1)).get(0).split(" ");
+			assertEquals(next[Integer.parseInt(parts[0])]++, Integer.parseInt(parts[1]));
+		}
+	}
+
+	@Test
+	public void testEndedThreadsClosed() throws Exception {
+		start(ThreadSegmentAppender.newBuilder().setImmediateFlush(false));
+		for (int t = 0; t < 3; t++) {
+			final int thread = t;
+			final Thread writer = new Thread() {
+				@Override
+				public void run() {
+					appender.append(event("thread " + thread));
+				}
+			};
+			writer.start();
+			writer.join();
+			assertEquals(1, appender.getManager().getOpenWriterCount());
+		}
+		// The first two were closed, flushed, as the next threads started.
+		assertTrue(new File(ThreadSegmentManager.getThreadFileName(fileName, 1, 1)).length() > 0);
+		assertTrue(new File(ThreadSegmentManager.getThreadFileName(fileName, 1, 2)).length() > 0);
+		appender.getManager().flush();
+		assertEquals(0, appender.getManager().getOpenWriterCount());
+		assertEquals(3, appender.getManager().getWriterCount());
+		stop();
+		assertEquals(Arrays.asList("thread 0", "thread 1", "thread 2"), lines(merge(1)));
+	}
+
+	@Test
+	public void testRuns() throws Exception {
+		start(ThreadSegmentAppender.newBuilder());
+		appender.append(event("first \u00e5\u00e4\u00f6"));
+		final long time = System.currentTimeMillis();
+		stop();
+		start(ThreadSegmentAppender.newBuilder());
+		assertEquals(2, appender.getManager().getRun());
+		appender.append(event("second"));
+		stop();
+
+		final List<ThreadSegmentMerger.Record> first = merge(1);
+		assertEquals(Arrays.asList("first \u00e5\u00e4\u00f6"), lines(first));
+		assertTrue(first.get(0).getTime() <= time);
+		assertEquals(Arrays.asList("second"), lines(merge(2)));
+		assertEquals(new File(ThreadSegmentManager.getThreadFileName(fileName, 2, 1)).getAbsoluteFile(),
+				ThreadSegmentManager.findRuns(fileName).get(Integer.valueOf(2)).get(0));
+	}
+
+	@Test
+	public void testEventLargerThanBuffer() throws Exception {
+		start(ThreadSegmentAppender.newBuilder().setImmediateFlush(false).setBufferSize(64));
+		final char[] large = new char[5000];
+		Arrays.fill(large, 'x');
+		appender.append(event("small"));
+		appender.append(event(new String(large)));
+		appender.append(event("after"));
+		stop();
+		assertEquals(Arrays.asList("small", new String(large), "after"), lines(merge(1)));
+	}
+
+	@Test
+	public void testTruncatedRecord() throws Exception {
+		start(ThreadSegmentAppender.newBuilder());
+		appender.append(event("complete"));
+		appender.append(event("cut short"));
+		stop();
+		final File file = new File(ThreadSegmentManager.getThreadFileName(fileName, 1, 1));
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 3);
+		} finally {
+			raf.close();
+		}
+		final ThreadSegmentMerger merger = new ThreadSegmentMerger(Arrays.asList(file));
+		try {
+			assertEquals("complete\n", new String(merger.next().getData(), UTF_8));
+			assertNull(merger.next());
+		} finally {
+			merger.close();
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * TimeIndexReader tests.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class TimeIndexReaderTest {
+
+	private static final long T0 = 1500000000000L;
+
+	@Rule
+	public LinuxFixture fixture = new LinuxFixture();
+
+	private String fileName;
+
+	@Before
+	public void setUp() {
+		fileName = fixture.newFile("indexed", ".log").getPath();
+	}
+
+	private static LogEvent event(final int i) {
+		return Log4jLogEvent.createEvent("testLogger", null, null, Level.INFO, new SimpleMessage("event " + i),
+				null, null, Collections.<String, String> emptyMap(), ThreadContext.EMPTY_STACK, "main", null, T0
+						+ i * 1000L);
+	}
+
+	private NativeFileAppender startNativeFile(final boolean append) {
+		final NativeFileAppender appender = LinuxFixture.start(NativeFileAppender.newBuilder().setName("indexed")
+				.setFileName(fileName).setAppend(append).setImmediateFlush(false).setIndexInterval(256)
+				.setLayout(LinuxFixture.layout("%m%n")).build());
+		assertTrue(appender.getManager().isIndexed());
+		return appender;
+	}
+
+	private static String read(final List<TimeIndexReader.Range> ranges) throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final WritableByteChannel channel = Channels.newChannel(out);
+		for (final TimeIndexReader.Range range : ranges) {
+			TimeIndexReader.copy(range, channel);
+		}
+		return new String(out.toByteArray(), EncodedEvent.UTF_8);
+	}
+
+	/**
+	 * Asserts that the lines are whole events in order, covering first to
+	 * last, with at most slack more lines.
+	 */
+	private static void assertEvents(final String text, final int first, final int last, final int slack) {
+		final List<String> lines = Arrays.asList(text.split("\n"));
+		final int start = lines.indexOf("event " + first);
+		assertTrue(start >= 0);
+		for (int i = first; i <= last; i++) {
+			assertEquals("event " + i, lines.get(start + i - first));
+		}
+		for (final String line : lines) {
+			assertTrue(line, line.startsWith("event "));
+		}
+		assertTrue(lines.size() + " lines", lines.size() <= last - first + 1 + slack);
+	}
+
+	@Test
+	public void testNativeFile() throws Exception {
+		final NativeFileAppender appender = startNativeFile(false);
+		for (int i = 0; i < 10000; i++) {
+			appender.append(event(i));
+		}
+		appender.stop();
+
+		final File file = new File(fileName);
+		final TimeIndexReader.Range range = TimeIndexReader.find(file, T0 + 5000 * 1000L, T0 + 5100 * 1000L);
+		// Two entries of 256 bytes at either end, about 25 events each.
+		assertEvents(read(Collections.singletonList(range)), 5000, 5100, 4 * 30);
+		assertTrue(range.getEnd() - range.getStart() < file.length() / 20);
+
+		assertEquals(0, TimeIndexReader.find(file, T0 - 100000, T0 + 1000).getStart());
+		assertEquals(file.length(), TimeIndexReader.find(file, T0 + 9999 * 1000L, T0 + 20000 * 1000L).getEnd());
+		final TimeIndexReader.Range after = TimeIndexReader.find(file, T0 + 20000 * 1000L, T0 + 30000 * 1000L);
+		assertTrue(after.getEnd() - after.getStart() < 4 * 256);
+	}
+
+	@Test
+	public void testAppendKeepsIndex() throws Exception {
+		NativeFileAppender appender = startNativeFile(false);
+		for (int i = 0; i < 1000; i++) {
+			appender.append(event(i));
+		}
+		appender.stop();
+		appender = startNativeFile(true);
+		for (int i = 1000; i < 2000; i++) {
+			appender.append(event(i));
+		}
+		appender.stop();
+
+		final File file = new File(fileName);
+		assertEvents(read(Collections.singletonList(TimeIndexReader.find(file, T0 + 400 * 1000L,
+				T0 + 500 * 1000L))), 400, 500, 4 * 30);
+		assertEvents(read(Collections.singletonList(TimeIndexReader.find(file, T0 + 1400 * 1000L,
+				T0 + 1500 * 1000L))), 1400, 1500, 4 * 30);
+	}
+
+	@Test
+	public void testMappedSegments() throws Exception {
+		final MappedSegmentAppender appender = LinuxFixture.start(MappedSegmentAppender.newBuilder().setName("indexed")
+				.setFileName(fileName).setSegmentSize(16384).setIndexInterval(512)
+				.setLayout(LinuxFixture.layout("%m%n")).build());
+		for (int i = 0; i < 20000; i++) {
+			appender.append(event(i));
+		}
+		appender.stop();
+
+		final List<File> segments = TimeIndexReader.getFiles(fileName);
+		assertTrue(segments.size() > 10);
+		final List<TimeIndexReader.Range> ranges = TimeIndexReader.find(segments, T0 + 7000 * 1000L,
+				T0 + 9000 * 1000L);
+		assertTrue(ranges.size() < segments.size() / 4);
+		assertEvents(read(ranges), 7000, 9000, 4 * 60);
+	}
+
+	@Test
+	public void testCompressedSegments() throws Exception {
+		final MappedSegmentAppender appender = LinuxFixture.start(MappedSegmentAppender.newBuilder().setName("indexed")
+				.setFileName(fileName).setSegmentSize(1024 * 1024).setIndexInterval(512).setCompress(true)
+				.setLayout(LinuxFixture.layout("%m%n")).build());
+		for (int i = 0; i < 200000; i++) {
+			appender.append(event(i));
+		}
+		appender.stop();
+
+		final List<File> segments = TimeIndexReader.getFiles(fileName);
+		assertTrue(segments.size() > 2);
+		for (final File segment : segments) {
+			assertTrue(segment.getName(), SegmentCompressor.isCompressed(segment));
+		}
+		// Well into a segment, past its first blocks.
+		final List<TimeIndexReader.Range> ranges = TimeIndexReader.find(segments, T0 + 130000 * 1000L,
+				T0 + 131000 * 1000L);
+		assertEquals(1, ranges.size());
+		assertTrue(ranges.get(0).getStart() > SegmentCompressor.BLOCK_SIZE);
+		assertEvents(read(ranges), 130000, 131000, 4 * 60);
+		final TimeIndexReader.Range last = TimeIndexReader.find(segments.get(segments.size() - 1),
+				T0 + 199990 * 1000L, T0 + 300000 * 1000L);
+		assertTrue(read(Collections.singletonList(last)).endsWith("event 199999\n"));
+	}
+
+	@Test
+	public void testLiveSegment() throws Exception {
+		final MappedSegmentAppender appender = LinuxFixture.start(MappedSegmentAppender.newBuilder().setName("indexed")
+				.setFileName(fileName).setSegmentSize(64 * 1024).setIndexInterval(512)
+				.setLayout(LinuxFixture.layout("%m%n")).build());
+		try {
+			for (int i = 0; i < 100; i++) {
+				appender.append(event(i));
+			}
+			final List<File> segments = TimeIndexReader.getFiles(fileName);
+			assertEquals(1, segments.size());
+			assertEquals(64 * 1024, segments.get(0).length());
+			final TimeIndexReader.Range range = TimeIndexReader.find(segments.get(0), T0 + 50 * 1000L,
+					T0 + 1000 * 1000L);
+			assertTrue(range.getEnd() < 2048);
+			assertEvents(read(Collections.singletonList(range)), 50, 99, 4 * 60);
+		} finally {
+			appender.stop();
+		}
+	}
+
+	@Test
+	public void testWithoutIndex() throws Exception {
+		final NativeFileAppender appender = LinuxFixture.start(NativeFileAppender.newBuilder().setName("plain")
+				.setFileName(fileName).setLayout(LinuxFixture.layout("%m%n")).build());
+		appender.append(event(0));
+		appender.stop();
+
+		final File file = new File(fileName);
+		final TimeIndexReader.Range range = TimeIndexReader.find(file, T0 + 1000, T0 + 2000);
+		assertEquals(0, range.getStart());
+		assertEquals(file.length(), range.getEnd());
+	}
+
+	@Test
+	public void testParseTime() throws Exception {
+		assertEquals(T0, TimeIndexReader.parseTime(Long.toString(T0)));
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+		assertEquals(T0 + 123, TimeIndexReader.parseTime(format.format(T0 + 123)));
+		assertEquals(T0, TimeIndexReader.parseTime(format.format(T0).substring(0, 19)));
+	}
+}
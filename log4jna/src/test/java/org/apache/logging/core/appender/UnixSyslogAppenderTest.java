@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.apache.logging.core.appender.LinuxFixture.UTF_8;
+import static org.apache.logging.core.appender.LinuxFixture.event;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.net.Facility;
+import org.apache.logging.log4j.junit.InitialLoggerContext;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExternalResource;
+import org.junit.rules.RuleChain;
+
+import com.sun.jna.Memory;
+import com.sun.jna.NativeLong;
+
+/**
+ * UnixSyslogAppender tests, against a stand-in syslog socket.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class UnixSyslogAppenderTest {
+
+	private final LinuxFixture fixture = new LinuxFixture();
+
+	private final File socketFile = new File("target", "UnixSyslogAppenderTest.sock");
+
+	private int serverFd = -1;
+
+	private final InitialLoggerContext ctx = new InitialLoggerContext("UnixSyslogAppenderTest.xml");
+
+	// The socket is bound before the configuration connects to it.
+	@Rule
+	public RuleChain rules = RuleChain.outerRule(fixture).around(new ExternalResource() {
+		@Override
+		protected void before() {
+			serverFd = fixture.bind(socketFile);
+		}
+	}).around(ctx);
+
+	private UnixSyslogAppender appender;
+
+	@After
+	public void tearDown() {
+		LinuxFixture.stop(appender);
+	}
+
+	private UnixSyslogAppender.Builder newBuilder() {
+		return UnixSyslogAppender.newBuilder().setName("syslog").setSocketPath(socketFile.getAbsolutePath())
+				.setHostname("host").setAppName("app");
+	}
+
+	private void start(final UnixSyslogAppender.Builder builder) {
+		appender = LinuxFixture.start(builder.build());
+	}
+
+	@Test
+	public void testConfiguration() {
+		final UnixSyslogAppender configured = (UnixSyslogAppender) ctx.getRequiredAppender("UnixSyslog");
+		assertEquals(UnixSyslogManager.OverflowPolicy.DROP, configured.getManager().getOverflowPolicy());
+		assertEquals(1024, configured.getManager().getMaxMessageSize());
+		final Logger logger = ctx.getLogger("testLogger");
+		logger.info("filtered");
+		logger.warn("warning");
+
+		final String message = receive(0);
+		assertTrue(message, message.startsWith("<132>1 "));
+		assertTrue(message, message.endsWith(" host app " + LibC.INSTANCE.getpid() + " - - WARN warning"));
+		assertNull(receive(LibC.MSG_DONTWAIT));
+	}
+
+	@Test
+	public void testHeader() {
+		start(newBuilder().setFacility(Facility.LOCAL0));
+		appender.append(event(Level.WARN, "Disk almost full"));
+
+		final String message = receive(0);
+		assertTrue(message, message.matches(
+				"<132>1 \\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{3}Z host app \\d+ - - Disk almost full"));
+		assertTrue(message.contains(" app " + LibC.INSTANCE.getpid() + " "));
+	}
+
+	@Test
+	public void testBatch() {
+		start(newBuilder().setBatchSize(4).setImmediateFlush(false).setFlushInterval(0));
+		for (int i = 0; i < 3; i++) {
+			appender.append(event(Level.INFO, "message " + i));
+		}
+		assertNull(receive(LibC.MSG_DONTWAIT));
+
+		appender.append(event(Level.INFO, "message 3"));
+		for (int i = 0; i < 4; i++) {
+			assertTrue(receive(LibC.MSG_DONTWAIT).endsWith(" - - message " + i));
+		}
+
+		final Log4jLogEvent last = (Log4jLogEvent) event(Level.INFO, "end of batch");
+		last.setEndOfBatch(true);
+		appender.append(last);
+		assertTrue(receive(LibC.MSG_DONTWAIT).endsWith(" - - end of batch"));
+	}
+
+	@Test
+	public void testFlushInterval() throws Exception {
+		start(newBuilder().setBatchSize(4).setImmediateFlush(false).setFlushInterval(50));
+		appender.append(event(Level.INFO, "partial batch"));
+		// Sent by the flush thread without more messages to fill the batch.
+		String message = null;
+		for (int i = 0; i < 100 && message == null; i++) {
+			Thread.sleep(20);
+			message = receive(LibC.MSG_DONTWAIT);
+		}
+		assertNotNull(message);
+		assertTrue(message.endsWith(" - - partial batch"));
+	}
+
+	@Test
+	public void testTruncateUtf8() {
+		start(newBuilder().setMaxMessageSize(64));
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 64; i++) {
+			sb.append('\u00e5');
+		}
+		appender.append(event(Level.INFO, sb.toString()));
+
+		final byte[] bytes = receiveBytes(0);
+		assertTrue(bytes.length <= 64);
+		final String message = new String(bytes, UTF_8);
+		assertTrue(message.endsWith("\u00e5"));
+		assertEquals(bytes.length, message.getBytes(UTF_8).length);
+	}
+
+	@Test
+	public void testDropWhenFull() {
+		start(newBuilder().setOverflowPolicy(UnixSyslogManager.OverflowPolicy.DROP));
+		for (int i = 0; i < 2000; i++) {
+			appender.append(event(Level.INFO, "message " + i));
+		}
+		assertTrue(appender.getManager().getDroppedCount() > 0);
+		assertNotNull(receive(LibC.MSG_DONTWAIT));
+	}
+
+	@Test
+	public void testBlockWhenFull() throws Exception {
+		start(newBuilder().setBatchSize(16).setImmediateFlush(false));
+		final AtomicInteger received = new AtomicInteger();
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (final InterruptedException e) {
+					return;
+				}
+				while (received.get() < 2000 && receiveBytes(0) != null) {
+					received.incrementAndGet();
+				}
+			}
+		};
+		reader.start();
+		for (int i = 0; i < 2000; i++) {
+			appender.append(event(Level.INFO, "message " + i));
+		}
+		reader.join(10000);
+		assertEquals(2000, received.get());
+		assertEquals(0, appender.getManager().getDroppedCount());
+	}
+
+	private String receive(final int flags) {
+		final byte[] bytes = receiveBytes(flags);
+		return bytes == null ? null : new String(bytes, UTF_8);
+	}
+
+	private byte[] receiveBytes(final int flags) {
+		final Memory data = new Memory(65536);
+		final LibC.Iovec iovec = new LibC.Iovec();
+		iovec.iov_base = data;
+		iovec.iov_len = new NativeLong(data.size());
+		iovec.write();
+		final LibC.Msghdr msghdr = new LibC.Msghdr();
+		msghdr.msg_iov = iovec.getPointer();
+		msghdr.msg_iovlen = new NativeLong(1);
+		msghdr.write();
+		final long length = LibC.INSTANCE.recvmsg(serverFd, msghdr, flags).longValue();
+		return length < 0 ? null : data.getByteArray(0, (int) length);
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.logging.core.appender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * UserSidCache tests, using a stand-in resolver.
+ *
+ * @author <a href="mailto:henrik.karlsson@pulsen.se">Henrik Karlsson</a>
+ */
+public class UserSidCacheTest {
+
+	private static class StubResolver implements UserSidCache.Resolver<String> {
+
+		final AtomicInteger accountLookups = new AtomicInteger();
+		final AtomicInteger tokenLookups = new AtomicInteger();
+		volatile String threadUser = "S-1-5-18";
+
+		@Override
+		public String lookupAccount(String account) {
+			accountLookups.incrementAndGet();
+			if (account.startsWith("unknown")) {
+				throw new IllegalArgumentException("No mapping between account names and security IDs");
+			}
+			return "S-1-5-21-" + account;
+		}
+
+		@Override
+		public String lookupThreadToken() {
+			tokenLookups.incrementAndGet();
+			return threadUser;
+		}
+	}
+
+	private static class StubClock implements UserSidCache.Clock {
+
+		long now = 1000;
+
+		@Override
+		public long currentTimeMillis() {
+			return now;
+		}
+	}
+
+	@Test
+	public void testAccountSidIsLookedUpOnce() {
+		StubResolver resolver = new StubResolver();
+		UserSidCache<String> cache = new UserSidCache<String>(resolver, 8, 1000);
+		for (int i = 0; i < 10; i++) {
+			assertEquals("S-1-5-21-alice", cache.getAccountSid("alice"));
+		}
+		assertEquals(1, resolver.accountLookups.get());
+	}
+
+	@Test
+	public void testFailedLookupIsCached() {
+		StubResolver resolver = new StubResolver();
+		UserSidCache<String> cache = new UserSidCache<String>(resolver, 8, 1000);
+		assertNull(cache.getAccountSid("unknown"));
+		assertNull(cache.getAccountSid("unknown"));
+		assertEquals(1, resolver.accountLookups.get());
+	}
+
+	@Test
+	public void testFailedLookupExpires() {
+		StubResolver resolver = new StubResolver();
+		StubClock clock = new StubClock();
+		UserSidCache<String> cache = new UserSidCache<String>(resolver, 8, 500, 1000, clock);
+		assertNull(cache.getAccountSid("unknown"));
+		clock.now += 999;
+		assertNull(cache.getAccountSid("unknown"));
+		assertEquals(1, resolver.accountLookups.get());
+		clock.now += 1;
+		assertNull(cache.getAccountSid("unknown"));
+		assertEquals(2, resolver.accountLookups.get());
+		clock.now += 1000000;
+		cache.getAccountSid("alice");
+		clock.now += 1000000;
+		cache.getAccountSid("alice");
+		assertEquals(3, resolver.accountLookups.get());
+	}
+
+	@Test
+	public void testThreadsDoNotEvictAccounts() {
+		StubResolver resolver = new StubResolver();
+		UserSidCache<String> cache = new UserSidCache<String>(resolver, 1, 1000);
+		cache.getAccountSid("alice");
+		cache.getThreadSid();
+		assertEquals(1, cache.size());
+		cache.getAccountSid("alice");
+		assertEquals(1, resolver.accountLookups.get());
+	}
+
+	@Test
+	public void testCacheIsBounded() {
+		StubResolver resolver = new StubResolver();
+		UserSidCache<String> cache = new UserSidCache<String>(resolver, 2, 1000);
+		cache.getAccountSid("a");
+		cache.getAccountSid("b");
+		cache.getAccountSid("a");
+		cache.getAccountSid("c");
+		assertEquals(2, cache.size());
+		cache.getAccountSid("a");
+		assertEquals(3, resolver.accountLookups.get());
+		cache.getAccountSid("b");
+		assertEquals(4, resolver.accountLookups.get());
+	}
+
+	@Test
+	public void testThreadSidExpires() {
+		StubResolver resolver = new StubResolver();
+		StubClock clock = new StubClock();
+		UserSidCache<String> cache = new UserSidCache<String>(resolver, 8, 500, 1000, clock);
+		assertEquals("S-1-5-18", cache.getThreadSid());
+		resolver.threadUser = "S-1-5-21-bob";
+		clock.now += 499;
+		assertEquals("S-1-5-18", cache.getThreadSid());
+		assertEquals(1, resolver.tokenLookups.get());
+		clock.now += 1;
+		assertEquals("S-1-5-21-bob", cache.getThreadSid());
+		assertEquals(2, resolver.tokenLookups.get());
+	}
+
+	@Test
+	public void testThreadSidIsPerThread() throws Exception {
+		final StubResolver resolver = new StubResolver();
+		final UserSidCache<String> cache = new UserSidCache<String>(resolver, 8, 60000);
+		cache.getThreadSid();
+		Thread other = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				cache.getThreadSid();
+				cache.getThreadSid();
+			}
+		});
+		other.start();
+		other.join();
+		cache.getThreadSid();
+		assertEquals(2, resolver.tokenLookups.get());
+	}
+}
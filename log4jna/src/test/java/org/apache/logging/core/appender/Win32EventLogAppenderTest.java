@@ -23,6 +23,8 @@ import static org.junit.Assert.assertTrue;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
 
 import org.apache.logging.core.appender.Win32EventLogAppender;
 import org.apache.logging.log4j.Level;
@@ -100,6 +102,14 @@ public class Win32EventLogAppenderTest {
 		expectEvent(message, Level.FATAL, EventLogType.Error);
 	}
 
+	@Test
+	public void testRoutingRequiresRoutableSources() {
+		assertNull(Win32EventLogAppender.newBuilder().setName("routed").setSource("Log4jnaTest")
+				.setRouteByMarker(true).build());
+		assertEquals(new HashSet<String>(Arrays.asList("Tenant1", "Tenant2")),
+				Win32EventLogAppender.parseSources(" Tenant1, Tenant2,,"));
+	}
+
 	public void donttestRegistryValues() {
 		String eventSourceKeyPath = "SYSTEM\\CurrentControlSet\\Services\\EventLog\\Log4jnaApplicationTest\\Log4jnaTest";
 